@@ -0,0 +1,24 @@
+package com.example.account.benchmark;
+
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    // Passed as command-line args so they win over the MySQL settings in application.yml
+    static String[] datasourceArgs(String database) {
+        return new String[]{
+                "--spring.datasource.url=" + System.getProperty("bench.jdbc.url",
+                        "jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000"),
+                "--spring.datasource.driver-class-name=" + System.getProperty("bench.jdbc.driver", "org.h2.Driver"),
+                "--spring.datasource.username=" + System.getProperty("bench.jdbc.username", "sa"),
+                "--spring.datasource.password=" + System.getProperty("bench.jdbc.password", ""),
+                "--spring.jpa.show-sql=false",
+                "--spring.main.banner-mode=off",
+                "--eureka.client.enabled=false",
+                "--spring.cloud.discovery.enabled=false",
+                "--management.tracing.enabled=false",
+                "--logging.level.root=WARN"
+        };
+    }
+}
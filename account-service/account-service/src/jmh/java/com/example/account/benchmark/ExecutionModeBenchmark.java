@@ -0,0 +1,110 @@
+package com.example.account.benchmark;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offers 1000 concurrent requests to Tomcat's default 200 platform threads and to one virtual thread
+ * per request. Each request does the blocking work of a typical account-service call: a query on a
+ * 50-connection Hikari pool, a blocking remote call simulated with a sleep, then a second query.
+ * The virtual mode needs a Java 21 runtime.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ExecutionModeBenchmark {
+
+    private static final int IN_FLIGHT = 1000;
+
+    @Param({"platform", "virtual"})
+    public String mode;
+
+    @Param({"10"})
+    public long remoteCallMillis;
+
+    private HikariDataSource dataSource;
+    private AsyncTaskExecutor executor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(System.getProperty("bench.jdbc.url", "jdbc:h2:mem:execution-mode;DB_CLOSE_DELAY=-1"));
+        config.setUsername(System.getProperty("bench.jdbc.username", "sa"));
+        config.setPassword(System.getProperty("bench.jdbc.password", ""));
+        config.setMaximumPoolSize(50);
+        config.setMinimumIdle(50);
+        dataSource = new HikariDataSource(config);
+
+        if ("virtual".equals(mode)) {
+            SimpleAsyncTaskExecutor virtual = new SimpleAsyncTaskExecutor("bench-virtual-");
+            virtual.setVirtualThreads(true);
+            executor = virtual;
+        } else {
+            ThreadPoolTaskExecutor platform = new ThreadPoolTaskExecutor();
+            platform.setCorePoolSize(200);
+            platform.setMaxPoolSize(200);
+            platform.setThreadNamePrefix("bench-platform-");
+            platform.initialize();
+            executor = platform;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (executor instanceof ThreadPoolTaskExecutor platform) {
+            platform.shutdown();
+        }
+        dataSource.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IN_FLIGHT)
+    public void requests() {
+        CompletableFuture<?>[] requests = new CompletableFuture<?>[IN_FLIGHT];
+        for (int i = 0; i < IN_FLIGHT; i++) {
+            requests[i] = CompletableFuture.runAsync(this::handleRequest, executor);
+        }
+        CompletableFuture.allOf(requests).join();
+    }
+
+    private void handleRequest() {
+        try {
+            query();
+            Thread.sleep(remoteCallMillis);
+            query();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void query() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("select 1")) {
+            resultSet.next();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.account.benchmark;
+
+import com.example.account.entity.Account;
+import com.example.account.repository.AccountRepository;
+import com.example.account.service.BalanceMutationEngine;
+import com.example.account.util.TransactionType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.autoconfigure.transaction.TransactionAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deposits into a single hot account from 16 threads, through the striped engine and through the
+ * old findById/save path. Defaults to in-memory H2; point it at MySQL to see real row-lock waits:
+ * -Dbench.jdbc.url=jdbc:mysql://localhost:3306/bankapp -Dbench.jdbc.driver=com.mysql.cj.jdbc.Driver
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HotAccountBenchmark {
+
+    @Param({"true", "false"})
+    public boolean engineEnabled;
+
+    private ConfigurableApplicationContext context;
+    private BalanceMutationEngine engine;
+    private Long hotAccountId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(BenchmarkConfig.class)
+                .web(WebApplicationType.NONE)
+                .run(BenchmarkSupport.datasourceArgs("hot-account"));
+
+        AccountRepository accountRepository = context.getBean(AccountRepository.class);
+        Account account = new Account();
+        account.setName("Merchant");
+        account.setEmail("merchant-" + System.nanoTime() + "@example.com");
+        account.setPhoneNumber("0000000000");
+        account.setPassword("n/a");
+        hotAccountId = accountRepository.save(account).getId();
+
+        engine = new BalanceMutationEngine(accountRepository, context.getBean(PlatformTransactionManager.class),
+                engineEnabled, 16, 256, 1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        engine.shutdown();
+        context.close();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Account deposit() {
+        return engine.apply(hotAccountId, TransactionType.DEPOSIT, BigDecimal.ONE);
+    }
+
+    // Explicit list: the shaded benchmark jar does not merge the AutoConfiguration.imports files
+    @Configuration
+    @ImportAutoConfiguration({DataSourceAutoConfiguration.class, HibernateJpaAutoConfiguration.class,
+            TransactionAutoConfiguration.class})
+    @EntityScan(basePackageClasses = Account.class)
+    @EnableJpaRepositories(basePackageClasses = AccountRepository.class)
+    static class BenchmarkConfig {
+    }
+}
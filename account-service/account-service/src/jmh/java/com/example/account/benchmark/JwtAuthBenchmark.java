@@ -0,0 +1,60 @@
+package com.example.account.benchmark;
+
+import com.example.account.util.JwtUtil;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token work done by JwtAuthenticationFilter for one authenticated request: the old path parsed the
+ * token three times and rebuilt the key and parser on each parse; the new path verifies once per
+ * token and answers the remaining lookups from the verified-claims cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JwtAuthBenchmark {
+
+    private static final String SECRET =
+            "s2o8BcRxJoWo59Da6+Zmiq/eKFTGQ8lSnAXudW3ACCS7DnxFKoyfEZAeJw3YuQ9Tw7MBAn5JThJlcC/MBahhdg==";
+
+    private JwtUtil jwtUtil;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        jwtUtil = new JwtUtil(SECRET, 3600L, 100_000);
+        token = jwtUtil.generateToken("bench@example.com");
+    }
+
+    @Benchmark
+    public boolean perRequestBefore() {
+        String username = legacyClaims(token).getSubject();
+        return legacyClaims(token).getSubject().equals(username)
+                && !legacyClaims(token).getExpiration().before(new Date());
+    }
+
+    @Benchmark
+    public boolean perRequestAfter() {
+        String username = jwtUtil.getUsernameFromToken(token);
+        return jwtUtil.validateToken(token, username);
+    }
+
+    private static Claims legacyClaims(String token) {
+        return Jwts.parserBuilder()
+                .setSigningKey(Keys.hmacShaKeyFor(SECRET.getBytes()))
+                .build()
+                .parseClaimsJws(token)
+                .getBody();
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.account.cache;
+
+import com.example.account.util.JwtUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.client.serviceregistry.Registration;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Read-through cache of account balances. Writes evict the local entry once their transaction has
+ * committed and queue an eviction for every other account-service instance in Eureka; queued
+ * evictions are coalesced and sent in one request per peer every broadcast interval, authenticated
+ * with a service token. Writes never put their own result: two writers can commit in one order and
+ * reach the cache in the other, which would leave the older balance cached for a whole TTL.
+ */
+@Component
+public class BalanceCache {
+
+    private static final Log logger = LogFactory.getLog(BalanceCache.class);
+
+    static final String EVICT_PATH = "/api/v1/account/cache/evict";
+    public static final int MAX_IDS_PER_REQUEST = 1000;
+
+    private final Cache<Long, BigDecimal> cache;
+    private final DiscoveryClient discoveryClient;
+    private final ObjectProvider<Registration> registration;
+    private final String serviceId;
+    private final JwtUtil jwtUtil;
+    // Peers are addressed directly, so this must not be the @LoadBalanced builder
+    private final WebClient peerClient = WebClient.create();
+    private final Set<Long> pendingPeerEvictions = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService broadcaster;
+    private final Counter evictionsSent;
+    private final Counter evictionsReceived;
+
+    public BalanceCache(MeterRegistry meterRegistry, DiscoveryClient discoveryClient,
+                        ObjectProvider<Registration> registration, JwtUtil jwtUtil,
+                        @Value("${spring.application.name}") String serviceId,
+                        @Value("${account.balance-cache.maximum-size:100000}") long maximumSize,
+                        @Value("${account.balance-cache.ttl:30s}") Duration ttl,
+                        @Value("${account.balance-cache.broadcast-interval:50ms}") Duration broadcastInterval) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        this.discoveryClient = discoveryClient;
+        this.registration = registration;
+        this.serviceId = serviceId;
+        this.jwtUtil = jwtUtil;
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "account.balance");
+        this.evictionsSent = Counter.builder("account.balance.cache.peer.evictions")
+                .tag("direction", "sent").register(meterRegistry);
+        this.evictionsReceived = Counter.builder("account.balance.cache.peer.evictions")
+                .tag("direction", "received").register(meterRegistry);
+        this.broadcaster = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "balance-cache-broadcast");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = broadcastInterval.toMillis();
+        broadcaster.scheduleWithFixedDelay(this::flushPeerEvictions, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public BigDecimal get(Long accountId, Function<Long, BigDecimal> loader) {
+        return cache.get(accountId, loader);
+    }
+
+    public void evict(Long accountId) {
+        afterCommit(() -> {
+            cache.invalidate(accountId);
+            pendingPeerEvictions.add(accountId);
+        });
+    }
+
+    // Called for evictions broadcast by other instances; never re-broadcast
+    public void evictLocal(Collection<Long> accountIds) {
+        cache.invalidateAll(accountIds);
+        evictionsReceived.increment(accountIds.size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        broadcaster.shutdownNow();
+    }
+
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private void flushPeerEvictions() {
+        if (pendingPeerEvictions.isEmpty()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>();
+        for (Iterator<Long> it = pendingPeerEvictions.iterator(); it.hasNext(); ) {
+            ids.add(it.next());
+            it.remove();
+        }
+        try {
+            Registration self = registration.getIfAvailable();
+            String token = jwtUtil.generateServiceToken(serviceId);
+            for (ServiceInstance peer : discoveryClient.getInstances(serviceId)) {
+                if (self != null && peer.getInstanceId() != null && peer.getInstanceId().equals(self.getInstanceId())) {
+                    continue;
+                }
+                for (int from = 0; from < ids.size(); from += MAX_IDS_PER_REQUEST) {
+                    List<Long> chunk = ids.subList(from, Math.min(ids.size(), from + MAX_IDS_PER_REQUEST));
+                    peerClient.post()
+                            .uri(peer.getUri() + EVICT_PATH)
+                            .headers(headers -> headers.setBearerAuth(token))
+                            .bodyValue(chunk)
+                            .retrieve()
+                            .toBodilessEntity()
+                            .subscribe(ok -> evictionsSent.increment(chunk.size()),
+                                    e -> logger.info("Balance eviction to " + peer.getUri() + " failed: " + e.getMessage()));
+                }
+            }
+        } catch (RuntimeException e) {
+            // Peers fall back to the TTL; never let the scheduled task die
+            logger.info("Balance eviction broadcast failed: " + e.getMessage());
+        }
+    }
+}
@@ -2,8 +2,10 @@ package com.example.account.config;
 
 import com.example.account.filter.JwtAuthenticationFilter;
 import com.example.account.service.CustomUserDetailsService;
+import com.example.account.util.JwtUtil;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.config.annotation.authentication.configuration.AuthenticationConfiguration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
@@ -39,6 +41,8 @@ public class SecurityConfig {
         http.csrf(AbstractHttpConfigurer::disable)
                 .authorizeHttpRequests(auth -> auth
                         .requestMatchers("/api/v1/auth/**").permitAll()
+                        // Peer-to-peer cache evictions carry a service token, never a user's
+                        .requestMatchers(HttpMethod.POST, "/api/v1/account/cache/evict").hasAuthority(JwtUtil.ROLE_SERVICE)
                         .anyRequest().authenticated())
                 .sessionManagement(session -> session
                         .sessionCreationPolicy(SessionCreationPolicy.STATELESS))
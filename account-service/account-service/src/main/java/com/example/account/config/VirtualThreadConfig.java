@@ -0,0 +1,56 @@
+package com.example.account.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.time.Duration;
+
+/**
+ * Applies only when request handling runs on virtual threads, i.e. spring.threads.virtual.enabled
+ * on a Java 21 runtime. Spring Boot itself moves Tomcat, @Async and scheduling onto virtual
+ * threads; this adds the matching connection pool policy and pinning diagnostics.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnThreading(Threading.VIRTUAL)
+public class VirtualThreadConfig {
+
+    private static final Log logger = LogFactory.getLog(VirtualThreadConfig.class);
+
+    // Request concurrency is no longer capped by Tomcat's 200 threads, so the pool becomes the
+    // limiter: keep it at a fixed size the database can serve, and make waiters fail fast instead
+    // of thousands of virtual threads queueing for the default 30 seconds
+    @Bean
+    static BeanPostProcessor virtualThreadHikariPolicy(Environment environment) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof HikariDataSource dataSource) {
+                    int maximumPoolSize = environment.getProperty("account.virtual-threads.hikari.maximum-pool-size",
+                            Integer.class, dataSource.getMaximumPoolSize());
+                    Duration connectionTimeout = environment.getProperty("account.virtual-threads.hikari.connection-timeout",
+                            Duration.class, Duration.ofSeconds(2));
+                    dataSource.setMaximumPoolSize(maximumPoolSize);
+                    dataSource.setMinimumIdle(maximumPoolSize);
+                    dataSource.setConnectionTimeout(connectionTimeout.toMillis());
+                    logger.info("Virtual threads enabled: Hikari pool fixed at " + maximumPoolSize
+                            + " connections, connection timeout " + connectionTimeout.toMillis() + "ms");
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Bean
+    VirtualThreadPinningMonitor virtualThreadPinningMonitor(MeterRegistry meterRegistry, Environment environment) {
+        return new VirtualThreadPinningMonitor(meterRegistry,
+                environment.getProperty("account.virtual-threads.pinning-threshold", Duration.class, Duration.ofMillis(20)));
+    }
+}
@@ -1,11 +1,19 @@
 package com.example.account.config;
 
+import com.example.account.util.AdaptiveConcurrencyLimiter;
+import com.example.account.util.InstanceLoadStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
+import org.springframework.cloud.loadbalancer.annotation.LoadBalancerClients;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.reactive.function.client.WebClient;
 
+import java.time.Duration;
+
 @Configuration
+@LoadBalancerClients(defaultConfiguration = LatencyAwareLoadBalancerConfiguration.class)
 public class WebClientConfig {
 
     @Bean
@@ -13,4 +21,35 @@ public class WebClientConfig {
     public WebClient.Builder webClientBuilder() {
         return WebClient.builder();
     }
-}
\ No newline at end of file
+
+    // Publishes client.concurrency.{limit,inflight,queued,rejected} tagged client=notification-service
+    @Bean
+    public AdaptiveConcurrencyLimiter notificationServiceLimiter(
+            MeterRegistry meterRegistry,
+            @Value("${account.notification-client.limiter.initial-limit:10}") int initialLimit,
+            @Value("${account.notification-client.limiter.min-limit:2}") int minLimit,
+            @Value("${account.notification-client.limiter.max-limit:100}") int maxLimit,
+            @Value("${account.notification-client.limiter.backoff-ratio:0.9}") double backoffRatio,
+            @Value("${account.notification-client.limiter.latency-threshold:2s}") Duration latencyThreshold,
+            @Value("${account.notification-client.limiter.max-queue:200}") int maxQueue,
+            @Value("${account.notification-client.limiter.max-wait:2s}") Duration maxWait) {
+        return new AdaptiveConcurrencyLimiter("notification-service", meterRegistry, initialLimit, minLimit, maxLimit,
+                backoffRatio, latencyThreshold, maxQueue, maxWait);
+    }
+
+    // Shared by every lb:// client; publishes loadbalancer.instance.{inflight,latency,ejected} and
+    // loadbalancer.ejections tagged instance=host:port
+    @Bean
+    public InstanceLoadStats instanceLoadStats(
+            MeterRegistry meterRegistry,
+            @Value("${account.load-balancer.initial-latency:50ms}") Duration initialLatency,
+            @Value("${account.load-balancer.decay:10s}") Duration decay,
+            @Value("${account.load-balancer.consecutive-failures:5}") int consecutiveFailures,
+            @Value("${account.load-balancer.latency-outlier-factor:5}") double latencyOutlierFactor,
+            @Value("${account.load-balancer.latency-outlier-min:500ms}") Duration latencyOutlierMin,
+            @Value("${account.load-balancer.base-ejection-time:30s}") Duration baseEjectionTime,
+            @Value("${account.load-balancer.max-ejection-multiplier:10}") int maxEjectionMultiplier) {
+        return new InstanceLoadStats(meterRegistry, initialLatency, decay, consecutiveFailures, latencyOutlierFactor,
+                latencyOutlierMin, baseEjectionTime, maxEjectionMultiplier);
+    }
+}
@@ -1,6 +1,10 @@
 package com.example.account.controller;
 
 import com.example.account.entity.Account;
+import com.example.account.request.BalanceOperationRequest;
+import com.example.account.request.PrepareRequest;
+import com.example.account.request.TransferRequest;
+import com.example.account.response.BalanceOperationResult;
 import com.example.account.service.AccountService;
 import com.example.account.util.JwtUtil;
 import jakarta.validation.Valid;
@@ -11,6 +15,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.math.BigDecimal;
+import java.util.List;
 
 @RestController
 @RequestMapping("/api/v1/account")
@@ -43,11 +48,23 @@ public class AccountController {
         return accountService.withdraw(id, amount);
     }
 
+    @PostMapping("/batch")
+    public List<BalanceOperationResult> applyBatch(@RequestBody List<BalanceOperationRequest> operations) {
+        return accountService.applyBatch(operations);
+    }
+
     @GetMapping("/balance/{id}")
     public BigDecimal checkBalance(@PathVariable Long id) {
         return accountService.checkBalance(id);
     }
 
+    // Always 200; the body is COMMITTED, REJECTED or NOT_LOCAL
+    @PostMapping("/transfer")
+    public ResponseEntity<String> transfer(@RequestBody TransferRequest transferRequest) {
+        return ResponseEntity.ok(accountService.transfer(transferRequest.getFromAccountId(),
+                transferRequest.getToAccountId(), transferRequest.getAmount()).name());
+    }
+
     @GetMapping("/validateToken")
     public ResponseEntity<Boolean> validateToken() {
         return ResponseEntity.ok(Boolean.TRUE);
@@ -59,6 +76,24 @@ public class AccountController {
         return canCommit ? ResponseEntity.ok("PREPARED") : ResponseEntity.status(HttpStatus.BAD_REQUEST).body("ABORT");
     }
 
+    // Batch variants of the two-phase endpoints; the prepare returns PREPARED or ABORT per leg, in order
+    @PostMapping("/prepare/batch")
+    public List<String> prepareBatch(@RequestBody List<PrepareRequest> requests) {
+        return accountService.prepareBatch(requests);
+    }
+
+    @PostMapping("/commit/batch")
+    public ResponseEntity<Void> commitBatch(@RequestBody List<Long> transactionIds) {
+        accountService.commitBatch(transactionIds);
+        return ResponseEntity.ok().build();
+    }
+
+    @PostMapping("/rollback/batch")
+    public ResponseEntity<Void> rollbackBatch(@RequestBody List<Long> transactionIds) {
+        accountService.rollbackBatch(transactionIds);
+        return ResponseEntity.ok().build();
+    }
+
     @PostMapping("/commit/withdraw/{transactionId}")
     public ResponseEntity<Void> commitWithdraw(@PathVariable Long transactionId) {
         accountService.commitTransaction(transactionId);
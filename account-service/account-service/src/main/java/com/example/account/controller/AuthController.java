@@ -3,15 +3,21 @@ package com.example.account.controller;
 
 import com.example.account.entity.Account;
 import com.example.account.service.AccountService;
+import com.example.account.service.TokenRevocations;
 import com.example.account.util.JwtUtil;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -34,19 +40,39 @@ public class AuthController {
     @Autowired
     private PasswordEncoder passwordEncoder;
 
+    @Autowired
+    private TokenRevocations tokenRevocations;
+
     @PostMapping("/login")
     public Map<String, String> login(@RequestBody Account account) {
         Authentication authentication = authenticationManager.authenticate(
                 new UsernamePasswordAuthenticationToken(account.getEmail(), account.getPassword()));
 
         SecurityContextHolder.getContext().setAuthentication(authentication);
-        String jwt = jwtUtil.generateToken(account.getEmail());
+        String jwt = jwtUtil.generateToken(account.getEmail(),
+                accountService.findAccountIdByEmail(account.getEmail()),
+                authentication.getAuthorities().stream().map(GrantedAuthority::getAuthority).toList());
 
         Map<String, String> response = new HashMap<>();
         response.put("token", jwt);
         return response;
     }
 
+    // A missing, expired or invalid token has nothing left to revoke, so the logout still succeeds
+    @PostMapping("/logout")
+    public ResponseEntity<Void> logout(@RequestHeader(value = "Authorization", required = false) String authorizationHeader) {
+        if (authorizationHeader != null && authorizationHeader.startsWith("Bearer ")) {
+            Claims claims;
+            try {
+                claims = jwtUtil.getAllClaimsFromToken(authorizationHeader.substring(7));
+            } catch (JwtException | IllegalArgumentException e) {
+                return ResponseEntity.noContent().build();
+            }
+            tokenRevocations.revoke(claims);
+        }
+        return ResponseEntity.noContent().build();
+    }
+
     @PostMapping("/register")
     public Account register(@RequestBody Account account) {
         account.setPassword(passwordEncoder.encode(account.getPassword()));
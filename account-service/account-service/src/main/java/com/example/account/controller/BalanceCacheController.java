@@ -0,0 +1,32 @@
+package com.example.account.controller;
+
+import com.example.account.cache.BalanceCache;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+// Receives balance evictions broadcast by the other account-service instances
+@RestController
+@RequestMapping("/api/v1/account/cache")
+public class BalanceCacheController {
+
+    private final BalanceCache balanceCache;
+
+    public BalanceCacheController(BalanceCache balanceCache) {
+        this.balanceCache = balanceCache;
+    }
+
+    @PostMapping("/evict")
+    public ResponseEntity<Void> evict(@RequestBody List<Long> accountIds) {
+        // Peers send at most this many per request
+        if (accountIds.size() > BalanceCache.MAX_IDS_PER_REQUEST) {
+            return ResponseEntity.badRequest().build();
+        }
+        balanceCache.evictLocal(accountIds);
+        return ResponseEntity.ok().build();
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.account.entity;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+// Credits to a hot account waiting to be folded into Account.balance; the account's balance is
+// Account.balance plus the sum of its slots
+@Entity
+@IdClass(AccountBalanceSlot.Key.class)
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class AccountBalanceSlot {
+
+    @Id
+    private Long accountId;
+    @Id
+    private Integer slot;
+    private BigDecimal balance;
+
+    @Getter
+    @Setter
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Key implements Serializable {
+        private Long accountId;
+        private Integer slot;
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.account.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.Instant;
+
+// Written by NotificationOutboxRepository in the same transaction as the balance change it reports
+@Entity
+@Table(name = "notification_outbox", indexes = @Index(name = "idx_outbox_due", columnList = "status, nextAttemptAt"))
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class NotificationOutbox {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    private String recipient;
+    private String subject;
+    private String text;
+    private String status; // 'PENDING', 'IN_FLIGHT', 'FAILED'
+    private int attempts;
+    private Instant createdAt;
+    private Instant nextAttemptAt;
+    @Column(length = 1000)
+    private String lastError;
+    // Set by each claim and checked when its outcome is recorded
+    private String leaseOwner;
+}
@@ -3,14 +3,19 @@ package com.example.account.entity;
 import com.example.account.util.TransactionType;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
 import java.math.BigDecimal;
+import java.time.Instant;
 
 @Entity
+// Batch prepares sum an account's pending withdrawals
+@Table(indexes = @Index(name = "idx_pending_account_status", columnList = "accountId, status"))
 @Getter
 @Setter
 @AllArgsConstructor
@@ -23,5 +28,10 @@ public class PendingTransaction {
     private BigDecimal amount;
     private TransactionType type;
     private String status; // 'PENDING', 'COMMITTED', 'ABORTED'
+    // When the prepare or the tombstone was written; tombstones are swept by it
+    private Instant createdAt;
 
+    public PendingTransaction(Long transactionId, Long accountId, BigDecimal amount, TransactionType type, String status) {
+        this(transactionId, accountId, amount, type, status, null);
+    }
 }
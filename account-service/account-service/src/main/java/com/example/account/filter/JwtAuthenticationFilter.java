@@ -1,47 +1,58 @@
 package com.example.account.filter;
 
 import com.example.account.service.CustomUserDetailsService;
+import com.example.account.service.TokenDenyList;
 import com.example.account.util.JwtUtil;
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
+import java.util.List;
 
 @Component
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
     private final JwtUtil jwtUtil;
     private final CustomUserDetailsService userDetailsService;
+    private final TokenDenyList tokenDenyList;
+    private final boolean claimsOnlyAuth;
 
-    public JwtAuthenticationFilter(JwtUtil jwtUtil, CustomUserDetailsService userDetailsService) {
+    public JwtAuthenticationFilter(JwtUtil jwtUtil, CustomUserDetailsService userDetailsService,
+                                   TokenDenyList tokenDenyList,
+                                   @Value("${jwt.claims-only-auth:true}") boolean claimsOnlyAuth) {
         this.jwtUtil = jwtUtil;
         this.userDetailsService = userDetailsService;
+        this.tokenDenyList = tokenDenyList;
+        this.claimsOnlyAuth = claimsOnlyAuth;
     }
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
         final String authorizationHeader = request.getHeader("Authorization");
 
-        String username = null;
-        String jwt = null;
+        if (authorizationHeader != null && authorizationHeader.startsWith("Bearer ")
+                && SecurityContextHolder.getContext().getAuthentication() == null) {
+            // Verified (or found in the claims cache) once; every check below reads these claims
+            Claims claims = jwtUtil.getAllClaimsFromToken(authorizationHeader.substring(7));
+            String username = claims.getSubject();
 
-        if (authorizationHeader != null && authorizationHeader.startsWith("Bearer ")) {
-            jwt = authorizationHeader.substring(7);
-            username = jwtUtil.getUsernameFromToken(jwt);
-        }
-
-        if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-            UserDetails userDetails = userDetailsService.loadUserByUsername(username);
-
-            if (jwtUtil.validateToken(jwt, userDetails.getUsername())) {
+            if (username != null && !tokenDenyList.isRevoked(claims) && !JwtUtil.isExpired(claims)) {
+                // Service tokens name no account, so they are never looked up
+                UserDetails userDetails = claimsOnlyAuth || JwtUtil.isServiceToken(claims) ? userFromClaims(claims) : null;
+                if (userDetails == null) {
+                    userDetails = userDetailsService.loadUserByUsername(username);
+                }
                 UsernamePasswordAuthenticationToken usernamePasswordAuthenticationToken = new UsernamePasswordAuthenticationToken(
                         userDetails, null, userDetails.getAuthorities());
                 usernamePasswordAuthenticationToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
@@ -51,4 +62,16 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
         filterChain.doFilter(request, response);
     }
+
+    // Tokens issued before roles were embedded return null and go through the account lookup
+    private UserDetails userFromClaims(Claims claims) {
+        List<?> roles = claims.get(JwtUtil.CLAIM_ROLES, List.class);
+        if (roles == null) {
+            return null;
+        }
+        return User.withUsername(claims.getSubject())
+                .password("")
+                .authorities(roles.stream().map(String::valueOf).toArray(String[]::new))
+                .build();
+    }
 }
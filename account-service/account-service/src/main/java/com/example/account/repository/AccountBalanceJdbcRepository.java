@@ -0,0 +1,108 @@
+package com.example.account.repository;
+
+import com.example.account.entity.Account;
+import com.example.account.request.BalanceOperationRequest;
+import com.example.account.util.TransactionType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Repository
+public class AccountBalanceJdbcRepository {
+
+    // One statement shape for both directions, so a whole batch goes out as a single JDBC batch
+    // and operations on the same account are applied in request order. The guard counts a hot
+    // account's unfolded slot credits, so its row balance may go negative while the slots cover it,
+    // and holds back the withdrawals prepared on the account, whose commits must never be refused.
+    // Credits pass unguarded. A committing withdrawal is marked COMMITTED before its delta is applied,
+    // so it does not count against itself
+    private static final String APPLY_DELTA_SQL =
+            "update account set balance = balance + ? where id = ? and (? >= 0 or balance + ? + "
+                    + "(select coalesce(sum(s.balance), 0) from account_balance_slot s where s.account_id = account.id) - "
+                    + "(select coalesce(sum(p.amount), 0) from pending_transaction p where p.account_id = account.id "
+                    + "and p.status = 'PENDING' and p.type = " + TransactionType.WITHDRAW.ordinal() + ") >= 0)";
+
+    // InnoDB locks the rows in index order, so every transfer takes its two row locks in ascending id
+    // order and two opposite transfers between the same accounts cannot deadlock
+    private static final String LOCK_PAIR_SQL =
+            "select id, email from account where id in (?, ?) order by id for update";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int batchSize;
+
+    public AccountBalanceJdbcRepository(JdbcTemplate jdbcTemplate,
+                                        @Value("${account.batch.jdbc-batch-size:500}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = batchSize;
+    }
+
+    // Returns one update count per operation, in order; 0 means the account would have gone negative
+    // or dipped into funds reserved by prepared withdrawals
+    public int[] applyAll(List<BalanceOperationRequest> operations) {
+        int[][] chunks = jdbcTemplate.batchUpdate(APPLY_DELTA_SQL, operations, batchSize, (ps, operation) -> {
+            BigDecimal delta = operation.getType() == TransactionType.DEPOSIT
+                    ? operation.getAmount()
+                    : operation.getAmount().negate();
+            ps.setBigDecimal(1, delta);
+            ps.setLong(2, operation.getAccountId());
+            ps.setBigDecimal(3, delta);
+            ps.setBigDecimal(4, delta);
+        });
+        int[] counts = new int[operations.size()];
+        int i = 0;
+        for (int[] chunk : chunks) {
+            for (int count : chunk) {
+                counts[i++] = count;
+            }
+        }
+        return counts;
+    }
+
+    // Returns 0 when the account does not exist or the delta would take it below its prepared withdrawals
+    public int applyDelta(Long accountId, BigDecimal delta) {
+        return jdbcTemplate.update(APPLY_DELTA_SQL, delta, accountId, delta, delta);
+    }
+
+    // Locks both rows for the rest of the transaction; returns the email of each account found
+    public Map<Long, String> lockPair(Long firstAccountId, Long secondAccountId) {
+        Map<Long, String> emails = new LinkedHashMap<>();
+        jdbcTemplate.query(LOCK_PAIR_SQL, rs -> {
+            emails.put(rs.getLong("id"), rs.getString("email"));
+        }, firstAccountId, secondAccountId);
+        return emails;
+    }
+
+    // Same ascending-id lock order as lockPair; returns id, email and balance (slots included) of each account found
+    public Map<Long, Account> lockAll(Collection<Long> accountIds) {
+        Map<Long, Account> accounts = new LinkedHashMap<>();
+        new NamedParameterJdbcTemplate(jdbcTemplate).query(
+                "select a.id, a.email, a.balance + (select coalesce(sum(s.balance), 0) from account_balance_slot s "
+                        + "where s.account_id = a.id) as balance from account a where a.id in (:ids) order by a.id for update",
+                new MapSqlParameterSource("ids", accountIds), rs -> {
+                    Account account = new Account();
+                    account.setId(rs.getLong("id"));
+                    account.setEmail(rs.getString("email"));
+                    account.setBalance(rs.getBigDecimal("balance"));
+                    accounts.put(account.getId(), account);
+                });
+        return accounts;
+    }
+
+    // One guarded update per account, as a single JDBC batch; same result contract as applyAll
+    public int[] applyDeltas(Map<Long, BigDecimal> deltas) {
+        List<BalanceOperationRequest> operations = new ArrayList<>();
+        deltas.forEach((accountId, delta) -> operations.add(delta.signum() >= 0
+                ? new BalanceOperationRequest(accountId, TransactionType.DEPOSIT, delta)
+                : new BalanceOperationRequest(accountId, TransactionType.WITHDRAW, delta.negate())));
+        return applyAll(operations);
+    }
+}
@@ -2,9 +2,32 @@ package com.example.account.repository;
 
 import com.example.account.entity.Account;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.math.BigDecimal;
 import java.util.Optional;
 
 public interface AccountRepository extends JpaRepository<Account, Long> {
     Optional<Account> findByEmail(String email);
+
+    @Query("select a.id from Account a where a.email = :email")
+    Optional<Long> findIdByEmail(@Param("email") String email);
+
+    @Query("select a.balance from Account a where a.id = :id")
+    Optional<BigDecimal> findBalanceById(@Param("id") Long id);
+
+    // Withdrawals prepared on the account that are neither committed nor rolled back yet
+    @Query("select coalesce(sum(p.amount), 0) from PendingTransaction p where p.accountId = :id "
+            + "and p.status = 'PENDING' and p.type = com.example.account.util.TransactionType.WITHDRAW")
+    BigDecimal sumPendingWithdrawals(@Param("id") Long id);
+
+    // Conditional write: only succeeds if nobody changed the balance since it was read, and a lower
+    // balance still covers the prepared withdrawals, which may have grown since the read
+    @Modifying
+    @Query("update Account a set a.balance = :balance where a.id = :id and a.balance = :expected "
+            + "and (:balance >= :expected or :balance >= (select coalesce(sum(p.amount), 0) from PendingTransaction p "
+            + "where p.accountId = a.id and p.status = 'PENDING' and p.type = com.example.account.util.TransactionType.WITHDRAW))")
+    int compareAndSetBalance(@Param("id") Long id, @Param("expected") BigDecimal expected, @Param("balance") BigDecimal balance);
 }
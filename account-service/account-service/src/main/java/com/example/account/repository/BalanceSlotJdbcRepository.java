@@ -0,0 +1,64 @@
+package com.example.account.repository;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Optional;
+
+// Sub-balance slots of hot accounts; see AccountBalanceSlot
+@Repository
+public class BalanceSlotJdbcRepository {
+
+    private static final String CREDIT_SQL =
+            "update account_balance_slot set balance = balance + ? where account_id = ? and slot = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public BalanceSlotJdbcRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    // Locks only the slot row, so credits to other slots of the account run alongside
+    public void credit(Long accountId, int slot, BigDecimal amount) {
+        if (jdbcTemplate.update(CREDIT_SQL, amount, accountId, slot) == 1) {
+            return;
+        }
+        try {
+            jdbcTemplate.update("insert into account_balance_slot (account_id, slot, balance) values (?, ?, ?)",
+                    accountId, slot, amount);
+        } catch (DuplicateKeyException e) {
+            // Another credit created the slot first
+            jdbcTemplate.update(CREDIT_SQL, amount, accountId, slot);
+        }
+    }
+
+    // Account row plus slots, read in one statement so a concurrent fold is never half counted
+    public Optional<BigDecimal> balanceOf(Long accountId) {
+        return jdbcTemplate.queryForList("select a.balance + (select coalesce(sum(s.balance), 0) from account_balance_slot s "
+                + "where s.account_id = a.id) from account a where a.id = ?", BigDecimal.class, accountId).stream().findFirst();
+    }
+
+    public List<Long> accountsWithCredits() {
+        return jdbcTemplate.queryForList("select distinct account_id from account_balance_slot where balance <> 0", Long.class);
+    }
+
+    // Moves every slot's balance into the account row. Locks the account row before the slots, the
+    // same order as the guarded debits in AccountBalanceJdbcRepository; returns the amount moved
+    public BigDecimal fold(Long accountId) {
+        List<Long> locked = jdbcTemplate.queryForList("select id from account where id = ? for update", Long.class, accountId);
+        if (locked.isEmpty()) {
+            return BigDecimal.ZERO;
+        }
+        List<BigDecimal> balances = jdbcTemplate.queryForList(
+                "select balance from account_balance_slot where account_id = ? for update", BigDecimal.class, accountId);
+        BigDecimal total = balances.stream().reduce(BigDecimal.ZERO, BigDecimal::add);
+        if (total.signum() != 0) {
+            jdbcTemplate.update("update account_balance_slot set balance = 0 where account_id = ?", accountId);
+            jdbcTemplate.update("update account set balance = balance + ? where id = ?", total, accountId);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.account.repository;
+
+import com.example.account.entity.NotificationOutbox;
+import com.example.account.service.NotificationServiceClient.NotificationRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Repository
+public class NotificationOutboxRepository {
+
+    public static final String PENDING = "PENDING";
+    public static final String IN_FLIGHT = "IN_FLIGHT";
+    public static final String FAILED = "FAILED";
+
+    private static final String INSERT_SQL =
+            "insert into notification_outbox (recipient, subject, text, status, attempts, created_at, next_attempt_at) "
+                    + "values (?, ?, ?, 'PENDING', 0, ?, ?)";
+
+    // An IN_FLIGHT row whose lease has run out belongs to a dispatcher that died mid-send
+    private static final String SELECT_DUE_SQL =
+            "select * from notification_outbox where status in ('PENDING', 'IN_FLIGHT') and next_attempt_at <= ? "
+                    + "and attempts < ? order by id limit ? for update skip locked";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final int batchSize;
+
+    public NotificationOutboxRepository(JdbcTemplate jdbcTemplate,
+                                        @Value("${account.batch.jdbc-batch-size:500}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.batchSize = batchSize;
+    }
+
+    public void insert(String recipient, String subject, String text) {
+        insertAll(List.of(new NotificationRequest(recipient, subject, text)));
+    }
+
+    public void insertAll(List<NotificationRequest> notifications) {
+        Timestamp now = Timestamp.from(Instant.now());
+        jdbcTemplate.batchUpdate(INSERT_SQL, notifications, batchSize, (ps, notification) -> {
+            ps.setString(1, notification.getTo());
+            ps.setString(2, notification.getSubject());
+            ps.setString(3, notification.getText());
+            ps.setTimestamp(4, now);
+            ps.setTimestamp(5, now);
+        });
+    }
+
+    // Must run inside a transaction: the selected rows stay locked until they are leased. leaseOwner
+    // must be unique per claim; the outcome of a send is only recorded while the claim still holds it.
+    // Every claim counts as an attempt, so a row whose sends crash or hang the dispatcher still runs
+    // out of attempts; the returned rows carry the count including this one
+    public List<NotificationOutbox> claimDue(int limit, int maxAttempts, Instant leaseUntil, String leaseOwner) {
+        List<NotificationOutbox> due = jdbcTemplate.query(SELECT_DUE_SQL, this::mapRow, Timestamp.from(Instant.now()), maxAttempts, limit);
+        if (!due.isEmpty()) {
+            namedJdbcTemplate.update("update notification_outbox set status = 'IN_FLIGHT', attempts = attempts + 1, "
+                            + "next_attempt_at = :leaseUntil, lease_owner = :leaseOwner where id in (:ids)",
+                    new MapSqlParameterSource()
+                            .addValue("leaseUntil", Timestamp.from(leaseUntil))
+                            .addValue("leaseOwner", leaseOwner)
+                            .addValue("ids", due.stream().map(NotificationOutbox::getId).toList()));
+            due.forEach(entry -> entry.setAttempts(entry.getAttempts() + 1));
+        }
+        return due;
+    }
+
+    // Parks the rows whose lease ran out on their last attempt, which claimDue no longer picks up; returns how many
+    public int failAbandoned(int maxAttempts) {
+        return jdbcTemplate.update("update notification_outbox set status = 'FAILED', last_error = ?, lease_owner = null "
+                        + "where status = 'IN_FLIGHT' and next_attempt_at <= ? and attempts >= ?",
+                "Lease ran out on the last attempt", Timestamp.from(Instant.now()), maxAttempts);
+    }
+
+    // The methods below return 0 for rows whose lease ran out and were claimed by another dispatcher
+
+    public int deleteAll(List<Long> ids, String leaseOwner) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        return namedJdbcTemplate.update("delete from notification_outbox where id in (:ids) and lease_owner = :leaseOwner",
+                new MapSqlParameterSource()
+                        .addValue("ids", ids)
+                        .addValue("leaseOwner", leaseOwner));
+    }
+
+    public int reschedule(Long id, String leaseOwner, int attempts, Instant nextAttemptAt, String error) {
+        return jdbcTemplate.update("update notification_outbox set status = 'PENDING', attempts = ?, next_attempt_at = ?, last_error = ?, "
+                        + "lease_owner = null where id = ? and lease_owner = ?",
+                attempts, Timestamp.from(nextAttemptAt), truncate(error), id, leaseOwner);
+    }
+
+    public int markFailed(Long id, String leaseOwner, int attempts, String error) {
+        return jdbcTemplate.update("update notification_outbox set status = 'FAILED', attempts = ?, last_error = ?, lease_owner = null "
+                        + "where id = ? and lease_owner = ?",
+                attempts, truncate(error), id, leaseOwner);
+    }
+
+    // Row count and oldest created_at per status
+    public Map<String, Stats> stats() {
+        Map<String, Stats> stats = new HashMap<>();
+        jdbcTemplate.query("select status, count(*), min(created_at) from notification_outbox group by status", rs -> {
+            stats.put(rs.getString(1), new Stats(rs.getLong(2), rs.getTimestamp(3).toInstant()));
+        });
+        return stats;
+    }
+
+    public record Stats(long count, Instant oldestCreatedAt) {
+    }
+
+    private NotificationOutbox mapRow(ResultSet rs, int rowNum) throws SQLException {
+        return new NotificationOutbox(rs.getLong("id"), rs.getString("recipient"), rs.getString("subject"),
+                rs.getString("text"), rs.getString("status"), rs.getInt("attempts"),
+                rs.getTimestamp("created_at").toInstant(), rs.getTimestamp("next_attempt_at").toInstant(),
+                rs.getString("last_error"), rs.getString("lease_owner"));
+    }
+
+    private static String truncate(String error) {
+        return error != null && error.length() > 1000 ? error.substring(0, 1000) : error;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.account.repository;
+
+import com.example.account.entity.PendingTransaction;
+import com.example.account.request.PrepareRequest;
+import com.example.account.util.TransactionType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Set-at-a-time access to pending_transaction for the batch prepare/commit/rollback endpoints
+@Repository
+public class PendingTransactionJdbcRepository {
+
+    // The entity maps TransactionType with JPA's default ordinal mapping
+    private static final String INSERT_SQL =
+            "insert into pending_transaction (transaction_id, account_id, amount, type, status, created_at) values (?, ?, ?, ?, 'PENDING', ?)";
+
+    // A tombstone: the rollback of a leg whose prepare has not arrived (yet). It holds the transaction id,
+    // so a prepare that lands late fails on the primary key instead of reserving funds nobody will release
+    private static final String INSERT_ABORTED_SQL =
+            "insert into pending_transaction (transaction_id, status, created_at) values (?, 'ABORTED', ?)";
+
+    private static final String UPDATE_STATUS_SQL =
+            "update pending_transaction set status = ? where transaction_id = ? and status = 'PENDING'";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final int batchSize;
+
+    public PendingTransactionJdbcRepository(NamedParameterJdbcTemplate jdbcTemplate,
+                                            @Value("${account.batch.jdbc-batch-size:500}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = batchSize;
+    }
+
+    public void insertAll(List<PrepareRequest> requests) {
+        Timestamp now = Timestamp.from(Instant.now());
+        jdbcTemplate.getJdbcTemplate().batchUpdate(INSERT_SQL, requests, batchSize, (ps, request) -> {
+            ps.setLong(1, request.getTransactionId());
+            ps.setLong(2, request.getAccountId());
+            ps.setBigDecimal(3, request.getAmount());
+            ps.setInt(4, request.getType().ordinal());
+            ps.setTimestamp(5, now);
+        });
+    }
+
+    public void insertAborted(Collection<Long> transactionIds) {
+        Timestamp now = Timestamp.from(Instant.now());
+        jdbcTemplate.getJdbcTemplate().batchUpdate(INSERT_ABORTED_SQL, transactionIds, batchSize, (ps, id) -> {
+            ps.setLong(1, id);
+            ps.setTimestamp(2, now);
+        });
+    }
+
+    // Only tombstones (no account) go: rows of real legs are the record of what each leg did. Tombstones
+    // from before created_at existed are kept, as their age is unknown
+    public int deleteTombstonesBefore(Instant cutoff) {
+        return jdbcTemplate.getJdbcTemplate().update("delete from pending_transaction where account_id is null "
+                + "and status = 'ABORTED' and created_at < ?", Timestamp.from(cutoff));
+    }
+
+    // Status of each of the given legs that has a row, prepared or rolled back
+    public Map<Long, String> statuses(Collection<Long> transactionIds) {
+        Map<Long, String> statuses = new HashMap<>();
+        jdbcTemplate.query("select transaction_id, status from pending_transaction where transaction_id in (:ids)",
+                new MapSqlParameterSource("ids", transactionIds),
+                rs -> {
+                    statuses.put(rs.getLong("transaction_id"), rs.getString("status"));
+                });
+        return statuses;
+    }
+
+    // Sum of the withdrawals prepared but not yet committed or aborted, per account
+    public Map<Long, BigDecimal> pendingWithdrawals(Collection<Long> accountIds) {
+        Map<Long, BigDecimal> totals = new HashMap<>();
+        jdbcTemplate.query("select account_id, sum(amount) as total from pending_transaction "
+                        + "where account_id in (:accountIds) and status = 'PENDING' and type = :type group by account_id",
+                new MapSqlParameterSource("accountIds", accountIds).addValue("type", TransactionType.WITHDRAW.ordinal()),
+                rs -> {
+                    totals.put(rs.getLong("account_id"), rs.getBigDecimal("total"));
+                });
+        return totals;
+    }
+
+    // Locks and returns the still-pending legs among the given ids
+    public List<PendingTransaction> lockPending(Collection<Long> transactionIds) {
+        return jdbcTemplate.query("select transaction_id, account_id, amount, type, status from pending_transaction "
+                        + "where transaction_id in (:ids) and status = 'PENDING' order by transaction_id for update",
+                new MapSqlParameterSource("ids", transactionIds),
+                (rs, rowNum) -> new PendingTransaction(rs.getLong("transaction_id"), rs.getLong("account_id"),
+                        rs.getBigDecimal("amount"), TransactionType.values()[rs.getInt("type")], rs.getString("status")));
+    }
+
+    // Moves the legs that are still PENDING to the given status; returns how many moved
+    public int updateStatus(Collection<Long> transactionIds, String status) {
+        int[][] chunks = jdbcTemplate.getJdbcTemplate().batchUpdate(UPDATE_STATUS_SQL, transactionIds, batchSize, (ps, id) -> {
+            ps.setString(1, status);
+            ps.setLong(2, id);
+        });
+        int updated = 0;
+        for (int[] chunk : chunks) {
+            for (int count : chunk) {
+                updated += Math.max(count, 0);
+            }
+        }
+        return updated;
+    }
+}
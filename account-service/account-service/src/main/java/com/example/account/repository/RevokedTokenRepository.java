@@ -0,0 +1,41 @@
+package com.example.account.repository;
+
+import com.example.account.entity.RevokedToken;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public class RevokedTokenRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public RevokedTokenRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void insert(String subject, String tokenId, long issuedSecond, Instant expiresAt, Instant revokedAt) {
+        jdbcTemplate.update("insert into revoked_token (subject, token_id, issued_second, expires_at, revoked_at) values (?, ?, ?, ?, ?)",
+                subject, tokenId, issuedSecond, Timestamp.from(expiresAt), Timestamp.from(revokedAt));
+    }
+
+    // Revocations written after since whose token has not expired yet, oldest first
+    public List<RevokedToken> findRevokedAfter(Instant since) {
+        return jdbcTemplate.query("select * from revoked_token where revoked_at > ? and expires_at > ? order by revoked_at",
+                this::mapRow, Timestamp.from(since), Timestamp.from(Instant.now()));
+    }
+
+    public int deleteExpired() {
+        return jdbcTemplate.update("delete from revoked_token where expires_at <= ?", Timestamp.from(Instant.now()));
+    }
+
+    private RevokedToken mapRow(ResultSet rs, int rowNum) throws SQLException {
+        return new RevokedToken(rs.getLong("id"), rs.getString("subject"), rs.getString("token_id"),
+                rs.getLong("issued_second"), rs.getTimestamp("expires_at").toInstant(), rs.getTimestamp("revoked_at").toInstant());
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.account.request;
+
+import com.example.account.util.TransactionType;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BalanceOperationRequest {
+    private Long accountId;
+    private TransactionType type;
+    private BigDecimal amount;
+}
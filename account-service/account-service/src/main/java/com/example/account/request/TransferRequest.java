@@ -0,0 +1,16 @@
+package com.example.account.request;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class TransferRequest {
+    private Long fromAccountId;
+    private Long toAccountId;
+    private BigDecimal amount;
+}
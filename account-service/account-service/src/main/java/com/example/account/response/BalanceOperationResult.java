@@ -0,0 +1,23 @@
+package com.example.account.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BalanceOperationResult {
+    private int index;
+    private Long accountId;
+    private String status; // 'APPLIED', 'REJECTED'
+    private String error;
+
+    public static BalanceOperationResult applied(int index, Long accountId) {
+        return new BalanceOperationResult(index, accountId, "APPLIED", null);
+    }
+
+    public static BalanceOperationResult rejected(int index, Long accountId, String error) {
+        return new BalanceOperationResult(index, accountId, "REJECTED", error);
+    }
+}
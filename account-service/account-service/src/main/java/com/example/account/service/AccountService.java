@@ -1,14 +1,22 @@
 package com.example.account.service;
 
+import com.example.account.cache.BalanceCache;
 import com.example.account.entity.Account;
 import com.example.account.entity.PendingTransaction;
 import com.example.account.exception.AccountNotFoundException;
 import com.example.account.exception.DuplicateEmailException;
 import com.example.account.exception.InsufficientDataException;
 import com.example.account.exception.InvalidAmountException;
+import com.example.account.repository.AccountBalanceJdbcRepository;
 import com.example.account.repository.AccountRepository;
+import com.example.account.repository.NotificationOutboxRepository;
+import com.example.account.repository.PendingTransactionJdbcRepository;
 import com.example.account.repository.PendingTransactionRepository;
+import com.example.account.request.BalanceOperationRequest;
+import com.example.account.request.PrepareRequest;
+import com.example.account.response.BalanceOperationResult;
 import com.example.account.util.TransactionType;
+import com.example.account.util.TransferStatus;
 import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
 import io.micrometer.observation.ObservationRegistry;
 import org.apache.commons.logging.Log;
@@ -17,24 +25,51 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
 
 @Service
 public class AccountService {
 
     private static final Log logger = LogFactory.getLog(AccountService.class);
 
+    private static final int MAX_BATCH_OPERATIONS = 5000;
+
     private final ObservationRegistry registry;
     private final AccountRepository accountRepository;
     private final PendingTransactionRepository pendingTransactionRepository;
-    private final NotificationServiceClient notificationServiceClient;
+    private final PendingTransactionJdbcRepository pendingTransactionJdbcRepository;
+    private final NotificationOutboxRepository notificationOutbox;
+    private final BalanceMutationEngine balanceMutationEngine;
+    private final AccountBalanceJdbcRepository accountBalanceJdbcRepository;
+    private final BalanceCache balanceCache;
+    private final HotAccountBalances hotAccountBalances;
 
     public AccountService(ObservationRegistry registry, AccountRepository accountRepository,
                           PendingTransactionRepository pendingTransactionRepository,
-                          NotificationServiceClient notificationServiceClient) {
+                          PendingTransactionJdbcRepository pendingTransactionJdbcRepository,
+                          NotificationOutboxRepository notificationOutbox,
+                          BalanceMutationEngine balanceMutationEngine,
+                          AccountBalanceJdbcRepository accountBalanceJdbcRepository,
+                          BalanceCache balanceCache,
+                          HotAccountBalances hotAccountBalances) {
         this.registry = registry;
         this.accountRepository = accountRepository;
         this.pendingTransactionRepository = pendingTransactionRepository;
-        this.notificationServiceClient=notificationServiceClient;
+        this.pendingTransactionJdbcRepository = pendingTransactionJdbcRepository;
+        this.notificationOutbox = notificationOutbox;
+        this.balanceMutationEngine = balanceMutationEngine;
+        this.accountBalanceJdbcRepository = accountBalanceJdbcRepository;
+        this.balanceCache = balanceCache;
+        this.hotAccountBalances = hotAccountBalances;
     }
 
     @Transactional
@@ -44,37 +79,135 @@ public class AccountService {
         return accountRepository.save(account);
     }
 
-    @Transactional
+    public Long findAccountIdByEmail(String email) {
+        return accountRepository.findIdByEmail(email)
+                .orElseThrow(() -> new AccountNotFoundException("Account not found with email: " + email));
+    }
+
+    // Not @Transactional: the balance engine runs its own short transaction per batch, and holding
+    // a connection here while waiting on a stripe would only starve the pool
     @CircuitBreaker(name = "accountService", fallbackMethod = "handleDepositFallback")
     public Account deposit(Long accountId, BigDecimal amount) {
-        Account account = findAccountById(accountId);
         validateAmount(amount);
-        account.setBalance(account.getBalance().add(amount));
-        Account savedAccount = accountRepository.save(account);
-        try {
-            notificationServiceClient.sendNotification(account.getEmail(), TransactionType.DEPOSIT.toString(), String.valueOf(amount));
-        }catch(Exception e){
-            logger.info(e.getMessage());
+        if (hotAccountBalances.isHot(accountId)) {
+            return depositToSlot(accountId, amount);
         }
+        Account savedAccount = balanceMutationEngine.apply(accountId, TransactionType.DEPOSIT, amount,
+                account -> notificationOutbox.insert(account.getEmail(), TransactionType.DEPOSIT.toString(), String.valueOf(amount)));
+        balanceCache.evict(accountId);
         return savedAccount;
     }
 
-    @Transactional
     @CircuitBreaker(name = "accountService", fallbackMethod = "handleWithdrawalFallback")
     public Account withdraw(Long accountId, BigDecimal amount) {
-        Account account = findAccountById(accountId);
         validateAmount(amount);
-        validateSufficientBalance(account, amount);
-        account.setBalance(account.getBalance().subtract(amount));
-        Account savedAccount = accountRepository.save(account);
-        notificationServiceClient.sendNotification(account.getEmail(), TransactionType.WITHDRAW.toString(), String.valueOf(amount));
+        if (hotAccountBalances.isHot(accountId)) {
+            // The engine checks the row balance only
+            hotAccountBalances.consolidate(accountId);
+        }
+        Account savedAccount = balanceMutationEngine.apply(accountId, TransactionType.WITHDRAW, amount,
+                account -> notificationOutbox.insert(account.getEmail(), TransactionType.WITHDRAW.toString(), String.valueOf(amount)));
+        balanceCache.evict(accountId);
         return savedAccount;
     }
 
+    private Account depositToSlot(Long accountId, BigDecimal amount) {
+        Account account = accountRepository.findById(accountId)
+                .orElseThrow(() -> new AccountNotFoundException("Account not found for ID: " + accountId));
+        hotAccountBalances.credit(accountId, ThreadLocalRandom.current().nextLong(), amount,
+                () -> notificationOutbox.insert(account.getEmail(), TransactionType.DEPOSIT.toString(), String.valueOf(amount)));
+        balanceCache.evict(accountId);
+        hotAccountBalances.balanceOf(accountId).ifPresent(account::setBalance);
+        return account;
+    }
+
+    // Applies every valid operation in one transaction and one JDBC batch; invalid or unaffordable
+    // operations are reported per item instead of failing the whole batch
+    @Transactional
+    public List<BalanceOperationResult> applyBatch(List<BalanceOperationRequest> operations) {
+        if (operations == null || operations.isEmpty()) {
+            throw new InsufficientDataException("At least one operation is required.");
+        }
+        if (operations.size() > MAX_BATCH_OPERATIONS) {
+            throw new IllegalArgumentException("A batch can contain at most " + MAX_BATCH_OPERATIONS + " operations.");
+        }
+
+        Map<Long, String> emails = accountRepository.findAllById(operations.stream()
+                        .map(BalanceOperationRequest::getAccountId)
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.toSet()))
+                .stream()
+                .collect(Collectors.toMap(Account::getId, Account::getEmail));
+
+        BalanceOperationResult[] results = new BalanceOperationResult[operations.size()];
+        List<BalanceOperationRequest> valid = new ArrayList<>();
+        List<Integer> validIndexes = new ArrayList<>();
+        for (int i = 0; i < operations.size(); i++) {
+            BalanceOperationRequest operation = operations.get(i);
+            String error = validateOperation(operation, emails);
+            if (error != null) {
+                results[i] = BalanceOperationResult.rejected(i, operation.getAccountId(), error);
+            } else {
+                valid.add(operation);
+                validIndexes.add(i);
+            }
+        }
+
+        List<NotificationServiceClient.NotificationRequest> notifications = new ArrayList<>();
+        int[] counts = valid.isEmpty() ? new int[0] : accountBalanceJdbcRepository.applyAll(valid);
+        for (int i = 0; i < counts.length; i++) {
+            BalanceOperationRequest operation = valid.get(i);
+            int index = validIndexes.get(i);
+            if (counts[i] == 0) {
+                results[index] = BalanceOperationResult.rejected(index, operation.getAccountId(), "Insufficient balance.");
+            } else {
+                results[index] = BalanceOperationResult.applied(index, operation.getAccountId());
+                balanceCache.evict(operation.getAccountId());
+                notifications.add(new NotificationServiceClient.NotificationRequest(
+                        emails.get(operation.getAccountId()), operation.getType().toString(), String.valueOf(operation.getAmount())));
+            }
+        }
+        if (!notifications.isEmpty()) {
+            notificationOutbox.insertAll(notifications);
+        }
+        return List.of(results);
+    }
+
+    // Moves money between two accounts of this deployment in one local transaction, instead of the
+    // prepare/commit round-trips of the distributed transfer
+    @Transactional
+    public TransferStatus transfer(Long fromAccountId, Long toAccountId, BigDecimal amount) {
+        if (fromAccountId == null || toAccountId == null || amount == null) {
+            throw new InsufficientDataException("Source account, target account and amount are required.");
+        }
+        validateAmount(amount);
+        if (fromAccountId.equals(toAccountId)) {
+            throw new IllegalArgumentException("Source and target account must differ.");
+        }
+
+        Map<Long, String> emails = accountBalanceJdbcRepository.lockPair(fromAccountId, toAccountId);
+        if (emails.size() < 2) {
+            return TransferStatus.NOT_LOCAL;
+        }
+        if (accountBalanceJdbcRepository.applyDelta(fromAccountId, amount.negate()) == 0) {
+            return TransferStatus.REJECTED;
+        }
+        accountBalanceJdbcRepository.applyDelta(toAccountId, amount);
+
+        balanceCache.evict(fromAccountId);
+        balanceCache.evict(toAccountId);
+        notificationOutbox.insertAll(List.of(
+                new NotificationServiceClient.NotificationRequest(emails.get(fromAccountId), TransactionType.WITHDRAW.toString(), String.valueOf(amount)),
+                new NotificationServiceClient.NotificationRequest(emails.get(toAccountId), TransactionType.DEPOSIT.toString(), String.valueOf(amount))));
+        return TransferStatus.COMMITTED;
+    }
+
     @CircuitBreaker(name = "accountService", fallbackMethod = "handleBalanceInquiryFallback")
     public BigDecimal checkBalance(Long accountId) {
-        Account account = findAccountById(accountId);
-        return account.getBalance();
+        return balanceCache.get(accountId, id -> (hotAccountBalances.isHot(id)
+                ? hotAccountBalances.balanceOf(id)
+                : accountRepository.findBalanceById(id))
+                .orElseThrow(() -> new AccountNotFoundException("Account not found for ID: " + id)));
     }
 
     private void validateAccountCreation(Account account) {
@@ -86,21 +219,23 @@ public class AccountService {
         }
     }
 
-    private void validateAmount(BigDecimal amount) {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
-            throw new InvalidAmountException("Amount must be greater than zero.");
+    private String validateOperation(BalanceOperationRequest operation, Map<Long, String> emails) {
+        if (operation.getType() == null) {
+            return "Operation type is required.";
         }
-    }
-
-    private void validateSufficientBalance(Account account, BigDecimal amount) {
-        if (account.getBalance().compareTo(amount) < 0) {
-            throw new InvalidAmountException("Insufficient balance.");
+        if (operation.getAmount() == null || operation.getAmount().compareTo(BigDecimal.ZERO) <= 0) {
+            return "Amount must be greater than zero.";
+        }
+        if (!emails.containsKey(operation.getAccountId())) {
+            return "Account not found for ID: " + operation.getAccountId();
         }
+        return null;
     }
 
-    private Account findAccountById(Long accountId) {
-        return accountRepository.findById(accountId)
-                .orElseThrow(() -> new AccountNotFoundException("Account not found for ID: " + accountId));
+    private void validateAmount(BigDecimal amount) {
+        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
+            throw new InvalidAmountException("Amount must be greater than zero.");
+        }
     }
 
     // Fallback Methods
@@ -119,19 +254,26 @@ public class AccountService {
         return BigDecimal.ZERO;
     }
 
+    // Prepares insert with plain SQL rather than JPA's save, which would merge into (and revive) the
+    // tombstone of a rollback that overtook this prepare; a late prepare fails on the primary key instead.
+    // Like prepareBatch, a withdrawal reserves: it locks the row first, so the pending sum read after it
+    // is current, and must fit the balance minus every withdrawal already prepared on the account
     @Transactional
     public boolean prepareWithdraw(Long transactionId, Long accountId, BigDecimal amount) {
-        Account account = accountRepository.findById(accountId)
-                .orElseThrow(() -> new RuntimeException("Account not found"));
+        Map<Long, Account> accounts = accountBalanceJdbcRepository.lockAll(List.of(accountId));
+        PendingTransaction existing = pendingTransactionRepository.findByTransactionId(transactionId);
+        if (existing != null) {
+            return !"ABORTED".equals(existing.getStatus());
+        }
+        Account account = accounts.get(accountId);
+        if (account == null) {
+            throw new RuntimeException("Account not found");
+        }
 
-        if (account.getBalance().compareTo(amount) >= 0) {
-            PendingTransaction transaction = new PendingTransaction();
-            transaction.setTransactionId(transactionId);
-            transaction.setAccountId(accountId);
-            transaction.setAmount(amount);
-            transaction.setType(TransactionType.WITHDRAW);
-            transaction.setStatus("PENDING");
-            pendingTransactionRepository.save(transaction);
+        BigDecimal available = account.getBalance().subtract(pendingTransactionJdbcRepository
+                .pendingWithdrawals(List.of(accountId)).getOrDefault(accountId, BigDecimal.ZERO));
+        if (available.compareTo(amount) >= 0) {
+            pendingTransactionJdbcRepository.insertAll(List.of(new PrepareRequest(transactionId, accountId, TransactionType.WITHDRAW, amount)));
             return true;
         }
         return false;
@@ -139,45 +281,155 @@ public class AccountService {
 
     @Transactional
     public boolean prepareDeposit(Long transactionId, Long accountId, BigDecimal amount) {
-        PendingTransaction transaction = new PendingTransaction();
-        transaction.setTransactionId(transactionId);
-        transaction.setAccountId(accountId);
-        transaction.setAmount(amount);
-        transaction.setType(TransactionType.DEPOSIT);
-        transaction.setStatus("PENDING");
-        pendingTransactionRepository.save(transaction);
+        PendingTransaction existing = pendingTransactionRepository.findByTransactionId(transactionId);
+        if (existing != null) {
+            return !"ABORTED".equals(existing.getStatus());
+        }
+        pendingTransactionJdbcRepository.insertAll(List.of(new PrepareRequest(transactionId, accountId, TransactionType.DEPOSIT, amount)));
         return true;
     }
 
     @Transactional
     public void commitTransaction(Long transactionId) {
         PendingTransaction transaction = pendingTransactionRepository.findByTransactionId(transactionId);
-        Account account = null;
-        if (transaction != null && "PENDING".equals(transaction.getStatus())) {
-            account = accountRepository.findById(transaction.getAccountId())
-                    .orElseThrow(() -> new RuntimeException("Account not found"));
-
-            if (transaction.getType() == TransactionType.WITHDRAW) {
-                account.setBalance(account.getBalance().subtract(transaction.getAmount()));
-            } else if (transaction.getType() == TransactionType.DEPOSIT) {
-                account.setBalance(account.getBalance().add(transaction.getAmount()));
-            }
+        if (transaction == null || !"PENDING".equals(transaction.getStatus())) {
+            return;
+        }
+        // Claim the leg before moving money: a concurrent commit of the same leg then finds nothing left
+        // to do, and the balance guard no longer holds back the reservation this commit spends
+        if (pendingTransactionJdbcRepository.updateStatus(List.of(transactionId), "COMMITTED") == 0) {
+            return;
+        }
+        Account account = accountRepository.findById(transaction.getAccountId())
+                .orElseThrow(() -> new RuntimeException("Account not found"));
 
-            accountRepository.save(account);
-            transaction.setStatus("COMMITTED");
-            pendingTransactionRepository.save(transaction);
-            if(account != null){
-                notificationServiceClient.sendNotification(account.getEmail(), transaction.getType().toString(), String.valueOf(transaction.getAmount()));
+        // Only atomic updates here: the balance engine's stripes and hot-account consolidation write
+        // the row concurrently, and a read-modify-write would overwrite them. Deposits to a hot
+        // account leave the row unlocked, so its commits only contend per slot
+        if (transaction.getType() == TransactionType.DEPOSIT && hotAccountBalances.isHot(account.getId())) {
+            hotAccountBalances.credit(account.getId(), transactionId, transaction.getAmount(), null);
+        } else {
+            BigDecimal delta = transaction.getType() == TransactionType.WITHDRAW
+                    ? transaction.getAmount().negate()
+                    : transaction.getAmount();
+            if (accountBalanceJdbcRepository.applyDelta(account.getId(), delta) == 0) {
+                // Every debit path leaves prepared withdrawals alone, so only reachable through a manual edit
+                throw new IllegalStateException("Prepared withdrawal " + transactionId + " is no longer covered.");
             }
         }
+        balanceCache.evict(account.getId());
+        notificationOutbox.insert(account.getEmail(), transaction.getType().toString(), String.valueOf(transaction.getAmount()));
     }
 
     @Transactional
     public void rollbackTransaction(Long transactionId) {
-        PendingTransaction transaction = pendingTransactionRepository.findByTransactionId(transactionId);
-        if (transaction != null && "PENDING".equals(transaction.getStatus())) {
-            transaction.setStatus("ABORTED");
-            pendingTransactionRepository.save(transaction);
+        rollbackBatch(List.of(transactionId));
+    }
+
+    // Prepares many legs in one transaction and returns PREPARED or ABORT for each, in order. As in
+    // the single-leg prepare, a withdrawal must fit the balance minus every withdrawal already
+    // prepared on the account, so one payer's legs cannot be committed past its balance
+    @Transactional
+    public List<String> prepareBatch(List<PrepareRequest> requests) {
+        if (requests == null || requests.isEmpty()) {
+            throw new InsufficientDataException("At least one operation is required.");
+        }
+        if (requests.size() > MAX_BATCH_OPERATIONS) {
+            throw new IllegalArgumentException("A batch can contain at most " + MAX_BATCH_OPERATIONS + " operations.");
+        }
+
+        Set<Long> accountIds = requests.stream()
+                .map(PrepareRequest::getAccountId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toCollection(TreeSet::new));
+        Map<Long, Account> accounts = accountIds.isEmpty() ? Map.of() : accountBalanceJdbcRepository.lockAll(accountIds);
+        Map<Long, BigDecimal> available = new HashMap<>();
+        if (!accounts.isEmpty()) {
+            Map<Long, BigDecimal> reserved = pendingTransactionJdbcRepository.pendingWithdrawals(accounts.keySet());
+            accounts.forEach((id, account) -> available.put(id,
+                    account.getBalance().subtract(reserved.getOrDefault(id, BigDecimal.ZERO))));
+        }
+
+        // A leg with a row already was prepared by an earlier attempt, or rolled back before this one arrived
+        Map<Long, String> existing = pendingTransactionJdbcRepository.statuses(requests.stream()
+                .map(PrepareRequest::getTransactionId)
+                .filter(Objects::nonNull)
+                .toList());
+
+        List<String> outcomes = new ArrayList<>(requests.size());
+        List<PrepareRequest> prepared = new ArrayList<>();
+        for (PrepareRequest request : requests) {
+            String status = existing.get(request.getTransactionId());
+            if (status != null) {
+                outcomes.add("ABORTED".equals(status) ? "ABORT" : "PREPARED");
+                continue;
+            }
+            boolean ok = request.getTransactionId() != null && request.getType() != null
+                    && request.getAmount() != null && request.getAmount().compareTo(BigDecimal.ZERO) > 0
+                    && accounts.containsKey(request.getAccountId());
+            if (ok && request.getType() == TransactionType.WITHDRAW) {
+                BigDecimal left = available.get(request.getAccountId()).subtract(request.getAmount());
+                ok = left.compareTo(BigDecimal.ZERO) >= 0;
+                if (ok) {
+                    available.put(request.getAccountId(), left);
+                }
+            }
+            outcomes.add(ok ? "PREPARED" : "ABORT");
+            if (ok) {
+                prepared.add(request);
+            }
+        }
+        if (!prepared.isEmpty()) {
+            pendingTransactionJdbcRepository.insertAll(prepared);
+        }
+        return outcomes;
+    }
+
+    // Commits the given legs together: one balance update per account for the net amount
+    @Transactional
+    public void commitBatch(List<Long> transactionIds) {
+        if (transactionIds == null || transactionIds.isEmpty()) {
+            return;
+        }
+        List<PendingTransaction> pending = pendingTransactionJdbcRepository.lockPending(transactionIds);
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<Long, BigDecimal> deltas = new TreeMap<>();
+        for (PendingTransaction leg : pending) {
+            BigDecimal delta = leg.getType() == TransactionType.WITHDRAW ? leg.getAmount().negate() : leg.getAmount();
+            deltas.merge(leg.getAccountId(), delta, BigDecimal::add);
+        }
+        Map<Long, Account> accounts = accountBalanceJdbcRepository.lockAll(deltas.keySet());
+        // Settled first, so the balance guard no longer holds back the reservations these legs spend
+        pendingTransactionJdbcRepository.updateStatus(pending.stream().map(PendingTransaction::getTransactionId).toList(), "COMMITTED");
+        int[] counts = accountBalanceJdbcRepository.applyDeltas(deltas);
+        for (int count : counts) {
+            if (count == 0) {
+                // Every debit path leaves prepared withdrawals alone, so only reachable through a manual edit
+                throw new IllegalStateException("Batch commit would overdraw an account; nothing was committed.");
+            }
+        }
+
+        deltas.keySet().forEach(balanceCache::evict);
+        notificationOutbox.insertAll(pending.stream()
+                .map(leg -> new NotificationServiceClient.NotificationRequest(accounts.get(leg.getAccountId()).getEmail(),
+                        leg.getType().toString(), String.valueOf(leg.getAmount())))
+                .toList());
+    }
+
+    // Legs whose prepare has not arrived get a tombstone, so a prepare that timed out on the coordinator
+    // and lands after this rollback cannot leave a PENDING withdrawal reserving the payer's funds
+    @Transactional
+    public void rollbackBatch(List<Long> transactionIds) {
+        if (transactionIds == null || transactionIds.isEmpty()) {
+            return;
+        }
+        pendingTransactionJdbcRepository.updateStatus(transactionIds, "ABORTED");
+        Set<Long> known = pendingTransactionJdbcRepository.statuses(transactionIds).keySet();
+        List<Long> unseen = transactionIds.stream().filter(id -> !known.contains(id)).distinct().toList();
+        if (!unseen.isEmpty()) {
+            pendingTransactionJdbcRepository.insertAborted(unseen);
         }
     }
 }
@@ -0,0 +1,275 @@
+package com.example.account.service;
+
+import com.example.account.entity.Account;
+import com.example.account.exception.AccountNotFoundException;
+import com.example.account.exception.InvalidAmountException;
+import com.example.account.repository.AccountRepository;
+import com.example.account.util.TransactionType;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Serializes balance writes per account. Every account hashes to one stripe, and each stripe has a
+ * single writer thread that drains its queue, applies the queued mutations to an in-memory copy of
+ * the balance and persists the result with one compare-and-set update per account. A failed
+ * compare-and-set means another writer (another instance, or a 2PC commit) got there first, so the
+ * stripe reloads the row and re-applies the batch.
+ */
+@Component
+public class BalanceMutationEngine {
+
+    private static final Log logger = LogFactory.getLog(BalanceMutationEngine.class);
+
+    private static final int MAX_CAS_RETRIES = 5;
+
+    private final AccountRepository accountRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int maxBatchSize;
+    private final int cachedAccountsPerStripe;
+    private final Stripe[] stripes;
+
+    public BalanceMutationEngine(AccountRepository accountRepository, PlatformTransactionManager transactionManager,
+                                 @Value("${account.balance-engine.enabled:true}") boolean enabled,
+                                 @Value("${account.balance-engine.stripes:16}") int stripeCount,
+                                 @Value("${account.balance-engine.max-batch-size:256}") int maxBatchSize,
+                                 @Value("${account.balance-engine.cached-accounts-per-stripe:1024}") int cachedAccountsPerStripe) {
+        this.accountRepository = accountRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.maxBatchSize = maxBatchSize;
+        this.cachedAccountsPerStripe = cachedAccountsPerStripe;
+        this.stripes = new Stripe[enabled ? stripeCount : 0];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(i);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Account apply(Long accountId, TransactionType type, BigDecimal amount) {
+        return apply(accountId, type, amount, null);
+    }
+
+    // onApplied runs inside the transaction that persists the mutation, so anything it writes
+    // commits or rolls back together with the balance
+    public Account apply(Long accountId, TransactionType type, BigDecimal amount, Consumer<Account> onApplied) {
+        if (!enabled) {
+            return applyDirect(accountId, type, amount, onApplied);
+        }
+        try {
+            return submit(accountId, type, amount, onApplied).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    public CompletableFuture<Account> submit(Long accountId, TransactionType type, BigDecimal amount) {
+        return submit(accountId, type, amount, null);
+    }
+
+    public CompletableFuture<Account> submit(Long accountId, TransactionType type, BigDecimal amount,
+                                             Consumer<Account> onApplied) {
+        Mutation mutation = new Mutation(accountId, type, amount, onApplied);
+        stripes[Math.floorMod(accountId.hashCode(), stripes.length)].queue.add(mutation);
+        return mutation.result;
+    }
+
+    // The original read-modify-write path, kept for when the engine is switched off
+    private Account applyDirect(Long accountId, TransactionType type, BigDecimal amount, Consumer<Account> onApplied) {
+        return transactionTemplate.execute(status -> {
+            Account account = accountRepository.findById(accountId)
+                    .orElseThrow(() -> new AccountNotFoundException("Account not found for ID: " + accountId));
+            if (type == TransactionType.WITHDRAW
+                    && account.getBalance().subtract(accountRepository.sumPendingWithdrawals(accountId)).compareTo(amount) < 0) {
+                throw new InvalidAmountException("Insufficient balance.");
+            }
+            account.setBalance(type == TransactionType.DEPOSIT
+                    ? account.getBalance().add(amount)
+                    : account.getBalance().subtract(amount));
+            Account saved = accountRepository.save(account);
+            if (onApplied != null) {
+                onApplied.accept(saved);
+            }
+            return saved;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (Stripe stripe : stripes) {
+            stripe.thread.interrupt();
+        }
+    }
+
+    private static final class Mutation {
+        private final Long accountId;
+        private final TransactionType type;
+        private final BigDecimal amount;
+        private final Consumer<Account> onApplied;
+        private final CompletableFuture<Account> result = new CompletableFuture<>();
+        private BigDecimal balanceAfter;
+
+        private Mutation(Long accountId, TransactionType type, BigDecimal amount, Consumer<Account> onApplied) {
+            this.accountId = accountId;
+            this.type = type;
+            this.amount = amount;
+            this.onApplied = onApplied;
+        }
+    }
+
+    private static final class StaleBalanceException extends RuntimeException {
+        private StaleBalanceException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final class Stripe implements Runnable {
+
+        private final BlockingQueue<Mutation> queue = new LinkedBlockingQueue<>();
+        // Only touched by the stripe thread, so a plain access-ordered map is enough for an LRU
+        private final Map<Long, Account> accounts = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Account> eldest) {
+                return size() > cachedAccountsPerStripe;
+            }
+        };
+        private final Thread thread;
+
+        private Stripe(int index) {
+            this.thread = new Thread(this, "balance-stripe-" + index);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        @Override
+        public void run() {
+            List<Mutation> batch = new ArrayList<>(maxBatchSize);
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                queue.drainTo(batch, maxBatchSize - 1);
+                Map<Long, List<Mutation>> byAccount = new LinkedHashMap<>();
+                for (Mutation mutation : batch) {
+                    byAccount.computeIfAbsent(mutation.accountId, id -> new ArrayList<>()).add(mutation);
+                }
+                byAccount.forEach(this::applyBatch);
+                batch.clear();
+            }
+            for (Mutation pending : queue) {
+                pending.result.completeExceptionally(new IllegalStateException("Balance engine is shutting down"));
+            }
+        }
+
+        private void applyBatch(Long accountId, List<Mutation> mutations) {
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    Account account = transactionTemplate.execute(status -> persist(accountId, mutations));
+                    // Detached once the transaction has ended, so this never turns into a second UPDATE
+                    for (Mutation mutation : mutations) {
+                        if (mutation.balanceAfter != null) {
+                            account.setBalance(mutation.balanceAfter);
+                        }
+                    }
+                    accounts.put(accountId, account);
+                    for (Mutation mutation : mutations) {
+                        if (mutation.balanceAfter == null) {
+                            mutation.result.completeExceptionally(new InvalidAmountException("Insufficient balance."));
+                        } else {
+                            mutation.result.complete(snapshot(account, mutation.balanceAfter));
+                        }
+                    }
+                    return;
+                } catch (StaleBalanceException e) {
+                    accounts.remove(accountId);
+                    if (attempt == MAX_CAS_RETRIES) {
+                        logger.warn("Giving up on account " + accountId + " after " + attempt + " conflicting writes");
+                        fail(mutations, new IllegalStateException("Balance update conflicted, please retry."));
+                        return;
+                    }
+                } catch (RuntimeException e) {
+                    accounts.remove(accountId);
+                    fail(mutations, e);
+                    return;
+                }
+            }
+        }
+
+        private Account persist(Long accountId, List<Mutation> mutations) {
+            Account account = accounts.get(accountId);
+            boolean cached = account != null;
+            if (!cached) {
+                account = accountRepository.findById(accountId)
+                        .orElseThrow(() -> new AccountNotFoundException("Account not found for ID: " + accountId));
+            }
+            BigDecimal expected = account.getBalance();
+            BigDecimal balance = expected;
+            // Funds reserved by prepared 2PC withdrawals are not ours to spend: their commits must not fail.
+            // Read fresh every time, since prepares never go through the stripe
+            BigDecimal reserved = mutations.stream().anyMatch(mutation -> mutation.type == TransactionType.WITHDRAW)
+                    ? accountRepository.sumPendingWithdrawals(accountId)
+                    : BigDecimal.ZERO;
+            boolean changed = false;
+            for (Mutation mutation : mutations) {
+                if (mutation.type == TransactionType.WITHDRAW && balance.subtract(reserved).compareTo(mutation.amount) < 0) {
+                    if (cached) {
+                        // Never reject on a possibly stale copy; re-check against the row
+                        throw new StaleBalanceException();
+                    }
+                    mutation.balanceAfter = null;
+                    continue;
+                }
+                balance = mutation.type == TransactionType.DEPOSIT
+                        ? balance.add(mutation.amount)
+                        : balance.subtract(mutation.amount);
+                mutation.balanceAfter = balance;
+                changed = true;
+            }
+            if (changed && accountRepository.compareAndSetBalance(accountId, expected, balance) == 0) {
+                throw new StaleBalanceException();
+            }
+            for (Mutation mutation : mutations) {
+                if (mutation.balanceAfter != null && mutation.onApplied != null) {
+                    mutation.onApplied.accept(snapshot(account, mutation.balanceAfter));
+                }
+            }
+            return account;
+        }
+
+        private void fail(List<Mutation> mutations, RuntimeException e) {
+            for (Mutation mutation : mutations) {
+                mutation.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static Account snapshot(Account account, BigDecimal balance) {
+        return new Account(account.getId(), account.getName(), account.getEmail(),
+                account.getPhoneNumber(), account.getPassword(), balance);
+    }
+}
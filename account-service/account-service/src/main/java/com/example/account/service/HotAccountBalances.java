@@ -0,0 +1,99 @@
+package com.example.account.service;
+
+import com.example.account.repository.BalanceSlotJdbcRepository;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads credits to configured hot accounts over sub-balance slots. A credit updates one slot row
+ * picked by hash instead of the account row, so concurrent credits to one account only contend when
+ * they hash to the same slot. Reads and debit checks add the slots to the account row, and a
+ * background task folds the slots back into the row every consolidation interval.
+ */
+@Component
+public class HotAccountBalances {
+
+    private static final Log logger = LogFactory.getLog(HotAccountBalances.class);
+
+    private final BalanceSlotJdbcRepository balanceSlotRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Set<Long> hotAccountIds;
+    private final int slots;
+    private final ScheduledExecutorService consolidator;
+
+    public HotAccountBalances(BalanceSlotJdbcRepository balanceSlotRepository, PlatformTransactionManager transactionManager,
+                              @Value("${account.hot-accounts.ids:}") Set<Long> hotAccountIds,
+                              @Value("${account.hot-accounts.slots:16}") int slots,
+                              @Value("${account.hot-accounts.consolidation-interval:5s}") Duration consolidationInterval) {
+        this.balanceSlotRepository = balanceSlotRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.hotAccountIds = Set.copyOf(hotAccountIds);
+        this.slots = slots;
+        this.consolidator = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "hot-account-consolidation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = consolidationInterval.toMillis();
+        consolidator.scheduleWithFixedDelay(this::consolidateAll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isHot(Long accountId) {
+        return hotAccountIds.contains(accountId);
+    }
+
+    // Joins the caller's transaction if there is one; key picks the slot. onApplied runs in the
+    // same transaction as the credit
+    public void credit(Long accountId, long key, BigDecimal amount, Runnable onApplied) {
+        transactionTemplate.executeWithoutResult(status -> {
+            balanceSlotRepository.credit(accountId, slotOf(key), amount);
+            if (onApplied != null) {
+                onApplied.run();
+            }
+        });
+    }
+
+    public Optional<BigDecimal> balanceOf(Long accountId) {
+        return balanceSlotRepository.balanceOf(accountId);
+    }
+
+    // Lets a debit that checks only the account row see the slots' money
+    public void consolidate(Long accountId) {
+        transactionTemplate.executeWithoutResult(status -> balanceSlotRepository.fold(accountId));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        consolidator.shutdownNow();
+    }
+
+    int slotOf(long key) {
+        // Spread sequential keys such as time-ordered transaction ids evenly
+        return Math.floorMod(Long.hashCode(key * 0x9E3779B97F4A7C15L), slots);
+    }
+
+    // Includes accounts no longer configured as hot, so switching one off drains its slots
+    void consolidateAll() {
+        try {
+            for (Long accountId : balanceSlotRepository.accountsWithCredits()) {
+                consolidate(accountId);
+            }
+        } catch (RuntimeException e) {
+            // Retried on the next run; never let the scheduled task die
+            logger.warn("Hot account consolidation failed: " + e.getMessage());
+        }
+    }
+}
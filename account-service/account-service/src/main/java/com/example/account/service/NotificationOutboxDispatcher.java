@@ -0,0 +1,208 @@
+package com.example.account.service;
+
+import com.example.account.entity.NotificationOutbox;
+import com.example.account.repository.NotificationOutboxRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drains the notification outbox. Due rows are leased in a short transaction, sent to
+ * notification-service with no transaction or connection held, and then deleted or rescheduled
+ * with exponential backoff. A row that keeps failing is parked as FAILED after max-attempts; a claim
+ * whose lease runs out without an outcome counts as a failed attempt.
+ */
+@Component
+public class NotificationOutboxDispatcher {
+
+    private static final Log logger = LogFactory.getLog(NotificationOutboxDispatcher.class);
+
+    private final NotificationOutboxRepository outboxRepository;
+    private final NotificationServiceClient notificationServiceClient;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final int concurrency;
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final Duration lease;
+    private final ScheduledExecutorService executor;
+    private final Counter sent;
+    private final Counter retried;
+    private final Counter failed;
+    private volatile Map<String, NotificationOutboxRepository.Stats> stats = Map.of();
+
+    public NotificationOutboxDispatcher(NotificationOutboxRepository outboxRepository,
+                                        NotificationServiceClient notificationServiceClient,
+                                        PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+                                        @Value("${account.notification-outbox.batch-size:100}") int batchSize,
+                                        @Value("${account.notification-outbox.concurrency:8}") int concurrency,
+                                        @Value("${account.notification-outbox.max-attempts:10}") int maxAttempts,
+                                        @Value("${account.notification-outbox.initial-backoff:1s}") Duration initialBackoff,
+                                        @Value("${account.notification-outbox.max-backoff:5m}") Duration maxBackoff,
+                                        @Value("${account.notification-outbox.lease:1m}") Duration lease,
+                                        @Value("${account.notification-outbox.poll-interval:200ms}") Duration pollInterval) {
+        this.outboxRepository = outboxRepository;
+        this.notificationServiceClient = notificationServiceClient;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+        this.concurrency = concurrency;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.lease = lease;
+
+        this.sent = outcomeCounter(meterRegistry, "sent");
+        this.retried = outcomeCounter(meterRegistry, "retried");
+        this.failed = outcomeCounter(meterRegistry, "failed");
+        Gauge.builder("account.notification.outbox.depth", () -> count(NotificationOutboxRepository.PENDING)
+                        + count(NotificationOutboxRepository.IN_FLIGHT))
+                .description("Notifications waiting to be delivered")
+                .register(meterRegistry);
+        Gauge.builder("account.notification.outbox.failed", () -> count(NotificationOutboxRepository.FAILED))
+                .description("Notifications that exhausted their retries")
+                .register(meterRegistry);
+        TimeGauge.builder("account.notification.outbox.lag", this::lagMillis, TimeUnit.MILLISECONDS)
+                .description("Age of the oldest undelivered notification")
+                .register(meterRegistry);
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "notification-outbox-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = pollInterval.toMillis();
+        executor.scheduleWithFixedDelay(this::poll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // Dispatches due rows until a short batch shows the backlog is drained; returns how many were attempted
+    public int dispatchDue() {
+        int abandoned = outboxRepository.failAbandoned(maxAttempts);
+        if (abandoned > 0) {
+            logger.warn("Giving up on " + abandoned + " notifications whose last attempt never reported back");
+            failed.increment(abandoned);
+        }
+        int attempted = 0;
+        List<NotificationOutbox> batch;
+        do {
+            Instant leaseUntil = Instant.now().plus(lease);
+            String leaseOwner = UUID.randomUUID().toString();
+            batch = transactionTemplate.execute(status -> outboxRepository.claimDue(batchSize, maxAttempts, leaseUntil, leaseOwner));
+            if (batch.isEmpty()) {
+                break;
+            }
+            complete(send(batch), leaseOwner);
+            attempted += batch.size();
+        } while (batch.size() == batchSize);
+        return attempted;
+    }
+
+    private void poll() {
+        try {
+            dispatchDue();
+            stats = outboxRepository.stats();
+        } catch (RuntimeException e) {
+            // Never let the scheduled task die; leased rows come back once their lease runs out
+            logger.warn("Notification outbox dispatch failed: " + e.getMessage());
+        }
+    }
+
+    private List<Outcome> send(List<NotificationOutbox> batch) {
+        List<Outcome> outcomes = Flux.fromIterable(batch)
+                .flatMap(entry -> notificationServiceClient.sendNotificationAsync(entry.getRecipient(), entry.getSubject(), entry.getText())
+                        .then(Mono.just(new Outcome(entry, null)))
+                        .onErrorResume(e -> Mono.just(new Outcome(entry, Optional.ofNullable(e.getMessage()).orElse(e.getClass().getName())))),
+                        concurrency)
+                .collectList()
+                .block(lease);
+        return outcomes == null ? List.of() : outcomes;
+    }
+
+    // Rows whose lease ran out during the send belong to whichever dispatcher claimed them next, so
+    // their outcome here is dropped rather than written over that dispatcher's
+    private void complete(List<Outcome> outcomes, String leaseOwner) {
+        List<Long> delivered = new ArrayList<>();
+        int[] recorded = new int[3];
+        transactionTemplate.executeWithoutResult(status -> {
+            for (Outcome outcome : outcomes) {
+                NotificationOutbox entry = outcome.entry();
+                if (outcome.error() == null) {
+                    delivered.add(entry.getId());
+                    continue;
+                }
+                int attempts = entry.getAttempts();
+                if (attempts >= maxAttempts) {
+                    if (outboxRepository.markFailed(entry.getId(), leaseOwner, attempts, outcome.error()) > 0) {
+                        logger.warn("Giving up on notification " + entry.getId() + " to " + entry.getRecipient()
+                                + " after " + attempts + " attempts: " + outcome.error());
+                        recorded[2]++;
+                    }
+                } else if (outboxRepository.reschedule(entry.getId(), leaseOwner, attempts,
+                        Instant.now().plus(backoff(attempts)), outcome.error()) > 0) {
+                    recorded[1]++;
+                }
+            }
+            recorded[0] = outboxRepository.deleteAll(delivered, leaseOwner);
+        });
+        sent.increment(recorded[0]);
+        retried.increment(recorded[1]);
+        failed.increment(recorded[2]);
+    }
+
+    // Exponential backoff with up to 20% jitter, so rows that failed together do not retry together
+    Duration backoff(int attempts) {
+        long base = initialBackoff.toMillis() << Math.min(attempts - 1, 30);
+        long capped = Math.min(base <= 0 ? Long.MAX_VALUE : base, maxBackoff.toMillis());
+        return Duration.ofMillis(capped - ThreadLocalRandom.current().nextLong(capped / 5 + 1));
+    }
+
+    private long count(String status) {
+        NotificationOutboxRepository.Stats s = stats.get(status);
+        return s == null ? 0 : s.count();
+    }
+
+    private double lagMillis() {
+        return stats.entrySet().stream()
+                .filter(e -> !NotificationOutboxRepository.FAILED.equals(e.getKey()))
+                .map(e -> e.getValue().oldestCreatedAt())
+                .min(Instant::compareTo)
+                .map(oldest -> (double) Math.max(0, Duration.between(oldest, Instant.now()).toMillis()))
+                .orElse(0d);
+    }
+
+    private static Counter outcomeCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("account.notification.outbox.dispatched")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private record Outcome(NotificationOutbox entry, String error) {
+    }
+}
@@ -1,12 +1,16 @@
 package com.example.account.service;
 
 
+import com.example.account.util.AdaptiveConcurrencyLimiter;
+import com.example.account.util.InstanceLoadStats;
+import com.example.account.util.LatencyAwareLoadBalancer;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
 
 @Service
 public class NotificationServiceClient {
@@ -14,18 +18,30 @@ public class NotificationServiceClient {
 
     private final WebClient webClient;
 
-    public NotificationServiceClient(WebClient.Builder webClientBuilder) {
-        this.webClient = webClientBuilder.baseUrl("http://NOTIFICATION-SERVICE").build();
+    // Cloned so the limiter does not end up on the shared @LoadBalanced builder; filters added here run
+    // after the load balancer has picked the instance
+    public NotificationServiceClient(WebClient.Builder webClientBuilder, AdaptiveConcurrencyLimiter notificationServiceLimiter,
+                                     InstanceLoadStats instanceLoadStats) {
+        this.webClient = webClientBuilder.clone()
+                .baseUrl("http://NOTIFICATION-SERVICE")
+                .filter(notificationServiceLimiter)
+                .filter(instanceLoadStats)
+                .build();
     }
 
     public void sendNotification(String to, String subject, String text) {
+        sendNotificationAsync(to, subject, text).block();
+    }
+
+    // Routed by recipient, so one notification-service instance sees all of a recipient's mail
+    public Mono<Void> sendNotificationAsync(String to, String subject, String text) {
         NotificationRequest request = new NotificationRequest(to, subject, text);
-        webClient.post()
+        return webClient.post()
                 .uri("/api/v1/notifications/send")
+                .header(LatencyAwareLoadBalancer.AFFINITY_HEADER, to)
                 .bodyValue(request)
                 .retrieve()
-                .bodyToMono(Void.class)
-                .block();
+                .bodyToMono(Void.class);
     }
 
 
@@ -0,0 +1,60 @@
+package com.example.account.service;
+
+import com.example.account.repository.PendingTransactionJdbcRepository;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Purges the ABORTED tombstones that rollbacks write for legs whose prepare has not arrived. A tombstone
+ * only has to outlive any prepare that could still land for its transaction, and the coordinator gives up
+ * on a transfer after its in-doubt and retention windows, so the retention here must be longer than both.
+ */
+@Component
+public class PendingTransactionTombstones {
+
+    private static final Log logger = LogFactory.getLog(PendingTransactionTombstones.class);
+
+    private final PendingTransactionJdbcRepository pendingTransactionJdbcRepository;
+    private final Duration retention;
+    private final ScheduledExecutorService sweeper;
+
+    public PendingTransactionTombstones(PendingTransactionJdbcRepository pendingTransactionJdbcRepository,
+                                        @Value("${account.pending-transaction.tombstone-retention:48h}") Duration retention,
+                                        @Value("${account.pending-transaction.cleanup-interval:1h}") Duration cleanupInterval) {
+        this.pendingTransactionJdbcRepository = pendingTransactionJdbcRepository;
+        this.retention = retention;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "pending-transaction-tombstone-cleanup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long cleanup = cleanupInterval.toMillis();
+        sweeper.scheduleWithFixedDelay(this::deleteExpired, cleanup, cleanup, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+
+    void deleteExpired() {
+        try {
+            int deleted = pendingTransactionJdbcRepository.deleteTombstonesBefore(Instant.now().minus(retention));
+            if (deleted > 0) {
+                logger.info("Deleted " + deleted + " expired pending transaction tombstones");
+            }
+        } catch (RuntimeException e) {
+            // Retried on the next run; never let the scheduled task die
+            logger.warn("Pending transaction tombstone cleanup failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.account.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.jsonwebtoken.Claims;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tokens revoked by logout, held as one entry per user rather than one per token: logging out
+ * revokes the token and every token the user was issued before it, and the entry lives only until the
+ * last of those expires. Looping login and logout therefore only moves one user's cut-off forward, and
+ * the list never holds more than one entry per account that logged out within a token lifetime.
+ * Logouts on other instances arrive through TokenRevocations.
+ */
+@Component
+public class TokenDenyList {
+
+    // Tokens issued before cutoffSecond are revoked, as are those issued within it whose ids are listed;
+    // iat has one-second resolution, and a token issued later in that same second stays valid
+    private record Cutoff(long cutoffSecond, Set<String> tokenIds, Date expiration) {
+    }
+
+    private final Cache<String, Cutoff> revoked = Caffeine.newBuilder()
+            .expireAfter(new Expiry<String, Cutoff>() {
+                @Override
+                public long expireAfterCreate(String subject, Cutoff cutoff, long currentTime) {
+                    return TimeUnit.MILLISECONDS.toNanos(
+                            Math.max(0, cutoff.expiration().getTime() - System.currentTimeMillis()));
+                }
+
+                @Override
+                public long expireAfterUpdate(String subject, Cutoff cutoff, long currentTime, long currentDuration) {
+                    return expireAfterCreate(subject, cutoff, currentTime);
+                }
+
+                @Override
+                public long expireAfterRead(String subject, Cutoff cutoff, long currentTime, long currentDuration) {
+                    return currentDuration;
+                }
+            })
+            .build();
+
+    public void revoke(Claims claims) {
+        if (claims.getSubject() == null) {
+            return;
+        }
+        revoke(claims.getSubject(), issuedSecond(claims), String.valueOf(claims.getId()), claims.getExpiration());
+    }
+
+    public void revoke(String subject, long issuedSecond, String tokenId, Date expiration) {
+        if (!expiration.after(new Date())) {
+            return;
+        }
+        revoked.asMap().compute(subject, (key, current) -> {
+            if (current == null || issuedSecond > current.cutoffSecond()) {
+                return new Cutoff(issuedSecond, Set.of(tokenId), expiration);
+            }
+            if (issuedSecond < current.cutoffSecond()) {
+                return current;
+            }
+            Set<String> tokenIds = new HashSet<>(current.tokenIds());
+            tokenIds.add(tokenId);
+            Date latest = expiration.after(current.expiration()) ? expiration : current.expiration();
+            return new Cutoff(current.cutoffSecond(), Set.copyOf(tokenIds), latest);
+        });
+    }
+
+    public boolean isRevoked(Claims claims) {
+        Cutoff cutoff = claims.getSubject() == null ? null : revoked.getIfPresent(claims.getSubject());
+        if (cutoff == null) {
+            return false;
+        }
+        long issuedSecond = issuedSecond(claims);
+        return issuedSecond < cutoff.cutoffSecond()
+                || issuedSecond == cutoff.cutoffSecond() && cutoff.tokenIds().contains(String.valueOf(claims.getId()));
+    }
+
+    // Tokens without iat predate every cut-off
+    public static long issuedSecond(Claims claims) {
+        return claims.getIssuedAt() == null ? 0 : claims.getIssuedAt().getTime() / 1000;
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.account.service;
+
+import com.example.account.entity.RevokedToken;
+import com.example.account.repository.RevokedTokenRepository;
+import io.jsonwebtoken.Claims;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares logouts between instances. A logout is applied to this instance's TokenDenyList at once and
+ * written to the revoked_token table, which every account-service and transaction-service instance
+ * polls into its own deny list every refresh interval. Each poll re-reads the last overlap of rows,
+ * so a row whose transaction committed late, or was stamped by a writer whose clock lags, is still seen.
+ */
+@Component
+public class TokenRevocations {
+
+    private static final Log logger = LogFactory.getLog(TokenRevocations.class);
+
+    private final TokenDenyList tokenDenyList;
+    private final RevokedTokenRepository revokedTokenRepository;
+    private final Duration overlap;
+    private final ScheduledExecutorService poller;
+    // Only touched by the poller thread
+    private Instant lastSeen = Instant.EPOCH;
+
+    public TokenRevocations(TokenDenyList tokenDenyList, RevokedTokenRepository revokedTokenRepository,
+                            @Value("${account.token-revocation.refresh-interval:1s}") Duration refreshInterval,
+                            @Value("${account.token-revocation.overlap:10s}") Duration overlap,
+                            @Value("${account.token-revocation.cleanup-interval:10m}") Duration cleanupInterval) {
+        this.tokenDenyList = tokenDenyList;
+        this.revokedTokenRepository = revokedTokenRepository;
+        this.overlap = overlap;
+        this.poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "token-revocation-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = refreshInterval.toMillis();
+        poller.scheduleWithFixedDelay(this::refresh, interval, interval, TimeUnit.MILLISECONDS);
+        long cleanup = cleanupInterval.toMillis();
+        poller.scheduleWithFixedDelay(this::deleteExpired, cleanup, cleanup, TimeUnit.MILLISECONDS);
+    }
+
+    // Written before it is applied here, so a logout that answers 204 is never lost to the other instances
+    public void revoke(Claims claims) {
+        if (claims.getSubject() == null || !claims.getExpiration().after(new Date())) {
+            return;
+        }
+        revokedTokenRepository.insert(claims.getSubject(), String.valueOf(claims.getId()), TokenDenyList.issuedSecond(claims),
+                claims.getExpiration().toInstant(), Instant.now());
+        tokenDenyList.revoke(claims);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        poller.shutdownNow();
+    }
+
+    void refresh() {
+        try {
+            for (RevokedToken token : revokedTokenRepository.findRevokedAfter(lastSeen.minus(overlap))) {
+                tokenDenyList.revoke(token.getSubject(), token.getIssuedSecond(), token.getTokenId(), Date.from(token.getExpiresAt()));
+                if (token.getRevokedAt().isAfter(lastSeen)) {
+                    lastSeen = token.getRevokedAt();
+                }
+            }
+        } catch (RuntimeException e) {
+            // Retried on the next run; never let the scheduled task die
+            logger.warn("Token revocation refresh failed: " + e.getMessage());
+        }
+    }
+
+    void deleteExpired() {
+        try {
+            revokedTokenRepository.deleteExpired();
+        } catch (RuntimeException e) {
+            logger.warn("Revoked token cleanup failed: " + e.getMessage());
+        }
+    }
+}
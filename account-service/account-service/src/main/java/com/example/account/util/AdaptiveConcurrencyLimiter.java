@@ -0,0 +1,167 @@
+package com.example.account.util;
+
+import com.example.account.exception.ConcurrencyLimitExceededException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * AIMD concurrency limit for the calls made through one WebClient. A response that comes back
+ * within the latency threshold while the limit is in use raises the limit by one; a 5xx, a 429, an
+ * error or a response slower than the threshold multiplies it by the backoff ratio. Calls over the
+ * limit wait in a bounded FIFO queue for at most max-wait, and fail with
+ * ConcurrencyLimitExceededException when the queue is full or the wait runs out.
+ */
+public class AdaptiveConcurrencyLimiter implements ExchangeFilterFunction {
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long latencyThresholdNanos;
+    private final int maxQueue;
+    private final Duration maxWait;
+    private final Counter rejected;
+    // Guarded by this
+    private double limit;
+    private int inFlight;
+    private final Queue<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+
+    public AdaptiveConcurrencyLimiter(String name, MeterRegistry meterRegistry, int initialLimit, int minLimit, int maxLimit,
+                                      double backoffRatio, Duration latencyThreshold, int maxQueue, Duration maxWait) {
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyThresholdNanos = latencyThreshold.toNanos();
+        this.maxQueue = maxQueue;
+        this.maxWait = maxWait;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        Gauge.builder("client.concurrency.limit", this, AdaptiveConcurrencyLimiter::getLimit)
+                .tag("client", name).register(meterRegistry);
+        Gauge.builder("client.concurrency.inflight", this, AdaptiveConcurrencyLimiter::getInFlight)
+                .tag("client", name).register(meterRegistry);
+        Gauge.builder("client.concurrency.queued", this, AdaptiveConcurrencyLimiter::getQueued)
+                .tag("client", name).register(meterRegistry);
+        this.rejected = Counter.builder("client.concurrency.rejected").tag("client", name).register(meterRegistry);
+    }
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        return acquire().then(Mono.defer(() -> {
+            long start = System.nanoTime();
+            // A cancel can follow the response (a caller's timeout while the body is read); release only once
+            AtomicBoolean released = new AtomicBoolean();
+            return next.exchange(request)
+                    .doOnSuccess(response -> release(released, start, response == null || isOverloaded(response)))
+                    .doOnError(e -> release(released, start, true))
+                    // Callers cancel on their own timeouts; only a slow call says anything about the limit
+                    .doOnCancel(() -> release(released, start, System.nanoTime() - start > latencyThresholdNanos));
+        }));
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return waiters.size();
+    }
+
+    private Mono<Void> acquire() {
+        return Mono.defer(() -> {
+            CompletableFuture<Void> granted;
+            synchronized (this) {
+                if (inFlight < (int) limit && waiters.isEmpty()) {
+                    inFlight++;
+                    return Mono.empty();
+                }
+                if (waiters.size() >= maxQueue) {
+                    rejected.increment();
+                    return Mono.error(new ConcurrencyLimitExceededException(name + " is at its concurrency limit of " + (int) limit));
+                }
+                granted = new CompletableFuture<>();
+                waiters.add(granted);
+            }
+            return Mono.fromFuture(granted, true)
+                    .timeout(maxWait, Mono.defer(() -> {
+                        if (!withdraw(granted)) {
+                            // The permit arrived just as the wait ran out
+                            return Mono.empty();
+                        }
+                        rejected.increment();
+                        return Mono.error(new ConcurrencyLimitExceededException(
+                                name + " is at its concurrency limit; waited " + maxWait.toMillis() + "ms"));
+                    }))
+                    .doOnCancel(() -> {
+                        if (!withdraw(granted)) {
+                            release();
+                        }
+                    });
+        });
+    }
+
+    // False when the permit was already handed to this waiter
+    private boolean withdraw(CompletableFuture<Void> granted) {
+        synchronized (this) {
+            if (!granted.completeExceptionally(new ConcurrencyLimitExceededException(name + " wait abandoned"))) {
+                return false;
+            }
+            waiters.remove(granted);
+            return true;
+        }
+    }
+
+    private void release(AtomicBoolean released, long start, boolean dropped) {
+        if (!released.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (this) {
+            if (dropped || System.nanoTime() - start > latencyThresholdNanos) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+            } else if (inFlight * 2 >= limit) {
+                // Only grow while the current limit is actually being used
+                limit = Math.min(maxLimit, limit + 1);
+            }
+        }
+        release();
+    }
+
+    private void release() {
+        CompletableFuture<Void> next;
+        synchronized (this) {
+            inFlight--;
+            next = null;
+            while (inFlight < (int) limit && (next = waiters.poll()) != null) {
+                if (!next.isDone()) {
+                    inFlight++;
+                    break;
+                }
+                next = null;
+            }
+        }
+        // Outside the lock: completing runs the waiter's call on this thread
+        if (next != null && !next.complete(null)) {
+            release();
+        }
+    }
+
+    private static boolean isOverloaded(ClientResponse response) {
+        return response.statusCode().is5xxServerError() || response.statusCode().value() == 429;
+    }
+}
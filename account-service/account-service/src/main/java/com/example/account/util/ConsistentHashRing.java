@@ -0,0 +1,86 @@
+package com.example.account.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Immutable consistent-hash ring. Each member is placed at virtualNodes points on a 64-bit ring and
+ * a key belongs to the first member clockwise from its hash, so adding or removing one of N members
+ * moves only about 1/N of the keys. Build a new ring when membership changes.
+ */
+public class ConsistentHashRing {
+
+    private final Set<String> members;
+    private final long[] points;
+    private final String[] owners;
+
+    public ConsistentHashRing(Collection<String> members, int virtualNodes) {
+        this.members = Set.copyOf(members);
+        long[] hashes = new long[this.members.size() * virtualNodes];
+        String[] byHash = new String[hashes.length];
+        int i = 0;
+        for (String member : this.members) {
+            for (int node = 0; node < virtualNodes; node++) {
+                hashes[i] = hash(member + "#" + node);
+                byHash[i++] = member;
+            }
+        }
+        // Sort the points and carry their owners along
+        Integer[] order = new Integer[hashes.length];
+        for (int j = 0; j < order.length; j++) {
+            order[j] = j;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+        this.points = new long[hashes.length];
+        this.owners = new String[hashes.length];
+        for (int j = 0; j < order.length; j++) {
+            points[j] = hashes[order[j]];
+            owners[j] = byHash[order[j]];
+        }
+    }
+
+    public Set<String> members() {
+        return members;
+    }
+
+    public String get(String key) {
+        return get(key, member -> true);
+    }
+
+    // The first eligible member clockwise from the key, so the keys of a skipped member spread over the
+    // others and every other key stays put; null when no member is eligible
+    public String get(String key, Predicate<String> eligible) {
+        if (points.length == 0) {
+            return null;
+        }
+        int start = Arrays.binarySearch(points, hash(key));
+        if (start < 0) {
+            start = -start - 1;
+        }
+        for (int i = 0; i < points.length; i++) {
+            String owner = owners[(start + i) % points.length];
+            if (eligible.test(owner)) {
+                return owner;
+            }
+        }
+        return null;
+    }
+
+    // FNV-1a, then the murmur3 finalizer so that similar keys (account ids, "host#1", "host#2") spread out
+    static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
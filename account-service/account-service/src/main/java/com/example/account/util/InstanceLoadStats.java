@@ -0,0 +1,233 @@
+package com.example.account.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * In-flight requests and a peak-sensitive EWMA of latency for every service instance this service
+ * calls, keyed by host:port. Used as a WebClient filter behind the load balancer filter, so it sees
+ * each request once its instance has been chosen, and read by LatencyAwareLoadBalancer.
+ *
+ * An instance is ejected for base-ejection-time (longer each time it is ejected again) after
+ * consecutive-failures 5xx responses or errors in a row, or when its latency is over
+ * latency-outlier-min and more than latency-outlier-factor times the median of its peers.
+ */
+public class InstanceLoadStats implements ExchangeFilterFunction {
+
+    // Weight of a sample faster than the current average
+    private static final double SMOOTHING = 0.2;
+
+    private final MeterRegistry meterRegistry;
+    private final LongSupplier nanoClock;
+    private final long initialLatencyNanos;
+    private final long decayNanos;
+    private final int consecutiveFailures;
+    private final double latencyOutlierFactor;
+    private final long latencyOutlierMinNanos;
+    private final long baseEjectionNanos;
+    private final int maxEjectionMultiplier;
+    private final Map<String, Instance> instances = new ConcurrentHashMap<>();
+    private final Map<String, Counter> ejections = new ConcurrentHashMap<>();
+
+    public InstanceLoadStats(MeterRegistry meterRegistry, Duration initialLatency, Duration decay, int consecutiveFailures,
+                             double latencyOutlierFactor, Duration latencyOutlierMin, Duration baseEjectionTime,
+                             int maxEjectionMultiplier) {
+        this(meterRegistry, System::nanoTime, initialLatency, decay, consecutiveFailures, latencyOutlierFactor,
+                latencyOutlierMin, baseEjectionTime, maxEjectionMultiplier);
+    }
+
+    InstanceLoadStats(MeterRegistry meterRegistry, LongSupplier nanoClock, Duration initialLatency, Duration decay,
+                      int consecutiveFailures, double latencyOutlierFactor, Duration latencyOutlierMin,
+                      Duration baseEjectionTime, int maxEjectionMultiplier) {
+        this.meterRegistry = meterRegistry;
+        this.nanoClock = nanoClock;
+        this.initialLatencyNanos = initialLatency.toNanos();
+        this.decayNanos = decay.toNanos();
+        this.consecutiveFailures = consecutiveFailures;
+        this.latencyOutlierFactor = latencyOutlierFactor;
+        this.latencyOutlierMinNanos = latencyOutlierMin.toNanos();
+        this.baseEjectionNanos = baseEjectionTime.toNanos();
+        this.maxEjectionMultiplier = maxEjectionMultiplier;
+    }
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        return Mono.defer(() -> {
+            Instance instance = instance(key(request.url()));
+            long start = instance.start();
+            // A cancel can follow the response (a caller's timeout while the body is read); count the request out once
+            AtomicBoolean done = new AtomicBoolean();
+            return next.exchange(request)
+                    .doOnSuccess(response -> {
+                        if (done.compareAndSet(false, true)) {
+                            instance.complete(start, response == null || response.statusCode().is5xxServerError());
+                        }
+                    })
+                    .doOnError(e -> {
+                        if (done.compareAndSet(false, true)) {
+                            instance.complete(start, true);
+                        }
+                    })
+                    // Callers cancel on their own timeouts; a cancelled call still tells us the instance was at least this slow
+                    .doOnCancel(() -> {
+                        if (done.compareAndSet(false, true)) {
+                            instance.cancel(start);
+                        }
+                    });
+        });
+    }
+
+    public static String key(String host, int port) {
+        return host + ":" + port;
+    }
+
+    // Latency scaled by the requests already outstanding; lower is better
+    public double cost(String key) {
+        return instance(key).cost();
+    }
+
+    public boolean isEjected(String key) {
+        return instance(key).isEjected();
+    }
+
+    public int inFlight(String key) {
+        return instance(key).inFlight();
+    }
+
+    // Ejects the candidates whose latency is far above the median of the rest
+    public void ejectLatencyOutliers(List<String> keys) {
+        List<Double> latencies = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            Instance instance = instance(key);
+            if (instance.isMeasured()) {
+                latencies.add(instance.latency());
+            }
+        }
+        // Needs enough measured peers for the median to mean something
+        if (latencies.size() < 3) {
+            return;
+        }
+        Collections.sort(latencies);
+        double threshold = Math.max(latencyOutlierMinNanos, latencies.get(latencies.size() / 2) * latencyOutlierFactor);
+        for (String key : keys) {
+            Instance instance = instance(key);
+            if (instance.isMeasured() && instance.latency() > threshold) {
+                instance.eject("latency");
+            }
+        }
+    }
+
+    // Also called for instances only seen by the load balancer, so their gauges exist before the first call
+    Instance instance(String key) {
+        return instances.computeIfAbsent(key, Instance::new);
+    }
+
+    private static String key(URI uri) {
+        return key(uri.getHost(), uri.getPort());
+    }
+
+    class Instance {
+
+        private final String key;
+        // Guarded by this
+        private int inFlight;
+        private double ewmaNanos = initialLatencyNanos;
+        private long stampNanos = nanoClock.getAsLong();
+        private boolean measured;
+        private int failures;
+        private int timesEjected;
+        private long ejectedUntilNanos;
+
+        private Instance(String key) {
+            this.key = key;
+            Gauge.builder("loadbalancer.instance.inflight", this, Instance::inFlight).tag("instance", key).register(meterRegistry);
+            Gauge.builder("loadbalancer.instance.latency", this, i -> i.latency() / 1_000_000)
+                    .tag("instance", key).baseUnit("milliseconds").register(meterRegistry);
+            Gauge.builder("loadbalancer.instance.ejected", this, i -> i.isEjected() ? 1 : 0)
+                    .tag("instance", key).register(meterRegistry);
+        }
+
+        synchronized long start() {
+            inFlight++;
+            return nanoClock.getAsLong();
+        }
+
+        synchronized void complete(long start, boolean failed) {
+            inFlight--;
+            observe(nanoClock.getAsLong() - start);
+            if (!failed) {
+                failures = 0;
+            } else if (++failures >= consecutiveFailures) {
+                eject("failures");
+            }
+        }
+
+        synchronized void cancel(long start) {
+            inFlight--;
+            long elapsed = nanoClock.getAsLong() - start;
+            if (elapsed > latency()) {
+                observe(elapsed);
+            }
+        }
+
+        synchronized int inFlight() {
+            return inFlight;
+        }
+
+        synchronized double cost() {
+            return latency() * (inFlight + 1);
+        }
+
+        // Observed since it was first seen or last let back in, and not ejected now
+        synchronized boolean isMeasured() {
+            return measured && !isEjected();
+        }
+
+        synchronized boolean isEjected() {
+            return ejectedUntilNanos - nanoClock.getAsLong() > 0;
+        }
+
+        // Decays towards zero while the instance gets no traffic, so an instance that was slow gets probed again
+        synchronized double latency() {
+            return ewmaNanos * Math.exp(-(nanoClock.getAsLong() - stampNanos) / (double) decayNanos);
+        }
+
+        synchronized void eject(String reason) {
+            failures = 0;
+            timesEjected = Math.min(timesEjected + 1, maxEjectionMultiplier);
+            ejectedUntilNanos = nanoClock.getAsLong() + baseEjectionNanos * timesEjected;
+            // Back in with a clean slate, so one slow sample does not eject it again straight away
+            ewmaNanos = initialLatencyNanos;
+            measured = false;
+            stampNanos = nanoClock.getAsLong();
+            ejections.computeIfAbsent(key + "/" + reason, k -> Counter.builder("loadbalancer.ejections")
+                    .tag("instance", key)
+                    .tag("reason", reason)
+                    .register(meterRegistry)).increment();
+        }
+
+        // Peak-sensitive: a slower sample is taken as is, faster ones are averaged in
+        private void observe(long rttNanos) {
+            double current = latency();
+            ewmaNanos = rttNanos > current ? rttNanos : current + (rttNanos - current) * SMOOTHING;
+            stampNanos = nanoClock.getAsLong();
+            measured = true;
+        }
+    }
+}
@@ -1,29 +1,115 @@
 package com.example.account.util;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
 import io.jsonwebtoken.security.Keys;
+import io.jsonwebtoken.security.SignatureException;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
 import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 @Component
 public class JwtUtil {
 
-    @Value("${jwt.secret}")
-    private String secret;
+    public static final String CLAIM_ROLES = "roles";
+    public static final String CLAIM_ACCOUNT_ID = "accountId";
+    // Held only by service tokens, which account-service instances and transaction-service mint for
+    // calls made on nobody's behalf; account-service never issues it to a user
+    public static final String ROLE_SERVICE = "ROLE_SERVICE";
 
-    @Value("${jwt.expiration}")
-    private Long expiration;
+    static final long SERVICE_TOKEN_SECONDS = 300;
 
-    private Key getSigningKey() {
-        return Keys.hmacShaKeyFor(secret.getBytes());
+    static final String DEFAULT_KEY_ID = "default";
+
+    private final Long expiration;
+    private final String keyId;
+    private final Key signingKey;
+    // Current key plus the keys being rotated out, by key id; tokens name theirs in the kid header
+    private final Map<String, Key> verificationKeys = new LinkedHashMap<>();
+    private final JwtParser parser;
+    // Verified claims by SHA-256 of the token; each entry lives exactly as long as its token
+    private final Cache<String, Claims> verifiedClaims;
+    private volatile ServiceToken serviceToken;
+
+    private record ServiceToken(String serviceName, String token, long renewAtMillis) {
+    }
+
+    public JwtUtil(String secret, Long expiration, long claimsCacheSize) {
+        this(secret, DEFAULT_KEY_ID, new String[0], expiration, claimsCacheSize);
+    }
+
+    // previousKeys entries are "<key id>:<secret>"
+    @Autowired
+    public JwtUtil(@Value("${jwt.secret}") String secret,
+                   @Value("${jwt.key-id:" + DEFAULT_KEY_ID + "}") String keyId,
+                   @Value("${jwt.previous-keys:}") String[] previousKeys,
+                   @Value("${jwt.expiration}") Long expiration,
+                   @Value("${jwt.claims-cache.maximum-size:100000}") long claimsCacheSize) {
+        this.expiration = expiration;
+        this.keyId = keyId;
+        this.signingKey = Keys.hmacShaKeyFor(secret.getBytes());
+        verificationKeys.put(keyId, signingKey);
+        for (String previousKey : previousKeys) {
+            int separator = previousKey.indexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("jwt.previous-keys entries must be <key id>:<secret>");
+            }
+            verificationKeys.putIfAbsent(previousKey.substring(0, separator).trim(),
+                    Keys.hmacShaKeyFor(previousKey.substring(separator + 1).trim().getBytes()));
+        }
+        this.parser = Jwts.parserBuilder()
+                .setSigningKeyResolver(new SigningKeyResolverAdapter() {
+                    // jjwt 0.11 declares this parameter as a raw JwsHeader, so it cannot be parameterized here
+                    @Override
+                    @SuppressWarnings("rawtypes")
+                    public Key resolveSigningKey(JwsHeader header, Claims claims) {
+                        return verificationKey(header.getKeyId());
+                    }
+                })
+                .build();
+        this.verifiedClaims = Caffeine.newBuilder()
+                .maximumSize(claimsCacheSize)
+                .expireAfter(new Expiry<String, Claims>() {
+                    @Override
+                    public long expireAfterCreate(String key, Claims claims, long currentTime) {
+                        return TimeUnit.MILLISECONDS.toNanos(
+                                Math.max(0, claims.getExpiration().getTime() - System.currentTimeMillis()));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Claims claims, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Claims claims, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
     }
 
     public String generateToken(String username) {
@@ -31,6 +117,46 @@ public class JwtUtil {
         return doGenerateToken(claims, username);
     }
 
+    // Embeds what the filter needs to authenticate the request without loading the account
+    public String generateToken(String username, Long accountId, Collection<String> roles) {
+        Map<String, Object> claims = new HashMap<>();
+        claims.put(CLAIM_ACCOUNT_ID, accountId);
+        claims.put(CLAIM_ROLES, new ArrayList<>(roles));
+        return doGenerateToken(claims, username);
+    }
+
+    // Short-lived and shared by every call until half its lifetime has passed, so receivers verify it
+    // once and then find it in their claims cache
+    public String generateServiceToken(String serviceName) {
+        ServiceToken current = serviceToken;
+        long now = System.currentTimeMillis();
+        if (current == null || !current.serviceName().equals(serviceName) || now >= current.renewAtMillis()) {
+            Map<String, Object> claims = new HashMap<>();
+            claims.put(CLAIM_ROLES, List.of(ROLE_SERVICE));
+            String token = Jwts.builder()
+                    .setHeaderParam(JwsHeader.KEY_ID, keyId)
+                    .setClaims(claims)
+                    .setSubject(serviceName)
+                    .setId(UUID.randomUUID().toString())
+                    .setIssuedAt(new Date(now))
+                    .setExpiration(new Date(now + SERVICE_TOKEN_SECONDS * 1000))
+                    .signWith(signingKey, SignatureAlgorithm.HS512)
+                    .compact();
+            current = new ServiceToken(serviceName, token, now + SERVICE_TOKEN_SECONDS * 500);
+            serviceToken = current;
+        }
+        return current.token();
+    }
+
+    public static boolean isExpired(Claims claims) {
+        return claims.getExpiration().before(new Date());
+    }
+
+    public static boolean isServiceToken(Claims claims) {
+        List<?> roles = claims.get(CLAIM_ROLES, List.class);
+        return roles != null && roles.contains(ROLE_SERVICE);
+    }
+
     public String getUsernameFromToken(String token) {
         return getClaimFromToken(token, Claims::getSubject);
     }
@@ -44,31 +170,46 @@ public class JwtUtil {
         return claimsResolver.apply(claims);
     }
 
-    private Claims getAllClaimsFromToken(String token) {
-        return Jwts.parserBuilder()
-                .setSigningKey(getSigningKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+    public Claims getAllClaimsFromToken(String token) {
+        return verifiedClaims.get(hash(token), key -> parser.parseClaimsJws(token).getBody());
     }
 
-    private Boolean isTokenExpired(String token) {
-        final Date expiration = getExpirationDateFromToken(token);
-        return expiration.before(new Date());
+    private Key verificationKey(String tokenKeyId) {
+        // Tokens issued before key ids were introduced carry no kid and were signed with the current secret
+        if (tokenKeyId == null) {
+            return signingKey;
+        }
+        Key key = verificationKeys.get(tokenKeyId);
+        if (key == null) {
+            throw new SignatureException("Unknown signing key id: " + tokenKeyId);
+        }
+        return key;
     }
 
+
     private String doGenerateToken(Map<String, Object> claims, String subject) {
         return Jwts.builder()
+                .setHeaderParam(JwsHeader.KEY_ID, keyId)
                 .setClaims(claims)
                 .setSubject(subject)
+                .setId(UUID.randomUUID().toString())
                 .setIssuedAt(new Date(System.currentTimeMillis()))
                 .setExpiration(new Date(System.currentTimeMillis() + expiration * 1000))
-                .signWith(getSigningKey(), SignatureAlgorithm.HS512)
+                .signWith(signingKey, SignatureAlgorithm.HS512)
                 .compact();
     }
 
     public Boolean validateToken(String token, String username) {
-        final String extractedUsername = getUsernameFromToken(token);
-        return (extractedUsername.equals(username) && !isTokenExpired(token));
+        final Claims claims = getAllClaimsFromToken(token);
+        return (claims.getSubject().equals(username) && !isExpired(claims));
+    }
+
+    private static String hash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
     }
 }
@@ -0,0 +1,121 @@
+package com.example.account.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.DefaultResponse;
+import org.springframework.cloud.client.loadbalancer.EmptyResponse;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.client.loadbalancer.RequestDataContext;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.loadbalancer.core.NoopServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Mono;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Power-of-two-choices over the instances that are not ejected: two distinct instances are drawn at
+ * random and the one with the lower InstanceLoadStats cost (latency EWMA times outstanding requests)
+ * gets the request. Unlike least-loaded, the random draw keeps instances that look equally good from
+ * all being hit at once. Each pick is counted in loadbalancer.selections{service, instance}.
+ *
+ * A request carrying an X-Affinity-Key header (an account id, an email) instead goes to the key's
+ * owner on a consistent-hash ring of the instances, so one instance keeps serving the same keys; the
+ * callers that set the header say what that buys them. The ring is rebuilt whenever the registry reports a different set of instances; an
+ * ejected owner's keys go to the next instance on the ring until it is let back in.
+ */
+public class LatencyAwareLoadBalancer implements ReactorServiceInstanceLoadBalancer {
+
+    public static final String AFFINITY_HEADER = "X-Affinity-Key";
+
+    private final String serviceId;
+    private final ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSuppliers;
+    private final InstanceLoadStats instanceLoadStats;
+    private final MeterRegistry meterRegistry;
+    private final boolean affinityEnabled;
+    private final int virtualNodes;
+    private final Map<String, Counter> selections = new ConcurrentHashMap<>();
+    private volatile ConsistentHashRing ring;
+
+    public LatencyAwareLoadBalancer(String serviceId, ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSuppliers,
+                                    InstanceLoadStats instanceLoadStats, MeterRegistry meterRegistry, boolean affinityEnabled,
+                                    int virtualNodes) {
+        this.serviceId = serviceId;
+        this.serviceInstanceListSuppliers = serviceInstanceListSuppliers;
+        this.instanceLoadStats = instanceLoadStats;
+        this.meterRegistry = meterRegistry;
+        this.affinityEnabled = affinityEnabled;
+        this.virtualNodes = virtualNodes;
+        this.ring = new ConsistentHashRing(List.of(), virtualNodes);
+    }
+
+    // ReactorLoadBalancer declares this parameter as a raw Request, so it cannot be parameterized here
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Mono<Response<ServiceInstance>> choose(Request request) {
+        ServiceInstanceListSupplier supplier = serviceInstanceListSuppliers.getIfAvailable(NoopServiceInstanceListSupplier::new);
+        String affinityKey = affinityEnabled && request.getContext() instanceof RequestDataContext context
+                && context.getClientRequest() != null
+                ? context.getClientRequest().getHeaders().getFirst(AFFINITY_HEADER)
+                : null;
+        return supplier.get(request).next().map(instances -> choose(instances, affinityKey));
+    }
+
+    Response<ServiceInstance> choose(List<ServiceInstance> instances, String affinityKey) {
+        if (instances.isEmpty()) {
+            return new EmptyResponse();
+        }
+        List<String> keys = instances.stream().map(LatencyAwareLoadBalancer::key).toList();
+        instanceLoadStats.ejectLatencyOutliers(keys);
+        if (affinityKey != null) {
+            return respond(instances.get(keys.indexOf(owner(keys, affinityKey))));
+        }
+        List<ServiceInstance> available = instances.stream()
+                .filter(instance -> !instanceLoadStats.isEjected(key(instance)))
+                .toList();
+        if (available.isEmpty()) {
+            // Ejecting every instance would turn a partial outage into a total one
+            available = instances;
+        }
+        ServiceInstance chosen = available.get(0);
+        if (available.size() > 1) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(available.size());
+            int second = random.nextInt(available.size() - 1);
+            ServiceInstance a = available.get(first);
+            ServiceInstance b = available.get(second >= first ? second + 1 : second);
+            chosen = instanceLoadStats.cost(key(a)) <= instanceLoadStats.cost(key(b)) ? a : b;
+        }
+        return respond(chosen);
+    }
+
+    private String owner(List<String> keys, String affinityKey) {
+        ConsistentHashRing current = ring;
+        if (!current.members().equals(new HashSet<>(keys))) {
+            current = new ConsistentHashRing(keys, virtualNodes);
+            ring = current;
+        }
+        String owner = current.get(affinityKey, key -> !instanceLoadStats.isEjected(key));
+        // Every instance ejected: the owner still beats sending nowhere
+        return owner != null ? owner : current.get(affinityKey);
+    }
+
+    private Response<ServiceInstance> respond(ServiceInstance chosen) {
+        selections.computeIfAbsent(key(chosen), k -> Counter.builder("loadbalancer.selections")
+                .tag("service", serviceId)
+                .tag("instance", k)
+                .register(meterRegistry)).increment();
+        return new DefaultResponse(chosen);
+    }
+
+    private static String key(ServiceInstance instance) {
+        return InstanceLoadStats.key(instance.getHost(), instance.getPort());
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.account.util;
+
+public enum TransferStatus {
+    COMMITTED,
+    REJECTED,  // insufficient balance; nothing was changed
+    NOT_LOCAL  // at least one account is not in this deployment's database
+}
@@ -0,0 +1,79 @@
+package com.example.account.cache;
+
+import com.example.account.util.JwtUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.client.serviceregistry.Registration;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BalanceCacheTest {
+
+    @Mock
+    private DiscoveryClient discoveryClient;
+
+    @Mock
+    private ObjectProvider<Registration> registration;
+
+    private SimpleMeterRegistry meterRegistry;
+    private BalanceCache balanceCache;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        meterRegistry = new SimpleMeterRegistry();
+        balanceCache = new BalanceCache(meterRegistry, discoveryClient, registration,
+                new JwtUtil("s2o8BcRxJoWo59Da6+Zmiq/eKFTGQ8lSnAXudW3ACCS7DnxFKoyfEZAeJw3YuQ9Tw7MBAn5JThJlcC/MBahhdg==", 3600L, 100),
+                "account-service",
+                100, Duration.ofMinutes(1), Duration.ofMillis(10));
+    }
+
+    @AfterEach
+    void tearDown() {
+        balanceCache.shutdown();
+    }
+
+    @Test
+    void get_shouldLoadOnce_andServeLaterReadsFromMemory() {
+        AtomicInteger loads = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(BigDecimal.TEN, balanceCache.get(1L, id -> {
+                loads.incrementAndGet();
+                return BigDecimal.TEN;
+            }));
+        }
+
+        assertEquals(1, loads.get());
+        assertEquals(2.0, meterRegistry.get("cache.gets").tag("result", "hit").functionCounter().count());
+    }
+
+    @Test
+    void evict_shouldForceReload_outsideATransaction() {
+        balanceCache.get(1L, id -> BigDecimal.TEN);
+
+        balanceCache.evict(1L);
+
+        assertEquals(BigDecimal.ONE, balanceCache.get(1L, id -> BigDecimal.ONE));
+    }
+
+    @Test
+    void evictLocal_shouldForceReload() {
+        balanceCache.get(1L, id -> BigDecimal.TEN);
+
+        balanceCache.evictLocal(List.of(1L));
+
+        assertEquals(BigDecimal.ZERO, balanceCache.get(1L, id -> BigDecimal.ZERO));
+    }
+}
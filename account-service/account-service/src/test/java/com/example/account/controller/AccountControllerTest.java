@@ -1,8 +1,14 @@
 package com.example.account.controller;
 
 import com.example.account.entity.Account;
+import com.example.account.request.BalanceOperationRequest;
+import com.example.account.request.PrepareRequest;
+import com.example.account.request.TransferRequest;
+import com.example.account.response.BalanceOperationResult;
 import com.example.account.service.AccountService;
 import com.example.account.util.JwtUtil;
+import com.example.account.util.TransactionType;
+import com.example.account.util.TransferStatus;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
@@ -12,6 +18,7 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
 import java.math.BigDecimal;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -78,6 +85,18 @@ class AccountControllerTest {
         verify(accountService, times(1)).withdraw(accountId, amount);
     }
 
+    @Test
+    void applyBatch_shouldReturnPerItemResults() {
+        List<BalanceOperationRequest> operations = List.of(
+                new BalanceOperationRequest(1L, TransactionType.DEPOSIT, BigDecimal.valueOf(100)));
+        List<BalanceOperationResult> results = List.of(BalanceOperationResult.applied(0, 1L));
+
+        when(accountService.applyBatch(operations)).thenReturn(results);
+
+        assertEquals(results, accountController.applyBatch(operations));
+        verify(accountService, times(1)).applyBatch(operations);
+    }
+
     @Test
     void checkBalance_shouldReturnBalance_whenValidAccountId() {
         Long accountId = 1L;
@@ -169,5 +188,22 @@ class AccountControllerTest {
         assertEquals(HttpStatus.OK, response.getStatusCode());
         verify(accountService, times(1)).rollbackTransaction(transactionId);
     }
-}
 
+    @Test
+    void transfer_shouldReturnTransferStatus() {
+        when(accountService.transfer(1L, 2L, BigDecimal.TEN)).thenReturn(TransferStatus.COMMITTED);
+
+        ResponseEntity<String> response = accountController.transfer(new TransferRequest(1L, 2L, BigDecimal.TEN));
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("COMMITTED", response.getBody());
+    }
+
+    @Test
+    void prepareBatch_shouldReturnOutcomePerLeg() {
+        List<PrepareRequest> requests = List.of(new PrepareRequest(1L, 1L, TransactionType.WITHDRAW, BigDecimal.TEN));
+        when(accountService.prepareBatch(requests)).thenReturn(List.of("PREPARED"));
+
+        assertEquals(List.of("PREPARED"), accountController.prepareBatch(requests));
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.account.controller;
+
+import com.example.account.service.TokenRevocations;
+import com.example.account.util.JwtUtil;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.MalformedJwtException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpStatus;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class AuthControllerTest {
+
+    @Mock
+    private JwtUtil jwtUtil;
+
+    @Mock
+    private TokenRevocations tokenRevocations;
+
+    @InjectMocks
+    private AuthController authController;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    @Test
+    void logout_shouldRevokeAValidToken() {
+        Claims claims = Jwts.claims().setSubject("test@example.com");
+        when(jwtUtil.getAllClaimsFromToken("valid")).thenReturn(claims);
+
+        assertEquals(HttpStatus.NO_CONTENT, authController.logout("Bearer valid").getStatusCode());
+
+        verify(tokenRevocations).revoke(claims);
+    }
+
+    @Test
+    void logout_shouldSucceedWithoutRevoking_whenTheTokenHasExpired() {
+        when(jwtUtil.getAllClaimsFromToken("expired")).thenThrow(new ExpiredJwtException(null, null, "JWT expired"));
+
+        assertEquals(HttpStatus.NO_CONTENT, authController.logout("Bearer expired").getStatusCode());
+
+        verify(tokenRevocations, never()).revoke(any());
+    }
+
+    @Test
+    void logout_shouldSucceedWithoutRevoking_whenTheTokenIsGarbage() {
+        when(jwtUtil.getAllClaimsFromToken("garbage")).thenThrow(new MalformedJwtException("Unable to read JSON value"));
+
+        assertEquals(HttpStatus.NO_CONTENT, authController.logout("Bearer garbage").getStatusCode());
+        assertEquals(HttpStatus.NO_CONTENT, authController.logout(null).getStatusCode());
+
+        verify(tokenRevocations, never()).revoke(any());
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.account.filter;
+
+import com.example.account.service.CustomUserDetailsService;
+import com.example.account.service.TokenDenyList;
+import com.example.account.util.JwtUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.User;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class JwtAuthenticationFilterTest {
+
+    private static final String SECRET =
+            "s2o8BcRxJoWo59Da6+Zmiq/eKFTGQ8lSnAXudW3ACCS7DnxFKoyfEZAeJw3YuQ9Tw7MBAn5JThJlcC/MBahhdg==";
+
+    @Mock
+    private CustomUserDetailsService userDetailsService;
+
+    private final JwtUtil jwtUtil = new JwtUtil(SECRET, 3600L, 100);
+    private final TokenDenyList tokenDenyList = new TokenDenyList();
+    private JwtAuthenticationFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        filter = new JwtAuthenticationFilter(jwtUtil, userDetailsService, tokenDenyList, true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void doFilter_shouldAuthenticateFromClaims_withoutLoadingTheAccount() throws Exception {
+        String token = jwtUtil.generateToken("test@example.com", 1L, List.of("ROLE_USER"));
+
+        filter.doFilter(request(token), new MockHttpServletResponse(), new MockFilterChain());
+
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        assertNotNull(authentication);
+        assertEquals("test@example.com", authentication.getName());
+        assertEquals("ROLE_USER", authentication.getAuthorities().iterator().next().getAuthority());
+        verifyNoInteractions(userDetailsService);
+    }
+
+    @Test
+    void doFilter_shouldLoadTheAccount_whenTokenHasNoRoles() throws Exception {
+        String token = jwtUtil.generateToken("test@example.com");
+        when(userDetailsService.loadUserByUsername("test@example.com"))
+                .thenReturn(User.withUsername("test@example.com").password("x").roles("USER").build());
+
+        filter.doFilter(request(token), new MockHttpServletResponse(), new MockFilterChain());
+
+        assertNotNull(SecurityContextHolder.getContext().getAuthentication());
+        verify(userDetailsService, times(1)).loadUserByUsername("test@example.com");
+    }
+
+    @Test
+    void doFilter_shouldNotAuthenticate_whenTokenIsRevoked() throws Exception {
+        String token = jwtUtil.generateToken("test@example.com", 1L, List.of("ROLE_USER"));
+        tokenDenyList.revoke(jwtUtil.getAllClaimsFromToken(token));
+
+        filter.doFilter(request(token), new MockHttpServletResponse(), new MockFilterChain());
+
+        assertNull(SecurityContextHolder.getContext().getAuthentication());
+    }
+
+    private static MockHttpServletRequest request(String token) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("Authorization", "Bearer " + token);
+        return request;
+    }
+}
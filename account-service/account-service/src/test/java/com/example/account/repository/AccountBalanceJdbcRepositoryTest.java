@@ -0,0 +1,107 @@
+package com.example.account.repository;
+
+import com.example.account.entity.Account;
+import com.example.account.request.BalanceOperationRequest;
+import com.example.account.util.TransactionType;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.client.RestTemplateAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+@ImportAutoConfiguration(RestTemplateAutoConfiguration.class)
+@Import(AccountBalanceJdbcRepository.class)
+class AccountBalanceJdbcRepositoryTest {
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private AccountBalanceJdbcRepository accountBalanceJdbcRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void applyAll_shouldApplyInOrder_andSkipOperationsThatWouldOverdraw() {
+        Long accountId = createAccount("batch@example.com", BigDecimal.valueOf(50));
+
+        int[] counts = accountBalanceJdbcRepository.applyAll(List.of(
+                new BalanceOperationRequest(accountId, TransactionType.WITHDRAW, BigDecimal.valueOf(80)),
+                new BalanceOperationRequest(accountId, TransactionType.DEPOSIT, BigDecimal.valueOf(40)),
+                new BalanceOperationRequest(accountId, TransactionType.WITHDRAW, BigDecimal.valueOf(80)),
+                new BalanceOperationRequest(-1L, TransactionType.DEPOSIT, BigDecimal.ONE)));
+
+        assertArrayEquals(new int[]{0, 1, 1, 0}, counts);
+        BigDecimal balance = jdbcTemplate.queryForObject("select balance from account where id = ?", BigDecimal.class, accountId);
+        assertEquals(0, BigDecimal.valueOf(10).compareTo(balance));
+    }
+
+    @Test
+    void lockPair_shouldReturnOnlyExistingAccounts() {
+        Long first = createAccount("first@example.com", BigDecimal.TEN);
+        Long second = createAccount("second@example.com", BigDecimal.TEN);
+
+        assertEquals(Map.of(first, "first@example.com", second, "second@example.com"),
+                accountBalanceJdbcRepository.lockPair(second, first));
+        assertEquals(Map.of(first, "first@example.com"), accountBalanceJdbcRepository.lockPair(first, -1L));
+    }
+
+    @Test
+    void applyDelta_shouldRefuseToOverdraw() {
+        Long accountId = createAccount("delta@example.com", BigDecimal.TEN);
+
+        assertEquals(0, accountBalanceJdbcRepository.applyDelta(accountId, BigDecimal.valueOf(-11)));
+        assertEquals(1, accountBalanceJdbcRepository.applyDelta(accountId, BigDecimal.valueOf(-10)));
+    }
+
+    @Test
+    void applyDeltas_shouldApplyNetAmounts_andLockAllReturnsBalances() {
+        Long payer = createAccount("payer@example.com", BigDecimal.valueOf(100));
+        Long payee = createAccount("payee@example.com", BigDecimal.ZERO);
+
+        assertArrayEquals(new int[]{1, 1}, accountBalanceJdbcRepository.applyDeltas(
+                new TreeMap<>(Map.of(payer, BigDecimal.valueOf(-60), payee, BigDecimal.valueOf(60)))));
+
+        Map<Long, Account> accounts = accountBalanceJdbcRepository.lockAll(List.of(payee, payer, -1L));
+        assertEquals(List.of(payer, payee), List.copyOf(accounts.keySet()));
+        assertEquals(0, BigDecimal.valueOf(40).compareTo(accounts.get(payer).getBalance()));
+        assertEquals("payee@example.com", accounts.get(payee).getEmail());
+    }
+
+    @Test
+    void applyDelta_shouldNotSpendFundsReservedByPreparedWithdrawals() {
+        Long accountId = createAccount("reserved@example.com", BigDecimal.valueOf(100));
+        jdbcTemplate.update("insert into pending_transaction (transaction_id, account_id, amount, type, status) values (?, ?, ?, ?, 'PENDING')",
+                501L, accountId, BigDecimal.valueOf(70), TransactionType.WITHDRAW.ordinal());
+
+        assertEquals(0, accountBalanceJdbcRepository.applyDelta(accountId, BigDecimal.valueOf(-31)));
+        assertEquals(1, accountBalanceJdbcRepository.applyDelta(accountId, BigDecimal.valueOf(-30)));
+        // Credits are never refused
+        assertEquals(1, accountBalanceJdbcRepository.applyDelta(accountId, BigDecimal.ONE));
+
+        // Once the leg is settled its reservation is spent by its own delta
+        jdbcTemplate.update("update pending_transaction set status = 'COMMITTED' where transaction_id = 501");
+        assertEquals(1, accountBalanceJdbcRepository.applyDelta(accountId, BigDecimal.valueOf(-70)));
+    }
+
+    private Long createAccount(String email, BigDecimal balance) {
+        Account account = new Account();
+        account.setName("Test User");
+        account.setEmail(email);
+        account.setPhoneNumber("12345678890");
+        account.setPassword("test");
+        account.setBalance(balance);
+        return accountRepository.saveAndFlush(account).getId();
+    }
+}
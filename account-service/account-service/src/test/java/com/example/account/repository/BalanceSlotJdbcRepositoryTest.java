@@ -0,0 +1,78 @@
+package com.example.account.repository;
+
+import com.example.account.entity.Account;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.client.RestTemplateAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+@ImportAutoConfiguration(RestTemplateAutoConfiguration.class)
+@Import({BalanceSlotJdbcRepository.class, AccountBalanceJdbcRepository.class})
+class BalanceSlotJdbcRepositoryTest {
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private BalanceSlotJdbcRepository balanceSlotRepository;
+
+    @Autowired
+    private AccountBalanceJdbcRepository accountBalanceJdbcRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void credits_shouldCountTowardsTheBalance_andDebitsMayDrawOnThem() {
+        Long accountId = createAccount("merchant@example.com", BigDecimal.TEN);
+
+        balanceSlotRepository.credit(accountId, 0, BigDecimal.valueOf(30));
+        balanceSlotRepository.credit(accountId, 0, BigDecimal.valueOf(5));
+        balanceSlotRepository.credit(accountId, 3, BigDecimal.valueOf(15));
+
+        assertEquals(0, BigDecimal.valueOf(60).compareTo(balanceSlotRepository.balanceOf(accountId).orElseThrow()));
+        assertEquals(List.of(accountId), balanceSlotRepository.accountsWithCredits());
+        assertEquals(0, BigDecimal.valueOf(60).compareTo(
+                accountBalanceJdbcRepository.lockAll(List.of(accountId)).get(accountId).getBalance()));
+
+        // The row goes negative, covered by the slots
+        assertEquals(1, accountBalanceJdbcRepository.applyDelta(accountId, BigDecimal.valueOf(-40)));
+        assertEquals(0, accountBalanceJdbcRepository.applyDelta(accountId, BigDecimal.valueOf(-21)));
+        assertEquals(0, BigDecimal.valueOf(20).compareTo(balanceSlotRepository.balanceOf(accountId).orElseThrow()));
+    }
+
+    @Test
+    void fold_shouldMoveEverySlotIntoTheAccountRow() {
+        Long accountId = createAccount("fold@example.com", BigDecimal.TEN);
+        balanceSlotRepository.credit(accountId, 1, BigDecimal.valueOf(7));
+        balanceSlotRepository.credit(accountId, 2, BigDecimal.valueOf(3));
+
+        assertEquals(0, BigDecimal.TEN.compareTo(balanceSlotRepository.fold(accountId)));
+
+        BigDecimal row = jdbcTemplate.queryForObject("select balance from account where id = ?", BigDecimal.class, accountId);
+        assertEquals(0, BigDecimal.valueOf(20).compareTo(row));
+        assertEquals(0, BigDecimal.valueOf(20).compareTo(balanceSlotRepository.balanceOf(accountId).orElseThrow()));
+        assertTrue(balanceSlotRepository.accountsWithCredits().isEmpty());
+        assertEquals(0, BigDecimal.ZERO.compareTo(balanceSlotRepository.fold(-1L)));
+        assertTrue(balanceSlotRepository.balanceOf(-1L).isEmpty());
+    }
+
+    private Long createAccount(String email, BigDecimal balance) {
+        Account account = new Account();
+        account.setName("Test User");
+        account.setEmail(email);
+        account.setPhoneNumber("12345678890");
+        account.setPassword("test");
+        account.setBalance(balance);
+        return accountRepository.saveAndFlush(account).getId();
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.account.repository;
+
+import com.example.account.entity.PendingTransaction;
+import com.example.account.request.PrepareRequest;
+import com.example.account.util.TransactionType;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.client.RestTemplateAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+@ImportAutoConfiguration(RestTemplateAutoConfiguration.class)
+@Import(PendingTransactionJdbcRepository.class)
+class PendingTransactionJdbcRepositoryTest {
+
+    @Autowired
+    private PendingTransactionRepository pendingTransactionRepository;
+
+    @Autowired
+    private PendingTransactionJdbcRepository pendingTransactionJdbcRepository;
+
+    @Test
+    void insertAll_shouldWriteRowsTheEntityCanRead() {
+        pendingTransactionJdbcRepository.insertAll(List.of(
+                new PrepareRequest(101L, 1L, TransactionType.WITHDRAW, BigDecimal.valueOf(20)),
+                new PrepareRequest(102L, 2L, TransactionType.DEPOSIT, BigDecimal.valueOf(20))));
+
+        PendingTransaction withdraw = pendingTransactionRepository.findByTransactionId(101L);
+        assertEquals(TransactionType.WITHDRAW, withdraw.getType());
+        assertEquals("PENDING", withdraw.getStatus());
+        assertEquals(TransactionType.DEPOSIT, pendingTransactionRepository.findByTransactionId(102L).getType());
+    }
+
+    @Test
+    void pendingWithdrawals_shouldSumOnlyPendingWithdrawals() {
+        pendingTransactionJdbcRepository.insertAll(List.of(
+                new PrepareRequest(201L, 1L, TransactionType.WITHDRAW, BigDecimal.valueOf(20)),
+                new PrepareRequest(202L, 1L, TransactionType.WITHDRAW, BigDecimal.valueOf(5)),
+                new PrepareRequest(203L, 1L, TransactionType.WITHDRAW, BigDecimal.valueOf(100)),
+                new PrepareRequest(204L, 1L, TransactionType.DEPOSIT, BigDecimal.valueOf(7))));
+        assertEquals(1, pendingTransactionJdbcRepository.updateStatus(List.of(203L), "COMMITTED"));
+
+        Map<Long, BigDecimal> totals = pendingTransactionJdbcRepository.pendingWithdrawals(List.of(1L, 2L));
+
+        assertEquals(1, totals.size());
+        assertEquals(0, BigDecimal.valueOf(25).compareTo(totals.get(1L)));
+    }
+
+    @Test
+    void lockPending_shouldMapRowsBackToEntities() {
+        pendingTransactionJdbcRepository.insertAll(List.of(
+                new PrepareRequest(401L, 1L, TransactionType.WITHDRAW, BigDecimal.TEN),
+                new PrepareRequest(402L, 2L, TransactionType.DEPOSIT, BigDecimal.TEN)));
+
+        List<PendingTransaction> pending = pendingTransactionJdbcRepository.lockPending(List.of(402L, 401L, 499L));
+
+        assertEquals(List.of(401L, 402L), pending.stream().map(PendingTransaction::getTransactionId).toList());
+        assertEquals(TransactionType.DEPOSIT, pending.get(1).getType());
+        assertEquals(2L, pending.get(1).getAccountId());
+    }
+
+    @Test
+    void updateStatus_shouldOnlyMoveLegsThatAreStillPending() {
+        pendingTransactionJdbcRepository.insertAll(List.of(
+                new PrepareRequest(301L, 1L, TransactionType.WITHDRAW, BigDecimal.ONE),
+                new PrepareRequest(302L, 2L, TransactionType.DEPOSIT, BigDecimal.ONE)));
+        pendingTransactionJdbcRepository.updateStatus(List.of(301L), "COMMITTED");
+
+        assertEquals(1, pendingTransactionJdbcRepository.updateStatus(List.of(301L, 302L, 303L), "ABORTED"));
+        assertTrue(pendingTransactionJdbcRepository.lockPending(List.of(301L, 302L)).isEmpty());
+        assertEquals("COMMITTED", pendingTransactionRepository.findByTransactionId(301L).getStatus());
+        assertEquals("ABORTED", pendingTransactionRepository.findByTransactionId(302L).getStatus());
+    }
+
+    @Test
+    void insertAborted_shouldMakeALatePrepareFail() {
+        pendingTransactionJdbcRepository.insertAborted(List.of(501L));
+
+        assertEquals(Map.of(501L, "ABORTED"), pendingTransactionJdbcRepository.statuses(List.of(501L, 502L)));
+        assertThrows(DuplicateKeyException.class, () -> pendingTransactionJdbcRepository.insertAll(List.of(
+                new PrepareRequest(501L, 1L, TransactionType.WITHDRAW, BigDecimal.TEN))));
+        assertTrue(pendingTransactionJdbcRepository.pendingWithdrawals(List.of(1L)).isEmpty());
+    }
+
+    @Test
+    void deleteTombstonesBefore_shouldOnlyDeleteOldTombstones() {
+        pendingTransactionJdbcRepository.insertAborted(List.of(601L));
+        pendingTransactionJdbcRepository.insertAll(List.of(new PrepareRequest(602L, 1L, TransactionType.WITHDRAW, BigDecimal.TEN)));
+        pendingTransactionJdbcRepository.updateStatus(List.of(602L), "ABORTED");
+
+        assertEquals(0, pendingTransactionJdbcRepository.deleteTombstonesBefore(Instant.now().minus(Duration.ofHours(1))));
+        assertEquals(1, pendingTransactionJdbcRepository.deleteTombstonesBefore(Instant.now().plus(Duration.ofHours(1))));
+        assertEquals(Map.of(602L, "ABORTED"), pendingTransactionJdbcRepository.statuses(List.of(601L, 602L)));
+    }
+}
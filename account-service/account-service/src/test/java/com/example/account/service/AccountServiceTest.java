@@ -1,14 +1,22 @@
 package com.example.account.service;
 
+import com.example.account.cache.BalanceCache;
 import com.example.account.entity.Account;
 import com.example.account.entity.PendingTransaction;
 import com.example.account.exception.AccountNotFoundException;
 import com.example.account.exception.DuplicateEmailException;
 import com.example.account.exception.InsufficientDataException;
 import com.example.account.exception.InvalidAmountException;
+import com.example.account.repository.AccountBalanceJdbcRepository;
 import com.example.account.repository.AccountRepository;
+import com.example.account.repository.NotificationOutboxRepository;
+import com.example.account.repository.PendingTransactionJdbcRepository;
 import com.example.account.repository.PendingTransactionRepository;
+import com.example.account.request.BalanceOperationRequest;
+import com.example.account.request.PrepareRequest;
+import com.example.account.response.BalanceOperationResult;
 import com.example.account.util.TransactionType;
+import com.example.account.util.TransferStatus;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
@@ -17,7 +25,11 @@ import org.mockito.MockitoAnnotations;
 import org.springframework.boot.test.context.SpringBootTest;
 
 import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -32,7 +44,22 @@ class AccountServiceTest {
     private PendingTransactionRepository pendingTransactionRepository;
 
     @Mock
-    private NotificationServiceClient notificationServiceClient;
+    private PendingTransactionJdbcRepository pendingTransactionJdbcRepository;
+
+    @Mock
+    private NotificationOutboxRepository notificationOutbox;
+
+    @Mock
+    private BalanceMutationEngine balanceMutationEngine;
+
+    @Mock
+    private AccountBalanceJdbcRepository accountBalanceJdbcRepository;
+
+    @Mock
+    private BalanceCache balanceCache;
+
+    @Mock
+    private HotAccountBalances hotAccountBalances;
 
     @InjectMocks
     private AccountService accountService;
@@ -78,13 +105,23 @@ class AccountServiceTest {
         account.setId(accountId);
         account.setBalance(BigDecimal.valueOf(200));
 
-        when(accountRepository.findById(accountId)).thenReturn(Optional.of(account));
-        when(accountRepository.save(any(Account.class))).thenReturn(account);
+        Account credited = new Account();
+        credited.setId(accountId);
+        credited.setBalance(account.getBalance().add(amount));
+
+        credited.setEmail("test@example.com");
+
+        when(balanceMutationEngine.apply(eq(accountId), eq(TransactionType.DEPOSIT), eq(amount), any())).thenAnswer(invocation -> {
+            invocation.<Consumer<Account>>getArgument(3).accept(credited);
+            return credited;
+        });
 
         Account updatedAccount = accountService.deposit(accountId, amount);
 
         assertEquals(BigDecimal.valueOf(300), updatedAccount.getBalance());
-        verify(accountRepository, times(1)).save(account);
+        verify(balanceMutationEngine, times(1)).apply(eq(accountId), eq(TransactionType.DEPOSIT), eq(amount), any());
+        verify(balanceCache, times(1)).evict(accountId);
+        verify(notificationOutbox, times(1)).insert("test@example.com", "DEPOSIT", "100");
 
     }
 
@@ -96,13 +133,16 @@ class AccountServiceTest {
         account.setId(accountId);
         account.setBalance(BigDecimal.valueOf(200));
 
-        when(accountRepository.findById(accountId)).thenReturn(Optional.of(account));
-        when(accountRepository.save(any(Account.class))).thenReturn(account);
+        Account debited = new Account();
+        debited.setId(accountId);
+        debited.setBalance(account.getBalance().subtract(amount));
+
+        when(balanceMutationEngine.apply(eq(accountId), eq(TransactionType.WITHDRAW), eq(amount), any())).thenReturn(debited);
 
         Account updatedAccount = accountService.withdraw(accountId, amount);
 
         assertEquals(BigDecimal.valueOf(100), updatedAccount.getBalance());
-        verify(accountRepository, times(1)).save(account);
+        verify(balanceMutationEngine, times(1)).apply(eq(accountId), eq(TransactionType.WITHDRAW), eq(amount), any());
 
     }
 
@@ -114,11 +154,70 @@ class AccountServiceTest {
         account.setId(accountId);
         account.setBalance(BigDecimal.valueOf(200));
 
-        when(accountRepository.findById(accountId)).thenReturn(Optional.of(account));
+        when(balanceMutationEngine.apply(eq(accountId), eq(TransactionType.WITHDRAW), eq(amount), any()))
+                .thenThrow(new InvalidAmountException("Insufficient balance."));
 
         assertThrows(InvalidAmountException.class, () -> accountService.withdraw(accountId, amount));
         verify(accountRepository, never()).save(account);
-        verify(notificationServiceClient, never()).sendNotification(anyString(), anyString(), anyString());
+        verifyNoInteractions(notificationOutbox);
+    }
+
+    @Test
+    void checkBalance_shouldLoadOnlyTheBalance_whenNotCached() {
+        Long accountId = 1L;
+        when(accountRepository.findBalanceById(accountId)).thenReturn(Optional.of(BigDecimal.valueOf(200)));
+        when(balanceCache.get(eq(accountId), any())).thenAnswer(invocation ->
+                invocation.<Function<Long, BigDecimal>>getArgument(1).apply(accountId));
+
+        assertEquals(BigDecimal.valueOf(200), accountService.checkBalance(accountId));
+        verify(accountRepository, never()).findById(accountId);
+    }
+
+    @Test
+    void checkBalance_shouldIncludeSlots_whenAccountIsHot() {
+        when(hotAccountBalances.isHot(7L)).thenReturn(true);
+        when(hotAccountBalances.balanceOf(7L)).thenReturn(Optional.of(BigDecimal.valueOf(950)));
+        when(balanceCache.get(eq(7L), any())).thenAnswer(invocation ->
+                invocation.<Function<Long, BigDecimal>>getArgument(1).apply(7L));
+
+        assertEquals(BigDecimal.valueOf(950), accountService.checkBalance(7L));
+        verify(accountRepository, never()).findBalanceById(7L);
+    }
+
+    @Test
+    void commitTransaction_shouldCreditASlot_andLeaveTheRowAlone_whenDepositTargetIsHot() {
+        PendingTransaction pendingTransaction = new PendingTransaction(42L, 7L, BigDecimal.valueOf(100), TransactionType.DEPOSIT, "PENDING");
+        Account account = new Account();
+        account.setId(7L);
+        account.setEmail("merchant@example.com");
+        account.setBalance(BigDecimal.valueOf(200));
+
+        when(pendingTransactionRepository.findByTransactionId(42L)).thenReturn(pendingTransaction);
+        when(accountRepository.findById(7L)).thenReturn(Optional.of(account));
+        when(hotAccountBalances.isHot(7L)).thenReturn(true);
+        when(pendingTransactionJdbcRepository.updateStatus(List.of(42L), "COMMITTED")).thenReturn(1);
+
+        accountService.commitTransaction(42L);
+
+        verify(hotAccountBalances).credit(7L, 42L, BigDecimal.valueOf(100), null);
+        verify(accountRepository, never()).save(any());
+        verify(balanceCache).evict(7L);
+        verify(pendingTransactionJdbcRepository).updateStatus(List.of(42L), "COMMITTED");
+        verify(notificationOutbox).insert("merchant@example.com", "DEPOSIT", "100");
+    }
+
+    @Test
+    void withdraw_shouldFoldSlotsFirst_whenAccountIsHot() {
+        Account account = new Account();
+        account.setBalance(BigDecimal.valueOf(50));
+        when(hotAccountBalances.isHot(7L)).thenReturn(true);
+        when(balanceMutationEngine.apply(eq(7L), eq(TransactionType.WITHDRAW), eq(BigDecimal.TEN), any())).thenReturn(account);
+
+        accountService.withdraw(7L, BigDecimal.TEN);
+
+        var inOrder = inOrder(hotAccountBalances, balanceMutationEngine);
+        inOrder.verify(hotAccountBalances).consolidate(7L);
+        inOrder.verify(balanceMutationEngine).apply(eq(7L), eq(TransactionType.WITHDRAW), eq(BigDecimal.TEN), any());
     }
 
     @Test
@@ -133,17 +232,192 @@ class AccountServiceTest {
 
         Account account = new Account();
         account.setId(1L);
+        account.setEmail("test@example.com");
         account.setBalance(BigDecimal.valueOf(200));
 
         when(pendingTransactionRepository.findByTransactionId(transactionId)).thenReturn(pendingTransaction);
         when(accountRepository.findById(1L)).thenReturn(Optional.of(account));
-        when(accountRepository.save(account)).thenReturn(account);
+        when(pendingTransactionJdbcRepository.updateStatus(List.of(transactionId), "COMMITTED")).thenReturn(1);
+        when(accountBalanceJdbcRepository.applyDelta(1L, BigDecimal.valueOf(100))).thenReturn(1);
 
         accountService.commitTransaction(transactionId);
 
-        verify(accountRepository, times(1)).save(account);
-        verify(pendingTransactionRepository, times(1)).save(pendingTransaction);
+        // An atomic delta, never a read-modify-write of the row, applied after the leg is claimed
+        var inOrder = inOrder(pendingTransactionJdbcRepository, accountBalanceJdbcRepository);
+        inOrder.verify(pendingTransactionJdbcRepository).updateStatus(List.of(transactionId), "COMMITTED");
+        inOrder.verify(accountBalanceJdbcRepository, times(1)).applyDelta(1L, BigDecimal.valueOf(100));
+        verify(accountRepository, never()).save(any());
+        verify(balanceCache, times(1)).evict(1L);
+        verify(notificationOutbox, times(1)).insert("test@example.com", "DEPOSIT", "100");
 
     }
-}
 
+    @Test
+    void commitTransaction_shouldDoNothing_whenAConcurrentCommitClaimedTheLeg() {
+        PendingTransaction pendingTransaction = new PendingTransaction(5L, 1L, BigDecimal.TEN, TransactionType.WITHDRAW, "PENDING");
+        when(pendingTransactionRepository.findByTransactionId(5L)).thenReturn(pendingTransaction);
+        when(pendingTransactionJdbcRepository.updateStatus(List.of(5L), "COMMITTED")).thenReturn(0);
+
+        accountService.commitTransaction(5L);
+
+        verify(accountBalanceJdbcRepository, never()).applyDelta(anyLong(), any());
+        verifyNoInteractions(notificationOutbox);
+    }
+
+    @Test
+    void prepareWithdraw_shouldReserve_onlyWhatIsLeftAfterOtherPreparedWithdrawals() {
+        Account account = new Account();
+        account.setId(1L);
+        account.setBalance(BigDecimal.valueOf(100));
+        when(accountBalanceJdbcRepository.lockAll(List.of(1L))).thenReturn(Map.of(1L, account));
+        when(pendingTransactionJdbcRepository.pendingWithdrawals(List.of(1L))).thenReturn(Map.of(1L, BigDecimal.valueOf(70)));
+
+        assertFalse(accountService.prepareWithdraw(8L, 1L, BigDecimal.valueOf(40)));
+        assertTrue(accountService.prepareWithdraw(9L, 1L, BigDecimal.valueOf(30)));
+
+        verify(pendingTransactionJdbcRepository).insertAll(List.of(new PrepareRequest(9L, 1L, TransactionType.WITHDRAW, BigDecimal.valueOf(30))));
+        verify(pendingTransactionJdbcRepository, times(1)).insertAll(any());
+    }
+
+    @Test
+    void applyBatch_shouldReportPerItemResults_whenSomeOperationsCannotBeApplied() {
+        Account account = new Account();
+        account.setId(1L);
+        account.setEmail("test@example.com");
+
+        BalanceOperationRequest deposit = new BalanceOperationRequest(1L, TransactionType.DEPOSIT, BigDecimal.TEN);
+        BalanceOperationRequest overdraw = new BalanceOperationRequest(1L, TransactionType.WITHDRAW, BigDecimal.valueOf(1000));
+        BalanceOperationRequest unknown = new BalanceOperationRequest(2L, TransactionType.DEPOSIT, BigDecimal.TEN);
+        BalanceOperationRequest negative = new BalanceOperationRequest(1L, TransactionType.DEPOSIT, BigDecimal.valueOf(-1));
+
+        when(accountRepository.findAllById(anyIterable())).thenReturn(List.of(account));
+        when(accountBalanceJdbcRepository.applyAll(List.of(deposit, overdraw))).thenReturn(new int[]{1, 0});
+
+        List<BalanceOperationResult> results = accountService.applyBatch(List.of(deposit, overdraw, unknown, negative));
+
+        assertEquals(4, results.size());
+        assertEquals("APPLIED", results.get(0).getStatus());
+        assertEquals("Insufficient balance.", results.get(1).getError());
+        assertEquals("Account not found for ID: 2", results.get(2).getError());
+        assertEquals("Amount must be greater than zero.", results.get(3).getError());
+        verify(accountBalanceJdbcRepository, times(1)).applyAll(List.of(deposit, overdraw));
+        verify(notificationOutbox, times(1)).insertAll(argThat(notifications -> notifications.size() == 1
+                && notifications.get(0).getTo().equals("test@example.com")
+                && notifications.get(0).getText().equals("10")));
+    }
+
+    @Test
+    void applyBatch_shouldThrowInsufficientDataException_whenBatchIsEmpty() {
+        assertThrows(InsufficientDataException.class, () -> accountService.applyBatch(List.of()));
+        verifyNoInteractions(accountBalanceJdbcRepository);
+    }
+
+    @Test
+    void transfer_shouldDebitThenCredit_whenBothAccountsAreLocal() {
+        BigDecimal amount = BigDecimal.valueOf(25);
+        when(accountBalanceJdbcRepository.lockPair(1L, 2L)).thenReturn(Map.of(1L, "from@example.com", 2L, "to@example.com"));
+        when(accountBalanceJdbcRepository.applyDelta(1L, amount.negate())).thenReturn(1);
+        when(accountBalanceJdbcRepository.applyDelta(2L, amount)).thenReturn(1);
+
+        assertEquals(TransferStatus.COMMITTED, accountService.transfer(1L, 2L, amount));
+
+        verify(balanceCache, times(1)).evict(1L);
+        verify(balanceCache, times(1)).evict(2L);
+        verify(notificationOutbox, times(1)).insertAll(argThat(notifications -> notifications.size() == 2
+                && notifications.get(0).getTo().equals("from@example.com")
+                && notifications.get(1).getTo().equals("to@example.com")));
+    }
+
+    @Test
+    void transfer_shouldRejectWithoutCrediting_whenBalanceIsInsufficient() {
+        BigDecimal amount = BigDecimal.valueOf(25);
+        when(accountBalanceJdbcRepository.lockPair(1L, 2L)).thenReturn(Map.of(1L, "from@example.com", 2L, "to@example.com"));
+        when(accountBalanceJdbcRepository.applyDelta(1L, amount.negate())).thenReturn(0);
+
+        assertEquals(TransferStatus.REJECTED, accountService.transfer(1L, 2L, amount));
+
+        verify(accountBalanceJdbcRepository, never()).applyDelta(2L, amount);
+        verifyNoInteractions(notificationOutbox);
+    }
+
+    @Test
+    void transfer_shouldReportNotLocal_whenAnAccountIsMissing() {
+        when(accountBalanceJdbcRepository.lockPair(1L, 2L)).thenReturn(Map.of(1L, "from@example.com"));
+
+        assertEquals(TransferStatus.NOT_LOCAL, accountService.transfer(1L, 2L, BigDecimal.TEN));
+
+        verify(accountBalanceJdbcRepository, never()).applyDelta(anyLong(), any());
+    }
+
+    @Test
+    void prepareBatch_shouldReserveEarlierWithdrawals_whenOnePayerHasManyLegs() {
+        Account payer = new Account();
+        payer.setId(1L);
+        payer.setBalance(BigDecimal.valueOf(100));
+        Account payee = new Account();
+        payee.setId(2L);
+        payee.setBalance(BigDecimal.ZERO);
+        when(accountBalanceJdbcRepository.lockAll(any())).thenReturn(Map.of(1L, payer, 2L, payee));
+        when(pendingTransactionJdbcRepository.pendingWithdrawals(any())).thenReturn(Map.of(1L, BigDecimal.valueOf(30)));
+
+        List<String> outcomes = accountService.prepareBatch(List.of(
+                new PrepareRequest(10L, 1L, TransactionType.WITHDRAW, BigDecimal.valueOf(50)),
+                new PrepareRequest(11L, 2L, TransactionType.DEPOSIT, BigDecimal.valueOf(50)),
+                new PrepareRequest(12L, 1L, TransactionType.WITHDRAW, BigDecimal.valueOf(50)),
+                new PrepareRequest(13L, 3L, TransactionType.DEPOSIT, BigDecimal.valueOf(50))));
+
+        assertEquals(List.of("PREPARED", "PREPARED", "ABORT", "ABORT"), outcomes);
+        verify(pendingTransactionJdbcRepository).insertAll(List.of(
+                new PrepareRequest(10L, 1L, TransactionType.WITHDRAW, BigDecimal.valueOf(50)),
+                new PrepareRequest(11L, 2L, TransactionType.DEPOSIT, BigDecimal.valueOf(50))));
+    }
+
+    @Test
+    void prepareBatch_shouldAbortLegsRolledBackBeforeTheyArrived() {
+        Account payer = new Account();
+        payer.setId(1L);
+        payer.setBalance(BigDecimal.valueOf(100));
+        when(accountBalanceJdbcRepository.lockAll(any())).thenReturn(Map.of(1L, payer));
+        when(pendingTransactionJdbcRepository.statuses(List.of(10L, 11L))).thenReturn(Map.of(10L, "ABORTED"));
+
+        List<String> outcomes = accountService.prepareBatch(List.of(
+                new PrepareRequest(10L, 1L, TransactionType.WITHDRAW, BigDecimal.valueOf(50)),
+                new PrepareRequest(11L, 1L, TransactionType.WITHDRAW, BigDecimal.valueOf(50))));
+
+        assertEquals(List.of("ABORT", "PREPARED"), outcomes);
+        verify(pendingTransactionJdbcRepository).insertAll(List.of(
+                new PrepareRequest(11L, 1L, TransactionType.WITHDRAW, BigDecimal.valueOf(50))));
+    }
+
+    @Test
+    void rollbackBatch_shouldLeaveATombstone_forLegsNotPreparedYet() {
+        when(pendingTransactionJdbcRepository.statuses(List.of(10L, 11L))).thenReturn(Map.of(10L, "ABORTED"));
+
+        accountService.rollbackBatch(List.of(10L, 11L));
+
+        verify(pendingTransactionJdbcRepository).updateStatus(List.of(10L, 11L), "ABORTED");
+        verify(pendingTransactionJdbcRepository).insertAborted(List.of(11L));
+    }
+
+    @Test
+    void commitBatch_shouldApplyOneNetDeltaPerAccount() {
+        Account payer = new Account();
+        payer.setEmail("payer@example.com");
+        Account payee = new Account();
+        payee.setEmail("payee@example.com");
+        when(pendingTransactionJdbcRepository.lockPending(List.of(10L, 11L, 12L, 13L))).thenReturn(List.of(
+                new PendingTransaction(10L, 1L, BigDecimal.valueOf(20), TransactionType.WITHDRAW, "PENDING"),
+                new PendingTransaction(11L, 2L, BigDecimal.valueOf(20), TransactionType.DEPOSIT, "PENDING"),
+                new PendingTransaction(12L, 1L, BigDecimal.valueOf(30), TransactionType.WITHDRAW, "PENDING"),
+                new PendingTransaction(13L, 2L, BigDecimal.valueOf(30), TransactionType.DEPOSIT, "PENDING")));
+        when(accountBalanceJdbcRepository.lockAll(any())).thenReturn(Map.of(1L, payer, 2L, payee));
+        when(accountBalanceJdbcRepository.applyDeltas(any())).thenReturn(new int[]{1, 1});
+
+        accountService.commitBatch(List.of(10L, 11L, 12L, 13L));
+
+        verify(accountBalanceJdbcRepository).applyDeltas(Map.of(1L, BigDecimal.valueOf(-50), 2L, BigDecimal.valueOf(50)));
+        verify(pendingTransactionJdbcRepository).updateStatus(List.of(10L, 11L, 12L, 13L), "COMMITTED");
+        verify(balanceCache).evict(1L);
+        verify(balanceCache).evict(2L);
+    }
+}
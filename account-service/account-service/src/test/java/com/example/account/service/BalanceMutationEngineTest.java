@@ -0,0 +1,144 @@
+package com.example.account.service;
+
+import com.example.account.entity.Account;
+import com.example.account.entity.PendingTransaction;
+import com.example.account.exception.AccountNotFoundException;
+import com.example.account.exception.InvalidAmountException;
+import com.example.account.repository.AccountRepository;
+import com.example.account.repository.PendingTransactionRepository;
+import com.example.account.util.TransactionType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.client.RestTemplateAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+@ImportAutoConfiguration(RestTemplateAutoConfiguration.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class BalanceMutationEngineTest {
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private PendingTransactionRepository pendingTransactionRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private BalanceMutationEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        engine = new BalanceMutationEngine(accountRepository, transactionManager, true, 4, 64, 128);
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.shutdown();
+        pendingTransactionRepository.deleteAll();
+        accountRepository.deleteAll();
+    }
+
+    @Test
+    void apply_shouldNotLoseUpdates_whenManyThreadsHitTheSameAccount() throws Exception {
+        Long accountId = createAccount(BigDecimal.valueOf(1000)).getId();
+        int threads = 8;
+        int perThread = 250;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    engine.apply(accountId, TransactionType.DEPOSIT, BigDecimal.valueOf(2));
+                    engine.apply(accountId, TransactionType.WITHDRAW, BigDecimal.ONE);
+                }
+            }, executor));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        BigDecimal expected = BigDecimal.valueOf(1000 + threads * perThread);
+        assertEquals(0, expected.compareTo(accountRepository.findById(accountId).orElseThrow().getBalance()));
+    }
+
+    @Test
+    void apply_shouldRejectWithdrawal_whenBalanceIsInsufficient() {
+        Long accountId = createAccount(BigDecimal.valueOf(50)).getId();
+
+        assertThrows(InvalidAmountException.class,
+                () -> engine.apply(accountId, TransactionType.WITHDRAW, BigDecimal.valueOf(51)));
+        assertEquals(0, BigDecimal.valueOf(50).compareTo(accountRepository.findById(accountId).orElseThrow().getBalance()));
+    }
+
+    @Test
+    void apply_shouldRejectWithdrawal_whenItWouldSpendPreparedWithdrawals() {
+        Long accountId = createAccount(BigDecimal.valueOf(100)).getId();
+        engine.apply(accountId, TransactionType.DEPOSIT, BigDecimal.ONE);
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> pendingTransactionRepository.save(
+                new PendingTransaction(601L, accountId, BigDecimal.valueOf(60), TransactionType.WITHDRAW, "PENDING")));
+
+        assertThrows(InvalidAmountException.class,
+                () -> engine.apply(accountId, TransactionType.WITHDRAW, BigDecimal.valueOf(42)));
+        assertEquals(0, BigDecimal.valueOf(60).compareTo(engine.apply(accountId, TransactionType.WITHDRAW, BigDecimal.valueOf(41)).getBalance()));
+    }
+
+    @Test
+    void apply_shouldReloadBalance_whenRowWasChangedBehindTheEngine() {
+        Long accountId = createAccount(BigDecimal.valueOf(100)).getId();
+        engine.apply(accountId, TransactionType.DEPOSIT, BigDecimal.TEN);
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status ->
+                accountRepository.compareAndSetBalance(accountId, new BigDecimal("110.00"), new BigDecimal("500.00")));
+
+        Account account = engine.apply(accountId, TransactionType.WITHDRAW, BigDecimal.valueOf(400));
+
+        assertEquals(0, BigDecimal.valueOf(100).compareTo(account.getBalance()));
+        assertEquals(0, BigDecimal.valueOf(100).compareTo(accountRepository.findById(accountId).orElseThrow().getBalance()));
+    }
+
+    @Test
+    void apply_shouldRollBackTheBalance_whenOnAppliedFails() {
+        Long accountId = createAccount(BigDecimal.valueOf(100)).getId();
+
+        assertThrows(IllegalStateException.class, () -> engine.apply(accountId, TransactionType.DEPOSIT, BigDecimal.TEN,
+                account -> {
+                    throw new IllegalStateException("outbox unavailable");
+                }));
+        assertEquals(0, BigDecimal.valueOf(100).compareTo(accountRepository.findById(accountId).orElseThrow().getBalance()));
+    }
+
+    @Test
+    void apply_shouldThrowAccountNotFoundException_whenAccountDoesNotExist() {
+        assertThrows(AccountNotFoundException.class,
+                () -> engine.apply(-1L, TransactionType.DEPOSIT, BigDecimal.ONE));
+    }
+
+    private Account createAccount(BigDecimal balance) {
+        Account account = new Account();
+        account.setName("Test User");
+        account.setEmail("test-" + System.nanoTime() + "@example.com");
+        account.setPhoneNumber("12345678890");
+        account.setPassword("test");
+        account.setBalance(balance);
+        return accountRepository.save(account);
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.account.service;
+
+import com.example.account.repository.NotificationOutboxRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.client.RestTemplateAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@DataJpaTest
+@ImportAutoConfiguration(RestTemplateAutoConfiguration.class)
+@Import(NotificationOutboxRepository.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class NotificationOutboxDispatcherTest {
+
+    @Autowired
+    private NotificationOutboxRepository outboxRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final NotificationServiceClient notificationServiceClient = mock(NotificationServiceClient.class);
+
+    private NotificationOutboxDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() {
+        dispatcher = new NotificationOutboxDispatcher(outboxRepository, notificationServiceClient, transactionManager,
+                new SimpleMeterRegistry(), 2, 4, 2, Duration.ofMinutes(1), Duration.ofMinutes(5),
+                Duration.ofMinutes(1), Duration.ofHours(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        dispatcher.shutdown();
+        jdbcTemplate.update("delete from notification_outbox");
+    }
+
+    @Test
+    void dispatchDue_shouldDeleteDeliveredNotifications() {
+        when(notificationServiceClient.sendNotificationAsync(anyString(), anyString(), anyString())).thenReturn(Mono.empty());
+        for (int i = 0; i < 5; i++) {
+            outboxRepository.insert("user" + i + "@example.com", "DEPOSIT", "10");
+        }
+
+        assertEquals(5, dispatcher.dispatchDue());
+
+        verify(notificationServiceClient, times(5)).sendNotificationAsync(anyString(), eq("DEPOSIT"), eq("10"));
+        assertTrue(outboxRepository.stats().isEmpty());
+    }
+
+    @Test
+    void dispatchDue_shouldBackOffAndFinallyPark_whenDeliveryKeepsFailing() {
+        when(notificationServiceClient.sendNotificationAsync(anyString(), anyString(), anyString()))
+                .thenReturn(Mono.error(new WebClientResponseException(503, "Service Unavailable", null, null, null)));
+        outboxRepository.insert("test@example.com", "WITHDRAW", "10");
+
+        assertEquals(1, dispatcher.dispatchDue());
+        // Rescheduled a minute out, so an immediate second pass finds nothing due
+        assertEquals(0, dispatcher.dispatchDue());
+        Map<String, Object> row = jdbcTemplate.queryForMap("select status, attempts, last_error from notification_outbox");
+        assertEquals(NotificationOutboxRepository.PENDING, row.get("STATUS"));
+        assertEquals(1, ((Number) row.get("ATTEMPTS")).intValue());
+        assertNotNull(row.get("LAST_ERROR"));
+
+        jdbcTemplate.update("update notification_outbox set next_attempt_at = created_at");
+        assertEquals(1, dispatcher.dispatchDue());
+
+        assertEquals(1, outboxRepository.stats().get(NotificationOutboxRepository.FAILED).count());
+        assertEquals(0, dispatcher.dispatchDue());
+    }
+
+    @Test
+    void dispatchDue_shouldDropTheOutcome_whenTheLeaseWasTakenOverDuringTheSend() {
+        outboxRepository.insert("test@example.com", "DEPOSIT", "10");
+        when(notificationServiceClient.sendNotificationAsync(anyString(), anyString(), anyString())).thenAnswer(invocation -> {
+            // The lease ran out and another dispatcher claimed the row while this send was slow
+            jdbcTemplate.update("update notification_outbox set lease_owner = 'other'");
+            return Mono.error(new WebClientResponseException(503, "Service Unavailable", null, null, null));
+        });
+
+        assertEquals(1, dispatcher.dispatchDue());
+
+        Map<String, Object> row = jdbcTemplate.queryForMap("select status, attempts, lease_owner from notification_outbox");
+        assertEquals(NotificationOutboxRepository.IN_FLIGHT, row.get("STATUS"));
+        // Counted by the claim, not by the dropped outcome
+        assertEquals(1, ((Number) row.get("ATTEMPTS")).intValue());
+        assertEquals("other", row.get("LEASE_OWNER"));
+    }
+
+    @Test
+    void dispatchDue_shouldCountExpiredLeasesAsAttempts_andParkARowThatNeverReportsBack() {
+        outboxRepository.insert("test@example.com", "DEPOSIT", "10");
+        // Each claim is abandoned as if the dispatcher had crashed mid-send, and its lease runs out
+        when(notificationServiceClient.sendNotificationAsync(anyString(), anyString(), anyString())).thenAnswer(invocation -> {
+            jdbcTemplate.update("update notification_outbox set lease_owner = 'crashed', next_attempt_at = created_at");
+            return Mono.empty();
+        });
+
+        assertEquals(1, dispatcher.dispatchDue());
+        assertEquals(1, dispatcher.dispatchDue());
+        // max-attempts is 2: the third pass parks the row instead of claiming it again
+        assertEquals(0, dispatcher.dispatchDue());
+
+        Map<String, Object> row = jdbcTemplate.queryForMap("select status, attempts from notification_outbox");
+        assertEquals(NotificationOutboxRepository.FAILED, row.get("STATUS"));
+        assertEquals(2, ((Number) row.get("ATTEMPTS")).intValue());
+        verify(notificationServiceClient, times(2)).sendNotificationAsync(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    void backoff_shouldGrowExponentially_upToTheCap() {
+        assertTrue(dispatcher.backoff(1).compareTo(Duration.ofSeconds(48)) >= 0);
+        assertTrue(dispatcher.backoff(2).compareTo(Duration.ofSeconds(96)) >= 0);
+        assertTrue(dispatcher.backoff(40).compareTo(Duration.ofMinutes(5)) <= 0);
+        assertTrue(dispatcher.backoff(40).compareTo(Duration.ofMinutes(4)) >= 0);
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.account.service;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenDenyListTest {
+
+    private final TokenDenyList tokenDenyList = new TokenDenyList();
+    private final long now = System.currentTimeMillis() / 1000 * 1000;
+
+    @Test
+    void revoke_shouldRevokeTheTokenAndEveryEarlierOne_ofThatUserOnly() {
+        tokenDenyList.revoke(token("a", "user@example.com", now));
+
+        assertTrue(tokenDenyList.isRevoked(token("a", "user@example.com", now)));
+        assertTrue(tokenDenyList.isRevoked(token("b", "user@example.com", now - 5_000)));
+        assertFalse(tokenDenyList.isRevoked(token("c", "user@example.com", now + 1_000)));
+        assertFalse(tokenDenyList.isRevoked(token("d", "other@example.com", now - 5_000)));
+    }
+
+    @Test
+    void revoke_shouldKeepALaterTokenFromTheSameSecondValid() {
+        tokenDenyList.revoke(token("a", "user@example.com", now));
+        tokenDenyList.revoke(token("b", "user@example.com", now));
+
+        assertTrue(tokenDenyList.isRevoked(token("a", "user@example.com", now)));
+        assertTrue(tokenDenyList.isRevoked(token("b", "user@example.com", now)));
+        assertFalse(tokenDenyList.isRevoked(token("c", "user@example.com", now)));
+    }
+
+    @Test
+    void revoke_shouldIgnoreExpiredTokens() {
+        Claims expired = token("a", "user@example.com", now).setExpiration(new Date(now - 1_000));
+
+        tokenDenyList.revoke(expired);
+
+        assertFalse(tokenDenyList.isRevoked(token("b", "user@example.com", now - 5_000)));
+    }
+
+    private Claims token(String id, String subject, long issuedAt) {
+        return Jwts.claims()
+                .setId(id)
+                .setSubject(subject)
+                .setIssuedAt(new Date(issuedAt))
+                .setExpiration(new Date(issuedAt + 3_600_000));
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.account.service;
+
+import com.example.account.entity.RevokedToken;
+import com.example.account.repository.RevokedTokenRepository;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class TokenRevocationsTest {
+
+    private final TokenDenyList tokenDenyList = new TokenDenyList();
+    private final RevokedTokenRepository revokedTokenRepository = mock(RevokedTokenRepository.class);
+    private final TokenRevocations tokenRevocations = new TokenRevocations(tokenDenyList, revokedTokenRepository,
+            Duration.ofHours(1), Duration.ofSeconds(10), Duration.ofHours(1));
+    private final long now = System.currentTimeMillis() / 1000 * 1000;
+
+    @AfterEach
+    void tearDown() {
+        tokenRevocations.shutdown();
+    }
+
+    @Test
+    void revoke_shouldRecordTheLogoutForOtherInstances_andApplyItHere() {
+        Claims claims = token("a", "user@example.com", now);
+
+        tokenRevocations.revoke(claims);
+
+        verify(revokedTokenRepository).insert(eq("user@example.com"), eq("a"), eq(now / 1000),
+                eq(claims.getExpiration().toInstant()), any());
+        assertTrue(tokenDenyList.isRevoked(claims));
+    }
+
+    @Test
+    void refresh_shouldApplyLogoutsFromOtherInstances_andReadFromTheLastOneSeenMinusTheOverlap() {
+        Instant revokedAt = Instant.now();
+        when(revokedTokenRepository.findRevokedAfter(any())).thenReturn(List.of(new RevokedToken(1L, "user@example.com", "a",
+                now / 1000, Instant.ofEpochMilli(now + 3_600_000), revokedAt)));
+
+        tokenRevocations.refresh();
+        tokenRevocations.refresh();
+
+        assertTrue(tokenDenyList.isRevoked(token("b", "user@example.com", now - 5_000)));
+        verify(revokedTokenRepository).findRevokedAfter(revokedAt.minusSeconds(10));
+    }
+
+    private Claims token(String id, String subject, long issuedAt) {
+        return Jwts.claims()
+                .setId(id)
+                .setSubject(subject)
+                .setIssuedAt(new Date(issuedAt))
+                .setExpiration(new Date(issuedAt + 3_600_000));
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.account.util;
+
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.security.SignatureException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JwtUtilTest {
+
+    private static final String SECRET =
+            "s2o8BcRxJoWo59Da6+Zmiq/eKFTGQ8lSnAXudW3ACCS7DnxFKoyfEZAeJw3YuQ9Tw7MBAn5JThJlcC/MBahhdg==";
+
+    private final JwtUtil jwtUtil = new JwtUtil(SECRET, 3600L, 100);
+
+    @Test
+    void validateToken_shouldReturnTrue_whenTokenBelongsToUser() {
+        String token = jwtUtil.generateToken("test@example.com");
+
+        assertEquals("test@example.com", jwtUtil.getUsernameFromToken(token));
+        assertTrue(jwtUtil.validateToken(token, "test@example.com"));
+        assertFalse(jwtUtil.validateToken(token, "other@example.com"));
+    }
+
+    @Test
+    void getUsernameFromToken_shouldRejectTamperedToken_evenWhenOriginalIsCached() {
+        String token = jwtUtil.generateToken("test@example.com");
+        jwtUtil.getUsernameFromToken(token);
+
+        String[] parts = token.split("\\.");
+        String forged = parts[0] + "." + parts[1] + "." + new StringBuilder(parts[2]).reverse();
+
+        assertThrows(SignatureException.class, () -> jwtUtil.getUsernameFromToken(forged));
+    }
+
+    @Test
+    void getUsernameFromToken_shouldRejectExpiredToken() {
+        JwtUtil expiring = new JwtUtil(SECRET, -1L, 100);
+        String token = expiring.generateToken("test@example.com");
+
+        assertThrows(ExpiredJwtException.class, () -> expiring.getUsernameFromToken(token));
+    }
+
+    @Test
+    void getUsernameFromToken_shouldAcceptTokensSignedWithAPreviousKey_afterRotation() {
+        String oldToken = new JwtUtil(SECRET, "k1", new String[0], 3600L, 100).generateToken("test@example.com");
+        String newSecret = "bmV3LXNlY3JldC1mb3ItdGhlLXJvdGF0ZWQta2V5LXRoYXQtaXMtbG9uZy1lbm91Z2gtZm9yLUhTNTEyLXNpZ25pbmc=";
+        JwtUtil rotated = new JwtUtil(newSecret, "k2", new String[]{"k1:" + SECRET}, 3600L, 100);
+        JwtUtil retired = new JwtUtil(newSecret, "k2", new String[0], 3600L, 100);
+
+        assertEquals("test@example.com", rotated.getUsernameFromToken(oldToken));
+        assertEquals("test@example.com", rotated.getUsernameFromToken(rotated.generateToken("test@example.com")));
+        assertThrows(SignatureException.class, () -> retired.getUsernameFromToken(oldToken));
+    }
+
+    @Test
+    void generateServiceToken_shouldCarryTheServiceRole_andBeReused() {
+        String token = jwtUtil.generateServiceToken("ACCOUNT-SERVICE");
+
+        assertSame(token, jwtUtil.generateServiceToken("ACCOUNT-SERVICE"));
+        assertTrue(JwtUtil.isServiceToken(jwtUtil.getAllClaimsFromToken(token)));
+        assertFalse(JwtUtil.isServiceToken(jwtUtil.getAllClaimsFromToken(
+                jwtUtil.generateToken("test@example.com", 1L, List.of("ROLE_USER")))));
+    }
+}
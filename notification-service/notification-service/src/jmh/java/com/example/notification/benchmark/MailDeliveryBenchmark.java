@@ -0,0 +1,87 @@
+package com.example.notification.benchmark;
+
+import com.example.notification.service.EmailService;
+import com.example.notification.support.SmtpStub;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers notifications to an in-process SMTP stub the old way, one JavaMailSender.send (and so one
+ * connection) per message on the calling thread, and through EmailService's queue and sender
+ * workers. greetingDelayMillis holds back the stub's greeting on every new connection to stand in for
+ * the handshake, STARTTLS and login a real relay costs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MailDeliveryBenchmark {
+
+    private static final int MESSAGES = 100;
+
+    @Param({"direct", "pipeline"})
+    public String path;
+
+    @Param({"0", "20"})
+    public long greetingDelayMillis;
+
+    private SmtpStub smtpStub;
+    private JavaMailSenderImpl mailSender;
+    private EmailService emailService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        smtpStub = new SmtpStub(Duration.ofMillis(greetingDelayMillis));
+        mailSender = new JavaMailSenderImpl();
+        mailSender.setHost("localhost");
+        mailSender.setPort(smtpStub.getPort());
+        mailSender.getJavaMailProperties().setProperty("mail.smtp.from", "bank@example.com");
+        if ("pipeline".equals(path)) {
+            emailService = new EmailService(mailSender, new SimpleMeterRegistry(), 10_000, 4, 50, 100,
+                    Duration.ofSeconds(1), Duration.ofSeconds(30), Duration.ofSeconds(10));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (emailService != null) {
+            emailService.shutdown();
+        }
+        smtpStub.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void deliver() {
+        int target = smtpStub.getRecipients().size() + MESSAGES;
+        for (int i = 0; i < MESSAGES; i++) {
+            if ("direct".equals(path)) {
+                SimpleMailMessage message = new SimpleMailMessage();
+                message.setTo("user" + i + "@example.com");
+                message.setSubject("DEPOSIT");
+                message.setText("100");
+                mailSender.send(message);
+            } else {
+                emailService.sendNotification("user" + i + "@example.com", "DEPOSIT", "100");
+            }
+        }
+        // Counts once the stub has the mail, not once it is queued
+        while (smtpStub.getRecipients().size() < target) {
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package com.example.notification.controller;
 
 import com.example.notification.request.NotificationRequest;
-import com.example.notification.service.EmailService;
+import com.example.notification.service.NotificationCoalescer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -9,16 +11,20 @@ import org.springframework.web.bind.annotation.*;
 @RequestMapping("/api/v1/notifications")
 public class NotificationController {
 
-    private final EmailService emailService;
+    private final NotificationCoalescer notificationCoalescer;
 
-    public NotificationController(EmailService emailService) {
-        this.emailService = emailService;
+    public NotificationController(NotificationCoalescer notificationCoalescer) {
+        this.notificationCoalescer = notificationCoalescer;
     }
 
+    // 202 once the mail is held for a digest or queued; 503 with Retry-After while the queue is full
     @PostMapping("/send")
     public ResponseEntity<String> sendNotification(@RequestBody NotificationRequest notificationRequest) {
-        emailService.sendNotification(notificationRequest.getTo(), notificationRequest.getSubject(), notificationRequest.getText());
-        return ResponseEntity.ok("sent email");
+        if (!notificationCoalescer.submit(notificationRequest.getTo(), notificationRequest.getSubject(), notificationRequest.getText())) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "1")
+                    .body("mail queue is full");
+        }
+        return ResponseEntity.accepted().body("queued email");
     }
 }
-
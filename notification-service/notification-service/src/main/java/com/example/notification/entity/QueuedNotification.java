@@ -0,0 +1,43 @@
+package com.example.notification.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.Instant;
+
+// Written by NotificationQueueRepository when a notification is accepted; deleted once it is sent
+@Entity
+@Table(name = "notification_queue", indexes = {
+        @Index(name = "idx_notification_queue_due", columnList = "status, nextAttemptAt"),
+        @Index(name = "idx_notification_queue_recipient", columnList = "recipient, status")})
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class QueuedNotification {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    private String recipient;
+    private String subject;
+    @Column(length = 4000)
+    private String text;
+    private String status; // 'PENDING', 'SENDING', 'FAILED'
+    private int attempts;
+    private Instant createdAt;
+    private Instant nextAttemptAt;
+    @Column(length = 1000)
+    private String lastError;
+    // The dispatcher that claimed a SENDING row; only it may record the outcome
+    private String leaseOwner;
+}
@@ -0,0 +1,142 @@
+package com.example.notification.repository;
+
+import com.example.notification.entity.QueuedNotification;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+@Repository
+public class NotificationQueueRepository {
+
+    public static final String PENDING = "PENDING";
+    public static final String SENDING = "SENDING";
+    public static final String FAILED = "FAILED";
+
+    // A SENDING row whose lease has run out belongs to a dispatcher that died mid-send
+    private static final String SELECT_DUE_SQL =
+            "select * from notification_queue where status in ('PENDING', 'SENDING') and next_attempt_at <= ? "
+                    + "and attempts < ? order by next_attempt_at, id limit ? for update skip locked";
+
+    // Rows held for a digest: accepted, not yet due and never attempted
+    private static final String HELD_SQL = "where status = 'PENDING' and attempts = 0 and next_attempt_at > ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    public NotificationQueueRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+    }
+
+    public void insert(String recipient, String subject, String text, Instant nextAttemptAt) {
+        jdbcTemplate.update("insert into notification_queue (recipient, subject, text, status, attempts, created_at, next_attempt_at) "
+                        + "values (?, ?, ?, 'PENDING', 0, ?, ?)",
+                recipient, subject, text, Timestamp.from(Instant.now()), Timestamp.from(nextAttemptAt));
+    }
+
+    // The recipient's notifications still held for a digest; rows waiting out a retry backoff are not part of one
+    public Optional<HeldDigest> heldDigest(String recipient, Instant now) {
+        HeldDigest held = jdbcTemplate.queryForObject("select min(next_attempt_at), count(*) from notification_queue "
+                        + HELD_SQL + " and recipient = ?",
+                (rs, rowNum) -> new HeldDigest(rs.getLong(2) == 0 ? null : rs.getTimestamp(1).toInstant(), rs.getLong(2)),
+                Timestamp.from(now), recipient);
+        return Optional.ofNullable(held).filter(digest -> digest.size() > 0);
+    }
+
+    // Makes the recipient's held notifications due now, for a digest that has filled up
+    public void releaseDigest(String recipient, Instant now) {
+        jdbcTemplate.update("update notification_queue set next_attempt_at = ? " + HELD_SQL + " and recipient = ?",
+                Timestamp.from(now), Timestamp.from(now), recipient);
+    }
+
+    // Notifications held for digests and the recipients they are held for, across all recipients
+    public Held held(Instant now) {
+        return jdbcTemplate.queryForObject("select count(*), count(distinct recipient) from notification_queue " + HELD_SQL,
+                (rs, rowNum) -> new Held(rs.getLong(1), rs.getLong(2)), Timestamp.from(now));
+    }
+
+    // Must run inside a transaction: the selected rows stay locked until they are leased. Every claim counts
+    // as an attempt, so a row whose sends crash or hang the dispatcher still runs out of attempts; the
+    // returned rows carry the count including this one
+    public List<QueuedNotification> claimDue(int limit, int maxAttempts, String owner, Instant leaseUntil) {
+        List<QueuedNotification> due = jdbcTemplate.query(SELECT_DUE_SQL, this::mapRow, Timestamp.from(Instant.now()), maxAttempts, limit);
+        if (!due.isEmpty()) {
+            namedJdbcTemplate.update("update notification_queue set status = 'SENDING', attempts = attempts + 1, lease_owner = :owner, "
+                            + "next_attempt_at = :leaseUntil where id in (:ids)",
+                    new MapSqlParameterSource()
+                            .addValue("owner", owner)
+                            .addValue("leaseUntil", Timestamp.from(leaseUntil))
+                            .addValue("ids", due.stream().map(QueuedNotification::getId).toList()));
+            due.forEach(notification -> notification.setAttempts(notification.getAttempts() + 1));
+        }
+        return due;
+    }
+
+    // Parks the rows whose lease ran out on their last attempt, which claimDue no longer picks up; returns how many
+    public int failAbandoned(int maxAttempts) {
+        return jdbcTemplate.update("update notification_queue set status = 'FAILED', lease_owner = null, last_error = ? "
+                        + "where status = 'SENDING' and next_attempt_at <= ? and attempts >= ?",
+                "Lease ran out on the last attempt", Timestamp.from(Instant.now()), maxAttempts);
+    }
+
+    // The outcome updates below only touch rows the owner still holds: a row whose lease ran out may already
+    // have been claimed and sent by another dispatcher
+
+    public void deleteAll(List<Long> ids, String owner) {
+        if (!ids.isEmpty()) {
+            namedJdbcTemplate.update("delete from notification_queue where id in (:ids) and lease_owner = :owner",
+                    Map.of("ids", ids, "owner", owner));
+        }
+    }
+
+    public void reschedule(Long id, String owner, int attempts, Instant nextAttemptAt, String error) {
+        jdbcTemplate.update("update notification_queue set status = 'PENDING', lease_owner = null, attempts = ?, next_attempt_at = ?, "
+                        + "last_error = ? where id = ? and lease_owner = ?",
+                attempts, Timestamp.from(nextAttemptAt), truncate(error), id, owner);
+    }
+
+    public void markFailed(Long id, String owner, int attempts, String error) {
+        jdbcTemplate.update("update notification_queue set status = 'FAILED', lease_owner = null, attempts = ?, last_error = ? "
+                        + "where id = ? and lease_owner = ?",
+                attempts, truncate(error), id, owner);
+    }
+
+    // Row count and oldest created_at per status
+    public Map<String, Stats> stats() {
+        Map<String, Stats> stats = new HashMap<>();
+        jdbcTemplate.query("select status, count(*), min(created_at) from notification_queue group by status", rs -> {
+            stats.put(rs.getString(1), new Stats(rs.getLong(2), rs.getTimestamp(3).toInstant()));
+        });
+        return stats;
+    }
+
+    public record Stats(long count, Instant oldestCreatedAt) {
+    }
+
+    public record HeldDigest(Instant dueAt, long size) {
+    }
+
+    public record Held(long notifications, long recipients) {
+    }
+
+    private QueuedNotification mapRow(ResultSet rs, int rowNum) throws SQLException {
+        return new QueuedNotification(rs.getLong("id"), rs.getString("recipient"), rs.getString("subject"),
+                rs.getString("text"), rs.getString("status"), rs.getInt("attempts"),
+                rs.getTimestamp("created_at").toInstant(), rs.getTimestamp("next_attempt_at").toInstant(),
+                rs.getString("last_error"), rs.getString("lease_owner"));
+    }
+
+    private static String truncate(String error) {
+        return error != null && error.length() > 1000 ? error.substring(0, 1000) : error;
+    }
+}
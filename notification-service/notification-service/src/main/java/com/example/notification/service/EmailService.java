@@ -1,24 +1,236 @@
 package com.example.notification.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMailMessage;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands mail to a pool of sender workers through a bounded in-memory queue. Each worker keeps
+ * its own SMTP connection open between messages, so the handshake, STARTTLS and login are paid once
+ * per max-messages-per-connection messages instead of once per message, and sends whatever has
+ * queued up (up to batch-size) back to back over it. The connection is closed after idle-timeout
+ * without mail. When the queue is full, sendNotification waits up to enqueue-timeout and then
+ * refuses the message. NotificationQueueDispatcher keeps the durable copy and retries anything
+ * refused or failed.
+ */
 @Service
 public class EmailService {
 
-    private final JavaMailSender javaMailSender;
+    private static final Log logger = LogFactory.getLog(EmailService.class);
+
+    private record Outgoing(SimpleMailMessage message, CompletableFuture<Void> sent) {
+    }
+
+    private final JavaMailSenderImpl mailSender;
+    private final BlockingQueue<Outgoing> queue;
+    private final int batchSize;
+    private final int maxMessagesPerConnection;
+    private final Duration enqueueTimeout;
+    private final Duration idleTimeout;
+    private final Duration shutdownTimeout;
+    private final ExecutorService workers;
+    private final Counter sent;
+    private final Counter failed;
+    private final Counter rejected;
+    private final Counter connections;
+    private final DistributionSummary batchSizes;
+    private volatile boolean stopping;
 
-    public EmailService(JavaMailSender javaMailSender) {
-        this.javaMailSender = javaMailSender;
+    public EmailService(JavaMailSenderImpl mailSender, MeterRegistry meterRegistry,
+                        @Value("${notification.mail.queue-capacity:1000}") int queueCapacity,
+                        @Value("${notification.mail.workers:4}") int workerCount,
+                        @Value("${notification.mail.batch-size:50}") int batchSize,
+                        @Value("${notification.mail.max-messages-per-connection:100}") int maxMessagesPerConnection,
+                        @Value("${notification.mail.enqueue-timeout:100ms}") Duration enqueueTimeout,
+                        @Value("${notification.mail.idle-timeout:30s}") Duration idleTimeout,
+                        @Value("${notification.mail.shutdown-timeout:10s}") Duration shutdownTimeout) {
+        this.mailSender = mailSender;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
+        this.enqueueTimeout = enqueueTimeout;
+        this.idleTimeout = idleTimeout;
+        this.shutdownTimeout = shutdownTimeout;
+        Gauge.builder("notification.mail.queue.size", queue, BlockingQueue::size).register(meterRegistry);
+        this.sent = Counter.builder("notification.mail.sent").register(meterRegistry);
+        this.failed = Counter.builder("notification.mail.failed").register(meterRegistry);
+        this.rejected = Counter.builder("notification.mail.rejected").register(meterRegistry);
+        this.connections = Counter.builder("notification.mail.connections").register(meterRegistry);
+        this.batchSizes = DistributionSummary.builder("notification.mail.batch.size").register(meterRegistry);
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, workerCount), r -> {
+            Thread thread = new Thread(r, "mail-sender-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < workerCount; i++) {
+            workers.execute(this::work);
+        }
     }
 
-    public void sendNotification(String to, String subject, String text) {
+    // Completes once the SMTP server has taken the message; fails if it could not be sent or the queue
+    // stayed full for enqueue-timeout
+    public CompletableFuture<Void> sendNotification(String to, String subject, String text) {
         SimpleMailMessage message = new SimpleMailMessage();
         message.setTo(to);
         message.setSubject(subject);
         message.setText(text);
-        javaMailSender.send(message);
+        Outgoing outgoing = new Outgoing(message, new CompletableFuture<>());
+        try {
+            if (!stopping && queue.offer(outgoing, enqueueTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                return outgoing.sent();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        rejected.increment();
+        return CompletableFuture.failedFuture(new RejectedExecutionException("Mail queue is full"));
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    // Stops taking mail and gives the workers shutdown-timeout to deliver what is queued
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        stopping = true;
+        long deadline = System.nanoTime() + shutdownTimeout.toNanos();
+        while (!queue.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        // Wakes idle workers; one in the middle of a batch finishes it first
+        workers.shutdownNow();
+        workers.awaitTermination(shutdownTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        List<Outgoing> unsent = new ArrayList<>();
+        queue.drainTo(unsent);
+        unsent.forEach(outgoing -> outgoing.sent().completeExceptionally(new RejectedExecutionException("Mail sender is shutting down")));
+    }
+
+    private void work() {
+        SmtpConnection connection = new SmtpConnection();
+        List<Outgoing> batch = new ArrayList<>(batchSize);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Outgoing first = queue.poll(idleTimeout.toMillis(), TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    connection.close();
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                deliver(batch, connection);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            connection.close();
+        }
     }
-}
 
+    private void deliver(List<Outgoing> batch, SmtpConnection connection) {
+        batchSizes.record(batch.size());
+        // Only the first message can find a connection the server dropped while it sat idle
+        boolean check = true;
+        for (Outgoing outgoing : batch) {
+            try {
+                connection.open(check);
+            } catch (MessagingException | RuntimeException e) {
+                // Nothing was handed over yet, so one retry on a fresh connection cannot send the message twice
+                connection.close();
+                try {
+                    connection.open(false);
+                } catch (MessagingException | RuntimeException retryFailure) {
+                    fail(outgoing, connection, retryFailure);
+                    continue;
+                }
+            }
+            check = false;
+            try {
+                connection.send(outgoing.message());
+                sent.increment();
+                outgoing.sent().complete(null);
+            } catch (MessagingException | RuntimeException e) {
+                // The server may already have taken it (the final reply can time out after DATA), so a resend
+                // here could deliver it twice; the queue's attempts and backoff decide whether it goes again
+                fail(outgoing, connection, e);
+            }
+        }
+    }
+
+    private void fail(Outgoing outgoing, SmtpConnection connection, Exception e) {
+        connection.close();
+        failed.increment();
+        logger.warn("Could not send notification to " + Arrays.toString(outgoing.message().getTo()) + ": " + e.getMessage());
+        outgoing.sent().completeExceptionally(e);
+    }
+
+    // One worker's SMTP connection, opened on first use and reopened after max-messages-per-connection
+    private class SmtpConnection {
+
+        private Transport transport;
+        private int messages;
+
+        // With check, a kept connection is probed (SMTP NOOP) first and replaced if the server has dropped it
+        void open(boolean check) throws MessagingException {
+            if (transport != null && (messages >= maxMessagesPerConnection || check && !transport.isConnected())) {
+                close();
+            }
+            if (transport == null) {
+                String protocol = mailSender.getProtocol() != null ? mailSender.getProtocol()
+                        : mailSender.getSession().getProperty("mail.transport.protocol");
+                transport = mailSender.getSession().getTransport(protocol != null ? protocol : JavaMailSenderImpl.DEFAULT_PROTOCOL);
+                transport.connect(mailSender.getHost(), mailSender.getPort(), mailSender.getUsername(), mailSender.getPassword());
+                connections.increment();
+                messages = 0;
+            }
+        }
+
+        // Over the connection opened by open
+        void send(SimpleMailMessage message) throws MessagingException {
+            MimeMessage mimeMessage = mailSender.createMimeMessage();
+            message.copyTo(new MimeMailMessage(mimeMessage));
+            mimeMessage.saveChanges();
+            messages++;
+            transport.sendMessage(mimeMessage, mimeMessage.getAllRecipients());
+        }
+
+        void close() {
+            if (transport == null) {
+                return;
+            }
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                // Already gone
+            }
+            transport = null;
+        }
+    }
+}
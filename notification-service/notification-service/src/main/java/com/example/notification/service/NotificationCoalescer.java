@@ -0,0 +1,86 @@
+package com.example.notification.service;
+
+import com.example.notification.repository.NotificationQueueRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Accepts notifications into the durable queue. A recipient's notifications fall due together one
+ * window after the first of them arrives, so NotificationQueueDispatcher sends them as a single
+ * digest; a digest that reaches max-per-digest entries and urgent subjects are due at once. Nothing
+ * more is accepted once max-depth notifications are waiting to be sent.
+ *
+ * A recipient's submits are serialized on one of a fixed set of locks, so a burst cannot read the same
+ * digest size and overrun the cap. account-service routes each recipient to one instance; should two
+ * instances take the same recipient's burst, the dispatcher still splits what falls due into
+ * max-per-digest emails.
+ */
+@Service
+public class NotificationCoalescer {
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final NotificationQueueRepository queueRepository;
+    private final NotificationQueueDispatcher queueDispatcher;
+    private final Duration window;
+    private final int maxPerDigest;
+    private final long maxDepth;
+    private final Set<String> urgentSubjects;
+    private final Counter received;
+    private final Counter bypassed;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    public NotificationCoalescer(NotificationQueueRepository queueRepository, NotificationQueueDispatcher queueDispatcher,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${notification.digest.window:60s}") Duration window,
+                                 @Value("${notification.digest.max-per-digest:50}") int maxPerDigest,
+                                 @Value("${notification.queue.max-depth:100000}") long maxDepth,
+                                 @Value("${notification.digest.urgent-subjects:WITHDRAW}") Set<String> urgentSubjects) {
+        this.queueRepository = queueRepository;
+        this.queueDispatcher = queueDispatcher;
+        this.window = window;
+        this.maxPerDigest = maxPerDigest;
+        this.maxDepth = maxDepth;
+        this.urgentSubjects = urgentSubjects;
+        this.received = Counter.builder("notification.digest.received").register(meterRegistry);
+        this.bypassed = Counter.builder("notification.digest.bypassed").register(meterRegistry);
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    // False when the queue is too deep to take more; otherwise the notification has been stored
+    public boolean submit(String to, String subject, String text) {
+        if (queueDispatcher.getDepth() >= maxDepth) {
+            return false;
+        }
+        received.increment();
+        if (window.isZero() || urgentSubjects.contains(subject)) {
+            bypassed.increment();
+            queueRepository.insert(to, subject, text, Instant.now());
+            return true;
+        }
+        // The digest's size is read and the notification added under one lock, or two could both fit under the cap
+        synchronized (locks[Math.floorMod(to.hashCode(), locks.length)]) {
+            Instant now = Instant.now();
+            Instant due;
+            // Join the recipient's open digest, or open one; a digest this fills up goes out at once
+            Optional<NotificationQueueRepository.HeldDigest> held = queueRepository.heldDigest(to, now);
+            if (held.map(NotificationQueueRepository.HeldDigest::size).orElse(0L) + 1 >= maxPerDigest) {
+                queueRepository.releaseDigest(to, now);
+                due = now;
+            } else {
+                due = held.map(NotificationQueueRepository.HeldDigest::dueAt).orElse(now.plus(window));
+            }
+            queueRepository.insert(to, subject, text, due);
+        }
+        return true;
+    }
+}
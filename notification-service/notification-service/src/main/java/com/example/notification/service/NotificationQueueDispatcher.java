@@ -0,0 +1,273 @@
+package com.example.notification.service;
+
+import com.example.notification.entity.QueuedNotification;
+import com.example.notification.repository.NotificationQueueRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Sends what is due in notification_queue. Due rows are claimed in batches with select ... for update
+ * skip locked and leased to this dispatcher, so instances sharing the database never send the same
+ * row, and an outcome is only recorded while the lease is still ours; a recipient's rows in a batch go
+ * out as one digest of up to max-per-digest entries. Sent rows are deleted; failed ones are retried
+ * with exponential backoff until max-attempts, then kept as FAILED. A claim whose lease runs out
+ * without an outcome counts as a failed attempt.
+ *
+ * notification.queue.depth, .failed and .lag report the rows waiting, given up on and the age of the
+ * oldest; notification.digest.pending and .recipients the notifications held for digests and their
+ * recipients; notification.digest.size records notifications per email, so its mean is the coalescing ratio.
+ */
+@Service
+public class NotificationQueueDispatcher {
+
+    private static final Log logger = LogFactory.getLog(NotificationQueueDispatcher.class);
+
+    private record Digest(String recipient, List<QueuedNotification> notifications) {
+    }
+
+    private record Outcome(Digest digest, String error) {
+    }
+
+    private final NotificationQueueRepository queueRepository;
+    private final EmailService emailService;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final int maxPerDigest;
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final Duration lease;
+    private final String owner = UUID.randomUUID().toString();
+    private final ScheduledExecutorService executor;
+    private final Counter sent;
+    private final Counter retried;
+    private final Counter failed;
+    private final DistributionSummary digestSizes;
+    private volatile Map<String, NotificationQueueRepository.Stats> stats = Map.of();
+    private volatile NotificationQueueRepository.Held held = new NotificationQueueRepository.Held(0, 0);
+
+    public NotificationQueueDispatcher(NotificationQueueRepository queueRepository, EmailService emailService,
+                                       PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+                                       @Value("${notification.queue.batch-size:200}") int batchSize,
+                                       @Value("${notification.digest.max-per-digest:50}") int maxPerDigest,
+                                       @Value("${notification.queue.max-attempts:10}") int maxAttempts,
+                                       @Value("${notification.queue.initial-backoff:1s}") Duration initialBackoff,
+                                       @Value("${notification.queue.max-backoff:10m}") Duration maxBackoff,
+                                       @Value("${notification.queue.lease:2m}") Duration lease,
+                                       @Value("${notification.queue.poll-interval:200ms}") Duration pollInterval) {
+        this.queueRepository = queueRepository;
+        this.emailService = emailService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+        this.maxPerDigest = maxPerDigest;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.lease = lease;
+
+        this.sent = outcomeCounter(meterRegistry, "sent");
+        this.retried = outcomeCounter(meterRegistry, "retried");
+        this.failed = outcomeCounter(meterRegistry, "failed");
+        this.digestSizes = DistributionSummary.builder("notification.digest.size").register(meterRegistry);
+        Gauge.builder("notification.queue.depth", this::getDepth)
+                .description("Notifications waiting to be sent")
+                .register(meterRegistry);
+        Gauge.builder("notification.queue.failed", () -> count(NotificationQueueRepository.FAILED))
+                .description("Notifications that exhausted their retries")
+                .register(meterRegistry);
+        TimeGauge.builder("notification.queue.lag", this::lagMillis, TimeUnit.MILLISECONDS)
+                .description("Age of the oldest unsent notification")
+                .register(meterRegistry);
+        Gauge.builder("notification.digest.pending", () -> held.notifications())
+                .description("Notifications held for a digest")
+                .register(meterRegistry);
+        Gauge.builder("notification.digest.recipients", () -> held.recipients())
+                .description("Recipients with a digest open")
+                .register(meterRegistry);
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "notification-queue-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = pollInterval.toMillis();
+        executor.scheduleWithFixedDelay(this::poll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // As of the last poll
+    public long getDepth() {
+        return count(NotificationQueueRepository.PENDING) + count(NotificationQueueRepository.SENDING);
+    }
+
+    // Dispatches due rows until a short batch shows the backlog is drained; returns how many were attempted
+    public int dispatchDue() {
+        int abandoned = queueRepository.failAbandoned(maxAttempts);
+        if (abandoned > 0) {
+            logger.warn("Giving up on " + abandoned + " notifications whose last attempt never reported back");
+            failed.increment(abandoned);
+        }
+        int attempted = 0;
+        List<QueuedNotification> batch;
+        do {
+            Instant leaseUntil = Instant.now().plus(lease);
+            batch = transactionTemplate.execute(status -> queueRepository.claimDue(batchSize, maxAttempts, owner, leaseUntil));
+            if (batch.isEmpty()) {
+                break;
+            }
+            complete(send(coalesce(batch)));
+            attempted += batch.size();
+        } while (batch.size() == batchSize);
+        return attempted;
+    }
+
+    void poll() {
+        try {
+            dispatchDue();
+            stats = queueRepository.stats();
+            held = queueRepository.held(Instant.now());
+        } catch (RuntimeException e) {
+            // Never let the scheduled task die; leased rows come back once their lease runs out
+            logger.warn("Notification queue dispatch failed: " + e.getMessage());
+        }
+    }
+
+    private List<Digest> coalesce(List<QueuedNotification> batch) {
+        Map<String, List<QueuedNotification>> byRecipient = new LinkedHashMap<>();
+        batch.forEach(notification -> byRecipient.computeIfAbsent(notification.getRecipient(), r -> new ArrayList<>()).add(notification));
+        List<Digest> digests = new ArrayList<>();
+        byRecipient.forEach((recipient, notifications) -> {
+            for (int from = 0; from < notifications.size(); from += maxPerDigest) {
+                digests.add(new Digest(recipient, notifications.subList(from, Math.min(from + maxPerDigest, notifications.size()))));
+            }
+        });
+        return digests;
+    }
+
+    private List<Outcome> send(List<Digest> digests) {
+        List<CompletableFuture<Outcome>> outcomes = digests.stream()
+                .map(digest -> emailService.sendNotification(digest.recipient(), subject(digest), text(digest))
+                        .handle((ignored, e) -> new Outcome(digest, e == null ? null : error(e))))
+                .toList();
+        try {
+            CompletableFuture.allOf(outcomes.toArray(new CompletableFuture<?>[0])).get(lease.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // Whatever is still out keeps its lease and is tried again once that runs out
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return outcomes.stream().filter(CompletableFuture::isDone).map(CompletableFuture::join).toList();
+    }
+
+    private void complete(List<Outcome> outcomes) {
+        List<Long> delivered = new ArrayList<>();
+        transactionTemplate.executeWithoutResult(status -> {
+            for (Outcome outcome : outcomes) {
+                if (outcome.error() == null) {
+                    outcome.digest().notifications().forEach(notification -> delivered.add(notification.getId()));
+                    digestSizes.record(outcome.digest().notifications().size());
+                    continue;
+                }
+                for (QueuedNotification notification : outcome.digest().notifications()) {
+                    int attempts = notification.getAttempts();
+                    if (attempts >= maxAttempts) {
+                        logger.warn("Giving up on notification " + notification.getId() + " to " + notification.getRecipient()
+                                + " after " + attempts + " attempts: " + outcome.error());
+                        queueRepository.markFailed(notification.getId(), owner, attempts, outcome.error());
+                        failed.increment();
+                    } else {
+                        queueRepository.reschedule(notification.getId(), owner, attempts, Instant.now().plus(backoff(attempts)),
+                                outcome.error());
+                        retried.increment();
+                    }
+                }
+            }
+            queueRepository.deleteAll(delivered, owner);
+        });
+        sent.increment(delivered.size());
+    }
+
+    // Exponential backoff with up to 20% jitter, so rows that failed together do not retry together
+    Duration backoff(int attempts) {
+        long base = initialBackoff.toMillis() << Math.min(attempts - 1, 30);
+        long capped = Math.min(base <= 0 ? Long.MAX_VALUE : base, maxBackoff.toMillis());
+        return Duration.ofMillis(capped - ThreadLocalRandom.current().nextLong(capped / 5 + 1));
+    }
+
+    private static String subject(Digest digest) {
+        List<QueuedNotification> notifications = digest.notifications();
+        if (notifications.size() == 1) {
+            return notifications.get(0).getSubject();
+        }
+        String first = notifications.get(0).getSubject();
+        boolean same = notifications.stream().allMatch(n -> n.getSubject().equals(first));
+        return notifications.size() + (same ? " " + first : "") + " notifications";
+    }
+
+    private static String text(Digest digest) {
+        List<QueuedNotification> notifications = digest.notifications();
+        if (notifications.size() == 1) {
+            return notifications.get(0).getText();
+        }
+        StringBuilder text = new StringBuilder();
+        for (QueuedNotification notification : notifications) {
+            text.append(notification.getSubject()).append(": ").append(notification.getText()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static String error(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getName();
+    }
+
+    private long count(String status) {
+        NotificationQueueRepository.Stats s = stats.get(status);
+        return s == null ? 0 : s.count();
+    }
+
+    private double lagMillis() {
+        return stats.entrySet().stream()
+                .filter(e -> !NotificationQueueRepository.FAILED.equals(e.getKey()))
+                .map(e -> e.getValue().oldestCreatedAt())
+                .min(Instant::compareTo)
+                .map(oldest -> (double) Math.max(0, Duration.between(oldest, Instant.now()).toMillis()))
+                .orElse(0d);
+    }
+
+    private static Counter outcomeCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("notification.queue.dispatched")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+}
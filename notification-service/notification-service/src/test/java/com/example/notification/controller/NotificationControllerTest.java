@@ -2,12 +2,13 @@ package com.example.notification.controller;
 
 
 import com.example.notification.request.NotificationRequest;
-import com.example.notification.service.EmailService;
+import com.example.notification.service.NotificationCoalescer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
@@ -23,7 +24,7 @@ class NotificationControllerTests {
     private NotificationController notificationController;
 
     @Mock
-    private EmailService emailService;
+    private NotificationCoalescer notificationCoalescer;
 
     @BeforeEach
     void setUp() {
@@ -31,20 +32,35 @@ class NotificationControllerTests {
     }
 
     @Test
-    void sendNotification_shouldCallEmailService_whenNotificationRequestIsValid() {
+    void sendNotification_shouldSubmitNotification_whenNotificationRequestIsValid() {
         // Arrange
         NotificationRequest notificationRequest = new NotificationRequest();
         notificationRequest.setTo("test@example.com");
         notificationRequest.setSubject("Test Subject");
         notificationRequest.setText("Test Text");
 
-        doNothing().when(emailService).sendNotification(any(String.class), any(String.class), any(String.class));
+        when(notificationCoalescer.submit(any(String.class), any(String.class), any(String.class))).thenReturn(true);
 
         // Act
         ResponseEntity<String> response = notificationController.sendNotification(notificationRequest);
 
         // Assert
-        assertEquals(HttpStatus.OK, response.getStatusCode());
-        verify(emailService).sendNotification("test@example.com", "Test Subject", "Test Text");
+        assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+        verify(notificationCoalescer).submit("test@example.com", "Test Subject", "Test Text");
+    }
+
+    @Test
+    void sendNotification_shouldReturnServiceUnavailable_whenMailQueueIsFull() {
+        // Arrange
+        NotificationRequest notificationRequest = new NotificationRequest("test@example.com", "Test Subject", "Test Text");
+
+        when(notificationCoalescer.submit(any(String.class), any(String.class), any(String.class))).thenReturn(false);
+
+        // Act
+        ResponseEntity<String> response = notificationController.sendNotification(notificationRequest);
+
+        // Assert
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+        assertEquals("1", response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
     }
 }
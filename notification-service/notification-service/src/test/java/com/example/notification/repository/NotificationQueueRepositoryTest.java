@@ -0,0 +1,109 @@
+package com.example.notification.repository;
+
+import com.example.notification.entity.QueuedNotification;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+@Import(NotificationQueueRepository.class)
+class NotificationQueueRepositoryTest {
+
+    @Autowired
+    private NotificationQueueRepository queueRepository;
+
+    @Test
+    void claimDue_shouldLeaseOnlyDueRows_oldestFirst() {
+        Instant now = Instant.now();
+        queueRepository.insert("a@example.com", "DEPOSIT", "1", now.minusSeconds(5));
+        queueRepository.insert("b@example.com", "DEPOSIT", "2", now.minusSeconds(10));
+        queueRepository.insert("c@example.com", "DEPOSIT", "3", now.plusSeconds(60));
+
+        List<QueuedNotification> due = queueRepository.claimDue(10, 10, "owner", now.plus(Duration.ofMinutes(2)));
+
+        assertEquals(List.of("b@example.com", "a@example.com"), due.stream().map(QueuedNotification::getRecipient).toList());
+        // Leased rows are not due again until the lease runs out
+        assertTrue(queueRepository.claimDue(10, 10, "owner", now.plus(Duration.ofMinutes(2))).isEmpty());
+        Map<String, NotificationQueueRepository.Stats> stats = queueRepository.stats();
+        assertEquals(2, stats.get(NotificationQueueRepository.SENDING).count());
+        assertEquals(1, stats.get(NotificationQueueRepository.PENDING).count());
+    }
+
+    @Test
+    void claimDue_shouldReclaimRows_whoseLeaseRanOut() {
+        queueRepository.insert("a@example.com", "DEPOSIT", "1", Instant.now().minusSeconds(1));
+        queueRepository.claimDue(10, 10, "owner", Instant.now().minusMillis(1));
+
+        assertEquals(1, queueRepository.claimDue(10, 10, "other", Instant.now().plusSeconds(60)).size());
+    }
+
+    @Test
+    void claimDue_shouldCountEveryClaimAsAnAttempt_andFailAbandonedShouldParkRowsOutOfAttempts() {
+        queueRepository.insert("a@example.com", "DEPOSIT", "1", Instant.now().minusSeconds(1));
+        // Each claim's lease runs out at once, as it does for a dispatcher that dies mid-send
+        assertEquals(1, queueRepository.claimDue(10, 2, "owner", Instant.now().minusMillis(1)).get(0).getAttempts());
+        assertEquals(2, queueRepository.claimDue(10, 2, "owner", Instant.now().minusMillis(1)).get(0).getAttempts());
+
+        assertTrue(queueRepository.claimDue(10, 2, "owner", Instant.now().plusSeconds(60)).isEmpty());
+        assertEquals(1, queueRepository.failAbandoned(2));
+        assertEquals(1, queueRepository.stats().get(NotificationQueueRepository.FAILED).count());
+    }
+
+    @Test
+    void heldDigest_shouldReturnTheRecipientsEarliestHeldRow_andItsSize() {
+        // Whole millis, so the stored timestamps compare equal to it
+        Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        Instant digestAt = now.plusSeconds(30);
+        queueRepository.insert("a@example.com", "DEPOSIT", "1", digestAt);
+        queueRepository.insert("a@example.com", "DEPOSIT", "2", digestAt.plusSeconds(30));
+        queueRepository.insert("b@example.com", "DEPOSIT", "3", now.minusSeconds(1));
+        queueRepository.insert("c@example.com", "DEPOSIT", "4", now.minusSeconds(1));
+        Long retry = queueRepository.claimDue(10, 10, "owner", now.plusSeconds(60)).stream()
+                .filter(n -> n.getRecipient().equals("c@example.com")).findFirst().orElseThrow().getId();
+        queueRepository.reschedule(retry, "owner", 1, now.plusSeconds(10), "421 try again");
+
+        NotificationQueueRepository.HeldDigest held = queueRepository.heldDigest("a@example.com", now).orElseThrow();
+        assertEquals(digestAt.toEpochMilli(), held.dueAt().toEpochMilli());
+        assertEquals(2, held.size());
+        // Already due: its digest is on its way, so a new one is opened
+        assertTrue(queueRepository.heldDigest("b@example.com", now).isEmpty());
+        // Waiting out a retry backoff is not an open digest
+        assertTrue(queueRepository.heldDigest("c@example.com", now).isEmpty());
+        assertEquals(new NotificationQueueRepository.Held(2, 1), queueRepository.held(now));
+
+        queueRepository.releaseDigest("a@example.com", now);
+        assertTrue(queueRepository.heldDigest("a@example.com", now).isEmpty());
+    }
+
+    @Test
+    void rescheduleAndMarkFailed_shouldRecordTheAttempt() {
+        queueRepository.insert("a@example.com", "DEPOSIT", "1", Instant.now().minusSeconds(1));
+        queueRepository.insert("b@example.com", "DEPOSIT", "2", Instant.now().minusSeconds(1));
+        List<QueuedNotification> due = queueRepository.claimDue(10, 10, "owner", Instant.now().plusSeconds(60));
+
+        queueRepository.reschedule(due.get(0).getId(), "owner", 1, Instant.now().minusSeconds(1), "421 try again");
+        queueRepository.markFailed(due.get(1).getId(), "owner", 10, "550 no such user");
+
+        QueuedNotification retried = queueRepository.claimDue(10, 10, "owner", Instant.now().plusSeconds(60)).get(0);
+        assertEquals(due.get(0).getId(), retried.getId());
+        // The earlier attempt plus this claim
+        assertEquals(2, retried.getAttempts());
+        assertEquals("421 try again", retried.getLastError());
+        assertEquals(1, queueRepository.stats().get(NotificationQueueRepository.FAILED).count());
+
+        // A dispatcher whose lease ran out no longer holds the row
+        queueRepository.deleteAll(List.of(retried.getId()), "stale owner");
+        assertEquals(1, queueRepository.stats().get(NotificationQueueRepository.SENDING).count());
+        queueRepository.deleteAll(List.of(retried.getId()), "owner");
+        assertNull(queueRepository.stats().get(NotificationQueueRepository.SENDING));
+    }
+}
@@ -1,45 +1,151 @@
 package com.example.notification.service;
 
+import com.example.notification.support.SmtpStub;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.mockito.InjectMocks;
-import org.mockito.Mock;
-import org.mockito.MockitoAnnotations;
-import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
 
-import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.Mockito.*;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 class EmailServiceTests {
 
-    @InjectMocks
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
+    private SmtpStub smtpStub;
     private EmailService emailService;
 
-    @Mock
-    private JavaMailSender javaMailSender;
-
     @BeforeEach
     void setUp() {
-        MockitoAnnotations.openMocks(this);
+        smtpStub = new SmtpStub(Duration.ZERO);
+        mailSender.setHost("localhost");
+        mailSender.setPort(smtpStub.getPort());
+        mailSender.getJavaMailProperties().setProperty("mail.smtp.from", "bank@example.com");
+        // A stuck exchange fails the test instead of hanging a sender worker
+        mailSender.getJavaMailProperties().setProperty("mail.smtp.connectiontimeout", "2000");
+        mailSender.getJavaMailProperties().setProperty("mail.smtp.timeout", "2000");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (emailService != null) {
+            emailService.shutdown();
+        }
+        smtpStub.close();
+    }
+
+    @Test
+    void sendNotification_shouldDeliverQueuedMessages_overOneConnection() {
+        // Arrange
+        emailService = emailService(1, 100, 100);
+
+        // Act
+        for (int i = 0; i < 20; i++) {
+            emailService.sendNotification("user" + i + "@example.com", "Test Subject", "Test Text");
+        }
+
+        // Assert
+        await(() -> smtpStub.getRecipients().size() == 20);
+        assertEquals("user0@example.com", smtpStub.getRecipients().get(0));
+        assertEquals(1, smtpStub.getConnections());
+        assertEquals(20.0, meterRegistry.get("notification.mail.sent").counter().count());
     }
 
     @Test
-    void sendNotification_shouldCallJavaMailSenderSend_whenNotificationIsValid() {
+    void sendNotification_shouldReconnect_afterMaxMessagesPerConnection() {
         // Arrange
-        String to = "test@example.com";
-        String subject = "Test Subject";
-        String text = "Test Text";
+        emailService = emailService(1, 100, 5);
 
         // Act
-        emailService.sendNotification(to, subject, text);
+        for (int i = 0; i < 12; i++) {
+            emailService.sendNotification("test@example.com", "Test Subject", "Test Text");
+        }
 
         // Assert
-        SimpleMailMessage expectedMessage = new SimpleMailMessage();
-        expectedMessage.setTo(to);
-        expectedMessage.setSubject(subject);
-        expectedMessage.setText(text);
+        await(() -> smtpStub.getRecipients().size() == 12);
+        assertEquals(3, smtpStub.getConnections());
+    }
+
+    @Test
+    void sendNotification_shouldRefuseMessage_whenQueueIsFull() {
+        // Arrange: no workers, so nothing leaves the queue
+        emailService = emailService(0, 2, 100);
+
+        // Act
+        CompletableFuture<Void> first = emailService.sendNotification("test@example.com", "Test Subject", "Test Text");
+        CompletableFuture<Void> second = emailService.sendNotification("test@example.com", "Test Subject", "Test Text");
+        CompletableFuture<Void> third = emailService.sendNotification("test@example.com", "Test Subject", "Test Text");
+
+        // Assert
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+        assertTrue(third.isCompletedExceptionally());
+        assertEquals(2, emailService.getQueued());
+        assertEquals(1.0, meterRegistry.get("notification.mail.rejected").counter().count());
+    }
+
+    @Test
+    void sendNotification_shouldFailTheFuture_whenTheServerRefusesTheMessage() throws Exception {
+        // Arrange
+        emailService = emailService(1, 100, 100);
+        smtpStub.refuseConnections();
+
+        // Act
+        CompletableFuture<Void> sent = emailService.sendNotification("test@example.com", "Test Subject", "Test Text");
+
+        // Assert
+        assertThrows(ExecutionException.class, () -> sent.get(10, TimeUnit.SECONDS));
+        assertEquals(1.0, meterRegistry.get("notification.mail.failed").counter().count());
+    }
+
+    @Test
+    void sendNotification_shouldFailWithoutResending_whenTheReplyToDataNeverComes() {
+        // Arrange
+        emailService = emailService(1, 100, 100);
+        smtpStub.withholdDataReplies();
+
+        // Act
+        CompletableFuture<Void> sent = emailService.sendNotification("test@example.com", "Test Subject", "Test Text");
+
+        // Assert: the server may have taken it, so it is left to the queue's retry instead of sent twice
+        assertThrows(ExecutionException.class, () -> sent.get(10, TimeUnit.SECONDS));
+        assertEquals(1, smtpStub.getRecipients().size());
+        assertEquals(1, smtpStub.getConnections());
+    }
+
+    @Test
+    void sendNotification_shouldReconnect_whenTheServerDroppedTheIdleConnection() throws Exception {
+        // Arrange
+        emailService = emailService(1, 100, 100);
+        emailService.sendNotification("first@example.com", "Test Subject", "Test Text").get(10, TimeUnit.SECONDS);
+        smtpStub.dropConnections();
+
+        // Act
+        emailService.sendNotification("second@example.com", "Test Subject", "Test Text").get(10, TimeUnit.SECONDS);
+
+        // Assert
+        assertEquals(2, smtpStub.getRecipients().size());
+        assertEquals(2, smtpStub.getConnections());
+        assertEquals(0.0, meterRegistry.get("notification.mail.failed").counter().count());
+    }
+
+    private EmailService emailService(int workers, int queueCapacity, int maxMessagesPerConnection) {
+        return new EmailService(mailSender, meterRegistry, queueCapacity, workers, 50, maxMessagesPerConnection,
+                Duration.ofMillis(10), Duration.ofSeconds(30), Duration.ofMillis(100));
+    }
 
-        verify(javaMailSender).send(expectedMessage);
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.onSpinWait();
+        }
     }
 }
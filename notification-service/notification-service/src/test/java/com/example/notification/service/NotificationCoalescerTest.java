@@ -0,0 +1,148 @@
+package com.example.notification.service;
+
+import com.example.notification.repository.NotificationQueueRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class NotificationCoalescerTest {
+
+    @Mock
+    private NotificationQueueRepository queueRepository;
+
+    @Mock
+    private NotificationQueueDispatcher queueDispatcher;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private NotificationCoalescer coalescer;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(queueRepository.heldDigest(anyString(), any())).thenReturn(Optional.empty());
+        coalescer = new NotificationCoalescer(queueRepository, queueDispatcher, meterRegistry, Duration.ofMinutes(1), 3, 10,
+                Set.of("WITHDRAW"));
+    }
+
+    @Test
+    void submit_shouldHoldFirstNotification_forOneWindow() {
+        Instant before = Instant.now();
+
+        assertTrue(coalescer.submit("user@example.com", "DEPOSIT", "100"));
+
+        ArgumentCaptor<Instant> due = ArgumentCaptor.forClass(Instant.class);
+        verify(queueRepository).insert(eq("user@example.com"), eq("DEPOSIT"), eq("100"), due.capture());
+        assertFalse(due.getValue().isBefore(before.plus(Duration.ofMinutes(1))));
+    }
+
+    @Test
+    void submit_shouldJoinTheRecipientsOpenDigest() {
+        Instant digestAt = Instant.now().plusSeconds(20);
+        when(queueRepository.heldDigest(eq("user@example.com"), any()))
+                .thenReturn(Optional.of(new NotificationQueueRepository.HeldDigest(digestAt, 1)));
+
+        coalescer.submit("user@example.com", "DEPOSIT", "250");
+
+        verify(queueRepository).insert("user@example.com", "DEPOSIT", "250", digestAt);
+        verify(queueRepository, never()).releaseDigest(anyString(), any());
+    }
+
+    @Test
+    void submit_shouldSendTheDigestAtOnce_whenThisFillsItUp() {
+        Instant after = Instant.now().plusSeconds(1);
+        when(queueRepository.heldDigest(eq("user@example.com"), any()))
+                .thenReturn(Optional.of(new NotificationQueueRepository.HeldDigest(Instant.now().plusSeconds(20), 2)));
+
+        coalescer.submit("user@example.com", "DEPOSIT", "250");
+
+        ArgumentCaptor<Instant> due = ArgumentCaptor.forClass(Instant.class);
+        verify(queueRepository).insert(eq("user@example.com"), eq("DEPOSIT"), eq("250"), due.capture());
+        assertTrue(due.getValue().isBefore(after));
+        verify(queueRepository).releaseDigest("user@example.com", due.getValue());
+    }
+
+    @Test
+    void submit_shouldKeepEveryDigestUnderTheCap_whenOneRecipientsNotificationsArriveTogether() throws Exception {
+        // Stands in for the recipient's held rows; the pause widens the gap between reading the size and adding to it
+        AtomicInteger held = new AtomicInteger();
+        AtomicInteger largestHeld = new AtomicInteger();
+        Instant digestAt = Instant.now().plusSeconds(20);
+        when(queueRepository.heldDigest(eq("user@example.com"), any())).thenAnswer(invocation -> {
+            int size = held.get();
+            Thread.sleep(5);
+            return size == 0 ? Optional.empty() : Optional.of(new NotificationQueueRepository.HeldDigest(digestAt, size));
+        });
+        doAnswer(invocation -> {
+            held.set(0);
+            return null;
+        }).when(queueRepository).releaseDigest(eq("user@example.com"), any());
+        doAnswer(invocation -> {
+            if (invocation.<Instant>getArgument(3).isAfter(Instant.now())) {
+                largestHeld.accumulateAndGet(held.incrementAndGet(), Math::max);
+            }
+            return null;
+        }).when(queueRepository).insert(eq("user@example.com"), anyString(), anyString(), any());
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> submitted = new ArrayList<>();
+        for (int i = 0; i < 18; i++) {
+            String text = String.valueOf(i);
+            submitted.add(executor.submit(() -> {
+                start.await();
+                return coalescer.submit("user@example.com", "DEPOSIT", text);
+            }));
+        }
+        start.countDown();
+        for (Future<Boolean> result : submitted) {
+            assertTrue(result.get(10, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+
+        // max-per-digest is 3: two are held and the third sends all three
+        assertEquals(2, largestHeld.get());
+        verify(queueRepository, times(6)).releaseDigest(eq("user@example.com"), any());
+    }
+
+    @Test
+    void submit_shouldMakeUrgentSubjectsDueAtOnce() {
+        Instant after = Instant.now().plusSeconds(1);
+
+        coalescer.submit("user@example.com", "WITHDRAW", "50");
+
+        ArgumentCaptor<Instant> due = ArgumentCaptor.forClass(Instant.class);
+        verify(queueRepository).insert(eq("user@example.com"), eq("WITHDRAW"), eq("50"), due.capture());
+        assertTrue(due.getValue().isBefore(after));
+        verify(queueRepository, never()).heldDigest(anyString(), any());
+        assertEquals(1.0, meterRegistry.get("notification.digest.bypassed").counter().count());
+    }
+
+    @Test
+    void submit_shouldRefuse_whenTheQueueIsTooDeep() {
+        when(queueDispatcher.getDepth()).thenReturn(10L);
+
+        assertFalse(coalescer.submit("user@example.com", "DEPOSIT", "100"));
+
+        verify(queueRepository, never()).insert(anyString(), anyString(), anyString(), any());
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.notification.service;
+
+import com.example.notification.repository.NotificationQueueRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@DataJpaTest
+@Import(NotificationQueueRepository.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class NotificationQueueDispatcherTest {
+
+    @Autowired
+    private NotificationQueueRepository queueRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final EmailService emailService = mock(EmailService.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private NotificationQueueDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() {
+        dispatcher = new NotificationQueueDispatcher(queueRepository, emailService, transactionManager, meterRegistry,
+                4, 3, 2, Duration.ofMinutes(1), Duration.ofMinutes(5), Duration.ofMinutes(1), Duration.ofHours(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        dispatcher.shutdown();
+        jdbcTemplate.update("delete from notification_queue");
+    }
+
+    @Test
+    void dispatchDue_shouldSendEachRecipientsDueRowsAsOneDigest_andDeleteThem() {
+        when(emailService.sendNotification(anyString(), anyString(), anyString())).thenReturn(CompletableFuture.completedFuture(null));
+        Instant due = Instant.now().minusSeconds(1);
+        for (int i = 1; i <= 4; i++) {
+            queueRepository.insert("merchant@example.com", "DEPOSIT", String.valueOf(i), due);
+        }
+        queueRepository.insert("other@example.com", "DEPOSIT", "7", due);
+        queueRepository.insert("later@example.com", "DEPOSIT", "8", Instant.now().plusSeconds(60));
+
+        assertEquals(5, dispatcher.dispatchDue());
+
+        // max-per-digest is 3, and a digest of one goes out as the original message
+        verify(emailService).sendNotification("merchant@example.com", "3 DEPOSIT notifications", "DEPOSIT: 1\nDEPOSIT: 2\nDEPOSIT: 3\n");
+        verify(emailService).sendNotification("merchant@example.com", "DEPOSIT", "4");
+        verify(emailService).sendNotification("other@example.com", "DEPOSIT", "7");
+        verify(emailService, never()).sendNotification(eq("later@example.com"), anyString(), anyString());
+        assertEquals(1, queueRepository.stats().get(NotificationQueueRepository.PENDING).count());
+        assertEquals(5.0 / 3, meterRegistry.get("notification.digest.size").summary().mean(), 1e-9);
+        assertEquals(5.0, meterRegistry.get("notification.queue.dispatched").tag("outcome", "sent").counter().count());
+    }
+
+    @Test
+    void dispatchDue_shouldBackOffAndFinallyMarkFailed_whenSendingKeepsFailing() {
+        when(emailService.sendNotification(anyString(), anyString(), anyString()))
+                .thenReturn(CompletableFuture.failedFuture(new RejectedExecutionException("Mail queue is full")));
+        queueRepository.insert("test@example.com", "WITHDRAW", "10", Instant.now());
+
+        assertEquals(1, dispatcher.dispatchDue());
+        // Rescheduled a minute out, so an immediate second pass finds nothing due
+        assertEquals(0, dispatcher.dispatchDue());
+        Map<String, Object> row = jdbcTemplate.queryForMap("select status, attempts, last_error from notification_queue");
+        assertEquals(NotificationQueueRepository.PENDING, row.get("STATUS"));
+        assertEquals(1, ((Number) row.get("ATTEMPTS")).intValue());
+        assertEquals("Mail queue is full", row.get("LAST_ERROR"));
+
+        jdbcTemplate.update("update notification_queue set next_attempt_at = created_at");
+        assertEquals(1, dispatcher.dispatchDue());
+
+        assertEquals(1, queueRepository.stats().get(NotificationQueueRepository.FAILED).count());
+        assertEquals(0, dispatcher.dispatchDue());
+    }
+
+    @Test
+    void dispatchDue_shouldParkARow_whoseLastAttemptNeverReportedBack() {
+        queueRepository.insert("test@example.com", "WITHDRAW", "10", Instant.now().minusSeconds(1));
+        // max-attempts is 2: two dispatchers that each died mid-send, their leases run out
+        queueRepository.claimDue(10, 2, "dead", Instant.now().minusMillis(1));
+        queueRepository.claimDue(10, 2, "dead", Instant.now().minusMillis(1));
+
+        assertEquals(0, dispatcher.dispatchDue());
+
+        verifyNoInteractions(emailService);
+        assertEquals(1, queueRepository.stats().get(NotificationQueueRepository.FAILED).count());
+        assertEquals(1.0, meterRegistry.get("notification.queue.dispatched").tag("outcome", "failed").counter().count());
+    }
+
+    @Test
+    void poll_shouldReportQueueDepthLagAndHeldDigests() {
+        queueRepository.insert("test@example.com", "DEPOSIT", "10", Instant.now().plusSeconds(60));
+        jdbcTemplate.update("update notification_queue set created_at = ?", Timestamp.from(Instant.now().minusSeconds(30)));
+
+        dispatcher.poll();
+
+        assertEquals(1, dispatcher.getDepth());
+        assertEquals(1.0, meterRegistry.get("notification.queue.depth").gauge().value());
+        assertTrue(meterRegistry.get("notification.queue.lag").timeGauge().value(TimeUnit.SECONDS) >= 30);
+        assertEquals(1.0, meterRegistry.get("notification.digest.pending").gauge().value());
+        assertEquals(1.0, meterRegistry.get("notification.digest.recipients").gauge().value());
+    }
+
+    @Test
+    void backoff_shouldGrowExponentially_upToTheCap() {
+        assertTrue(dispatcher.backoff(1).compareTo(Duration.ofSeconds(48)) >= 0);
+        assertTrue(dispatcher.backoff(2).compareTo(Duration.ofSeconds(96)) >= 0);
+        assertTrue(dispatcher.backoff(40).compareTo(Duration.ofMinutes(5)) <= 0);
+        assertTrue(dispatcher.backoff(40).compareTo(Duration.ofMinutes(4)) >= 0);
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.transaction.benchmark;
+
+import com.example.transaction.util.SnowflakeIdGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inserts rows shaped like pending_transaction keyed by the old random-UUID ids and by the
+ * time-ordered ids, committing every batch. The table keeps growing across iterations, which is
+ * where random keys start splitting pages. Defaults to in-memory H2; the clustered-index effect is
+ * what MySQL shows: -Dbench.jdbc.url=jdbc:mysql://localhost:3306/bankapp?rewriteBatchedStatements=true
+ * -Dbench.jdbc.username=root -Dbench.jdbc.password=root
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TransactionIdInsertBenchmark {
+
+    private static final int BATCH = 1000;
+
+    @Param({"random", "snowflake"})
+    public String idScheme;
+
+    private Connection connection;
+    private PreparedStatement insert;
+    private SnowflakeIdGenerator generator;
+    private String table;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection(
+                System.getProperty("bench.jdbc.url", "jdbc:h2:mem:ids;DB_CLOSE_DELAY=-1"),
+                System.getProperty("bench.jdbc.username", "sa"),
+                System.getProperty("bench.jdbc.password", ""));
+        connection.setAutoCommit(false);
+        table = "id_bench_" + idScheme;
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("drop table if exists " + table);
+            statement.execute("create table " + table + " (transaction_id bigint primary key, account_id bigint, "
+                    + "amount decimal(38, 2), type int, status varchar(255))");
+        }
+        connection.commit();
+        insert = connection.prepareStatement("insert into " + table + " values (?, ?, ?, ?, 'PENDING')");
+        generator = new SnowflakeIdGenerator(1, System::currentTimeMillis);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("drop table " + table);
+        }
+        connection.commit();
+        connection.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void insertBatch() throws SQLException {
+        boolean random = "random".equals(idScheme);
+        for (int i = 0; i < BATCH; i++) {
+            insert.setLong(1, random ? UUID.randomUUID().getMostSignificantBits() & Long.MAX_VALUE : generator.nextId());
+            insert.setLong(2, i);
+            insert.setBigDecimal(3, BigDecimal.TEN);
+            insert.setInt(4, 0);
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        connection.commit();
+    }
+
+    @Benchmark
+    public long generateId() {
+        return "random".equals(idScheme) ? UUID.randomUUID().getMostSignificantBits() & Long.MAX_VALUE : generator.nextId();
+    }
+}
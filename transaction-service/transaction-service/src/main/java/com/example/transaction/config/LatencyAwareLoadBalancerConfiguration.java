@@ -0,0 +1,30 @@
+package com.example.transaction.config;
+
+import com.example.transaction.util.InstanceLoadStats;
+import com.example.transaction.util.LatencyAwareLoadBalancer;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.ReactorLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+
+// Loaded into each load balancer client's own context through @LoadBalancerClients, so it must not be
+// a @Configuration picked up by component scanning
+public class LatencyAwareLoadBalancerConfiguration {
+
+    @Bean
+    public ReactorLoadBalancer<ServiceInstance> latencyAwareLoadBalancer(Environment environment,
+                                                                         LoadBalancerClientFactory loadBalancerClientFactory,
+                                                                         InstanceLoadStats instanceLoadStats,
+                                                                         MeterRegistry meterRegistry,
+                                                                         @Value("${transaction.load-balancer.affinity.enabled:true}") boolean affinityEnabled,
+                                                                         @Value("${transaction.load-balancer.affinity.virtual-nodes:160}") int virtualNodes) {
+        String serviceId = environment.getProperty(LoadBalancerClientFactory.PROPERTY_NAME);
+        return new LatencyAwareLoadBalancer(serviceId,
+                loadBalancerClientFactory.getLazyProvider(serviceId, ServiceInstanceListSupplier.class),
+                instanceLoadStats, meterRegistry, affinityEnabled, virtualNodes);
+    }
+}
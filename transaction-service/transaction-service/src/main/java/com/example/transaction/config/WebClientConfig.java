@@ -1,11 +1,23 @@
 package com.example.transaction.config;
 
+import com.example.transaction.util.AdaptiveConcurrencyLimiter;
+import com.example.transaction.util.InstanceLoadStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
+import org.springframework.cloud.loadbalancer.annotation.LoadBalancerClients;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
 
 @Configuration
+@LoadBalancerClients(defaultConfiguration = LatencyAwareLoadBalancerConfiguration.class)
 public class WebClientConfig {
 
     @Bean
@@ -13,4 +25,74 @@ public class WebClientConfig {
     public WebClient.Builder webClientBuilder() {
         return WebClient.builder();
     }
+
+    // metrics(true) publishes reactor.netty.connection.provider.* (active, idle and pending
+    // connections, plus acquire time) through the global Micrometer registry
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider accountServiceConnectionProvider(
+            @Value("${transaction.account-client.max-connections:200}") int maxConnections,
+            @Value("${transaction.account-client.pending-acquire-max-count:1000}") int pendingAcquireMaxCount,
+            @Value("${transaction.account-client.pending-acquire-timeout:5s}") Duration pendingAcquireTimeout,
+            @Value("${transaction.account-client.max-idle-time:30s}") Duration maxIdleTime,
+            @Value("${transaction.account-client.max-life-time:5m}") Duration maxLifeTime) {
+        return ConnectionProvider.builder("account-service")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .pendingAcquireTimeout(pendingAcquireTimeout)
+                .maxIdleTime(maxIdleTime)
+                .maxLifeTime(maxLifeTime)
+                .evictInBackground(Duration.ofSeconds(30))
+                .metrics(true)
+                .build();
+    }
+
+    // Publishes client.concurrency.{limit,inflight,queued,rejected} tagged client=account-service
+    @Bean
+    public AdaptiveConcurrencyLimiter accountServiceLimiter(
+            MeterRegistry meterRegistry,
+            @Value("${transaction.account-client.limiter.initial-limit:20}") int initialLimit,
+            @Value("${transaction.account-client.limiter.min-limit:4}") int minLimit,
+            @Value("${transaction.account-client.limiter.max-limit:200}") int maxLimit,
+            @Value("${transaction.account-client.limiter.backoff-ratio:0.9}") double backoffRatio,
+            @Value("${transaction.account-client.limiter.latency-threshold:1s}") Duration latencyThreshold,
+            @Value("${transaction.account-client.limiter.max-queue:500}") int maxQueue,
+            @Value("${transaction.account-client.limiter.max-wait:1s}") Duration maxWait) {
+        return new AdaptiveConcurrencyLimiter("account-service", meterRegistry, initialLimit, minLimit, maxLimit,
+                backoffRatio, latencyThreshold, maxQueue, maxWait);
+    }
+
+    // Shared by every lb:// client; publishes loadbalancer.instance.{inflight,latency,ejected} and
+    // loadbalancer.ejections tagged instance=host:port
+    @Bean
+    public InstanceLoadStats instanceLoadStats(
+            MeterRegistry meterRegistry,
+            @Value("${transaction.load-balancer.initial-latency:50ms}") Duration initialLatency,
+            @Value("${transaction.load-balancer.decay:10s}") Duration decay,
+            @Value("${transaction.load-balancer.consecutive-failures:5}") int consecutiveFailures,
+            @Value("${transaction.load-balancer.latency-outlier-factor:5}") double latencyOutlierFactor,
+            @Value("${transaction.load-balancer.latency-outlier-min:200ms}") Duration latencyOutlierMin,
+            @Value("${transaction.load-balancer.base-ejection-time:30s}") Duration baseEjectionTime,
+            @Value("${transaction.load-balancer.max-ejection-multiplier:10}") int maxEjectionMultiplier) {
+        return new InstanceLoadStats(meterRegistry, initialLatency, decay, consecutiveFailures, latencyOutlierFactor,
+                latencyOutlierMin, baseEjectionTime, maxEjectionMultiplier);
+    }
+
+    // Built once from the @LoadBalanced builder, so every call shares the load balancer filter, the
+    // concurrency limit and the pool. Filters added here run after the load balancer has picked the
+    // instance, so the stats filter sees its host:port
+    @Bean
+    public WebClient accountServiceWebClient(WebClient.Builder webClientBuilder, ConnectionProvider accountServiceConnectionProvider,
+                                             AdaptiveConcurrencyLimiter accountServiceLimiter, InstanceLoadStats instanceLoadStats,
+                                             @Value("${transaction.account-client.connect-timeout:2s}") Duration connectTimeout,
+                                             @Value("${transaction.account-client.response-timeout:10s}") Duration responseTimeout) {
+        HttpClient httpClient = HttpClient.create(accountServiceConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis())
+                .responseTimeout(responseTimeout);
+        return webClientBuilder.clone()
+                .baseUrl("http://ACCOUNT-SERVICE")
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .filter(accountServiceLimiter)
+                .filter(instanceLoadStats)
+                .build();
+    }
 }
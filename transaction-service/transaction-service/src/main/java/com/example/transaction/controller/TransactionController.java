@@ -1,12 +1,30 @@
 package com.example.transaction.controller;
 
+import com.example.transaction.config.AsyncTimeoutConfig;
+import com.example.transaction.entity.QueuedTransfer;
+import com.example.transaction.entity.TransferBatch;
 import com.example.transaction.request.TransferRequest;
+import com.example.transaction.service.BulkTransferService;
+import com.example.transaction.service.IdempotencyService;
 import com.example.transaction.service.TokenValidationService;
+import com.example.transaction.service.TransactionExportService;
 import com.example.transaction.service.TransactionService;
+import com.example.transaction.service.TransferQueueService;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.net.URI;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping("/api/v1/transactions")
@@ -14,25 +32,94 @@ public class TransactionController {
 
     private final TransactionService transactionService;
     private final TokenValidationService tokenValidationService;
+    private final TransactionExportService transactionExportService;
+    private final BulkTransferService bulkTransferService;
+    private final IdempotencyService idempotencyService;
+    private final TransferQueueService transferQueueService;
 
 
-    public TransactionController(TransactionService transactionService, TokenValidationService tokenValidationService) {
+    public TransactionController(TransactionService transactionService, TokenValidationService tokenValidationService,
+                                 TransactionExportService transactionExportService, BulkTransferService bulkTransferService,
+                                 IdempotencyService idempotencyService, TransferQueueService transferQueueService) {
         this.transactionService = transactionService;
         this.tokenValidationService=tokenValidationService;
+        this.transactionExportService = transactionExportService;
+        this.bulkTransferService = bulkTransferService;
+        this.idempotencyService = idempotencyService;
+        this.transferQueueService = transferQueueService;
     }
 
-    @Transactional
+    // Returned as a Mono so the servlet thread is released while the transfer's HTTP calls are in flight.
+    // With an Idempotency-Key, a retry gets the first attempt's response instead of a second transfer
     @PostMapping("/transfer")
-    public ResponseEntity<String> transferMoney(@RequestBody TransferRequest transferRequest, @RequestHeader("Authorization") String token) {
-        if (tokenValidationService.validateToken(token)) {
-           transactionService.transferMoney(transferRequest.getFromAccountId(), transferRequest.getToAccountId(), transferRequest.getAmount(), token);
-            return ResponseEntity.status(HttpStatus.OK).body("successfully transferred");
-        }else{
+    public Mono<ResponseEntity<String>> transferMoney(@RequestBody TransferRequest transferRequest, @RequestHeader("Authorization") String token,
+                                                      @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        return tokenValidationService.validateTokenAsync(token)
+                .flatMap(valid -> {
+                    if (!valid) {
+                        return Mono.just(ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid Token"));
+                    }
+                    if (idempotencyKey == null) {
+                        return transfer(transferRequest, token);
+                    }
+                    String fingerprint = IdempotencyService.fingerprint(transferRequest.getFromAccountId(), transferRequest.getToAccountId(),
+                            transferRequest.getAmount() == null ? null : transferRequest.getAmount().stripTrailingZeros().toPlainString());
+                    // Keys are scoped to the caller; a token only remote validation accepted is its own scope
+                    String caller = tokenValidationService.subject(token);
+                    return idempotencyService.execute(caller != null ? caller : token, idempotencyKey, fingerprint,
+                            () -> transfer(transferRequest, token));
+                });
+    }
+
+    private Mono<ResponseEntity<String>> transfer(TransferRequest transferRequest, String token) {
+        return transactionService.transferMoneyAsync(transferRequest.getFromAccountId(), transferRequest.getToAccountId(), transferRequest.getAmount(), token)
+                .thenReturn(ResponseEntity.status(HttpStatus.OK).body("successfully transferred"));
+    }
+
+    // Queued and answered at once; poll the Location for the outcome
+    @PostMapping("/transfer/async")
+    public ResponseEntity<?> submitTransfer(@RequestBody TransferRequest transferRequest, @RequestHeader("Authorization") String token) {
+        if (!tokenValidationService.validateToken(token)) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid Token");
         }
+        QueuedTransfer transfer = transferQueueService.submit(transferRequest.getFromAccountId(), transferRequest.getToAccountId(),
+                transferRequest.getAmount(), token);
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/v1/transactions/transfer/async/" + transfer.getId()))
+                .body(transfer);
+    }
 
+    @GetMapping("/transfer/async/{transferId}")
+    public ResponseEntity<?> getQueuedTransfer(@RequestHeader("Authorization") String token, @PathVariable Long transferId) {
+        if (!tokenValidationService.validateToken(token)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid Token");
+        }
+        return transferQueueService.getStatus(transferId)
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    // Accepted for background processing; poll the Location for per-item outcomes
+    @PostMapping("/transfer/batch")
+    public ResponseEntity<?> submitBulkTransfer(@RequestBody List<TransferRequest> transfers, @RequestHeader("Authorization") String token) {
+        if (!tokenValidationService.validateToken(token)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid Token");
+        }
+        TransferBatch batch = bulkTransferService.submit(transfers);
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/v1/transactions/transfer/batch/" + batch.getId()))
+                .body(batch);
     }
 
+    @GetMapping("/transfer/batch/{batchId}")
+    public ResponseEntity<?> getBulkTransfer(@RequestHeader("Authorization") String token, @PathVariable Long batchId) {
+        if (!tokenValidationService.validateToken(token)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid Token");
+        }
+        return bulkTransferService.getStatus(batchId)
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
 
     @GetMapping("/history/{accountId}")
     public ResponseEntity<?> getTransactionHistory(@RequestHeader("Authorization") String token, @PathVariable Long accountId) {
@@ -47,4 +134,48 @@ public class TransactionController {
         }
     }
 
+    // Keyset-paginated history: pass the previous page's nextCursor to continue
+    @GetMapping("/history/{accountId}/page")
+    public ResponseEntity<?> getTransactionHistoryPage(@RequestHeader("Authorization") String token, @PathVariable Long accountId,
+                                                       @RequestParam(required = false) String cursor,
+                                                       @RequestParam(defaultValue = "50") int size,
+                                                       @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                       @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        if (tokenValidationService.validateToken(token)) {
+            return ResponseEntity.ok(transactionService.getTransactionHistoryPage(accountId, cursor, size, from, to));
+        } else {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid Token");
+        }
+    }
+
+    // Full history, oldest first, streamed as it is read; gzip-compressed when the client accepts it
+    @GetMapping("/history/{accountId}/export")
+    public ResponseEntity<StreamingResponseBody> exportTransactionHistory(@RequestHeader("Authorization") String token, @PathVariable Long accountId,
+                                                                          @RequestParam(defaultValue = "ndjson") String format,
+                                                                          @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                                          @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                                                          @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+                                                                          WebRequest webRequest) {
+        if (!tokenValidationService.validateToken(token)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(out -> out.write("Invalid Token".getBytes(StandardCharsets.UTF_8)));
+        }
+        TransactionExportService.Format exportFormat = TransactionExportService.Format.of(format);
+        webRequest.setAttribute(AsyncTimeoutConfig.EXPORT_ATTRIBUTE, Boolean.TRUE, RequestAttributes.SCOPE_REQUEST);
+        boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_TYPE, exportFormat.getContentType())
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"transactions-" + accountId + "." + exportFormat.getExtension() + "\"")
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (!gzip) {
+            return response.body(out -> transactionExportService.export(accountId, from, to, exportFormat, out));
+        }
+        return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(out -> {
+            GZIPOutputStream compressed = new GZIPOutputStream(out, 64 * 1024);
+            transactionExportService.export(accountId, from, to, exportFormat, compressed);
+            compressed.finish();
+        });
+    }
+
 }
@@ -0,0 +1,63 @@
+package com.example.transaction.entity;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(uniqueConstraints = {
+        @UniqueConstraint(name = "uk_coordinator_log_phase", columnNames = {"transferId", "phase"}),
+        @UniqueConstraint(name = "uk_coordinator_log_decision", columnNames = "decisionOf")
+}, indexes = @Index(name = "idx_coordinator_log_phase_time", columnList = "phase, createdAt"))
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CoordinatorLogEntry {
+
+    public static final String PREPARING = "PREPARING";
+    public static final String COMMITTING = "COMMITTING";
+    public static final String ABORTING = "ABORTING";
+    public static final String DONE = "DONE";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // The withdraw leg's pending transaction id
+    private Long transferId;
+    private String phase;
+    // Set on COMMITTING and ABORTING only, so each transfer holds at most one decision
+    private Long decisionOf;
+
+    // PREPARING only: what recovery needs to finish the transfer
+    private Long depositId;
+    private Long fromAccountId;
+    private Long toAccountId;
+    private BigDecimal amount;
+
+    private LocalDateTime createdAt;
+
+    public static CoordinatorLogEntry preparing(Long transferId, Long depositId, Long fromAccountId, Long toAccountId,
+                                                BigDecimal amount) {
+        return new CoordinatorLogEntry(null, transferId, PREPARING, null, depositId, fromAccountId, toAccountId, amount,
+                LocalDateTime.now());
+    }
+
+    public static CoordinatorLogEntry decision(Long transferId, String decision) {
+        return new CoordinatorLogEntry(null, transferId, decision, transferId, null, null, null, null, LocalDateTime.now());
+    }
+
+    public static CoordinatorLogEntry done(Long transferId) {
+        return new CoordinatorLogEntry(null, transferId, DONE, null, null, null, null, null, LocalDateTime.now());
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.transaction.entity;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Lease on one id generator node; the owner only issues ids stamped before issuedUntil (epoch millis), when the lease runs out
+@Entity
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class IdNodeLease {
+
+    @Id
+    private Integer nodeId;
+
+    private String owner;
+    private Long issuedUntil;
+}
@@ -0,0 +1,35 @@
+package com.example.transaction.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(indexes = @Index(name = "idx_idempotency_created", columnList = "createdAt"))
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class IdempotencyRecord {
+
+    public static final String IN_PROGRESS = "IN_PROGRESS";
+    public static final String COMPLETED = "COMPLETED";
+
+    @Id
+    @Column(name = "idempotency_key", length = 128)
+    private String key;
+
+    // SHA-256 of the request the key was first used with
+    @Column(length = 64)
+    private String fingerprint;
+    private String status;
+    private Integer responseStatus;
+    private String responseBody;
+    private LocalDateTime createdAt;
+}
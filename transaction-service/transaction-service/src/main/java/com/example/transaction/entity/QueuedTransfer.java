@@ -0,0 +1,48 @@
+package com.example.transaction.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(indexes = @Index(name = "idx_queued_transfer_lane", columnList = "status, lane, id"))
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class QueuedTransfer {
+
+    public static final String QUEUED = "QUEUED";
+    public static final String PROCESSING = "PROCESSING";
+    public static final String COMPLETED = "COMPLETED";
+    public static final String FAILED = "FAILED";
+    // The worker stopped mid-transfer; whether money moved has to be checked before resubmitting
+    public static final String UNKNOWN = "UNKNOWN";
+
+    // Time-ordered, so id order is submission order
+    @Id
+    private Long id;
+
+    private Long fromAccountId;
+    private Long toAccountId;
+    private BigDecimal amount;
+    // Forwarded to account-service when the transfer runs; cleared once it has
+    @JsonIgnore
+    @Column(length = 2048)
+    private String token;
+    // Transfers from one account share a lane and run one at a time, in id order
+    private int lane;
+    private String status;
+    private String error;
+    private Long transactionId;
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+}
@@ -4,12 +4,19 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
 import lombok.*;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
 @Entity
+// One index per side of the transfer, so each half of the history query is a backward index range scan
+@Table(indexes = {
+        @Index(name = "idx_transaction_source_time", columnList = "sourceAccountId, timestamp, id"),
+        @Index(name = "idx_transaction_target_time", columnList = "targetAccountId, timestamp, id")
+})
 @Data
 @Getter
 @Setter
@@ -0,0 +1,39 @@
+package com.example.transaction.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class TransferBatch {
+
+    public static final String PROCESSING = "PROCESSING";
+    public static final String COMPLETED = "COMPLETED";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private String status;
+    private int itemCount;
+    private int committedCount;
+    private int failedCount;
+    private LocalDateTime createdAt;
+    private LocalDateTime completedAt;
+
+    // The instance processing the batch; once the lease runs out, recovery on any instance resumes it
+    @JsonIgnore
+    private String leaseOwner;
+    @JsonIgnore
+    private LocalDateTime leaseUntil;
+}
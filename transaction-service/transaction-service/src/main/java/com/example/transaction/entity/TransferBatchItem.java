@@ -0,0 +1,47 @@
+package com.example.transaction.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+@Entity
+@Table(indexes = @Index(name = "idx_batch_item", columnList = "batchId, itemIndex", unique = true))
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class TransferBatchItem {
+
+    public static final String PENDING = "PENDING";
+    // Both legs prepared and the commit decided; a commit that fails or times out leaves the item here,
+    // in doubt, until recovery commits it again
+    public static final String COMMITTING = "COMMITTING";
+    public static final String COMMITTED = "COMMITTED";
+    public static final String FAILED = "FAILED";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private Long batchId;
+    private int itemIndex;
+    private Long fromAccountId;
+    private Long toAccountId;
+    private BigDecimal amount;
+    private String status;
+    private String error;
+
+    // Pending transaction ids of the legs, fixed at submission so a resumed batch prepares and commits the same legs
+    @JsonIgnore
+    private Long withdrawTransactionId;
+    @JsonIgnore
+    private Long depositTransactionId;
+}
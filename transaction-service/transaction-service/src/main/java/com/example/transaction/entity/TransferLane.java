@@ -0,0 +1,23 @@
+package com.example.transaction.entity;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+// Lease on one lane of the transfer queue; only the owner may run that lane's transfers until it expires
+@Entity
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class TransferLane {
+
+    @Id
+    private Integer lane;
+
+    private String owner;
+    private LocalDateTime leaseUntil;
+}
@@ -22,6 +22,19 @@ public class GlobalExceptionHandler {
     }
 
 
+    // Accepted rather than failed: the transfer may already be applied, or be committed by recovery
+    @ExceptionHandler(TransferOutcomeUnknownException.class)
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public ResponseEntity<Map<String, String>> handleTransferOutcomeUnknownException(TransferOutcomeUnknownException ex) {
+        Map<String, String> errorResponse = new HashMap<>();
+        errorResponse.put("status", "UNKNOWN");
+        errorResponse.put("error", ex.getMessage());
+        if (ex.getTransferId() != null) {
+            errorResponse.put("transferId", String.valueOf(ex.getTransferId()));
+        }
+        return new ResponseEntity<>(errorResponse, HttpStatus.ACCEPTED);
+    }
+
     @ExceptionHandler(AccountNotFoundException.class)
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     public ResponseEntity<Map<String, String>> handleAccountNotFoundExceptionException(AccountNotFoundException ex) {
@@ -0,0 +1,22 @@
+package com.example.transaction.exception;
+
+// The transfer failed at a point where it may still have been applied, or will be by recovery. Not a
+// TransactionException: that answers 400, which tells the client the transfer definitely failed
+public class TransferOutcomeUnknownException extends RuntimeException {
+
+    // The coordinator log id recovery finishes the transfer under; null for a local transfer
+    private final Long transferId;
+
+    public TransferOutcomeUnknownException(String msg) {
+        this(msg, null);
+    }
+
+    public TransferOutcomeUnknownException(String msg, Long transferId) {
+        super(msg);
+        this.transferId = transferId;
+    }
+
+    public Long getTransferId() {
+        return transferId;
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.transaction.repository;
+
+import com.example.transaction.entity.CoordinatorLogEntry;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public class CoordinatorLogRepository {
+
+    private static final String INSERT = "insert into coordinator_log_entry (transfer_id, phase, decision_of, deposit_id, "
+            + "from_account_id, to_account_id, amount, created_at) values (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final RowMapper<CoordinatorLogEntry> ROW_MAPPER = (rs, rowNum) -> new CoordinatorLogEntry(
+            rs.getLong("id"), rs.getLong("transfer_id"), rs.getString("phase"), rs.getObject("decision_of", Long.class),
+            rs.getObject("deposit_id", Long.class), rs.getObject("from_account_id", Long.class),
+            rs.getObject("to_account_id", Long.class), rs.getBigDecimal("amount"),
+            rs.getTimestamp("created_at").toLocalDateTime());
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public CoordinatorLogRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    // One statement batch; the caller decides the transaction it commits in
+    public void appendAll(List<CoordinatorLogEntry> entries) {
+        jdbcTemplate.batchUpdate(INSERT, entries, entries.size(), CoordinatorLogRepository::bind);
+    }
+
+    // False when the transfer already has this phase, or already has a decision
+    public boolean append(CoordinatorLogEntry entry) {
+        try {
+            jdbcTemplate.update(INSERT, ps -> bind(ps, entry));
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    public Optional<String> findDecision(Long transferId) {
+        return jdbcTemplate.queryForList("select phase from coordinator_log_entry where decision_of = ?", String.class, transferId)
+                .stream().findFirst();
+    }
+
+    // PREPARING entries older than the cutoff whose transfer never finished
+    public List<CoordinatorLogEntry> findInDoubt(LocalDateTime preparedBefore, int limit) {
+        return jdbcTemplate.query("select p.* from coordinator_log_entry p where p.phase = ? and p.created_at < ? "
+                        + "and not exists (select 1 from coordinator_log_entry d where d.transfer_id = p.transfer_id and d.phase = ?) "
+                        + "order by p.created_at limit ?",
+                ROW_MAPPER, CoordinatorLogEntry.PREPARING, Timestamp.valueOf(preparedBefore), CoordinatorLogEntry.DONE, limit);
+    }
+
+    public List<Long> findFinishedBefore(LocalDateTime finishedBefore, int limit) {
+        return jdbcTemplate.queryForList("select transfer_id from coordinator_log_entry where phase = ? and created_at < ? limit ?",
+                Long.class, CoordinatorLogEntry.DONE, Timestamp.valueOf(finishedBefore), limit);
+    }
+
+    public void deleteTransfers(List<Long> transferIds) {
+        jdbcTemplate.batchUpdate("delete from coordinator_log_entry where transfer_id = ?", transferIds, transferIds.size(),
+                (ps, transferId) -> ps.setLong(1, transferId));
+    }
+
+    private static void bind(PreparedStatement ps, CoordinatorLogEntry entry) throws SQLException {
+        ps.setLong(1, entry.getTransferId());
+        ps.setString(2, entry.getPhase());
+        setLong(ps, 3, entry.getDecisionOf());
+        setLong(ps, 4, entry.getDepositId());
+        setLong(ps, 5, entry.getFromAccountId());
+        setLong(ps, 6, entry.getToAccountId());
+        ps.setBigDecimal(7, entry.getAmount());
+        ps.setTimestamp(8, Timestamp.valueOf(entry.getCreatedAt()));
+    }
+
+    private static void setLong(PreparedStatement ps, int index, Long value) throws SQLException {
+        if (value == null) {
+            ps.setNull(index, Types.BIGINT);
+        } else {
+            ps.setLong(index, value);
+        }
+    }
+}
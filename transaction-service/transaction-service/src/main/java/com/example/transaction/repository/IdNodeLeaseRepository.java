@@ -0,0 +1,50 @@
+package com.example.transaction.repository;
+
+import com.example.transaction.entity.IdNodeLease;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public class IdNodeLeaseRepository {
+
+    private static final RowMapper<IdNodeLease> ROW_MAPPER = (rs, rowNum) -> new IdNodeLease(
+            rs.getInt("node_id"), rs.getString("owner"), rs.getLong("issued_until"));
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public IdNodeLeaseRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public Optional<IdNodeLease> find(int nodeId) {
+        return jdbcTemplate.query("select * from id_node_lease where node_id = ?", ROW_MAPPER, nodeId).stream().findFirst();
+    }
+
+    // Takes the node if it still holds the lease that was read, or creates it when it was never leased
+    public boolean take(int nodeId, Long expectedIssuedUntil, String owner, long issuedUntil) {
+        if (expectedIssuedUntil != null) {
+            return jdbcTemplate.update("update id_node_lease set owner = ?, issued_until = ? where node_id = ? and issued_until = ?",
+                    owner, issuedUntil, nodeId, expectedIssuedUntil) == 1;
+        }
+        try {
+            jdbcTemplate.update("insert into id_node_lease (node_id, owner, issued_until) values (?, ?, ?)", nodeId, owner, issuedUntil);
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    public boolean renew(int nodeId, String owner, long issuedUntil) {
+        return jdbcTemplate.update("update id_node_lease set issued_until = ? where node_id = ? and owner = ?",
+                issuedUntil, nodeId, owner) == 1;
+    }
+
+    public void release(int nodeId, String owner, long issuedUntil) {
+        jdbcTemplate.update("update id_node_lease set owner = null, issued_until = ? where node_id = ? and owner = ?",
+                issuedUntil, nodeId, owner);
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.transaction.repository;
+
+import com.example.transaction.entity.IdempotencyRecord;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+// Claims go through a plain insert so that two instances racing on one key get a duplicate-key
+// error instead of both "saving" the record
+@Repository
+public class IdempotencyRecordRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public IdempotencyRecordRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    // True if this caller now owns the key
+    public boolean claim(String key, String fingerprint, LocalDateTime now) {
+        try {
+            jdbcTemplate.update("insert into idempotency_record (idempotency_key, fingerprint, status, created_at) values (?, ?, ?, ?)",
+                    key, fingerprint, IdempotencyRecord.IN_PROGRESS, Timestamp.valueOf(now));
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    public Optional<IdempotencyRecord> find(String key) {
+        List<IdempotencyRecord> records = jdbcTemplate.query("select * from idempotency_record where idempotency_key = ?",
+                (rs, rowNum) -> new IdempotencyRecord(rs.getString("idempotency_key"), rs.getString("fingerprint"),
+                        rs.getString("status"), rs.getObject("response_status", Integer.class), rs.getString("response_body"),
+                        rs.getTimestamp("created_at").toLocalDateTime()),
+                key);
+        return records.stream().findFirst();
+    }
+
+    public void complete(String key, int responseStatus, String responseBody) {
+        jdbcTemplate.update("update idempotency_record set status = ?, response_status = ?, response_body = ? where idempotency_key = ?",
+                IdempotencyRecord.COMPLETED, responseStatus, responseBody, key);
+    }
+
+    public void release(String key) {
+        jdbcTemplate.update("delete from idempotency_record where idempotency_key = ? and status = ?", key, IdempotencyRecord.IN_PROGRESS);
+    }
+
+    public int deleteCreatedBefore(LocalDateTime cutoff) {
+        return jdbcTemplate.update("delete from idempotency_record where created_at < ?", Timestamp.valueOf(cutoff));
+    }
+}
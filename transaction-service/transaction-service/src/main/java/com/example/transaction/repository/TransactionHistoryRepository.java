@@ -0,0 +1,133 @@
+package com.example.transaction.repository;
+
+import com.example.transaction.entity.Transaction;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Newest-first history of one account. Instead of "source = ? or target = ?", which MySQL cannot
+ * serve from one index, each side is read from its own (account, timestamp, id) index with the
+ * same keyset bounds and limit, and the two short runs are merged; the cost depends on the page
+ * size, not on how many transactions the account has. Exports stream both index ranges through
+ * forward-only cursors and merge them in order, so nothing is sorted or buffered per account.
+ */
+@Repository
+public class TransactionHistoryRepository {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final int exportFetchSize;
+
+    public TransactionHistoryRepository(NamedParameterJdbcTemplate jdbcTemplate,
+                                        @Value("${transaction.history.export-fetch-size:1000}") int exportFetchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.exportFetchSize = exportFetchSize;
+    }
+
+    // Rows strictly older than (beforeTimestamp, beforeId) when a cursor is given, within [from, to)
+    public List<Transaction> findPage(Long accountId, LocalDateTime beforeTimestamp, Long beforeId,
+                                      LocalDateTime from, LocalDateTime to, int limit) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("accountId", accountId)
+                .addValue("limit", limit);
+        StringBuilder bounds = new StringBuilder();
+        if (beforeTimestamp != null) {
+            bounds.append(" and (timestamp < :beforeTimestamp or (timestamp = :beforeTimestamp and id < :beforeId))");
+            params.addValue("beforeTimestamp", Timestamp.valueOf(beforeTimestamp)).addValue("beforeId", beforeId);
+        }
+        if (from != null) {
+            bounds.append(" and timestamp >= :from");
+            params.addValue("from", Timestamp.valueOf(from));
+        }
+        if (to != null) {
+            bounds.append(" and timestamp < :to");
+            params.addValue("to", Timestamp.valueOf(to));
+        }
+        String order = " order by timestamp desc, id desc limit :limit";
+        String sql = "select * from ("
+                + "(select * from transaction where source_account_id = :accountId" + bounds + order + ")"
+                + " union all "
+                // A transfer to oneself is already in the first half
+                + "(select * from transaction where target_account_id = :accountId and source_account_id <> :accountId" + bounds + order + ")"
+                + ") history" + order;
+        return jdbcTemplate.query(sql, params, this::mapRow);
+    }
+
+    private Transaction mapRow(ResultSet rs, int rowNum) throws SQLException {
+        Transaction transaction = new Transaction(rs.getLong("source_account_id"), rs.getLong("target_account_id"),
+                rs.getBigDecimal("amount"), rs.getTimestamp("timestamp").toLocalDateTime());
+        transaction.setId(rs.getLong("id"));
+        return transaction;
+    }
+
+    // Oldest first, within [from, to). Both cursors stay open on one connection, which MySQL only
+    // allows with useCursorFetch=true; the fetch size then bounds how many rows are held at a time
+    public void streamHistory(Long accountId, LocalDateTime from, LocalDateTime to, Consumer<Transaction> sink) {
+        StringBuilder bounds = new StringBuilder();
+        if (from != null) {
+            bounds.append(" and timestamp >= ?");
+        }
+        if (to != null) {
+            bounds.append(" and timestamp < ?");
+        }
+        String order = " order by timestamp, id";
+        String outgoingSql = "select * from transaction where source_account_id = ?" + bounds + order;
+        String incomingSql = "select * from transaction where target_account_id = ? and source_account_id <> ?" + bounds + order;
+        jdbcTemplate.getJdbcTemplate().execute((ConnectionCallback<Void>) connection -> {
+            try (PreparedStatement outgoing = openCursor(connection, outgoingSql, from, to, accountId);
+                 PreparedStatement incoming = openCursor(connection, incomingSql, from, to, accountId, accountId);
+                 ResultSet outgoingRows = outgoing.executeQuery();
+                 ResultSet incomingRows = incoming.executeQuery()) {
+                Transaction nextOutgoing = next(outgoingRows);
+                Transaction nextIncoming = next(incomingRows);
+                while (nextOutgoing != null || nextIncoming != null) {
+                    if (nextIncoming == null || (nextOutgoing != null && isBefore(nextOutgoing, nextIncoming))) {
+                        sink.accept(nextOutgoing);
+                        nextOutgoing = next(outgoingRows);
+                    } else {
+                        sink.accept(nextIncoming);
+                        nextIncoming = next(incomingRows);
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    private PreparedStatement openCursor(Connection connection, String sql, LocalDateTime from, LocalDateTime to,
+                                         Long... accountIds) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(exportFetchSize);
+        int index = 1;
+        for (Long accountId : accountIds) {
+            statement.setLong(index++, accountId);
+        }
+        if (from != null) {
+            statement.setTimestamp(index++, Timestamp.valueOf(from));
+        }
+        if (to != null) {
+            statement.setTimestamp(index, Timestamp.valueOf(to));
+        }
+        return statement;
+    }
+
+    private Transaction next(ResultSet rs) throws SQLException {
+        return rs.next() ? mapRow(rs, rs.getRow()) : null;
+    }
+
+    private static boolean isBefore(Transaction a, Transaction b) {
+        int byTime = a.getTimestamp().compareTo(b.getTimestamp());
+        return byTime < 0 || (byTime == 0 && a.getId() < b.getId());
+    }
+}
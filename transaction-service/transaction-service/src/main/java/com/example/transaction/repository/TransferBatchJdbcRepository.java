@@ -0,0 +1,107 @@
+package com.example.transaction.repository;
+
+import com.example.transaction.entity.Transaction;
+import com.example.transaction.entity.TransferBatch;
+import com.example.transaction.entity.TransferBatchItem;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+// JDBC batches for the per-item rows of a bulk transfer; with rewriteBatchedStatements each batch
+// is sent to MySQL as a few multi-row statements
+@Repository
+public class TransferBatchJdbcRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int batchSize;
+
+    public TransferBatchJdbcRepository(JdbcTemplate jdbcTemplate,
+                                       @Value("${transaction.bulk.jdbc-batch-size:500}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = batchSize;
+    }
+
+    public void insertItems(List<TransferBatchItem> items) {
+        jdbcTemplate.batchUpdate("insert into transfer_batch_item (batch_id, item_index, from_account_id, to_account_id, amount, status, "
+                + "withdraw_transaction_id, deposit_transaction_id) values (?, ?, ?, ?, ?, ?, ?, ?)", items, batchSize, (ps, item) -> {
+            ps.setLong(1, item.getBatchId());
+            ps.setInt(2, item.getItemIndex());
+            ps.setObject(3, item.getFromAccountId());
+            ps.setObject(4, item.getToAccountId());
+            ps.setBigDecimal(5, item.getAmount());
+            ps.setString(6, item.getStatus());
+            ps.setLong(7, item.getWithdrawTransactionId());
+            ps.setLong(8, item.getDepositTransactionId());
+        });
+    }
+
+    public List<TransferBatchItem> findItems(Long batchId) {
+        return jdbcTemplate.query("select * from transfer_batch_item where batch_id = ? order by item_index",
+                (rs, rowNum) -> new TransferBatchItem(rs.getLong("id"), rs.getLong("batch_id"), rs.getInt("item_index"),
+                        rs.getObject("from_account_id", Long.class), rs.getObject("to_account_id", Long.class),
+                        rs.getBigDecimal("amount"), rs.getString("status"), rs.getString("error"),
+                        rs.getObject("withdraw_transaction_id", Long.class), rs.getObject("deposit_transaction_id", Long.class)),
+                batchId);
+    }
+
+    // Persists the commit decision for these items before their legs are committed
+    public void markCommitting(Long batchId, List<TransferBatchItem> items) {
+        jdbcTemplate.batchUpdate("update transfer_batch_item set status = ? where batch_id = ? and item_index = ?",
+                items, batchSize, (ps, item) -> {
+                    ps.setString(1, TransferBatchItem.COMMITTING);
+                    ps.setLong(2, batchId);
+                    ps.setInt(3, item.getItemIndex());
+                });
+    }
+
+    // Records the final outcome of each item (by batch and index) and adds them to the batch's counters
+    public void completeItems(Long batchId, List<TransferBatchItem> outcomes) {
+        jdbcTemplate.batchUpdate("update transfer_batch_item set status = ?, error = ? where batch_id = ? and item_index = ?",
+                outcomes, batchSize, (ps, item) -> {
+                    ps.setString(1, item.getStatus());
+                    ps.setString(2, item.getError());
+                    ps.setLong(3, batchId);
+                    ps.setInt(4, item.getItemIndex());
+                });
+        long committed = outcomes.stream().filter(item -> TransferBatchItem.COMMITTED.equals(item.getStatus())).count();
+        jdbcTemplate.update("update transfer_batch set committed_count = committed_count + ?, failed_count = failed_count + ? where id = ?",
+                committed, outcomes.size() - committed, batchId);
+    }
+
+    public void markCompleted(Long batchId, String leaseOwner, String status, LocalDateTime completedAt) {
+        jdbcTemplate.update("update transfer_batch set status = ?, completed_at = ?, lease_owner = null, lease_until = null "
+                + "where id = ? and lease_owner = ?", status, Timestamp.valueOf(completedAt), batchId, leaseOwner);
+    }
+
+    // False once another instance has taken the batch over; the row lock it takes also keeps the
+    // writes that follow it in the same transaction from interleaving with the new owner's
+    public boolean renewLease(Long batchId, String leaseOwner, LocalDateTime leaseUntil) {
+        return jdbcTemplate.update("update transfer_batch set lease_until = ? where id = ? and lease_owner = ?",
+                Timestamp.valueOf(leaseUntil), batchId, leaseOwner) == 1;
+    }
+
+    // Unfinished batches whose owner stopped renewing its lease, now leased to leaseOwner
+    public List<Long> claimAbandoned(String leaseOwner, LocalDateTime leaseUntil, LocalDateTime now, int limit) {
+        List<Long> abandoned = jdbcTemplate.queryForList("select id from transfer_batch where status = ? and lease_until < ? limit ?",
+                Long.class, TransferBatch.PROCESSING, Timestamp.valueOf(now), limit);
+        return abandoned.stream()
+                .filter(batchId -> jdbcTemplate.update("update transfer_batch set lease_owner = ?, lease_until = ? "
+                                + "where id = ? and status = ? and lease_until < ?", leaseOwner, Timestamp.valueOf(leaseUntil),
+                        batchId, TransferBatch.PROCESSING, Timestamp.valueOf(now)) == 1)
+                .toList();
+    }
+
+    public void insertTransactions(List<Transaction> transactions) {
+        jdbcTemplate.batchUpdate("insert into transaction (source_account_id, target_account_id, amount, timestamp) values (?, ?, ?, ?)",
+                transactions, batchSize, (ps, transaction) -> {
+                    ps.setLong(1, transaction.getSourceAccountId());
+                    ps.setLong(2, transaction.getTargetAccountId());
+                    ps.setBigDecimal(3, transaction.getAmount());
+                    ps.setTimestamp(4, Timestamp.valueOf(transaction.getTimestamp()));
+                });
+    }
+}
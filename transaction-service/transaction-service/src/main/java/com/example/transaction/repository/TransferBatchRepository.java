@@ -0,0 +1,7 @@
+package com.example.transaction.repository;
+
+import com.example.transaction.entity.TransferBatch;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface TransferBatchRepository extends JpaRepository<TransferBatch, Long> {
+}
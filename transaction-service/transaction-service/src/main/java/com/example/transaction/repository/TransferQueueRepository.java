@@ -0,0 +1,90 @@
+package com.example.transaction.repository;
+
+import com.example.transaction.entity.QueuedTransfer;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public class TransferQueueRepository {
+
+    private static final RowMapper<QueuedTransfer> ROW_MAPPER = (rs, rowNum) -> new QueuedTransfer(
+            rs.getLong("id"), rs.getLong("from_account_id"), rs.getLong("to_account_id"), rs.getBigDecimal("amount"),
+            rs.getString("token"), rs.getInt("lane"), rs.getString("status"), rs.getString("error"),
+            rs.getObject("transaction_id", Long.class), rs.getTimestamp("created_at").toLocalDateTime(),
+            rs.getTimestamp("updated_at").toLocalDateTime());
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public TransferQueueRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void insert(QueuedTransfer transfer) {
+        jdbcTemplate.update("insert into queued_transfer (id, from_account_id, to_account_id, amount, token, lane, status, created_at, updated_at) "
+                        + "values (?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                transfer.getId(), transfer.getFromAccountId(), transfer.getToAccountId(), transfer.getAmount(), transfer.getToken(),
+                transfer.getLane(), transfer.getStatus(), Timestamp.valueOf(transfer.getCreatedAt()), Timestamp.valueOf(transfer.getUpdatedAt()));
+    }
+
+    public Optional<QueuedTransfer> find(Long id) {
+        return jdbcTemplate.query("select * from queued_transfer where id = ?", ROW_MAPPER, id).stream().findFirst();
+    }
+
+    public List<Integer> lanesWithWork(int limit) {
+        return jdbcTemplate.queryForList("select distinct lane from queued_transfer where status = ? limit ?",
+                Integer.class, QueuedTransfer.QUEUED, limit);
+    }
+
+    public Optional<QueuedTransfer> nextInLane(int lane) {
+        return jdbcTemplate.query("select * from queued_transfer where status = ? and lane = ? order by id limit 1",
+                ROW_MAPPER, QueuedTransfer.QUEUED, lane).stream().findFirst();
+    }
+
+    public long countQueued() {
+        Long count = jdbcTemplate.queryForObject("select count(*) from queued_transfer where status = ?", Long.class, QueuedTransfer.QUEUED);
+        return count == null ? 0 : count;
+    }
+
+    public boolean markProcessing(Long id, LocalDateTime now) {
+        return jdbcTemplate.update("update queued_transfer set status = ?, updated_at = ? where id = ? and status = ?",
+                QueuedTransfer.PROCESSING, Timestamp.valueOf(now), id, QueuedTransfer.QUEUED) == 1;
+    }
+
+    public void finish(Long id, String status, String error, Long transactionId, LocalDateTime now) {
+        jdbcTemplate.update("update queued_transfer set status = ?, error = ?, transaction_id = ?, token = null, updated_at = ? where id = ?",
+                status, error, transactionId, Timestamp.valueOf(now), id);
+    }
+
+    // Transfers a previous lane owner left mid-flight
+    public int markInterrupted(int lane, LocalDateTime now) {
+        return jdbcTemplate.update("update queued_transfer set status = ?, error = ?, token = null, updated_at = ? where lane = ? and status = ?",
+                QueuedTransfer.UNKNOWN, "Interrupted while processing; outcome unknown", Timestamp.valueOf(now), lane, QueuedTransfer.PROCESSING);
+    }
+
+    // Takes the lane if it is free or its lease has run out; also renews a lease the owner already holds
+    public boolean acquireLane(int lane, String owner, LocalDateTime leaseUntil, LocalDateTime now) {
+        int updated = jdbcTemplate.update("update transfer_lane set owner = ?, lease_until = ? where lane = ? and (owner = ? or lease_until < ?)",
+                owner, Timestamp.valueOf(leaseUntil), lane, owner, Timestamp.valueOf(now));
+        if (updated == 1) {
+            return true;
+        }
+        try {
+            jdbcTemplate.update("insert into transfer_lane (lane, owner, lease_until) values (?, ?, ?)",
+                    lane, owner, Timestamp.valueOf(leaseUntil));
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    public void releaseLane(int lane, String owner, LocalDateTime now) {
+        jdbcTemplate.update("update transfer_lane set lease_until = ? where lane = ? and owner = ?", Timestamp.valueOf(now), lane, owner);
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.transaction.request;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+// One leg of account-service's batch prepare; type is WITHDRAW or DEPOSIT
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PrepareRequest {
+    private Long transactionId;
+    private Long accountId;
+    private String type;
+    private BigDecimal amount;
+}
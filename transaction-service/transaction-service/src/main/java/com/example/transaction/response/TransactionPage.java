@@ -0,0 +1,17 @@
+package com.example.transaction.response;
+
+import com.example.transaction.entity.Transaction;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class TransactionPage {
+    private List<Transaction> items;
+    // Pass back as ?cursor= to get the next (older) page; null on the last page
+    private String nextCursor;
+}
@@ -0,0 +1,18 @@
+package com.example.transaction.response;
+
+import com.example.transaction.entity.TransferBatch;
+import com.example.transaction.entity.TransferBatchItem;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class TransferBatchStatus {
+    private TransferBatch batch;
+    // In submission order
+    private List<TransferBatchItem> items;
+}
@@ -1,86 +1,152 @@
 package com.example.transaction.service;
 
-import org.springframework.beans.factory.annotation.Value;
+import com.example.transaction.request.PrepareRequest;
+import com.example.transaction.request.TransferRequest;
+import com.example.transaction.util.LatencyAwareLoadBalancer;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
 
 import java.math.BigDecimal;
+import java.util.List;
 
 @Service
 public class AccountServiceClient {
 
-    private final WebClient.Builder webClientBuilder;
+    public static final String LOCAL_COMMITTED = "COMMITTED";
+    public static final String LOCAL_REJECTED = "REJECTED";
+    public static final String LOCAL_NOT_LOCAL = "NOT_LOCAL";
 
-    @Value("http://ACCOUNT-SERVICE")
-    private String accountServiceUrl;
+    private static final ParameterizedTypeReference<List<String>> OUTCOMES = new ParameterizedTypeReference<>() {
+    };
 
-    public AccountServiceClient(WebClient.Builder webClientBuilder) {
-        this.webClientBuilder = webClientBuilder;
+    private final WebClient webClient;
+
+    public AccountServiceClient(@Qualifier("accountServiceWebClient") WebClient webClient) {
+        this.webClient = webClient;
     }
 
     public boolean prepareWithdraw(Long accountId, BigDecimal amount, Long transactionId, String token) {
-        return webClientBuilder.build()
-                .post()
-                .uri(accountServiceUrl + "/api/v1/account/prepare/withdraw/" + accountId+"/"+transactionId)
+        return Boolean.TRUE.equals(prepareWithdrawAsync(accountId, amount, transactionId, token).block());
+    }
+
+    public void commitWithdraw(Long transactionId, String token) {
+        commitWithdrawAsync(transactionId, token).block();
+    }
+
+    public void rollbackWithdraw(Long transactionId, String token) {
+        rollbackWithdrawAsync(transactionId, token).block();
+    }
+
+    public boolean prepareDeposit(Long accountId, BigDecimal amount, Long transactionId, String token) {
+        return Boolean.TRUE.equals(prepareDepositAsync(accountId, amount, transactionId, token).block());
+    }
+
+    public void commitDeposit(Long transactionId, String token) {
+        commitDepositAsync(transactionId, token).block();
+    }
+
+    public void rollbackDeposit(Long transactionId, String token) {
+        rollbackDepositAsync(transactionId, token).block();
+    }
+
+    public Mono<Boolean> prepareWithdrawAsync(Long accountId, BigDecimal amount, Long transactionId, String token) {
+        return prepare("/api/v1/account/prepare/withdraw/" + accountId + "/" + transactionId, accountId, amount, token);
+    }
+
+    public Mono<Void> commitWithdrawAsync(Long transactionId, String token) {
+        return post("/api/v1/account/commit/withdraw/" + transactionId, token);
+    }
+
+    public Mono<Void> rollbackWithdrawAsync(Long transactionId, String token) {
+        return post("/api/v1/account/rollback/withdraw/" + transactionId, token);
+    }
+
+    public Mono<Boolean> prepareDepositAsync(Long accountId, BigDecimal amount, Long transactionId, String token) {
+        return prepare("/api/v1/account/prepare/deposit/" + accountId + "/" + transactionId, accountId, amount, token);
+    }
+
+    public Mono<Void> commitDepositAsync(Long transactionId, String token) {
+        return post("/api/v1/account/commit/deposit/" + transactionId, token);
+    }
+
+    public Mono<Void> rollbackDepositAsync(Long transactionId, String token) {
+        return post("/api/v1/account/rollback/deposit/" + transactionId, token);
+    }
+
+    // COMMITTED, REJECTED or NOT_LOCAL; an account-service without the endpoint counts as NOT_LOCAL.
+    // Pinned by the payer for the same reason as the prepares: it waits on the payer's row lock
+    public Mono<String> transferLocalAsync(Long fromAccountId, Long toAccountId, BigDecimal amount, String token) {
+        TransferRequest request = new TransferRequest();
+        request.setFromAccountId(fromAccountId);
+        request.setToAccountId(toAccountId);
+        request.setAmount(amount);
+        return webClient.post()
+                .uri("/api/v1/account/transfer")
                 .header(HttpHeaders.AUTHORIZATION, token)
-                .bodyValue(amount)
+                .header(LatencyAwareLoadBalancer.AFFINITY_HEADER, String.valueOf(fromAccountId))
+                .bodyValue(request)
                 .retrieve()
                 .bodyToMono(String.class)
-                .block()
-                .equals("PREPARED");
+                .onErrorResume(WebClientResponseException.class, e -> e.getStatusCode() == HttpStatus.NOT_FOUND
+                        ? Mono.just(LOCAL_NOT_LOCAL)
+                        : Mono.error(e));
     }
 
-    public void commitWithdraw(Long transactionId, String token) {
-        webClientBuilder.build()
-                .post()
-                .uri(accountServiceUrl + "/api/v1/account/commit/withdraw/" + transactionId)
+    // PREPARED or ABORT for each leg, in request order
+    public Mono<List<String>> prepareBatchAsync(List<PrepareRequest> legs, String token) {
+        return webClient.post()
+                .uri("/api/v1/account/prepare/batch")
                 .header(HttpHeaders.AUTHORIZATION, token)
+                .bodyValue(legs)
                 .retrieve()
-                .toBodilessEntity()
-                .block();
+                .bodyToMono(OUTCOMES);
     }
 
-    public void rollbackWithdraw(Long transactionId, String token) {
-        webClientBuilder.build()
-                .post()
-                .uri(accountServiceUrl + "/api/v1/account/rollback/withdraw/" + transactionId)
+    public Mono<Void> commitBatchAsync(List<Long> transactionIds, String token) {
+        return postIds("/api/v1/account/commit/batch", transactionIds, token);
+    }
+
+    public Mono<Void> rollbackBatchAsync(List<Long> transactionIds, String token) {
+        return postIds("/api/v1/account/rollback/batch", transactionIds, token);
+    }
+
+    private Mono<Void> postIds(String path, List<Long> transactionIds, String token) {
+        return webClient.post()
+                .uri(path)
                 .header(HttpHeaders.AUTHORIZATION, token)
+                .bodyValue(transactionIds)
                 .retrieve()
                 .toBodilessEntity()
-                .block();
+                .then();
     }
 
-    public boolean prepareDeposit(Long accountId, BigDecimal amount, Long transactionId, String token) {
-        return webClientBuilder.build()
-                .post()
-                .uri(accountServiceUrl + "/api/v1/account/prepare/deposit/" + accountId+"/"+transactionId)
+    // Routed to the account's instance. A withdraw prepare holds the account row lock while it reads
+    // the reserved funds, so prepares for one hot account queue on that lock; pinned, they tie up
+    // connections from one instance's pool only, and the other instances keep serving other accounts
+    private Mono<Boolean> prepare(String path, Long accountId, BigDecimal amount, String token) {
+        return webClient.post()
+                .uri(path)
                 .header(HttpHeaders.AUTHORIZATION, token)
+                .header(LatencyAwareLoadBalancer.AFFINITY_HEADER, String.valueOf(accountId))
                 .bodyValue(amount)
                 .retrieve()
                 .bodyToMono(String.class)
-                .block()
-                .equals("PREPARED");
+                .map("PREPARED"::equals)
+                .defaultIfEmpty(false);
     }
 
-    public void commitDeposit(Long transactionId, String token) {
-        webClientBuilder.build()
-                .post()
-                .uri(accountServiceUrl + "/api/v1/account/commit/deposit/" + transactionId)
+    private Mono<Void> post(String path, String token) {
+        return webClient.post()
+                .uri(path)
                 .header(HttpHeaders.AUTHORIZATION, token)
                 .retrieve()
                 .toBodilessEntity()
-                .block();
-    }
-
-    public void rollbackDeposit(Long transactionId, String token) {
-        webClientBuilder.build()
-                .post()
-                .uri(accountServiceUrl + "/api/v1/account/rollback/deposit/" + transactionId)
-                .header(HttpHeaders.AUTHORIZATION, token)
-                .retrieve()
-                .toBodilessEntity()
-                .block();
+                .then();
     }
 }
-
@@ -0,0 +1,302 @@
+package com.example.transaction.service;
+
+import com.example.transaction.entity.Transaction;
+import com.example.transaction.entity.TransferBatch;
+import com.example.transaction.entity.TransferBatchItem;
+import com.example.transaction.repository.TransferBatchJdbcRepository;
+import com.example.transaction.repository.TransferBatchRepository;
+import com.example.transaction.request.PrepareRequest;
+import com.example.transaction.request.TransferRequest;
+import com.example.transaction.response.TransferBatchStatus;
+import com.example.transaction.util.SnowflakeIdGenerator;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a bulk transfer as a pipeline of chunks. Each chunk is one two-phase commit against
+ * account-service: a single batch prepare for all of its legs, then one commit for the transfers
+ * whose legs both prepared and one rollback for the rest, in parallel. Several chunks are in flight
+ * at once and the load balancer spreads them over the account-service instances. Outcomes and the
+ * committed Transaction rows are written with JDBC batches as each chunk finishes.
+ *
+ * Leg ids are stored with the items and the commit decision (COMMITTING) is stored before the commit
+ * is sent, so a batch can always be finished: items without a decision are prepared again, which
+ * account-service answers from the legs it already holds, and COMMITTING items are committed again.
+ * The instance running a batch holds a lease on it; recovery resumes batches whose lease ran out.
+ * Calls carry this service's own token, never the submitting user's.
+ */
+@Service
+public class BulkTransferService {
+
+    private static final Log logger = LogFactory.getLog(BulkTransferService.class);
+
+    private static final String PREPARED = "PREPARED";
+    private static final int MAX_ERROR_LENGTH = 255;
+    // Abandoned batches claimed per recovery pass
+    private static final int SCAN_LIMIT = 100;
+
+    private final TransferBatchRepository transferBatchRepository;
+    private final TransferBatchJdbcRepository transferBatchJdbcRepository;
+    private final AccountServiceClient accountServiceClient;
+    private final SnowflakeIdGenerator idGenerator;
+    private final ServiceTokenIssuer serviceTokenIssuer;
+    private final TransactionTemplate transactionTemplate;
+    private final int maxItems;
+    private final int chunkSize;
+    private final int concurrency;
+    private final Duration callTimeout;
+    private final Duration lease;
+    private final String owner = UUID.randomUUID().toString();
+    private final ScheduledExecutorService recovery;
+
+    public BulkTransferService(TransferBatchRepository transferBatchRepository,
+                               TransferBatchJdbcRepository transferBatchJdbcRepository,
+                               AccountServiceClient accountServiceClient,
+                               SnowflakeIdGenerator idGenerator,
+                               ServiceTokenIssuer serviceTokenIssuer,
+                               TransactionTemplate transactionTemplate,
+                               @Value("${transaction.bulk.max-items:50000}") int maxItems,
+                               @Value("${transaction.bulk.chunk-size:500}") int chunkSize,
+                               @Value("${transaction.bulk.concurrency:4}") int concurrency,
+                               @Value("${transaction.bulk.call-timeout:30s}") Duration callTimeout,
+                               @Value("${transaction.bulk.lease:5m}") Duration lease,
+                               @Value("${transaction.bulk.recovery-enabled:true}") boolean recoveryEnabled,
+                               @Value("${transaction.bulk.recovery-interval:1m}") Duration recoveryInterval) {
+        this.transferBatchRepository = transferBatchRepository;
+        this.transferBatchJdbcRepository = transferBatchJdbcRepository;
+        this.accountServiceClient = accountServiceClient;
+        this.idGenerator = idGenerator;
+        this.serviceTokenIssuer = serviceTokenIssuer;
+        this.transactionTemplate = transactionTemplate;
+        this.maxItems = maxItems;
+        this.chunkSize = chunkSize;
+        this.concurrency = concurrency;
+        this.callTimeout = callTimeout;
+        this.lease = lease;
+        this.recovery = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "bulk-transfer-recovery");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (recoveryEnabled) {
+            recovery.scheduleWithFixedDelay(this::recover, 0, recoveryInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        recovery.shutdownNow();
+    }
+
+    // Stores the batch and its items and starts processing in the background; poll getStatus for outcomes
+    public TransferBatch submit(List<TransferRequest> transfers) {
+        if (transfers == null || transfers.isEmpty()) {
+            throw new IllegalArgumentException("At least one transfer is required.");
+        }
+        if (transfers.size() > maxItems) {
+            throw new IllegalArgumentException("A batch can contain at most " + maxItems + " transfers.");
+        }
+        LocalDateTime now = LocalDateTime.now();
+        TransferBatch batch = transferBatchRepository.save(new TransferBatch(null, TransferBatch.PROCESSING,
+                transfers.size(), 0, 0, now, null, owner, now.plus(lease)));
+        List<TransferBatchItem> items = new ArrayList<>(transfers.size());
+        for (int i = 0; i < transfers.size(); i++) {
+            TransferRequest transfer = transfers.get(i);
+            items.add(new TransferBatchItem(null, batch.getId(), i, transfer.getFromAccountId(), transfer.getToAccountId(),
+                    transfer.getAmount(), TransferBatchItem.PENDING, null, idGenerator.nextId(), idGenerator.nextId()));
+        }
+        transferBatchJdbcRepository.insertItems(items);
+        start(batch.getId(), items);
+        return batch;
+    }
+
+    public Optional<TransferBatchStatus> getStatus(Long batchId) {
+        return transferBatchRepository.findById(batchId)
+                .map(batch -> new TransferBatchStatus(batch, transferBatchJdbcRepository.findItems(batchId)));
+    }
+
+    void recover() {
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            for (Long batchId : transferBatchJdbcRepository.claimAbandoned(owner, now.plus(lease), now, SCAN_LIMIT)) {
+                logger.info("Resuming bulk transfer batch " + batchId);
+                start(batchId, transferBatchJdbcRepository.findItems(batchId));
+            }
+        } catch (RuntimeException e) {
+            // Retried on the next run; never let the scheduled task die
+            logger.warn("Bulk transfer recovery failed: " + e.getMessage());
+        }
+    }
+
+    private void start(Long batchId, List<TransferBatchItem> items) {
+        process(batchId, items).subscribe(
+                null, e -> logger.error("Bulk transfer batch " + batchId + " stopped: " + e.getMessage()));
+    }
+
+    // Runs every item that has no outcome yet; the batch is completed once none is left
+    Mono<Void> process(Long batchId, List<TransferBatchItem> items) {
+        List<TransferBatchItem> open = items.stream().filter(BulkTransferService::isOpen).toList();
+        int chunks = (open.size() + chunkSize - 1) / chunkSize;
+        return Flux.range(0, chunks)
+                .flatMap(chunk -> processChunk(batchId, open.subList(chunk * chunkSize, Math.min(open.size(), (chunk + 1) * chunkSize))),
+                        concurrency)
+                .then(blocking(() -> {
+                    long unfinished = open.stream().filter(BulkTransferService::isOpen).count();
+                    if (unfinished == 0) {
+                        transferBatchJdbcRepository.markCompleted(batchId, owner, TransferBatch.COMPLETED, LocalDateTime.now());
+                    } else {
+                        logger.warn("Bulk transfer batch " + batchId + " has " + unfinished + " unfinished item(s); recovery will resume it");
+                    }
+                }));
+    }
+
+    private Mono<Void> processChunk(Long batchId, List<TransferBatchItem> items) {
+        String token = serviceTokenIssuer.authorization();
+        List<TransferBatchItem> preparing = new ArrayList<>();
+        List<PrepareRequest> legs = new ArrayList<>();
+        // Decided by an earlier run; only the commit is left
+        List<TransferBatchItem> decided = new ArrayList<>();
+        for (TransferBatchItem item : items) {
+            if (TransferBatchItem.COMMITTING.equals(item.getStatus())) {
+                decided.add(item);
+                continue;
+            }
+            String error = validate(item);
+            if (error != null) {
+                fail(item, error);
+                continue;
+            }
+            preparing.add(item);
+            legs.add(new PrepareRequest(item.getWithdrawTransactionId(), item.getFromAccountId(), "WITHDRAW", item.getAmount()));
+            legs.add(new PrepareRequest(item.getDepositTransactionId(), item.getToAccountId(), "DEPOSIT", item.getAmount()));
+        }
+
+        Mono<Void> prepare = legs.isEmpty() ? Mono.empty() : accountServiceClient.prepareBatchAsync(legs, token)
+                .timeout(callTimeout)
+                .flatMap(prepared -> {
+                    List<TransferBatchItem> committing = new ArrayList<>();
+                    List<TransferBatchItem> aborting = new ArrayList<>();
+                    for (int pair = 0; pair < preparing.size(); pair++) {
+                        boolean bothPrepared = PREPARED.equals(prepared.get(2 * pair)) && PREPARED.equals(prepared.get(2 * pair + 1));
+                        (bothPrepared ? committing : aborting).add(preparing.get(pair));
+                    }
+                    Mono<Void> decide = committing.isEmpty() ? Mono.empty()
+                            : blocking(() -> transferBatchJdbcRepository.markCommitting(batchId, committing))
+                            .doOnSuccess(ignored -> {
+                                committing.forEach(item -> item.setStatus(TransferBatchItem.COMMITTING));
+                                decided.addAll(committing);
+                            });
+                    return decide.then(abort(aborting, token, "Transaction failed during the prepare phase"));
+                })
+                // Nothing was decided, so every leg can be rolled back; rollbacks of legs that never
+                // arrived leave tombstones, so a prepare still in flight cannot land afterwards
+                .onErrorResume(e -> abort(preparing, token, "Prepare failed: " + e.getMessage()));
+
+        return prepare
+                .then(Mono.defer(() -> commit(decided, token)))
+                .then(record(batchId, items));
+    }
+
+    // Items stay COMMITTING when the commit fails or times out: it may have been applied, and the
+    // decision cannot be reversed, so recovery commits them again instead of rolling them back
+    private Mono<Void> commit(List<TransferBatchItem> items, String token) {
+        if (items.isEmpty()) {
+            return Mono.empty();
+        }
+        return accountServiceClient.commitBatchAsync(legIds(items), token)
+                .timeout(callTimeout)
+                .doOnSuccess(ignored -> items.forEach(item -> item.setStatus(TransferBatchItem.COMMITTED)))
+                .onErrorResume(e -> {
+                    logger.warn("Batch commit of " + items.size() + " transfer(s) is in doubt: " + e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    // Items fail only once their legs are rolled back; otherwise they stay open for recovery to abort
+    private Mono<Void> abort(List<TransferBatchItem> items, String token, String error) {
+        if (items.isEmpty()) {
+            return Mono.empty();
+        }
+        return Mono.defer(() -> accountServiceClient.rollbackBatchAsync(legIds(items), token))
+                .timeout(callTimeout)
+                .doOnSuccess(ignored -> items.forEach(item -> fail(item, error)))
+                .onErrorResume(e -> {
+                    logger.warn("Batch rollback failed: " + e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    // Only the lease holder records outcomes, and doing so renews its lease
+    private Mono<Void> record(Long batchId, List<TransferBatchItem> items) {
+        return blocking(() -> transactionTemplate.executeWithoutResult(status -> {
+            LocalDateTime now = LocalDateTime.now();
+            if (!transferBatchJdbcRepository.renewLease(batchId, owner, now.plus(lease))) {
+                throw new IllegalStateException("Lost the lease on bulk transfer batch " + batchId);
+            }
+            List<TransferBatchItem> finished = items.stream().filter(item -> !isOpen(item)).toList();
+            List<Transaction> transactions = finished.stream()
+                    .filter(item -> TransferBatchItem.COMMITTED.equals(item.getStatus()))
+                    .map(item -> new Transaction(item.getFromAccountId(), item.getToAccountId(), item.getAmount(), now))
+                    .toList();
+            if (!transactions.isEmpty()) {
+                transferBatchJdbcRepository.insertTransactions(transactions);
+            }
+            if (!finished.isEmpty()) {
+                transferBatchJdbcRepository.completeItems(batchId, finished);
+            }
+        }));
+    }
+
+    private static List<Long> legIds(List<TransferBatchItem> items) {
+        List<Long> ids = new ArrayList<>(items.size() * 2);
+        items.forEach(item -> {
+            ids.add(item.getWithdrawTransactionId());
+            ids.add(item.getDepositTransactionId());
+        });
+        return ids;
+    }
+
+    private static boolean isOpen(TransferBatchItem item) {
+        return TransferBatchItem.PENDING.equals(item.getStatus()) || TransferBatchItem.COMMITTING.equals(item.getStatus());
+    }
+
+    private static Mono<Void> blocking(Runnable work) {
+        return Mono.fromRunnable(work).subscribeOn(Schedulers.boundedElastic()).then();
+    }
+
+    private static String validate(TransferBatchItem item) {
+        if (item.getFromAccountId() == null || item.getToAccountId() == null || item.getAmount() == null) {
+            return "Source account, target account and amount are required.";
+        }
+        if (item.getAmount().compareTo(BigDecimal.ZERO) <= 0) {
+            return "Amount must be greater than zero.";
+        }
+        if (item.getFromAccountId().equals(item.getToAccountId())) {
+            return "Source and target account must differ.";
+        }
+        return null;
+    }
+
+    private static void fail(TransferBatchItem item, String error) {
+        item.setStatus(TransferBatchItem.FAILED);
+        item.setError(error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error);
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.transaction.service;
+
+import com.example.transaction.entity.IdempotencyRecord;
+import com.example.transaction.exception.TransferOutcomeUnknownException;
+import com.example.transaction.repository.IdempotencyRecordRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Makes a request safe to retry under an Idempotency-Key. Keys belong to the caller: the same key
+ * from two callers is two keys. The first request with a key claims it in the database and runs;
+ * duplicates on the same instance wait (up to wait-timeout) for that run's response, and duplicates
+ * anywhere get the stored response once it has finished. A key that is still running answers 409.
+ * A run that failed before anything was applied releases its key so the client can retry; one whose
+ * outcome is unknown, or whose caller went away, keeps it claimed so a retry cannot apply it twice.
+ */
+@Service
+public class IdempotencyService {
+
+    private static final Log logger = LogFactory.getLog(IdempotencyService.class);
+
+    public static final String HEADER = "Idempotency-Key";
+    private static final int MAX_KEY_LENGTH = 128;
+
+    private record Entry(String fingerprint, CompletableFuture<ResponseEntity<String>> response) {
+    }
+
+    private final IdempotencyRecordRepository idempotencyRecordRepository;
+    private final MeterRegistry meterRegistry;
+    private final Duration retention;
+    private final Duration waitTimeout;
+    // Runs in flight on this instance and recently finished ones, by key
+    private final Cache<String, Entry> entries;
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService cleaner;
+
+    public IdempotencyService(IdempotencyRecordRepository idempotencyRecordRepository, MeterRegistry meterRegistry,
+                              @Value("${transaction.idempotency.maximum-size:100000}") long maximumSize,
+                              @Value("${transaction.idempotency.retention:24h}") Duration retention,
+                              @Value("${transaction.idempotency.cleanup-interval:10m}") Duration cleanupInterval,
+                              @Value("${transaction.idempotency.wait-timeout:30s}") Duration waitTimeout) {
+        this.idempotencyRecordRepository = idempotencyRecordRepository;
+        this.meterRegistry = meterRegistry;
+        this.retention = retention;
+        this.waitTimeout = waitTimeout;
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(retention)
+                .build();
+        Gauge.builder("transaction.idempotency.cache.size", entries, Cache::estimatedSize).register(meterRegistry);
+        this.cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "idempotency-cleanup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = cleanupInterval.toMillis();
+        cleaner.scheduleWithFixedDelay(this::deleteExpired, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public Mono<ResponseEntity<String>> execute(String caller, String key, String fingerprint,
+                                                Supplier<Mono<ResponseEntity<String>>> action) {
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException(HEADER + " must be 1 to " + MAX_KEY_LENGTH + " characters");
+        }
+        String scopedKey = fingerprint(caller, key);
+        Entry mine = new Entry(fingerprint, new CompletableFuture<>());
+        Entry existing = entries.asMap().putIfAbsent(scopedKey, mine);
+        if (existing != null) {
+            if (!existing.fingerprint().equals(fingerprint)) {
+                return Mono.just(record("mismatch", mismatch()));
+            }
+            count("memory_hit");
+            // A waiter that goes away or gives up must not cancel the shared run
+            return Mono.fromFuture(existing.response(), true)
+                    .timeout(waitTimeout, Mono.fromSupplier(this::inProgress));
+        }
+        return Mono.fromCallable(() -> lookUpOrClaim(scopedKey, fingerprint))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(stored -> {
+                    // Conflicts are not kept, so a later retry looks at the store again
+                    if (stored.getStatusCode() == HttpStatus.CONFLICT || stored.getStatusCode() == HttpStatus.UNPROCESSABLE_ENTITY) {
+                        entries.asMap().remove(scopedKey, mine);
+                    }
+                    mine.response().complete(stored);
+                    return Mono.just(stored);
+                })
+                .switchIfEmpty(Mono.defer(() -> run(scopedKey, mine, action)))
+                .doOnError(e -> {
+                    entries.asMap().remove(scopedKey, mine);
+                    mine.response().completeExceptionally(e);
+                })
+                // Whatever the run had done stays unknown, so the key stays claimed and waiters hear it is in progress
+                .doOnCancel(() -> {
+                    entries.asMap().remove(scopedKey, mine);
+                    mine.response().complete(inProgress());
+                });
+    }
+
+    // The stored or conflicting response, or null once this instance has claimed the key
+    private ResponseEntity<String> lookUpOrClaim(String key, String fingerprint) {
+        if (idempotencyRecordRepository.claim(key, fingerprint, LocalDateTime.now())) {
+            count("miss");
+            return null;
+        }
+        IdempotencyRecord stored = idempotencyRecordRepository.find(key).orElse(null);
+        if (stored == null) {
+            // Released or cleaned up between the insert and the read
+            return idempotencyRecordRepository.claim(key, fingerprint, LocalDateTime.now()) ? null : inProgress();
+        }
+        if (!stored.getFingerprint().equals(fingerprint)) {
+            return record("mismatch", mismatch());
+        }
+        if (!IdempotencyRecord.COMPLETED.equals(stored.getStatus())) {
+            return inProgress();
+        }
+        return record("store_hit", ResponseEntity.status(stored.getResponseStatus()).body(stored.getResponseBody()));
+    }
+
+    private Mono<ResponseEntity<String>> run(String key, Entry mine, Supplier<Mono<ResponseEntity<String>>> action) {
+        return Mono.defer(action)
+                .flatMap(response -> Mono.fromRunnable(() -> {
+                            try {
+                                idempotencyRecordRepository.complete(key, response.getStatusCode().value(), response.getBody());
+                            } catch (RuntimeException e) {
+                                // The outcome still goes to the caller; the key stays claimed until retention expires
+                                logger.error("Could not store the outcome for " + HEADER + " " + key + ": " + e.getMessage());
+                            }
+                            mine.response().complete(response);
+                        })
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .thenReturn(response))
+                // A transfer that may have been applied keeps its key claimed
+                .onErrorResume(e -> e instanceof TransferOutcomeUnknownException ? Mono.error(e)
+                        : Mono.fromRunnable(() -> idempotencyRecordRepository.release(key))
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .onErrorResume(releaseError -> {
+                            logger.error("Could not release " + HEADER + " " + key + ": " + releaseError.getMessage());
+                            return Mono.empty();
+                        })
+                        .then(Mono.error(e)));
+    }
+
+    public static String fingerprint(Object... parts) {
+        StringBuilder request = new StringBuilder();
+        for (Object part : parts) {
+            request.append(part).append('|');
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(request.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        cleaner.shutdownNow();
+    }
+
+    void deleteExpired() {
+        try {
+            int deleted = idempotencyRecordRepository.deleteCreatedBefore(LocalDateTime.now().minus(retention));
+            if (deleted > 0) {
+                logger.info("Deleted " + deleted + " expired idempotency records");
+            }
+        } catch (RuntimeException e) {
+            // Retried on the next run; never let the scheduled task die
+            logger.warn("Idempotency record cleanup failed: " + e.getMessage());
+        }
+    }
+
+    private ResponseEntity<String> inProgress() {
+        return record("in_progress", ResponseEntity.status(HttpStatus.CONFLICT).body("A request with this " + HEADER + " is in progress"));
+    }
+
+    private static ResponseEntity<String> mismatch() {
+        return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(HEADER + " was already used with a different request");
+    }
+
+    private ResponseEntity<String> record(String result, ResponseEntity<String> response) {
+        count(result);
+        return response;
+    }
+
+    private void count(String result) {
+        counters.computeIfAbsent(result, r -> Counter.builder("transaction.idempotency.requests")
+                .tag("result", r)
+                .register(meterRegistry)).increment();
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.transaction.service;
+
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.security.Keys;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.security.Key;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Mints the service token this service sends on calls it makes on nobody's behalf, such as bulk
+ * transfers and coordinator recovery, which run long after the user's token may have expired.
+ * account-service accepts it because it is signed with the same key and carries ROLE_SERVICE.
+ */
+@Service
+public class ServiceTokenIssuer {
+
+    static final String CLAIM_ROLES = "roles";
+    static final String ROLE_SERVICE = "ROLE_SERVICE";
+    static final long TOKEN_SECONDS = 300;
+
+    private final String serviceName;
+    private final String keyId;
+    private final Key signingKey;
+    private volatile IssuedToken issued;
+
+    private record IssuedToken(String authorization, long renewAtMillis) {
+    }
+
+    public ServiceTokenIssuer(@Value("${spring.application.name:transaction-service}") String serviceName,
+                              @Value("${jwt.secret}") String secret,
+                              @Value("${jwt.key-id:default}") String keyId) {
+        this.serviceName = serviceName;
+        this.keyId = keyId;
+        this.signingKey = Keys.hmacShaKeyFor(secret.getBytes());
+    }
+
+    // An Authorization header value; shared by every call until half its lifetime has passed
+    public String authorization() {
+        IssuedToken current = issued;
+        long now = System.currentTimeMillis();
+        if (current == null || now >= current.renewAtMillis()) {
+            String token = Jwts.builder()
+                    .setHeaderParam(JwsHeader.KEY_ID, keyId)
+                    .claim(CLAIM_ROLES, List.of(ROLE_SERVICE))
+                    .setSubject(serviceName)
+                    .setId(UUID.randomUUID().toString())
+                    .setIssuedAt(new Date(now))
+                    .setExpiration(new Date(now + TOKEN_SECONDS * 1000))
+                    .signWith(signingKey, SignatureAlgorithm.HS512)
+                    .compact();
+            current = new IssuedToken("Bearer " + token, now + TOKEN_SECONDS * 500);
+            issued = current;
+        }
+        return current.authorization();
+    }
+}
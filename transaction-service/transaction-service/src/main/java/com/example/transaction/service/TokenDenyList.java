@@ -0,0 +1,74 @@
+package com.example.transaction.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.jsonwebtoken.Claims;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This service's copy of account-service's list of tokens revoked by logout, filled by
+ * TokenRevocations. As there, one entry per user: a logout revokes the token and every token the
+ * user was issued before it, and the entry lives only until the last of those expires.
+ */
+@Component
+public class TokenDenyList {
+
+    // Tokens issued before cutoffSecond are revoked, as are those issued within it whose ids are listed
+    private record Cutoff(long cutoffSecond, Set<String> tokenIds, Date expiration) {
+    }
+
+    private final Cache<String, Cutoff> revoked = Caffeine.newBuilder()
+            .expireAfter(new Expiry<String, Cutoff>() {
+                @Override
+                public long expireAfterCreate(String subject, Cutoff cutoff, long currentTime) {
+                    return TimeUnit.MILLISECONDS.toNanos(
+                            Math.max(0, cutoff.expiration().getTime() - System.currentTimeMillis()));
+                }
+
+                @Override
+                public long expireAfterUpdate(String subject, Cutoff cutoff, long currentTime, long currentDuration) {
+                    return expireAfterCreate(subject, cutoff, currentTime);
+                }
+
+                @Override
+                public long expireAfterRead(String subject, Cutoff cutoff, long currentTime, long currentDuration) {
+                    return currentDuration;
+                }
+            })
+            .build();
+
+    public void revoke(String subject, long issuedSecond, String tokenId, Date expiration) {
+        if (!expiration.after(new Date())) {
+            return;
+        }
+        revoked.asMap().compute(subject, (key, current) -> {
+            if (current == null || issuedSecond > current.cutoffSecond()) {
+                return new Cutoff(issuedSecond, Set.of(tokenId), expiration);
+            }
+            if (issuedSecond < current.cutoffSecond()) {
+                return current;
+            }
+            Set<String> tokenIds = new HashSet<>(current.tokenIds());
+            tokenIds.add(tokenId);
+            Date latest = expiration.after(current.expiration()) ? expiration : current.expiration();
+            return new Cutoff(current.cutoffSecond(), Set.copyOf(tokenIds), latest);
+        });
+    }
+
+    public boolean isRevoked(Claims claims) {
+        Cutoff cutoff = claims.getSubject() == null ? null : revoked.getIfPresent(claims.getSubject());
+        if (cutoff == null) {
+            return false;
+        }
+        // Tokens without iat predate every cut-off
+        long issuedSecond = claims.getIssuedAt() == null ? 0 : claims.getIssuedAt().getTime() / 1000;
+        return issuedSecond < cutoff.cutoffSecond()
+                || issuedSecond == cutoff.cutoffSecond() && cutoff.tokenIds().contains(String.valueOf(claims.getId()));
+    }
+}
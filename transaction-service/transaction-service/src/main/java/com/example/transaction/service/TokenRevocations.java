@@ -0,0 +1,78 @@
+package com.example.transaction.service;
+
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the revoked_token table account-service writes on every logout into the TokenDenyList that
+ * local token validation checks, so a logged-out token stops working here within a refresh interval.
+ * Each poll re-reads the last overlap of rows, so a row whose transaction committed late, or was
+ * stamped by an account-service instance whose clock lags, is still seen. Only runs in local mode;
+ * remote validation asks account-service, which checks its own list.
+ */
+@Component
+public class TokenRevocations {
+
+    private static final Log logger = LogFactory.getLog(TokenRevocations.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TokenDenyList tokenDenyList;
+    private final Duration overlap;
+    private final ScheduledExecutorService poller;
+    // Only touched by the poller thread
+    private Instant lastSeen = Instant.EPOCH;
+
+    public TokenRevocations(JdbcTemplate jdbcTemplate, TokenDenyList tokenDenyList,
+                            @Value("${transaction.token-validation.mode:local}") String mode,
+                            @Value("${transaction.token-revocation.enabled:true}") boolean enabled,
+                            @Value("${transaction.token-revocation.refresh-interval:1s}") Duration refreshInterval,
+                            @Value("${transaction.token-revocation.overlap:10s}") Duration overlap) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.tokenDenyList = tokenDenyList;
+        this.overlap = overlap;
+        this.poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "token-revocation-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (enabled && !"remote".equalsIgnoreCase(mode)) {
+            long interval = refreshInterval.toMillis();
+            poller.scheduleWithFixedDelay(this::refresh, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        poller.shutdownNow();
+    }
+
+    void refresh() {
+        try {
+            jdbcTemplate.query("select subject, token_id, issued_second, expires_at, revoked_at from revoked_token "
+                            + "where revoked_at > ? and expires_at > ? order by revoked_at",
+                    rs -> {
+                        tokenDenyList.revoke(rs.getString("subject"), rs.getLong("issued_second"), rs.getString("token_id"),
+                                rs.getTimestamp("expires_at"));
+                        Instant revokedAt = rs.getTimestamp("revoked_at").toInstant();
+                        if (revokedAt.isAfter(lastSeen)) {
+                            lastSeen = revokedAt;
+                        }
+                    },
+                    Timestamp.from(lastSeen.minus(overlap)), Timestamp.from(Instant.now()));
+        } catch (RuntimeException e) {
+            // Retried on the next run; never let the scheduled task die
+            logger.warn("Token revocation refresh failed: " + e.getMessage());
+        }
+    }
+}
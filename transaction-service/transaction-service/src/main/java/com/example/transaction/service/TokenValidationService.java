@@ -1,29 +1,177 @@
 package com.example.transaction.service;
 
-import org.springframework.beans.factory.annotation.Autowired;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
+import io.jsonwebtoken.security.Keys;
+import io.jsonwebtoken.security.SignatureException;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
 
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the bearer token of incoming requests. By default tokens are verified here with the key
+ * material account-service signs them with (current key plus keys being rotated out, chosen by the
+ * kid header), and verified tokens are cached until they expire. Tokens revoked by logout are
+ * refused once TokenRevocations has picked the logout up, within a refresh interval. The remote mode
+ * keeps the old call to account-service, which checks its own list of revoked tokens.
+ */
 @Service
 public class TokenValidationService {
 
-    @Autowired
-    private WebClient.Builder webClientBuilder;
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    private final WebClient webClient;
+    private final TokenDenyList tokenDenyList;
+    private final boolean remote;
+    private final Key currentKey;
+    private final Map<String, Key> verificationKeys = new LinkedHashMap<>();
+    private final JwtParser parser;
+    // Claims of each verified token, by SHA-256 of the token
+    private final Cache<String, Claims> verifiedTokens;
+
+    public TokenValidationService(@Qualifier("accountServiceWebClient") WebClient webClient, TokenDenyList tokenDenyList,
+                                  @Value("${transaction.token-validation.mode:local}") String mode,
+                                  @Value("${jwt.secret}") String secret,
+                                  @Value("${jwt.key-id:default}") String keyId,
+                                  @Value("${jwt.previous-keys:}") String[] previousKeys,
+                                  @Value("${jwt.verified-cache.maximum-size:100000}") long verifiedCacheSize) {
+        this.webClient = webClient;
+        this.tokenDenyList = tokenDenyList;
+        this.remote = "remote".equalsIgnoreCase(mode);
+        this.currentKey = Keys.hmacShaKeyFor(secret.getBytes());
+        verificationKeys.put(keyId, currentKey);
+        for (String previousKey : previousKeys) {
+            int separator = previousKey.indexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("jwt.previous-keys entries must be <key id>:<secret>");
+            }
+            verificationKeys.putIfAbsent(previousKey.substring(0, separator).trim(),
+                    Keys.hmacShaKeyFor(previousKey.substring(separator + 1).trim().getBytes()));
+        }
+        this.parser = Jwts.parserBuilder()
+                .setSigningKeyResolver(new SigningKeyResolverAdapter() {
+                    // jjwt 0.11 declares this parameter as a raw JwsHeader, so it cannot be parameterized here
+                    @Override
+                    @SuppressWarnings("rawtypes")
+                    public Key resolveSigningKey(JwsHeader header, Claims claims) {
+                        return verificationKey(header.getKeyId());
+                    }
+                })
+                .build();
+        this.verifiedTokens = Caffeine.newBuilder()
+                .maximumSize(verifiedCacheSize)
+                .expireAfter(new Expiry<String, Claims>() {
+                    @Override
+                    public long expireAfterCreate(String key, Claims claims, long currentTime) {
+                        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, claims.getExpiration().getTime() - System.currentTimeMillis()));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Claims claims, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Claims claims, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
 
     public boolean validateToken(String token) {
-        String url = "http://ACCOUNT-SERVICE/api/v1/account/validateToken";
+        if (remote) {
+            return Boolean.TRUE.equals(validateRemotely(token).block());
+        }
+        return verifyLocally(token);
+    }
+
+    public Mono<Boolean> validateTokenAsync(String token) {
+        return remote ? validateRemotely(token) : Mono.fromCallable(() -> verifyLocally(token));
+    }
 
-        Boolean isValid = webClientBuilder.build()
-                .get()
-                .uri(url)
+    // The subject of a token that verifies here, or null; in remote mode a token account-service
+    // accepted may still not verify here, for instance when it was signed with a key this service lacks
+    public String subject(String authorizationHeader) {
+        Claims claims = verifiedClaims(authorizationHeader);
+        return claims == null ? null : claims.getSubject();
+    }
+
+    private boolean verifyLocally(String authorizationHeader) {
+        return verifiedClaims(authorizationHeader) != null;
+    }
+
+    private Claims verifiedClaims(String authorizationHeader) {
+        if (authorizationHeader == null || !authorizationHeader.startsWith(BEARER_PREFIX)) {
+            return null;
+        }
+        String token = authorizationHeader.substring(BEARER_PREFIX.length());
+        String hash = hash(token);
+        Claims claims = verifiedTokens.getIfPresent(hash);
+        if (claims == null) {
+            try {
+                claims = parser.parseClaimsJws(token).getBody();
+            } catch (JwtException | IllegalArgumentException e) {
+                return null;
+            }
+            if (claims.getSubject() == null || claims.getExpiration() == null) {
+                return null;
+            }
+            verifiedTokens.put(hash, claims);
+        }
+        // Checked on every call, as a cached token can be revoked after it was verified
+        return tokenDenyList.isRevoked(claims) ? null : claims;
+    }
+
+    private Mono<Boolean> validateRemotely(String token) {
+        return webClient.get()
+                .uri("/api/v1/account/validateToken")
                 .header(HttpHeaders.AUTHORIZATION, token)
                 .accept(MediaType.APPLICATION_JSON)
                 .retrieve()
                 .bodyToMono(Boolean.class)
-                .block(); // Blocking here for simplicity
+                .map(Boolean.TRUE::equals)
+                .defaultIfEmpty(false);
+    }
+
+    private Key verificationKey(String tokenKeyId) {
+        // Tokens issued before key ids were introduced carry no kid and were signed with the current secret
+        if (tokenKeyId == null) {
+            return currentKey;
+        }
+        Key key = verificationKeys.get(tokenKeyId);
+        if (key == null) {
+            throw new SignatureException("Unknown signing key id: " + tokenKeyId);
+        }
+        return key;
+    }
 
-        return Boolean.TRUE.equals(isValid);
+    private static String hash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
     }
 }
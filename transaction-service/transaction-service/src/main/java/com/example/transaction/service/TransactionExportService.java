@@ -0,0 +1,94 @@
+package com.example.transaction.service;
+
+import com.example.transaction.entity.Transaction;
+import com.example.transaction.repository.TransactionHistoryRepository;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+/**
+ * Writes an account's full history to a stream as rows come off the database cursor, one line per
+ * transaction, so memory use does not grow with the size of the history.
+ */
+@Service
+public class TransactionExportService {
+
+    public enum Format {
+        NDJSON("application/x-ndjson", "ndjson"),
+        CSV("text/csv", "csv");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public static Format of(String name) {
+            for (Format format : values()) {
+                if (format.name().equalsIgnoreCase(name)) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unsupported export format: " + name);
+        }
+    }
+
+    private static final String CSV_HEADER = "id,sourceAccountId,targetAccountId,amount,timestamp\n";
+
+    private final TransactionHistoryRepository transactionHistoryRepository;
+
+    public TransactionExportService(TransactionHistoryRepository transactionHistoryRepository) {
+        this.transactionHistoryRepository = transactionHistoryRepository;
+    }
+
+    public void export(Long accountId, LocalDateTime from, LocalDateTime to, Format format, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        if (format == Format.CSV) {
+            writer.write(CSV_HEADER);
+        }
+        try {
+            transactionHistoryRepository.streamHistory(accountId, from, to, transaction -> {
+                try {
+                    writeRow(writer, format, transaction);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            // Usually the client went away; stop reading rows and let the caller see the I/O error
+            throw e.getCause();
+        }
+        writer.flush();
+    }
+
+    private static void writeRow(Writer writer, Format format, Transaction transaction) throws IOException {
+        if (format == Format.CSV) {
+            writer.write(transaction.getId() + "," + transaction.getSourceAccountId() + ","
+                    + transaction.getTargetAccountId() + "," + transaction.getAmount().toPlainString() + ","
+                    + transaction.getTimestamp() + "\n");
+        } else {
+            writer.write("{\"id\":" + transaction.getId()
+                    + ",\"sourceAccountId\":" + transaction.getSourceAccountId()
+                    + ",\"targetAccountId\":" + transaction.getTargetAccountId()
+                    + ",\"amount\":" + transaction.getAmount().toPlainString()
+                    + ",\"timestamp\":\"" + transaction.getTimestamp() + "\"}\n");
+        }
+    }
+}
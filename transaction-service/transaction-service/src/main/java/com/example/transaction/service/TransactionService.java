@@ -1,68 +1,207 @@
 package com.example.transaction.service;
 
+import com.example.transaction.entity.CoordinatorLogEntry;
 import com.example.transaction.entity.Transaction;
+import com.example.transaction.exception.ConcurrencyLimitExceededException;
 import com.example.transaction.exception.InvalidAmountException;
 import com.example.transaction.exception.TransactionException;
+import com.example.transaction.exception.TransferOutcomeUnknownException;
+import com.example.transaction.repository.TransactionHistoryRepository;
 import com.example.transaction.repository.TransactionRepository;
+import com.example.transaction.response.TransactionPage;
+import com.example.transaction.util.SnowflakeIdGenerator;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
 import java.util.List;
-import java.util.UUID;
 
 @Service
 public class TransactionService {
 
+    private static final Log logger = LogFactory.getLog(TransactionService.class);
+
     private final TransactionRepository transactionRepository;
     private final AccountServiceClient accountServiceClient;
+    private final TransactionHistoryRepository transactionHistoryRepository;
+    private final SnowflakeIdGenerator idGenerator;
+    private final TransferCoordinatorLog coordinatorLog;
+
+    @Value("${transaction.transfer.leg-timeout:5s}")
+    private Duration legTimeout = Duration.ofSeconds(5);
+
+    @Value("${transaction.transfer.local-enabled:true}")
+    private boolean localTransfersEnabled = true;
 
-    public TransactionService(TransactionRepository transactionRepository,AccountServiceClient accountServiceClient) {
+    @Value("${transaction.history.max-page-size:200}")
+    private int maxHistoryPageSize = 200;
+
+    public TransactionService(TransactionRepository transactionRepository,AccountServiceClient accountServiceClient,
+                              TransactionHistoryRepository transactionHistoryRepository, SnowflakeIdGenerator idGenerator,
+                              TransferCoordinatorLog coordinatorLog) {
         this.transactionRepository = transactionRepository;
         this.accountServiceClient=accountServiceClient;
+        this.transactionHistoryRepository = transactionHistoryRepository;
+        this.idGenerator = idGenerator;
+        this.coordinatorLog = coordinatorLog;
     }
 
+    // Becomes the PendingTransaction primary key in account-service; time-ordered so inserts append
     public Long generateTransactionId() {
-        // Using a random UUID and converting it to a string for transaction ID
-        return UUID.randomUUID().getMostSignificantBits() & Long.MAX_VALUE;
+        return idGenerator.nextId();
     }
 
-    @Transactional
     public Transaction transferMoney(Long fromAccountId, Long toAccountId, BigDecimal amount, String token) {
+        return transferMoneyAsync(fromAccountId, toAccountId, amount, token).block();
+    }
 
+    // Tries account-service's single-call local transfer first and only falls back to 2PC when an
+    // account lives outside that deployment. A failed local call is never retried as 2PC: the
+    // transfer may have committed before the error, and replaying it could move the money twice
+    public Mono<Transaction> transferMoneyAsync(Long fromAccountId, Long toAccountId, BigDecimal amount, String token) {
+        if (!localTransfersEnabled) {
+            return transferTwoPhase(fromAccountId, toAccountId, amount, token);
+        }
+        return Mono.defer(() -> leg(accountServiceClient.transferLocalAsync(fromAccountId, toAccountId, amount, token)))
+                .onErrorMap(TransactionService::localTransferFailure)
+                .flatMap(status -> switch (status) {
+                    case AccountServiceClient.LOCAL_COMMITTED -> Mono.fromCallable(() -> transactionRepository.save(
+                                    new Transaction(fromAccountId, toAccountId, amount, LocalDateTime.now())))
+                            .subscribeOn(Schedulers.boundedElastic());
+                    case AccountServiceClient.LOCAL_NOT_LOCAL -> transferTwoPhase(fromAccountId, toAccountId, amount, token);
+                    case AccountServiceClient.LOCAL_REJECTED -> Mono.error(new TransactionException(
+                            "Transaction failed due to " + new InvalidAmountException("Insufficient balance.")));
+                    default -> Mono.error(new TransactionException("Unexpected local transfer status: " + status));
+                });
+    }
+
+    // A 4xx means account-service refused the transfer and rolled it back, and the limiter never sent
+    // it; only a timeout, a transport error or a 5xx may have come after the commit
+    private static Throwable localTransferFailure(Throwable ex) {
+        if (ex instanceof WebClientResponseException response && response.getStatusCode().is4xxClientError()) {
+            return new TransactionException("Transaction failed due to " + response.getStatusCode() + " "
+                    + response.getResponseBodyAsString());
+        }
+        if (ex instanceof ConcurrencyLimitExceededException) {
+            return ex;
+        }
+        return new TransferOutcomeUnknownException("Transaction outcome unknown after " + ex);
+    }
+
+    // Two-phase transfer composed on the shared account-service client. The legs of each phase are
+    // independent, so both run at once; a failed phase still waits for its sibling leg (bounded by
+    // the leg timeout) so the rollback cannot overtake a prepare that is still in flight. Each phase
+    // is in the coordinator log before it starts, so recovery can finish a transfer we drop midway
+    private Mono<Transaction> transferTwoPhase(Long fromAccountId, Long toAccountId, BigDecimal amount, String token) {
+        // The withdraw leg's id doubles as the transfer's id in the coordinator log
         Long withdrawId = generateTransactionId();
         Long depositId = generateTransactionId();
 
-        try {
-                // Phase 1: Prepare
-                boolean withdrawPrepared = accountServiceClient.prepareWithdraw(fromAccountId, amount, withdrawId, token);
-                boolean depositPrepared = accountServiceClient.prepareDeposit(toAccountId, amount, depositId, token);
-
-                if (withdrawPrepared && depositPrepared) {
-                    // Phase 2: Commit
-                    accountServiceClient.commitWithdraw(withdrawId, token);
-                    accountServiceClient.commitDeposit(depositId, token);
-
-                    // Record the transaction
-                    Transaction transaction = new Transaction(fromAccountId, toAccountId, amount, LocalDateTime.now());
-                    return transactionRepository.save(transaction);
-                } else {
-                    // Rollback both actions
-                    accountServiceClient.rollbackWithdraw(withdrawId, token);
-                    accountServiceClient.rollbackDeposit(depositId, token);
-                    throw new InvalidAmountException("Transaction failed during the prepare phase");
-                }
-            } catch (Exception ex) {
-                // Handle any other exceptions and rollback
-                accountServiceClient.rollbackWithdraw(withdrawId, token);
-                accountServiceClient.rollbackDeposit(depositId, token);
-                throw new TransactionException("Transaction failed due to "+ ex);
-            }
+        return coordinatorLog.begin(withdrawId, depositId, fromAccountId, toAccountId, amount)
+                .then(Mono.defer(() -> Mono.zipDelayError(
+                        // Phase 1: Prepare
+                        leg(accountServiceClient.prepareWithdrawAsync(fromAccountId, amount, withdrawId, token)),
+                        leg(accountServiceClient.prepareDepositAsync(toAccountId, amount, depositId, token)))))
+                .flatMap(prepared -> {
+                    if (!prepared.getT1() || !prepared.getT2()) {
+                        return Mono.error(new InvalidAmountException("Transaction failed during the prepare phase"));
+                    }
+                    return coordinatorLog.decide(withdrawId, CoordinatorLogEntry.COMMITTING);
+                })
+                .onErrorResume(ex -> abort(withdrawId, depositId, token)
+                        .flatMap(aborted -> Mono.<String>error(aborted
+                                ? new TransactionException("Transaction failed due to " + ex)
+                                : new TransferOutcomeUnknownException("Transaction outcome unknown; recovery will finish it after " + ex, withdrawId))))
+                .flatMap(decision -> {
+                    if (!CoordinatorLogEntry.COMMITTING.equals(decision)) {
+                        return Mono.error(new TransactionException("Transaction failed due to recovery aborting it"));
+                    }
+                    // Phase 2: Commit, then record the transaction. Never rolled back from here on;
+                    // if a commit fails, recovery commits the transfer again
+                    return Mono.whenDelayError(
+                                    leg(accountServiceClient.commitWithdrawAsync(withdrawId, token)),
+                                    leg(accountServiceClient.commitDepositAsync(depositId, token)))
+                            .then(Mono.fromCallable(() -> coordinatorLog.complete(withdrawId,
+                                            new Transaction(fromAccountId, toAccountId, amount, LocalDateTime.now())))
+                                    .subscribeOn(Schedulers.boundedElastic()))
+                            .onErrorMap(ex -> new TransferOutcomeUnknownException("Transaction is committing; recovery will finish it after " + ex, withdrawId));
+                });
+    }
+
+    // Rolls back only once the abort is logged; if it cannot be, or a commit decision won, recovery
+    // finishes the transfer and the answer is false, as the transfer may yet commit
+    private Mono<Boolean> abort(Long withdrawId, Long depositId, String token) {
+        return coordinatorLog.decide(withdrawId, CoordinatorLogEntry.ABORTING)
+                .flatMap(decision -> CoordinatorLogEntry.ABORTING.equals(decision)
+                        ? rollback(withdrawId, depositId, token).thenReturn(true)
+                        : Mono.just(false))
+                .onErrorResume(e -> {
+                    logger.warn("Could not log the abort of transfer " + withdrawId + ": " + e.getMessage());
+                    return Mono.just(false);
+                });
+    }
+
+    private Mono<Void> rollback(Long withdrawId, Long depositId, String token) {
+        return Mono.zip(
+                        leg(Mono.defer(() -> accountServiceClient.rollbackWithdrawAsync(withdrawId, token)))
+                                .thenReturn(true)
+                                .onErrorResume(this::logRollbackFailure),
+                        leg(Mono.defer(() -> accountServiceClient.rollbackDepositAsync(depositId, token)))
+                                .thenReturn(true)
+                                .onErrorResume(this::logRollbackFailure))
+                // A leg left PENDING is rolled back again by recovery
+                .flatMap(rolledBack -> rolledBack.getT1() && rolledBack.getT2() ? coordinatorLog.finish(withdrawId) : Mono.empty());
+    }
 
+    private <T> Mono<T> leg(Mono<T> call) {
+        return call.timeout(legTimeout);
+    }
+
+    private Mono<Boolean> logRollbackFailure(Throwable e) {
+        logger.warn("Rollback failed: " + e.getMessage());
+        return Mono.just(false);
     }
 
     public List<Transaction> getTransactionHistory(Long accountId) {
         return transactionRepository.findBySourceAccountIdOrTargetAccountId(accountId, accountId);
     }
+
+    // Newest first; from is inclusive and to exclusive, either may be null
+    public TransactionPage getTransactionHistoryPage(Long accountId, String cursor, int size,
+                                                     LocalDateTime from, LocalDateTime to) {
+        if (size < 1 || size > maxHistoryPageSize) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + maxHistoryPageSize);
+        }
+        LocalDateTime beforeTimestamp = null;
+        Long beforeId = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                String[] position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|");
+                beforeTimestamp = LocalDateTime.parse(position[0]);
+                beforeId = Long.valueOf(position[1]);
+            } catch (IllegalArgumentException | DateTimeParseException | ArrayIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+        }
+        // One extra row tells us whether there is a next page without a count query
+        List<Transaction> items = transactionHistoryRepository.findPage(accountId, beforeTimestamp, beforeId, from, to, size + 1);
+        if (items.size() <= size) {
+            return new TransactionPage(items, null);
+        }
+        items = items.subList(0, size);
+        Transaction last = items.get(size - 1);
+        String nextCursor = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((last.getTimestamp() + "|" + last.getId()).getBytes(StandardCharsets.UTF_8));
+        return new TransactionPage(items, nextCursor);
+    }
 }
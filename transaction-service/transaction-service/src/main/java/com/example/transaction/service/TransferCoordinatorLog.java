@@ -0,0 +1,257 @@
+package com.example.transaction.service;
+
+import com.example.transaction.entity.CoordinatorLogEntry;
+import com.example.transaction.entity.Transaction;
+import com.example.transaction.repository.CoordinatorLogRepository;
+import com.example.transaction.repository.TransactionRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only log of the two-phase transfers this service coordinates. A transfer is logged as
+ * PREPARING before either leg is prepared and gets a COMMITTING or ABORTING decision before either
+ * leg is committed or rolled back; a transfer holds one decision at most, so the coordinator and
+ * recovery can never act on different ones. Appends are group-committed: one writer thread inserts
+ * everything queued since its last flush in a single database transaction.
+ *
+ * Recovery runs on startup and periodically. Transfers left unfinished for longer than in-doubt-after
+ * are finished in parallel: a COMMITTING transfer is committed again, anything else is aborted.
+ * Recovery calls account-service with this service's own token; users' tokens are never logged.
+ */
+@Service
+public class TransferCoordinatorLog {
+
+    private static final Log logger = LogFactory.getLog(TransferCoordinatorLog.class);
+
+    // In-doubt transfers per recovery pass, and finished transfers per compaction delete
+    private static final int SCAN_LIMIT = 1000;
+
+    private record Append(CoordinatorLogEntry entry, CompletableFuture<Boolean> appended) {
+    }
+
+    private final CoordinatorLogRepository coordinatorLogRepository;
+    private final TransactionRepository transactionRepository;
+    private final AccountServiceClient accountServiceClient;
+    private final ServiceTokenIssuer serviceTokenIssuer;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final int maxBatchSize;
+    private final Duration inDoubtAfter;
+    private final int recoveryConcurrency;
+    private final Duration retention;
+    private final BlockingQueue<Append> pending = new LinkedBlockingQueue<>();
+    private final DistributionSummary batchSizes;
+    private final Map<String, Counter> recovered = new ConcurrentHashMap<>();
+    private final ExecutorService writer;
+    private final ScheduledExecutorService recovery;
+
+    @Value("${transaction.transfer.leg-timeout:5s}")
+    private Duration legTimeout = Duration.ofSeconds(5);
+
+    public TransferCoordinatorLog(CoordinatorLogRepository coordinatorLogRepository, TransactionRepository transactionRepository,
+                                  AccountServiceClient accountServiceClient, ServiceTokenIssuer serviceTokenIssuer,
+                                  TransactionTemplate transactionTemplate, MeterRegistry meterRegistry,
+                                  @Value("${transaction.coordinator-log.max-batch-size:256}") int maxBatchSize,
+                                  @Value("${transaction.coordinator-log.recovery-enabled:true}") boolean recoveryEnabled,
+                                  @Value("${transaction.coordinator-log.in-doubt-after:1m}") Duration inDoubtAfter,
+                                  @Value("${transaction.coordinator-log.recovery-interval:1m}") Duration recoveryInterval,
+                                  @Value("${transaction.coordinator-log.recovery-concurrency:16}") int recoveryConcurrency,
+                                  @Value("${transaction.coordinator-log.retention:24h}") Duration retention) {
+        this.coordinatorLogRepository = coordinatorLogRepository;
+        this.transactionRepository = transactionRepository;
+        this.accountServiceClient = accountServiceClient;
+        this.serviceTokenIssuer = serviceTokenIssuer;
+        this.transactionTemplate = transactionTemplate;
+        this.meterRegistry = meterRegistry;
+        this.maxBatchSize = maxBatchSize;
+        this.inDoubtAfter = inDoubtAfter;
+        this.recoveryConcurrency = recoveryConcurrency;
+        this.retention = retention;
+        this.batchSizes = DistributionSummary.builder("transaction.coordinator.log.batch.size").register(meterRegistry);
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "coordinator-log-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.execute(this::writeLoop);
+        this.recovery = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "coordinator-log-recovery");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (recoveryEnabled) {
+            recovery.scheduleWithFixedDelay(this::recover, 0, recoveryInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Completes once the entry is durable
+    public Mono<Void> begin(Long transferId, Long depositId, Long fromAccountId, Long toAccountId, BigDecimal amount) {
+        return append(CoordinatorLogEntry.preparing(transferId, depositId, fromAccountId, toAccountId, amount)).then();
+    }
+
+    // The decision that holds for the transfer: this one, or whichever was logged first
+    public Mono<String> decide(Long transferId, String decision) {
+        return append(CoordinatorLogEntry.decision(transferId, decision))
+                .flatMap(appended -> appended
+                        ? Mono.just(decision)
+                        : Mono.fromCallable(() -> coordinatorLogRepository.findDecision(transferId).orElseThrow(() ->
+                                        new IllegalStateException("Transfer " + transferId + " was logged twice without a decision")))
+                                .subscribeOn(Schedulers.boundedElastic()));
+    }
+
+    // Marks an aborted transfer finished; failures only mean recovery rolls it back again, so they are logged and dropped
+    public Mono<Void> finish(Long transferId) {
+        return append(CoordinatorLogEntry.done(transferId))
+                .then()
+                .onErrorResume(e -> {
+                    logger.warn("Could not log transfer " + transferId + " as done: " + e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    // Records a committed transfer and marks it finished in one transaction, so recovery never records it twice
+    public Transaction complete(Long transferId, Transaction transaction) {
+        return transactionTemplate.execute(status -> coordinatorLogRepository.append(CoordinatorLogEntry.done(transferId))
+                ? transactionRepository.save(transaction)
+                : transaction);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        recovery.shutdownNow();
+        writer.shutdownNow();
+        List<Append> unwritten = new ArrayList<>();
+        pending.drainTo(unwritten);
+        unwritten.forEach(append -> append.appended().completeExceptionally(
+                new IllegalStateException("Coordinator log is shutting down")));
+    }
+
+    private Mono<Boolean> append(CoordinatorLogEntry entry) {
+        return Mono.defer(() -> {
+            CompletableFuture<Boolean> appended = new CompletableFuture<>();
+            pending.add(new Append(entry, appended));
+            return Mono.fromFuture(appended);
+        });
+    }
+
+    private void writeLoop() {
+        List<Append> batch = new ArrayList<>(maxBatchSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            // Everything that queued up while the previous batch was being written goes in this one
+            pending.drainTo(batch, maxBatchSize - 1);
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    void write(List<Append> batch) {
+        batchSizes.record(batch.size());
+        try {
+            List<CoordinatorLogEntry> entries = batch.stream().map(Append::entry).toList();
+            transactionTemplate.executeWithoutResult(status -> coordinatorLogRepository.appendAll(entries));
+            batch.forEach(append -> append.appended().complete(true));
+        } catch (DataIntegrityViolationException e) {
+            // Some entry lost a race for its transfer's decision; append one at a time to find which
+            for (Append append : batch) {
+                try {
+                    append.appended().complete(coordinatorLogRepository.append(append.entry()));
+                } catch (RuntimeException ex) {
+                    append.appended().completeExceptionally(ex);
+                }
+            }
+        } catch (RuntimeException e) {
+            batch.forEach(append -> append.appended().completeExceptionally(e));
+        }
+    }
+
+    void recover() {
+        try {
+            List<CoordinatorLogEntry> inDoubt = coordinatorLogRepository.findInDoubt(LocalDateTime.now().minus(inDoubtAfter),
+                    SCAN_LIMIT);
+            if (!inDoubt.isEmpty()) {
+                logger.info("Resolving " + inDoubt.size() + " in-doubt transfer(s)");
+                Flux.fromIterable(inDoubt)
+                        .flatMap(prepared -> resolve(prepared).onErrorResume(e -> {
+                            logger.warn("Could not resolve transfer " + prepared.getTransferId() + ": " + e.getMessage());
+                            return Mono.empty();
+                        }), recoveryConcurrency)
+                        .blockLast();
+            }
+            compact();
+        } catch (RuntimeException e) {
+            // Retried on the next run; never let the scheduled task die
+            logger.warn("Coordinator log recovery failed: " + e.getMessage());
+        }
+    }
+
+    Mono<String> resolve(CoordinatorLogEntry prepared) {
+        Long transferId = prepared.getTransferId();
+        return decide(transferId, CoordinatorLogEntry.ABORTING)
+                .flatMap(decision -> (CoordinatorLogEntry.COMMITTING.equals(decision) ? commit(prepared) : rollback(prepared))
+                        .thenReturn(decision))
+                .doOnSuccess(decision -> recovered.computeIfAbsent(decision, d -> Counter.builder("transaction.coordinator.recovered")
+                        .tag("decision", d)
+                        .register(meterRegistry)).increment());
+    }
+
+    private Mono<Void> commit(CoordinatorLogEntry prepared) {
+        Long transferId = prepared.getTransferId();
+        return Mono.whenDelayError(
+                        accountServiceClient.commitWithdrawAsync(transferId, serviceTokenIssuer.authorization()).timeout(legTimeout),
+                        accountServiceClient.commitDepositAsync(prepared.getDepositId(), serviceTokenIssuer.authorization()).timeout(legTimeout))
+                .then(Mono.fromCallable(() -> complete(transferId, new Transaction(prepared.getFromAccountId(),
+                                prepared.getToAccountId(), prepared.getAmount(), LocalDateTime.now())))
+                        .subscribeOn(Schedulers.boundedElastic()))
+                .then();
+    }
+
+    private Mono<Void> rollback(CoordinatorLogEntry prepared) {
+        Long transferId = prepared.getTransferId();
+        return Mono.whenDelayError(
+                        accountServiceClient.rollbackWithdrawAsync(transferId, serviceTokenIssuer.authorization()).timeout(legTimeout),
+                        accountServiceClient.rollbackDepositAsync(prepared.getDepositId(), serviceTokenIssuer.authorization()).timeout(legTimeout))
+                .then(finish(transferId));
+    }
+
+    private void compact() {
+        List<Long> finished;
+        do {
+            finished = coordinatorLogRepository.findFinishedBefore(LocalDateTime.now().minus(retention), SCAN_LIMIT);
+            if (!finished.isEmpty()) {
+                coordinatorLogRepository.deleteTransfers(finished);
+            }
+        } while (finished.size() == SCAN_LIMIT);
+    }
+}
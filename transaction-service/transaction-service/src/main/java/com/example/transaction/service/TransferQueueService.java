@@ -0,0 +1,214 @@
+package com.example.transaction.service;
+
+import com.example.transaction.entity.QueuedTransfer;
+import com.example.transaction.entity.Transaction;
+import com.example.transaction.exception.TransferOutcomeUnknownException;
+import com.example.transaction.repository.TransferQueueRepository;
+import com.example.transaction.util.SnowflakeIdGenerator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Durable queue for transfers submitted asynchronously. Submissions are written to queued_transfer
+ * and answered at once; a fixed pool of workers runs them through TransactionService afterwards.
+ * Transfers are split into lanes by source account. A worker leases a whole lane (across all
+ * instances) and runs its transfers one at a time in submission order, so transfers from one
+ * account never overtake each other, while different lanes run in parallel.
+ */
+@Service
+public class TransferQueueService {
+
+    private static final Log logger = LogFactory.getLog(TransferQueueService.class);
+
+    private static final int MAX_ERROR_LENGTH = 255;
+
+    private final TransferQueueRepository transferQueueRepository;
+    private final TransactionService transactionService;
+    private final SnowflakeIdGenerator idGenerator;
+    private final int lanes;
+    private final int workers;
+    private final Duration lease;
+    private final int maxPerLease;
+    private final String owner = UUID.randomUUID().toString();
+    // Lanes this instance is draining right now
+    private final Set<Integer> activeLanes = ConcurrentHashMap.newKeySet();
+    private final AtomicLong queued = new AtomicLong();
+    private final Map<String, Counter> outcomes = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+    private final ScheduledExecutorService poller;
+    private final ExecutorService workerPool;
+
+    public TransferQueueService(TransferQueueRepository transferQueueRepository, TransactionService transactionService,
+                                SnowflakeIdGenerator idGenerator, MeterRegistry meterRegistry,
+                                @Value("${transaction.transfer-queue.enabled:true}") boolean enabled,
+                                @Value("${transaction.transfer-queue.lanes:64}") int lanes,
+                                @Value("${transaction.transfer-queue.workers:8}") int workers,
+                                @Value("${transaction.transfer-queue.lease:30s}") Duration lease,
+                                @Value("${transaction.transfer-queue.max-per-lease:100}") int maxPerLease,
+                                @Value("${transaction.transfer-queue.poll-interval:200ms}") Duration pollInterval) {
+        this.transferQueueRepository = transferQueueRepository;
+        this.transactionService = transactionService;
+        this.idGenerator = idGenerator;
+        this.meterRegistry = meterRegistry;
+        this.lanes = lanes;
+        this.workers = workers;
+        this.lease = lease;
+        this.maxPerLease = maxPerLease;
+        Gauge.builder("transaction.transfer.queue.depth", queued, AtomicLong::get).register(meterRegistry);
+        AtomicInteger workerNumber = new AtomicInteger();
+        this.workerPool = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "transfer-queue-worker-" + workerNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "transfer-queue-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (enabled) {
+            long interval = pollInterval.toMillis();
+            poller.scheduleWithFixedDelay(this::poll, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public QueuedTransfer submit(Long fromAccountId, Long toAccountId, BigDecimal amount, String token) {
+        if (fromAccountId == null || toAccountId == null || amount == null) {
+            throw new IllegalArgumentException("Source account, target account and amount are required.");
+        }
+        LocalDateTime now = LocalDateTime.now();
+        QueuedTransfer transfer = new QueuedTransfer(idGenerator.nextId(), fromAccountId, toAccountId, amount, token,
+                laneOf(fromAccountId), QueuedTransfer.QUEUED, null, null, now, now);
+        transferQueueRepository.insert(transfer);
+        return transfer;
+    }
+
+    public Optional<QueuedTransfer> getStatus(Long id) {
+        return transferQueueRepository.find(id);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        poller.shutdownNow();
+        workerPool.shutdown();
+    }
+
+    int laneOf(Long accountId) {
+        return Math.floorMod(Long.hashCode(accountId), lanes);
+    }
+
+    void poll() {
+        try {
+            queued.set(transferQueueRepository.countQueued());
+            int free = workers - activeLanes.size();
+            if (free <= 0) {
+                return;
+            }
+            for (Integer lane : transferQueueRepository.lanesWithWork(workers * 2)) {
+                if (activeLanes.size() >= workers) {
+                    break;
+                }
+                if (activeLanes.contains(lane) || !acquire(lane)) {
+                    continue;
+                }
+                activeLanes.add(lane);
+                try {
+                    workerPool.execute(() -> drain(lane));
+                } catch (RejectedExecutionException e) {
+                    activeLanes.remove(lane);
+                    return;
+                }
+            }
+        } catch (RuntimeException e) {
+            // Retried on the next poll; never let the scheduled task die
+            logger.warn("Transfer queue poll failed: " + e.getMessage());
+        }
+    }
+
+    private boolean acquire(int lane) {
+        LocalDateTime now = LocalDateTime.now();
+        if (!transferQueueRepository.acquireLane(lane, owner, now.plus(lease), now)) {
+            return false;
+        }
+        int interrupted = transferQueueRepository.markInterrupted(lane, now);
+        if (interrupted > 0) {
+            logger.warn(interrupted + " transfer(s) in lane " + lane + " were interrupted by a previous worker; marked UNKNOWN");
+        }
+        return true;
+    }
+
+    void drain(int lane) {
+        try {
+            for (int done = 0; done < maxPerLease; done++) {
+                Optional<QueuedTransfer> next = transferQueueRepository.nextInLane(lane);
+                if (next.isEmpty()) {
+                    break;
+                }
+                LocalDateTime now = LocalDateTime.now();
+                // Renew first: the transfer must not outlive our hold on the lane
+                if (!transferQueueRepository.acquireLane(lane, owner, now.plus(lease), now)) {
+                    return;
+                }
+                run(next.get());
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Transfer queue lane " + lane + " stopped: " + e.getMessage());
+        } finally {
+            try {
+                transferQueueRepository.releaseLane(lane, owner, LocalDateTime.now());
+            } catch (RuntimeException e) {
+                logger.warn("Could not release transfer queue lane " + lane + ": " + e.getMessage());
+            } finally {
+                activeLanes.remove(lane);
+            }
+        }
+    }
+
+    private void run(QueuedTransfer transfer) {
+        if (!transferQueueRepository.markProcessing(transfer.getId(), LocalDateTime.now())) {
+            return;
+        }
+        try {
+            Transaction transaction = transactionService.transferMoney(transfer.getFromAccountId(), transfer.getToAccountId(),
+                    transfer.getAmount(), transfer.getToken());
+            transferQueueRepository.finish(transfer.getId(), QueuedTransfer.COMPLETED, null,
+                    transaction == null ? null : transaction.getId(), LocalDateTime.now());
+            count(QueuedTransfer.COMPLETED);
+        } catch (RuntimeException e) {
+            // A transfer that may have been applied is not reported as failed
+            String status = e instanceof TransferOutcomeUnknownException ? QueuedTransfer.UNKNOWN : QueuedTransfer.FAILED;
+            String error = String.valueOf(e.getMessage());
+            transferQueueRepository.finish(transfer.getId(), status,
+                    error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error, null, LocalDateTime.now());
+            count(status);
+        }
+    }
+
+    private void count(String outcome) {
+        outcomes.computeIfAbsent(outcome, o -> Counter.builder("transaction.transfer.queue.processed")
+                .tag("outcome", o)
+                .register(meterRegistry)).increment();
+    }
+}
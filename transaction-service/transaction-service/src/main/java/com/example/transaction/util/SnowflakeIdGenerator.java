@@ -0,0 +1,197 @@
+package com.example.transaction.util;
+
+import com.example.transaction.entity.IdNodeLease;
+import com.example.transaction.repository.IdNodeLeaseRepository;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Time-ordered 64-bit ids: 41 bits of milliseconds since 2024-01-01 UTC, a 10-bit node id and a
+ * 12-bit sequence. Ids from one node always increase, so rows keyed by them are appended to the end
+ * of a clustered index instead of being inserted at random positions. If the clock steps back, or
+ * more than 4096 ids are taken in one millisecond, the generator keeps counting from the last
+ * timestamp it issued instead of waiting for the wall clock.
+ *
+ * Node ids are leased in the id_node_lease table, so no two instances share one. A lease covers ids
+ * stamped up to its expiry; the next holder starts after that, and an instance that cannot renew its
+ * lease stops issuing ids once it runs out. transaction.id.node-id pins the node an instance leases.
+ */
+@Component
+@DependsOn("entityManagerFactory")
+public class SnowflakeIdGenerator {
+
+    private static final Log logger = LogFactory.getLog(SnowflakeIdGenerator.class);
+
+    static final long EPOCH_MILLIS = 1704067200000L;
+    static final int NODE_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    static final long MAX_NODE_ID = (1L << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final long nodeId;
+    private final LongSupplier clock;
+    private final IdNodeLeaseRepository leases;
+    private final Duration lease;
+    private final String owner = UUID.randomUUID().toString();
+    // Timestamp and sequence of the last id issued, packed as (millis since epoch << 12) | sequence
+    private final AtomicLong last = new AtomicLong();
+    // Ids are only issued with timestamps before this (epoch millis)
+    private volatile long issuedUntil = Long.MAX_VALUE;
+    private final ScheduledExecutorService renewal;
+
+    @Autowired
+    public SnowflakeIdGenerator(IdNodeLeaseRepository leases,
+                                @Value("${transaction.id.node-id:-1}") long nodeId,
+                                @Value("${transaction.id.lease:1m}") Duration lease) {
+        this(leases, nodeId, lease, System::currentTimeMillis);
+    }
+
+    // Fixed node without a lease, for benchmarks and tests
+    public SnowflakeIdGenerator(long nodeId, LongSupplier clock) {
+        this.nodeId = checkNodeId(nodeId);
+        this.clock = clock;
+        this.leases = null;
+        this.lease = null;
+        this.renewal = null;
+    }
+
+    SnowflakeIdGenerator(IdNodeLeaseRepository leases, long nodeId, Duration lease, LongSupplier clock) {
+        this.clock = clock;
+        this.leases = leases;
+        this.lease = lease;
+        this.nodeId = nodeId >= 0 ? takePinned((int) checkNodeId(nodeId)) : takeFree();
+        logger.info("Leased id node " + this.nodeId);
+        this.renewal = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "id-node-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, lease.toMillis() / 3);
+        renewal.scheduleWithFixedDelay(this::renew, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public long nextId() {
+        while (true) {
+            long previous = last.get();
+            long previousMillis = previous >>> SEQUENCE_BITS;
+            long now = clock.getAsLong() - EPOCH_MILLIS;
+            long next;
+            if (now > previousMillis) {
+                next = now << SEQUENCE_BITS;
+            } else if ((previous & SEQUENCE_MASK) < SEQUENCE_MASK) {
+                next = previous + 1;
+            } else {
+                // Sequence exhausted for this millisecond: borrow the next one
+                next = (previousMillis + 1) << SEQUENCE_BITS;
+            }
+            if (last.compareAndSet(previous, next)) {
+                // Checked after taking the id, so release sees every id that is handed out
+                if ((next >>> SEQUENCE_BITS) + EPOCH_MILLIS >= issuedUntil) {
+                    throw new IllegalStateException("The lease on id node " + nodeId + " has run out");
+                }
+                return ((next >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS))
+                        | (nodeId << SEQUENCE_BITS)
+                        | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    public long getNodeId() {
+        return nodeId;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (renewal == null) {
+            return;
+        }
+        renewal.shutdownNow();
+        issuedUntil = 0;
+        try {
+            // The next holder of this node can start right after the last id issued here
+            leases.release((int) nodeId, owner, (last.get() >>> SEQUENCE_BITS) + EPOCH_MILLIS + 1);
+        } catch (RuntimeException e) {
+            logger.warn("Could not release id node " + nodeId + "; it is free again once its lease runs out: " + e.getMessage());
+        }
+    }
+
+    private static long checkNodeId(long nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE_ID);
+        }
+        return nodeId;
+    }
+
+    // A pinned node still leased to another instance is waited for, up to twice the lease
+    private int takePinned(int node) {
+        long giveUpAt = clock.getAsLong() + 2 * lease.toMillis();
+        while (!take(node)) {
+            if (clock.getAsLong() > giveUpAt) {
+                throw new IllegalStateException("Id node " + node + " is leased to another instance; "
+                        + "transaction.id.node-id must be unique per instance");
+            }
+            try {
+                Thread.sleep(Math.min(500, Math.max(1, lease.toMillis() / 10)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for id node " + node, e);
+            }
+        }
+        return node;
+    }
+
+    private int takeFree() {
+        int start = ThreadLocalRandom.current().nextInt((int) MAX_NODE_ID + 1);
+        for (int i = 0; i <= MAX_NODE_ID; i++) {
+            int node = (int) ((start + i) % (MAX_NODE_ID + 1));
+            if (take(node)) {
+                return node;
+            }
+        }
+        throw new IllegalStateException("All " + (MAX_NODE_ID + 1) + " id nodes are leased");
+    }
+
+    private boolean take(int node) {
+        long now = clock.getAsLong();
+        Optional<IdNodeLease> current = leases.find(node);
+        if (current.isPresent() && current.get().getIssuedUntil() > now) {
+            return false;
+        }
+        long until = now + lease.toMillis();
+        if (!leases.take(node, current.map(IdNodeLease::getIssuedUntil).orElse(null), owner, until)) {
+            return false;
+        }
+        // Start after every id the previous holder could have issued, even if this clock steps back
+        current.ifPresent(previous -> last.set(Math.max(0, ((previous.getIssuedUntil() - EPOCH_MILLIS) << SEQUENCE_BITS) - 1)));
+        issuedUntil = until;
+        return true;
+    }
+
+    private void renew() {
+        long until = Math.max(clock.getAsLong() + lease.toMillis(), issuedUntil);
+        try {
+            if (leases.renew((int) nodeId, owner, until)) {
+                issuedUntil = until;
+            } else {
+                logger.error("Lost the lease on id node " + nodeId + "; no ids are issued after it runs out");
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Could not renew the lease on id node " + nodeId + ": " + e.getMessage());
+        }
+    }
+}
@@ -1,17 +1,37 @@
 package com.example.transaction.controller;
 
+import com.example.transaction.config.AsyncTimeoutConfig;
+import com.example.transaction.entity.QueuedTransfer;
 import com.example.transaction.entity.Transaction;
+import com.example.transaction.entity.TransferBatch;
+import com.example.transaction.response.TransactionPage;
 import com.example.transaction.request.TransferRequest;
+import com.example.transaction.service.BulkTransferService;
+import com.example.transaction.service.IdempotencyService;
 import com.example.transaction.service.TokenValidationService;
+import com.example.transaction.service.TransactionExportService;
 import com.example.transaction.service.TransactionService;
+import com.example.transaction.service.TransferQueueService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
 
 import java.math.BigDecimal;
 import java.util.Arrays;
@@ -32,6 +52,18 @@ class TransactionControllerTests {
     @Mock
     private TokenValidationService tokenValidationService;
 
+    @Mock
+    private TransactionExportService transactionExportService;
+
+    @Mock
+    private BulkTransferService bulkTransferService;
+
+    @Mock
+    private IdempotencyService idempotencyService;
+
+    @Mock
+    private TransferQueueService transferQueueService;
+
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
@@ -45,16 +77,16 @@ class TransactionControllerTests {
         transferRequest.setAmount(BigDecimal.valueOf(100));
         String token = "valid-token";
 
-        when(tokenValidationService.validateToken(token)).thenReturn(true);
-        when(transactionService.transferMoney(eq(1L), eq(2L), eq(BigDecimal.valueOf(100)), eq(token)))
-                .thenReturn(new Transaction()); // Assuming transferMoney returns a Transaction object
+        when(tokenValidationService.validateTokenAsync(token)).thenReturn(Mono.just(true));
+        when(transactionService.transferMoneyAsync(eq(1L), eq(2L), eq(BigDecimal.valueOf(100)), eq(token)))
+                .thenReturn(Mono.just(new Transaction()));
 
-        ResponseEntity<String> response = transactionController.transferMoney(transferRequest, token);
+        ResponseEntity<String> response = transactionController.transferMoney(transferRequest, token, null).block();
 
         assertEquals(HttpStatus.OK, response.getStatusCode());
         assertEquals("successfully transferred", response.getBody());
-        verify(tokenValidationService).validateToken(token);
-        verify(transactionService).transferMoney(eq(1L), eq(2L), eq(BigDecimal.valueOf(100)), eq(token));
+        verify(tokenValidationService).validateTokenAsync(token);
+        verify(transactionService).transferMoneyAsync(eq(1L), eq(2L), eq(BigDecimal.valueOf(100)), eq(token));
     }
 
     @Test
@@ -65,14 +97,14 @@ class TransactionControllerTests {
         transferRequest.setAmount(BigDecimal.valueOf(100));
         String token = "invalid-token";
 
-        when(tokenValidationService.validateToken(token)).thenReturn(false);
+        when(tokenValidationService.validateTokenAsync(token)).thenReturn(Mono.just(false));
 
-        ResponseEntity<String> response = transactionController.transferMoney(transferRequest, token);
+        ResponseEntity<String> response = transactionController.transferMoney(transferRequest, token, null).block();
 
         assertEquals(HttpStatus.UNAUTHORIZED, response.getStatusCode());
         assertEquals("Invalid Token", response.getBody());
-        verify(tokenValidationService).validateToken(token);
-        verify(transactionService, never()).transferMoney(anyLong(), anyLong(), any(BigDecimal.class), anyString());
+        verify(tokenValidationService).validateTokenAsync(token);
+        verify(transactionService, never()).transferMoneyAsync(anyLong(), anyLong(), any(BigDecimal.class), anyString());
     }
 
     @Test
@@ -106,4 +138,89 @@ class TransactionControllerTests {
         verify(tokenValidationService).validateToken(token);
         verify(transactionService, never()).getTransactionHistory(anyLong());
     }
+
+    @Test
+    void getTransactionHistoryPage_shouldReturnPage_whenTokenIsValid() {
+        TransactionPage page = new TransactionPage(List.of(new Transaction()), "next");
+        when(tokenValidationService.validateToken("valid-token")).thenReturn(true);
+        when(transactionService.getTransactionHistoryPage(1L, null, 50, null, null)).thenReturn(page);
+
+        ResponseEntity<?> response = transactionController.getTransactionHistoryPage("valid-token", 1L, null, 50, null, null);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(page, response.getBody());
+    }
+
+    @Test
+    void exportTransactionHistory_shouldGzipStream_whenClientAcceptsGzip() throws Exception {
+        when(tokenValidationService.validateToken("valid-token")).thenReturn(true);
+        doAnswer(invocation -> {
+            invocation.getArgument(4, OutputStream.class).write("{\"id\":1}\n".getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(transactionExportService).export(eq(1L), isNull(), isNull(), eq(TransactionExportService.Format.NDJSON), any());
+
+        ServletWebRequest webRequest = new ServletWebRequest(new MockHttpServletRequest());
+        ResponseEntity<StreamingResponseBody> response = transactionController.exportTransactionHistory(
+                "valid-token", 1L, "ndjson", null, null, "gzip, deflate", webRequest);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        response.getBody().writeTo(body);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("gzip", response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals("application/x-ndjson", response.getHeaders().getFirst(HttpHeaders.CONTENT_TYPE));
+        assertEquals(Boolean.TRUE, webRequest.getAttribute(AsyncTimeoutConfig.EXPORT_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST));
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body.toByteArray()))) {
+            assertEquals("{\"id\":1}\n", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void submitBulkTransfer_shouldAcceptAndPointAtTheBatch() {
+        List<TransferRequest> transfers = List.of(new TransferRequest());
+        TransferBatch batch = new TransferBatch(42L, TransferBatch.PROCESSING, 1, 0, 0, null, null, null, null);
+        when(tokenValidationService.validateToken("valid-token")).thenReturn(true);
+        when(bulkTransferService.submit(transfers)).thenReturn(batch);
+
+        ResponseEntity<?> response = transactionController.submitBulkTransfer(transfers, "valid-token");
+
+        assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+        assertEquals("/api/v1/transactions/transfer/batch/42", response.getHeaders().getLocation().toString());
+        assertEquals(batch, response.getBody());
+    }
+
+    @Test
+    void transferMoney_shouldGoThroughIdempotencyService_whenKeyIsGiven() {
+        TransferRequest transferRequest = new TransferRequest();
+        transferRequest.setFromAccountId(1L);
+        transferRequest.setToAccountId(2L);
+        transferRequest.setAmount(BigDecimal.valueOf(100));
+        when(tokenValidationService.validateTokenAsync("valid-token")).thenReturn(Mono.just(true));
+        when(tokenValidationService.subject("valid-token")).thenReturn("user@example.com");
+        when(idempotencyService.execute(eq("user@example.com"), eq("key-1"), eq(IdempotencyService.fingerprint(1L, 2L, "100")), any()))
+                .thenReturn(Mono.just(ResponseEntity.ok("successfully transferred")));
+
+        ResponseEntity<String> response = transactionController.transferMoney(transferRequest, "valid-token", "key-1").block();
+
+        assertEquals("successfully transferred", response.getBody());
+        verify(transactionService, never()).transferMoneyAsync(any(), any(), any(), any());
+    }
+
+    @Test
+    void submitTransfer_shouldQueueAndReturnAccepted() {
+        TransferRequest transferRequest = new TransferRequest();
+        transferRequest.setFromAccountId(1L);
+        transferRequest.setToAccountId(2L);
+        transferRequest.setAmount(BigDecimal.TEN);
+        QueuedTransfer queued = new QueuedTransfer();
+        queued.setId(9L);
+        queued.setStatus(QueuedTransfer.QUEUED);
+        when(tokenValidationService.validateToken("valid-token")).thenReturn(true);
+        when(transferQueueService.submit(1L, 2L, BigDecimal.TEN, "valid-token")).thenReturn(queued);
+
+        ResponseEntity<?> response = transactionController.submitTransfer(transferRequest, "valid-token");
+
+        assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+        assertEquals("/api/v1/transactions/transfer/async/9", response.getHeaders().getLocation().toString());
+        verify(transactionService, never()).transferMoneyAsync(any(), any(), any(), any());
+    }
 }
@@ -0,0 +1,171 @@
+package com.example.transaction.service;
+
+import com.example.transaction.entity.Transaction;
+import com.example.transaction.entity.TransferBatchItem;
+import com.example.transaction.repository.TransferBatchJdbcRepository;
+import com.example.transaction.repository.TransferBatchRepository;
+import com.example.transaction.request.PrepareRequest;
+import com.example.transaction.util.SnowflakeIdGenerator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class BulkTransferServiceTest {
+
+    @Mock
+    private TransferBatchRepository transferBatchRepository;
+
+    @Mock
+    private TransferBatchJdbcRepository transferBatchJdbcRepository;
+
+    @Mock
+    private AccountServiceClient accountServiceClient;
+
+    @Mock
+    private SnowflakeIdGenerator idGenerator;
+
+    @Mock
+    private ServiceTokenIssuer serviceTokenIssuer;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Captor
+    private ArgumentCaptor<List<TransferBatchItem>> outcomes;
+
+    @Captor
+    private ArgumentCaptor<List<Transaction>> transactions;
+
+    private BulkTransferService bulkTransferService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(serviceTokenIssuer.authorization()).thenReturn("Bearer service");
+        when(transferBatchJdbcRepository.renewLease(any(), any(), any())).thenReturn(true);
+        doAnswer(invocation -> {
+            invocation.<Consumer<Object>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+        when(accountServiceClient.commitBatchAsync(any(), any())).thenReturn(Mono.empty());
+        when(accountServiceClient.rollbackBatchAsync(any(), any())).thenReturn(Mono.empty());
+        bulkTransferService = service(500);
+    }
+
+    @AfterEach
+    void tearDown() {
+        bulkTransferService.shutdown();
+    }
+
+    @Test
+    void process_shouldCommitPreparedPairs_andRollBackTheRest() {
+        // Legs 1-2 prepare; leg 4 (the second transfer's deposit) aborts
+        when(accountServiceClient.prepareBatchAsync(any(), eq("Bearer service")))
+                .thenReturn(Mono.just(List.of("PREPARED", "PREPARED", "PREPARED", "ABORT")));
+
+        bulkTransferService.process(7L, items(item(0, 1L, 2L, 10), item(1, 1L, 3L, 20), item(2, 1L, 1L, 5))).block();
+
+        verify(transferBatchJdbcRepository).markCommitting(eq(7L), outcomes.capture());
+        assertEquals(1, outcomes.getValue().size());
+        verify(accountServiceClient).commitBatchAsync(List.of(1L, 2L), "Bearer service");
+        verify(accountServiceClient).rollbackBatchAsync(List.of(3L, 4L), "Bearer service");
+
+        verify(transferBatchJdbcRepository).completeItems(eq(7L), outcomes.capture());
+        assertEquals(List.of(TransferBatchItem.COMMITTED, TransferBatchItem.FAILED, TransferBatchItem.FAILED),
+                outcomes.getValue().stream().map(TransferBatchItem::getStatus).toList());
+        assertEquals("Source and target account must differ.", outcomes.getValue().get(2).getError());
+
+        verify(transferBatchJdbcRepository).insertTransactions(transactions.capture());
+        assertEquals(1, transactions.getValue().size());
+        assertEquals(2L, transactions.getValue().get(0).getTargetAccountId());
+        verify(transferBatchJdbcRepository).markCompleted(eq(7L), any(), eq("COMPLETED"), any());
+    }
+
+    @Test
+    void process_shouldSendOnePreparePerChunk() {
+        bulkTransferService.shutdown();
+        bulkTransferService = service(2);
+        when(accountServiceClient.prepareBatchAsync(anyList(), any())).thenAnswer(invocation -> Mono.just(
+                invocation.<List<PrepareRequest>>getArgument(0).stream().map(leg -> "PREPARED").toList()));
+
+        bulkTransferService.process(7L, items(item(0, 1L, 2L, 1), item(1, 1L, 3L, 1), item(2, 1L, 4L, 1))).block();
+
+        verify(accountServiceClient, times(2)).prepareBatchAsync(any(), any());
+        verify(accountServiceClient, times(2)).commitBatchAsync(any(), any());
+        verify(transferBatchJdbcRepository, times(2)).completeItems(eq(7L), any());
+    }
+
+    @Test
+    void process_shouldRollBackEveryLegAndFailTheChunk_whenPrepareCallFails() {
+        when(accountServiceClient.prepareBatchAsync(any(), any())).thenReturn(Mono.error(new RuntimeException("connection reset")));
+
+        bulkTransferService.process(7L, items(item(0, 1L, 2L, 10), item(1, 1L, 3L, 20))).block();
+
+        verify(accountServiceClient).rollbackBatchAsync(List.of(1L, 2L, 3L, 4L), "Bearer service");
+        verify(accountServiceClient, never()).commitBatchAsync(any(), any());
+        verify(transferBatchJdbcRepository).completeItems(eq(7L), outcomes.capture());
+        assertTrue(outcomes.getValue().stream().allMatch(item -> TransferBatchItem.FAILED.equals(item.getStatus())));
+        verify(transferBatchJdbcRepository, never()).insertTransactions(any());
+    }
+
+    @Test
+    void process_shouldLeaveItemsInDoubtAndTheBatchOpen_whenCommitFails() {
+        when(accountServiceClient.prepareBatchAsync(any(), any())).thenReturn(Mono.just(List.of("PREPARED", "PREPARED")));
+        when(accountServiceClient.commitBatchAsync(any(), any())).thenReturn(Mono.error(new RuntimeException("read timed out")));
+
+        bulkTransferService.process(7L, items(item(0, 1L, 2L, 10))).block();
+
+        verify(accountServiceClient, never()).rollbackBatchAsync(any(), any());
+        verify(transferBatchJdbcRepository).markCommitting(eq(7L), anyList());
+        verify(transferBatchJdbcRepository, never()).completeItems(any(), any());
+        verify(transferBatchJdbcRepository, never()).markCompleted(any(), any(), any(), any());
+    }
+
+    @Test
+    void process_shouldCommitDecidedItemsAgainWithoutPreparing_whenResumed() {
+        TransferBatchItem decided = item(0, 1L, 2L, 10);
+        decided.setStatus(TransferBatchItem.COMMITTING);
+        TransferBatchItem done = item(1, 1L, 3L, 20);
+        done.setStatus(TransferBatchItem.COMMITTED);
+
+        bulkTransferService.process(7L, items(decided, done)).block();
+
+        verify(accountServiceClient, never()).prepareBatchAsync(any(), any());
+        verify(accountServiceClient).commitBatchAsync(List.of(1L, 2L), "Bearer service");
+        verify(transferBatchJdbcRepository).completeItems(eq(7L), outcomes.capture());
+        assertEquals(List.of(decided), outcomes.getValue());
+        verify(transferBatchJdbcRepository).markCompleted(eq(7L), any(), eq("COMPLETED"), any());
+    }
+
+    private BulkTransferService service(int chunkSize) {
+        return new BulkTransferService(transferBatchRepository, transferBatchJdbcRepository, accountServiceClient, idGenerator,
+                serviceTokenIssuer, transactionTemplate, 50000, chunkSize, 4, Duration.ofSeconds(30), Duration.ofMinutes(5),
+                false, Duration.ofMinutes(1));
+    }
+
+    private static List<TransferBatchItem> items(TransferBatchItem... items) {
+        return new ArrayList<>(List.of(items));
+    }
+
+    // Leg ids follow the item index: 1 and 2 for the first item, 3 and 4 for the second
+    private static TransferBatchItem item(int index, Long from, Long to, long amount) {
+        return new TransferBatchItem(null, 7L, index, from, to, BigDecimal.valueOf(amount), TransferBatchItem.PENDING, null,
+                2L * index + 1, 2L * index + 2);
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.transaction.service;
+
+import com.example.transaction.entity.IdempotencyRecord;
+import com.example.transaction.exception.TransferOutcomeUnknownException;
+import com.example.transaction.repository.IdempotencyRecordRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import reactor.core.publisher.Mono;
+import reactor.core.Disposable;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class IdempotencyServiceTest {
+
+    private static final String KEY = scoped("key");
+
+    private IdempotencyRecordRepository repository;
+    private SimpleMeterRegistry meterRegistry;
+    private IdempotencyService idempotencyService;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(IdempotencyRecordRepository.class);
+        meterRegistry = new SimpleMeterRegistry();
+        idempotencyService = new IdempotencyService(repository, meterRegistry, 1000, Duration.ofHours(24), Duration.ofHours(1),
+                Duration.ofSeconds(5));
+    }
+
+    @AfterEach
+    void tearDown() {
+        idempotencyService.shutdown();
+    }
+
+    @Test
+    void execute_shouldRunOnce_andReplayTheResponseToRetries() {
+        when(repository.claim(eq(KEY), eq("fp"), any())).thenReturn(true);
+        AtomicInteger runs = new AtomicInteger();
+
+        ResponseEntity<String> first = idempotencyService.execute("user", "key", "fp",
+                () -> Mono.fromCallable(() -> ResponseEntity.ok("done " + runs.incrementAndGet()))).block();
+        ResponseEntity<String> retry = idempotencyService.execute("user", "key", "fp",
+                () -> Mono.fromCallable(() -> ResponseEntity.ok("done " + runs.incrementAndGet()))).block();
+
+        assertEquals("done 1", first.getBody());
+        assertEquals("done 1", retry.getBody());
+        assertEquals(1, runs.get());
+        verify(repository).complete(KEY, 200, "done 1");
+        assertEquals(1.0, meterRegistry.get("transaction.idempotency.requests").tag("result", "memory_hit").counter().count());
+    }
+
+    @Test
+    void execute_shouldMakeConcurrentDuplicatesWaitForTheFirstAttempt() {
+        when(repository.claim(eq(KEY), eq("fp"), any())).thenReturn(true);
+        Sinks.One<ResponseEntity<String>> firstAttempt = Sinks.one();
+        CompletableFuture<ResponseEntity<String>> first = idempotencyService.execute("user", "key", "fp", firstAttempt::asMono).toFuture();
+        // Let the claim finish so the first attempt is running
+        verify(repository, timeout(1000)).claim(eq(KEY), eq("fp"), any());
+
+        CompletableFuture<ResponseEntity<String>> duplicate = idempotencyService.execute("user", "key", "fp",
+                () -> Mono.error(new AssertionError("duplicate must not run"))).toFuture();
+        assertFalse(duplicate.isDone());
+
+        firstAttempt.tryEmitValue(ResponseEntity.ok("done"));
+
+        assertEquals("done", first.join().getBody());
+        assertEquals("done", duplicate.join().getBody());
+    }
+
+    @Test
+    void execute_shouldReturnStoredOutcome_orConflict_whenAnotherInstanceOwnsTheKey() {
+        when(repository.claim(any(), any(), any())).thenReturn(false);
+        when(repository.find(scoped("done-key"))).thenReturn(Optional.of(new IdempotencyRecord("done-key", "fp",
+                IdempotencyRecord.COMPLETED, 200, "successfully transferred", LocalDateTime.now())));
+        when(repository.find(scoped("busy-key"))).thenReturn(Optional.of(new IdempotencyRecord("busy-key", "fp",
+                IdempotencyRecord.IN_PROGRESS, null, null, LocalDateTime.now())));
+        when(repository.find(scoped("other-key"))).thenReturn(Optional.of(new IdempotencyRecord("other-key", "other-fp",
+                IdempotencyRecord.COMPLETED, 200, "successfully transferred", LocalDateTime.now())));
+
+        assertEquals("successfully transferred", idempotencyService.execute("user", "done-key", "fp", Mono::empty).block().getBody());
+        assertEquals(HttpStatus.CONFLICT, idempotencyService.execute("user", "busy-key", "fp", Mono::empty).block().getStatusCode());
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, idempotencyService.execute("user", "other-key", "fp", Mono::empty).block().getStatusCode());
+        assertEquals(1.0, meterRegistry.get("transaction.idempotency.requests").tag("result", "store_hit").counter().count());
+    }
+
+    @Test
+    void execute_shouldReleaseTheKey_whenTheAttemptFails() {
+        when(repository.claim(eq(KEY), eq("fp"), any())).thenReturn(true);
+
+        assertThrows(IllegalStateException.class, () -> idempotencyService.execute("user", "key", "fp",
+                () -> Mono.error(new IllegalStateException("prepare failed"))).block());
+        ResponseEntity<String> retry = idempotencyService.execute("user", "key", "fp", () -> Mono.just(ResponseEntity.ok("done"))).block();
+
+        verify(repository).release(KEY);
+        assertEquals("done", retry.getBody());
+    }
+
+    @Test
+    void execute_shouldKeepTheKeyClaimed_whenTheOutcomeIsUnknown() {
+        when(repository.claim(eq(KEY), eq("fp"), any())).thenReturn(true, false);
+        when(repository.find(KEY)).thenReturn(Optional.of(new IdempotencyRecord(KEY, "fp",
+                IdempotencyRecord.IN_PROGRESS, null, null, LocalDateTime.now())));
+
+        assertThrows(TransferOutcomeUnknownException.class, () -> idempotencyService.execute("user", "key", "fp",
+                () -> Mono.error(new TransferOutcomeUnknownException("read timed out"))).block());
+        ResponseEntity<String> retry = idempotencyService.execute("user", "key", "fp",
+                () -> Mono.error(new AssertionError("retry must not run"))).block();
+
+        verify(repository, never()).release(any());
+        assertEquals(HttpStatus.CONFLICT, retry.getStatusCode());
+    }
+
+    @Test
+    void execute_shouldKeepCallersKeysApart() {
+        when(repository.claim(any(), eq("fp"), any())).thenReturn(true);
+
+        idempotencyService.execute("alice", "key", "fp", () -> Mono.just(ResponseEntity.ok("alice"))).block();
+        ResponseEntity<String> bob = idempotencyService.execute("bob", "key", "fp", () -> Mono.just(ResponseEntity.ok("bob"))).block();
+
+        assertEquals("bob", bob.getBody());
+        verify(repository).complete(IdempotencyService.fingerprint("alice", "key"), 200, "alice");
+    }
+
+    @Test
+    void execute_shouldAnswerWaitersInProgress_whenTheFirstCallerGoesAway() {
+        when(repository.claim(eq(KEY), eq("fp"), any())).thenReturn(true);
+        Disposable first = idempotencyService.execute("user", "key", "fp", Mono::never).subscribe();
+        verify(repository, timeout(1000)).claim(eq(KEY), eq("fp"), any());
+        CompletableFuture<ResponseEntity<String>> duplicate = idempotencyService.execute("user", "key", "fp",
+                () -> Mono.error(new AssertionError("duplicate must not run"))).toFuture();
+
+        first.dispose();
+
+        assertEquals(HttpStatus.CONFLICT, duplicate.join().getStatusCode());
+        verify(repository, never()).release(any());
+    }
+
+    @Test
+    void execute_shouldStopWaiting_afterTheWaitTimeout() {
+        idempotencyService.shutdown();
+        idempotencyService = new IdempotencyService(repository, meterRegistry, 1000, Duration.ofHours(24), Duration.ofHours(1),
+                Duration.ofMillis(50));
+        when(repository.claim(eq(KEY), eq("fp"), any())).thenReturn(true);
+        idempotencyService.execute("user", "key", "fp", Mono::never).subscribe();
+        verify(repository, timeout(1000)).claim(eq(KEY), eq("fp"), any());
+
+        ResponseEntity<String> duplicate = idempotencyService.execute("user", "key", "fp",
+                () -> Mono.error(new AssertionError("duplicate must not run"))).block(Duration.ofSeconds(5));
+
+        assertEquals(HttpStatus.CONFLICT, duplicate.getStatusCode());
+    }
+
+    private static String scoped(String key) {
+        return IdempotencyService.fingerprint("user", key);
+    }
+}
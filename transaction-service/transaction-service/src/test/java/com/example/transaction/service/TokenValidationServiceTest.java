@@ -0,0 +1,83 @@
+package com.example.transaction.service;
+
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenValidationServiceTest {
+
+    private static final String SECRET =
+            "s2o8BcRxJoWo59Da6+Zmiq/eKFTGQ8lSnAXudW3ACCS7DnxFKoyfEZAeJw3YuQ9Tw7MBAn5JThJlcC/MBahhdg==";
+    private static final String NEW_SECRET =
+            "bmV3LXNlY3JldC1mb3ItdGhlLXJvdGF0ZWQta2V5LXRoYXQtaXMtbG9uZy1lbm91Z2gtZm9yLUhTNTEyLXNpZ25pbmc=";
+
+    private final TokenDenyList tokenDenyList = new TokenDenyList();
+    private final TokenValidationService tokenValidationService =
+            new TokenValidationService(null, tokenDenyList, "local", SECRET, "k1", new String[0], 100);
+
+    @Test
+    void validateToken_shouldAcceptTokenSignedByAccountService() {
+        String token = "Bearer " + token(SECRET, "k1", 60_000);
+
+        assertTrue(tokenValidationService.validateToken(token));
+        // Second call is answered from the verified-token cache
+        assertTrue(tokenValidationService.validateToken(token));
+        assertEquals(Boolean.TRUE, tokenValidationService.validateTokenAsync(token).block());
+    }
+
+    @Test
+    void validateToken_shouldRejectExpiredForgedOrMalformedTokens() {
+        assertFalse(tokenValidationService.validateToken("Bearer " + token(SECRET, "k1", -1_000)));
+        assertFalse(tokenValidationService.validateToken("Bearer " + token(NEW_SECRET, "k1", 60_000)));
+        assertFalse(tokenValidationService.validateToken("Bearer " + token(SECRET, "unknown", 60_000)));
+        assertFalse(tokenValidationService.validateToken(token(SECRET, "k1", 60_000)));
+        assertFalse(tokenValidationService.validateToken("Bearer not-a-jwt"));
+    }
+
+    @Test
+    void validateToken_shouldAcceptOldAndNewKeys_duringRotation() {
+        TokenValidationService rotated = new TokenValidationService(null, tokenDenyList, "local", NEW_SECRET, "k2",
+                new String[]{"k1:" + SECRET}, 100);
+
+        assertTrue(rotated.validateToken("Bearer " + token(SECRET, "k1", 60_000)));
+        assertTrue(rotated.validateToken("Bearer " + token(NEW_SECRET, "k2", 60_000)));
+    }
+
+    @Test
+    void validateToken_shouldRejectATokenRevokedAfterItWasVerified() {
+        String token = "Bearer " + token(SECRET, "k1", 60_000);
+        assertTrue(tokenValidationService.validateToken(token));
+
+        tokenDenyList.revoke("test@example.com", System.currentTimeMillis() / 1000 + 1, "later-logout",
+                new Date(System.currentTimeMillis() + 60_000));
+
+        assertFalse(tokenValidationService.validateToken(token));
+        assertNull(tokenValidationService.subject(token));
+    }
+
+    @Test
+    void serviceToken_shouldVerifyWithTheSharedKey_andBeReusedUntilRenewal() {
+        ServiceTokenIssuer issuer = new ServiceTokenIssuer("transaction-service", SECRET, "k1");
+
+        String authorization = issuer.authorization();
+
+        assertTrue(tokenValidationService.validateToken(authorization));
+        assertSame(authorization, issuer.authorization());
+    }
+
+    private static String token(String secret, String keyId, long validForMillis) {
+        return Jwts.builder()
+                .setHeaderParam(JwsHeader.KEY_ID, keyId)
+                .setSubject("test@example.com")
+                .setIssuedAt(new Date())
+                .setExpiration(new Date(System.currentTimeMillis() + validForMillis))
+                .signWith(Keys.hmacShaKeyFor(secret.getBytes()), SignatureAlgorithm.HS512)
+                .compact();
+    }
+}
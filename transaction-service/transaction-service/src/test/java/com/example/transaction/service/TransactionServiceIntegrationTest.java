@@ -1,22 +1,42 @@
 package com.example.transaction.service;
 
+import com.example.transaction.entity.CoordinatorLogEntry;
 import com.example.transaction.entity.Transaction;
+import com.example.transaction.entity.TransferBatch;
+import com.example.transaction.entity.TransferBatchItem;
+import com.example.transaction.entity.IdempotencyRecord;
+import com.example.transaction.entity.QueuedTransfer;
+import com.example.transaction.repository.CoordinatorLogRepository;
+import com.example.transaction.repository.IdempotencyRecordRepository;
 import com.example.transaction.repository.TransactionRepository;
+import com.example.transaction.repository.TransferBatchJdbcRepository;
+import com.example.transaction.repository.TransferBatchRepository;
+import com.example.transaction.repository.TransferQueueRepository;
+import com.example.transaction.response.TransactionPage;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.transaction.annotation.Transactional;
+import reactor.core.publisher.Mono;
 
 import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.*;
-import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.when;
 
 @SpringBootTest
@@ -33,6 +53,24 @@ public class TransactionServiceIntegrationTest {
     @MockBean
     private AccountServiceClient accountServiceClient;
 
+    @Autowired
+    private TransactionExportService transactionExportService;
+
+    @Autowired
+    private TransferBatchRepository transferBatchRepository;
+
+    @Autowired
+    private TransferBatchJdbcRepository transferBatchJdbcRepository;
+
+    @Autowired
+    private IdempotencyRecordRepository idempotencyRecordRepository;
+
+    @Autowired
+    private TransferQueueRepository transferQueueRepository;
+
+    @Autowired
+    private CoordinatorLogRepository coordinatorLogRepository;
+
     @Autowired
     private DataSource dataSource;
 
@@ -48,11 +86,13 @@ public class TransactionServiceIntegrationTest {
         BigDecimal amount = new BigDecimal("100.00");
         String token = "valid-jwt-token";
 
-        // Mock the AccountServiceClient calls
-        when(accountServiceClient.prepareWithdraw(any(), any(), anyLong(), any())).thenReturn(true);
-        when(accountServiceClient.prepareDeposit(any(), any(), anyLong(), any())).thenReturn(true);
-        doNothing().when(accountServiceClient).commitWithdraw(anyLong(), any());
-        doNothing().when(accountServiceClient).commitDeposit(anyLong(), any());
+        // Mock the AccountServiceClient calls; accounts not local, so the two-phase path runs
+        when(accountServiceClient.transferLocalAsync(any(), any(), any(), any()))
+                .thenReturn(Mono.just(AccountServiceClient.LOCAL_NOT_LOCAL));
+        when(accountServiceClient.prepareWithdrawAsync(any(), any(), anyLong(), any())).thenReturn(Mono.just(true));
+        when(accountServiceClient.prepareDepositAsync(any(), any(), anyLong(), any())).thenReturn(Mono.just(true));
+        when(accountServiceClient.commitWithdrawAsync(anyLong(), any())).thenReturn(Mono.empty());
+        when(accountServiceClient.commitDepositAsync(anyLong(), any())).thenReturn(Mono.empty());
 
         // When
         Transaction transaction = transactionService.transferMoney(fromAccountId, toAccountId, amount, token);
@@ -63,4 +103,175 @@ public class TransactionServiceIntegrationTest {
         assertEquals(toAccountId, transaction.getTargetAccountId());
         assertEquals(amount, transaction.getAmount());
     }
+
+    @Test
+    public void testTransactionHistoryPagesWalkBothSidesNewestFirst() {
+        Long accountId = 900L;
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        // Alternate outgoing and incoming, with a same-timestamp pair and a transfer to self
+        transactionRepository.save(new Transaction(accountId, 901L, BigDecimal.ONE, start));
+        transactionRepository.save(new Transaction(902L, accountId, BigDecimal.ONE, start.plusMinutes(1)));
+        transactionRepository.save(new Transaction(accountId, 903L, BigDecimal.ONE, start.plusMinutes(1)));
+        transactionRepository.save(new Transaction(accountId, accountId, BigDecimal.ONE, start.plusMinutes(2)));
+        transactionRepository.save(new Transaction(904L, accountId, BigDecimal.ONE, start.plusMinutes(3)));
+        transactionRepository.save(new Transaction(905L, 906L, BigDecimal.ONE, start.plusMinutes(4)));
+
+        List<Transaction> seen = new ArrayList<>();
+        String cursor = null;
+        do {
+            TransactionPage page = transactionService.getTransactionHistoryPage(accountId, cursor, 2, null, null);
+            seen.addAll(page.getItems());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        assertEquals(5, seen.size());
+        for (int i = 1; i < seen.size(); i++) {
+            Transaction previous = seen.get(i - 1);
+            Transaction current = seen.get(i);
+            int byTime = previous.getTimestamp().compareTo(current.getTimestamp());
+            assertEquals(true, byTime > 0 || (byTime == 0 && previous.getId() > current.getId()));
+        }
+
+        TransactionPage window = transactionService.getTransactionHistoryPage(accountId, null, 10,
+                start.plusMinutes(1), start.plusMinutes(3));
+        assertEquals(3, window.getItems().size());
+        assertNull(window.getNextCursor());
+    }
+
+    @Test
+    public void testExportMergesBothSidesOldestFirst() throws Exception {
+        Long accountId = 950L;
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        Transaction first = transactionRepository.save(new Transaction(951L, accountId, new BigDecimal("5.00"), start));
+        Transaction second = transactionRepository.save(new Transaction(accountId, 952L, new BigDecimal("2.50"), start.plusMinutes(1)));
+        Transaction third = transactionRepository.save(new Transaction(953L, accountId, new BigDecimal("1.00"), start.plusMinutes(1)));
+        transactionRepository.save(new Transaction(954L, 955L, BigDecimal.ONE, start.plusMinutes(2)));
+
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        transactionExportService.export(accountId, null, null, TransactionExportService.Format.CSV, csv);
+
+        assertEquals("id,sourceAccountId,targetAccountId,amount,timestamp\n"
+                        + first.getId() + ",951,950,5.00,2024-01-01T00:00\n"
+                        + second.getId() + ",950,952,2.50,2024-01-01T00:01\n"
+                        + third.getId() + ",953,950,1.00,2024-01-01T00:01\n",
+                csv.toString(StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+        transactionExportService.export(accountId, start.plusMinutes(1), null, TransactionExportService.Format.NDJSON, ndjson);
+
+        assertEquals("{\"id\":" + second.getId() + ",\"sourceAccountId\":950,\"targetAccountId\":952,\"amount\":2.50,\"timestamp\":\"2024-01-01T00:01\"}\n"
+                        + "{\"id\":" + third.getId() + ",\"sourceAccountId\":953,\"targetAccountId\":950,\"amount\":1.00,\"timestamp\":\"2024-01-01T00:01\"}\n",
+                ndjson.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testTransferBatchRowsRoundTrip() {
+        TransferBatch batch = transferBatchRepository.save(new TransferBatch(null, TransferBatch.PROCESSING, 2, 0, 0, LocalDateTime.now(), null,
+                "owner", LocalDateTime.now().plusMinutes(5)));
+        TransferBatchItem first = new TransferBatchItem(null, batch.getId(), 0, 970L, 971L, new BigDecimal("12.50"),
+                TransferBatchItem.PENDING, null, 1001L, 1002L);
+        TransferBatchItem second = new TransferBatchItem(null, batch.getId(), 1, 970L, 972L, new BigDecimal("3.00"),
+                TransferBatchItem.PENDING, null, 1003L, 1004L);
+        transferBatchJdbcRepository.insertItems(List.of(first, second));
+
+        transferBatchJdbcRepository.markCommitting(batch.getId(), List.of(first));
+        assertEquals(TransferBatchItem.COMMITTING, transferBatchJdbcRepository.findItems(batch.getId()).get(0).getStatus());
+
+        first.setStatus(TransferBatchItem.COMMITTED);
+        second.setStatus(TransferBatchItem.FAILED);
+        second.setError("ABORT");
+        transferBatchJdbcRepository.completeItems(batch.getId(), List.of(first, second));
+        transferBatchJdbcRepository.insertTransactions(List.of(new Transaction(970L, 971L, new BigDecimal("12.50"), LocalDateTime.now())));
+
+        List<TransferBatchItem> items = transferBatchJdbcRepository.findItems(batch.getId());
+        assertEquals(List.of(TransferBatchItem.COMMITTED, TransferBatchItem.FAILED), items.stream().map(TransferBatchItem::getStatus).toList());
+        assertEquals("ABORT", items.get(1).getError());
+        assertEquals(972L, items.get(1).getToAccountId());
+        assertEquals(1004L, items.get(1).getDepositTransactionId());
+        Integer committed = new JdbcTemplate(dataSource)
+                .queryForObject("select committed_count from transfer_batch where id = ?", Integer.class, batch.getId());
+        assertEquals(1, committed);
+        assertEquals(1, transactionService.getTransactionHistoryPage(970L, null, 10, null, null).getItems().size());
+    }
+
+    @Test
+    public void testAbandonedTransferBatchIsClaimedOnce() {
+        LocalDateTime now = LocalDateTime.now();
+        TransferBatch abandoned = transferBatchRepository.save(new TransferBatch(null, TransferBatch.PROCESSING, 1, 0, 0, now, null,
+                "crashed", now.minusSeconds(1)));
+        TransferBatch running = transferBatchRepository.save(new TransferBatch(null, TransferBatch.PROCESSING, 1, 0, 0, now, null,
+                "alive", now.plusMinutes(5)));
+
+        assertEquals(List.of(abandoned.getId()), transferBatchJdbcRepository.claimAbandoned("recovery", now.plusMinutes(5), now, 10));
+        assertTrue(transferBatchJdbcRepository.claimAbandoned("other", now.plusMinutes(5), now, 10).isEmpty());
+        assertFalse(transferBatchJdbcRepository.renewLease(abandoned.getId(), "crashed", now.plusMinutes(5)));
+        assertTrue(transferBatchJdbcRepository.renewLease(running.getId(), "alive", now.plusMinutes(10)));
+    }
+
+    @Test
+    public void testIdempotencyKeyCanOnlyBeClaimedOnce() {
+        LocalDateTime now = LocalDateTime.now();
+        assertTrue(idempotencyRecordRepository.claim("retry-key", "fp", now));
+        assertFalse(idempotencyRecordRepository.claim("retry-key", "fp", now));
+
+        idempotencyRecordRepository.complete("retry-key", 200, "successfully transferred");
+        IdempotencyRecord stored = idempotencyRecordRepository.find("retry-key").orElseThrow();
+        assertEquals(IdempotencyRecord.COMPLETED, stored.getStatus());
+        assertEquals(200, stored.getResponseStatus());
+
+        assertEquals(1, idempotencyRecordRepository.deleteCreatedBefore(now.plusSeconds(1)));
+        assertTrue(idempotencyRecordRepository.find("retry-key").isEmpty());
+    }
+
+    @Test
+    public void testTransferQueueLanesAreLeasedAndRunInOrder() {
+        LocalDateTime now = LocalDateTime.now();
+        transferQueueRepository.insert(new QueuedTransfer(2002L, 980L, 981L, BigDecimal.ONE, "Bearer t", 9, QueuedTransfer.QUEUED, null, null, now, now));
+        transferQueueRepository.insert(new QueuedTransfer(2001L, 980L, 982L, BigDecimal.ONE, "Bearer t", 9, QueuedTransfer.QUEUED, null, null, now, now));
+
+        assertTrue(transferQueueRepository.lanesWithWork(10).contains(9));
+        assertEquals(2001L, transferQueueRepository.nextInLane(9).orElseThrow().getId());
+
+        assertTrue(transferQueueRepository.acquireLane(9, "a", now.plusSeconds(30), now));
+        assertFalse(transferQueueRepository.acquireLane(9, "b", now.plusSeconds(30), now));
+        assertTrue(transferQueueRepository.acquireLane(9, "a", now.plusSeconds(60), now));
+        // Once the lease has run out anyone may take the lane
+        assertTrue(transferQueueRepository.acquireLane(9, "b", now.plusSeconds(120), now.plusSeconds(61)));
+
+        assertTrue(transferQueueRepository.markProcessing(2001L, now));
+        assertFalse(transferQueueRepository.markProcessing(2001L, now));
+        assertEquals(1, transferQueueRepository.markInterrupted(9, now));
+        QueuedTransfer interrupted = transferQueueRepository.find(2001L).orElseThrow();
+        assertEquals(QueuedTransfer.UNKNOWN, interrupted.getStatus());
+        assertNull(interrupted.getToken());
+
+        transferQueueRepository.finish(2002L, QueuedTransfer.COMPLETED, null, 55L, now);
+        assertEquals(55L, transferQueueRepository.find(2002L).orElseThrow().getTransactionId());
+        assertTrue(transferQueueRepository.nextInLane(9).isEmpty());
+    }
+
+    @Test
+    public void testCoordinatorLogHoldsOneDecisionAndFindsUnfinishedTransfers() {
+        LocalDateTime later = LocalDateTime.now().plusSeconds(1);
+        coordinatorLogRepository.appendAll(List.of(
+                CoordinatorLogEntry.preparing(3001L, 3002L, 990L, 991L, BigDecimal.ONE),
+                CoordinatorLogEntry.preparing(3003L, 3004L, 990L, 992L, BigDecimal.ONE)));
+
+        assertTrue(coordinatorLogRepository.append(CoordinatorLogEntry.decision(3001L, CoordinatorLogEntry.COMMITTING)));
+        assertFalse(coordinatorLogRepository.append(CoordinatorLogEntry.decision(3001L, CoordinatorLogEntry.ABORTING)));
+        assertEquals(CoordinatorLogEntry.COMMITTING, coordinatorLogRepository.findDecision(3001L).orElseThrow());
+        assertTrue(coordinatorLogRepository.findDecision(3003L).isEmpty());
+
+        assertTrue(coordinatorLogRepository.append(CoordinatorLogEntry.done(3003L)));
+        assertFalse(coordinatorLogRepository.append(CoordinatorLogEntry.done(3003L)));
+        List<CoordinatorLogEntry> inDoubt = coordinatorLogRepository.findInDoubt(later, 10);
+        assertEquals(List.of(3001L), inDoubt.stream().map(CoordinatorLogEntry::getTransferId).toList());
+        assertEquals(3002L, inDoubt.get(0).getDepositId());
+
+        // Transfers run by other tests commit their entries outside the test transaction
+        assertTrue(coordinatorLogRepository.findFinishedBefore(later, 10).contains(3003L));
+        coordinatorLogRepository.deleteTransfers(List.of(3003L));
+        assertFalse(coordinatorLogRepository.findFinishedBefore(later, 10).contains(3003L));
+        assertEquals(1, coordinatorLogRepository.findInDoubt(later, 10).size());
+    }
 }
@@ -1,20 +1,32 @@
 package com.example.transaction.service;
 
+import com.example.transaction.entity.CoordinatorLogEntry;
 import com.example.transaction.entity.Transaction;
 import com.example.transaction.exception.InvalidAmountException;
 import com.example.transaction.exception.TransactionException;
+import com.example.transaction.exception.TransferOutcomeUnknownException;
+import com.example.transaction.repository.TransactionHistoryRepository;
 import com.example.transaction.repository.TransactionRepository;
+import com.example.transaction.response.TransactionPage;
+import com.example.transaction.util.SnowflakeIdGenerator;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -32,9 +44,25 @@ class TransactionServiceTests {
     @Mock
     private AccountServiceClient accountServiceClient;
 
+    @Mock
+    private TransactionHistoryRepository transactionHistoryRepository;
+
+    @Mock
+    private SnowflakeIdGenerator idGenerator;
+
+    @Mock
+    private TransferCoordinatorLog coordinatorLog;
+
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
+        // The two-phase tests below run as if the accounts were not local to one account-service
+        when(accountServiceClient.transferLocalAsync(any(), any(), any(), any()))
+                .thenReturn(Mono.just(AccountServiceClient.LOCAL_NOT_LOCAL));
+        when(coordinatorLog.begin(any(), any(), any(), any(), any())).thenReturn(Mono.empty());
+        when(coordinatorLog.decide(any(), anyString())).thenAnswer(invocation -> Mono.just(invocation.getArgument(1)));
+        when(coordinatorLog.finish(any())).thenReturn(Mono.empty());
+        when(coordinatorLog.complete(any(), any(Transaction.class))).thenAnswer(invocation -> invocation.getArgument(1));
     }
 
     @Test
@@ -47,16 +75,16 @@ class TransactionServiceTests {
         Long withdrawId = 1L;
         Long depositId = 2L;
 
-        when(accountServiceClient.prepareWithdraw(eq(fromAccountId), eq(amount), anyLong(), eq(token)))
-                .thenReturn(true);
-        when(accountServiceClient.prepareDeposit(eq(toAccountId), eq(amount), anyLong(), eq(token)))
-                .thenReturn(true);
+        when(accountServiceClient.prepareWithdrawAsync(eq(fromAccountId), eq(amount), anyLong(), eq(token)))
+                .thenReturn(Mono.just(true));
+        when(accountServiceClient.prepareDepositAsync(eq(toAccountId), eq(amount), anyLong(), eq(token)))
+                .thenReturn(Mono.just(true));
 
-        doNothing().when(accountServiceClient).commitDeposit(any(), any());
-        doNothing().when(accountServiceClient).commitWithdraw(any(), any());
+        when(accountServiceClient.commitDepositAsync(any(), any())).thenReturn(Mono.empty());
+        when(accountServiceClient.commitWithdrawAsync(any(), any())).thenReturn(Mono.empty());
 
         Transaction transaction = new Transaction(fromAccountId, toAccountId, amount, LocalDateTime.now());
-        when(transactionRepository.save(any(Transaction.class))).thenReturn(transaction);
+        when(coordinatorLog.complete(anyLong(), any(Transaction.class))).thenReturn(transaction);
 
         Transaction result = transactionService.transferMoney(fromAccountId, toAccountId, amount, token);
 
@@ -65,11 +93,12 @@ class TransactionServiceTests {
         assertEquals(toAccountId, result.getTargetAccountId());
         assertEquals(amount, result.getAmount());
 
-        verify(accountServiceClient).prepareWithdraw(eq(fromAccountId), eq(amount), anyLong(), eq(token));
-        verify(accountServiceClient).prepareDeposit(eq(toAccountId), eq(amount), anyLong(), eq(token));
-        verify(accountServiceClient).commitWithdraw(anyLong(), eq(token));
-        verify(accountServiceClient).commitDeposit(anyLong(), eq(token));
-        verify(transactionRepository).save(any(Transaction.class));
+        verify(accountServiceClient).prepareWithdrawAsync(eq(fromAccountId), eq(amount), anyLong(), eq(token));
+        verify(accountServiceClient).prepareDepositAsync(eq(toAccountId), eq(amount), anyLong(), eq(token));
+        verify(accountServiceClient).commitWithdrawAsync(anyLong(), eq(token));
+        verify(accountServiceClient).commitDepositAsync(anyLong(), eq(token));
+        verify(coordinatorLog).decide(anyLong(), eq(CoordinatorLogEntry.COMMITTING));
+        verify(coordinatorLog).complete(anyLong(), any(Transaction.class));
     }
 
     @Test
@@ -82,15 +111,175 @@ class TransactionServiceTests {
         Long withdrawId = 1L;
         Long depositId = 2L;
 
-        when(accountServiceClient.prepareWithdraw(eq(fromAccountId), eq(amount), anyLong(), eq(token)))
+        when(accountServiceClient.prepareWithdrawAsync(eq(fromAccountId), eq(amount), anyLong(), eq(token)))
                 .thenThrow(new RuntimeException("Database error"));
+        when(accountServiceClient.rollbackWithdrawAsync(anyLong(), eq(token))).thenReturn(Mono.empty());
+        when(accountServiceClient.rollbackDepositAsync(anyLong(), eq(token))).thenReturn(Mono.empty());
 
         assertThrows(TransactionException.class, () ->
                 transactionService.transferMoney(fromAccountId, toAccountId, amount, token));
 
-        verify(accountServiceClient).prepareWithdraw(eq(fromAccountId), eq(amount), anyLong(), eq(token));
-        verify(accountServiceClient).rollbackWithdraw(anyLong(), eq(token));
-        verify(accountServiceClient).rollbackDeposit(anyLong(), eq(token));
+        verify(accountServiceClient).prepareWithdrawAsync(eq(fromAccountId), eq(amount), anyLong(), eq(token));
+        verify(accountServiceClient).rollbackWithdrawAsync(anyLong(), eq(token));
+        verify(accountServiceClient).rollbackDepositAsync(anyLong(), eq(token));
+    }
+
+    @Test
+    void transferMoney_shouldRollBackBoth_whenDepositIsNotPrepared() {
+        BigDecimal amount = BigDecimal.valueOf(100);
+        String token = "valid-token";
+
+        when(accountServiceClient.prepareWithdrawAsync(eq(1L), eq(amount), anyLong(), eq(token))).thenReturn(Mono.just(true));
+        when(accountServiceClient.prepareDepositAsync(eq(2L), eq(amount), anyLong(), eq(token))).thenReturn(Mono.just(false));
+        when(accountServiceClient.rollbackWithdrawAsync(anyLong(), eq(token)))
+                .thenReturn(Mono.error(new RuntimeException("account-service unavailable")));
+        when(accountServiceClient.rollbackDepositAsync(anyLong(), eq(token))).thenReturn(Mono.empty());
+
+        // The abort is logged, so the transfer cannot commit and the failure is definite
+        TransactionException ex = assertThrows(TransactionException.class, () ->
+                transactionService.transferMoney(1L, 2L, amount, token));
+
+        assertTrue(ex.getMessage().contains("Transaction failed during the prepare phase"));
+        verify(accountServiceClient).rollbackWithdrawAsync(anyLong(), eq(token));
+        verify(accountServiceClient).rollbackDepositAsync(anyLong(), eq(token));
+        verify(accountServiceClient, never()).commitWithdrawAsync(anyLong(), anyString());
+        verify(coordinatorLog).decide(anyLong(), eq(CoordinatorLogEntry.ABORTING));
+        // The withdraw leg is still pending, so the transfer stays open for recovery
+        verify(coordinatorLog, never()).finish(any());
+        verify(coordinatorLog, never()).complete(any(), any());
+    }
+
+    @Test
+    void transferMoney_shouldNotRollBack_onceTheCommitIsLogged() {
+        BigDecimal amount = BigDecimal.valueOf(100);
+        String token = "valid-token";
+
+        when(accountServiceClient.prepareWithdrawAsync(eq(1L), eq(amount), anyLong(), eq(token))).thenReturn(Mono.just(true));
+        when(accountServiceClient.prepareDepositAsync(eq(2L), eq(amount), anyLong(), eq(token))).thenReturn(Mono.just(true));
+        when(accountServiceClient.commitWithdrawAsync(anyLong(), eq(token))).thenReturn(Mono.empty());
+        when(accountServiceClient.commitDepositAsync(anyLong(), eq(token)))
+                .thenReturn(Mono.error(new RuntimeException("account-service unavailable")));
+
+        assertThrows(TransferOutcomeUnknownException.class, () -> transactionService.transferMoney(1L, 2L, amount, token));
+
+        verify(accountServiceClient, never()).rollbackWithdrawAsync(anyLong(), anyString());
+        verify(accountServiceClient, never()).rollbackDepositAsync(anyLong(), anyString());
+        verify(coordinatorLog, never()).complete(any(), any());
+    }
+
+    @Test
+    void transferMoney_shouldNeitherCommitNorRollBack_whenRecoveryAbortedTheTransferFirst() {
+        BigDecimal amount = BigDecimal.valueOf(100);
+        String token = "valid-token";
+
+        when(accountServiceClient.prepareWithdrawAsync(eq(1L), eq(amount), anyLong(), eq(token))).thenReturn(Mono.just(true));
+        when(accountServiceClient.prepareDepositAsync(eq(2L), eq(amount), anyLong(), eq(token))).thenReturn(Mono.just(true));
+        when(coordinatorLog.decide(any(), anyString())).thenReturn(Mono.just(CoordinatorLogEntry.ABORTING));
+
+        assertThrows(TransactionException.class, () -> transactionService.transferMoney(1L, 2L, amount, token));
+
+        verify(accountServiceClient, never()).commitWithdrawAsync(anyLong(), anyString());
+        verify(accountServiceClient, never()).rollbackWithdrawAsync(anyLong(), anyString());
+    }
+
+    @Test
+    void transferMoney_shouldPrepareBothLegsConcurrently() {
+        BigDecimal amount = BigDecimal.valueOf(100);
+        String token = "valid-token";
+        AtomicBoolean depositPrepareStarted = new AtomicBoolean();
+
+        // The withdraw leg only reports success if the deposit leg was started before it finished
+        when(accountServiceClient.prepareWithdrawAsync(eq(1L), eq(amount), anyLong(), eq(token)))
+                .thenReturn(Mono.fromCallable(depositPrepareStarted::get).delaySubscription(Duration.ofMillis(100)));
+        when(accountServiceClient.prepareDepositAsync(eq(2L), eq(amount), anyLong(), eq(token)))
+                .thenReturn(Mono.just(true).doOnSubscribe(subscription -> depositPrepareStarted.set(true)));
+        when(accountServiceClient.commitWithdrawAsync(anyLong(), eq(token))).thenReturn(Mono.empty());
+        when(accountServiceClient.commitDepositAsync(anyLong(), eq(token))).thenReturn(Mono.empty());
+
+        Transaction result = transactionService.transferMoney(1L, 2L, amount, token);
+
+        assertNotNull(result);
+        verify(accountServiceClient, never()).rollbackWithdrawAsync(anyLong(), anyString());
+    }
+
+    @Test
+    void transferMoney_shouldRollBack_whenALegTimesOut() {
+        ReflectionTestUtils.setField(transactionService, "legTimeout", Duration.ofMillis(100));
+        BigDecimal amount = BigDecimal.valueOf(100);
+        String token = "valid-token";
+
+        when(accountServiceClient.prepareWithdrawAsync(eq(1L), eq(amount), anyLong(), eq(token))).thenReturn(Mono.just(true));
+        when(accountServiceClient.prepareDepositAsync(eq(2L), eq(amount), anyLong(), eq(token))).thenReturn(Mono.never());
+        when(accountServiceClient.rollbackWithdrawAsync(anyLong(), eq(token))).thenReturn(Mono.empty());
+        when(accountServiceClient.rollbackDepositAsync(anyLong(), eq(token))).thenReturn(Mono.empty());
+
+        assertThrows(TransactionException.class, () -> transactionService.transferMoney(1L, 2L, amount, token));
+
+        verify(accountServiceClient).rollbackWithdrawAsync(anyLong(), eq(token));
+        verify(accountServiceClient).rollbackDepositAsync(anyLong(), eq(token));
+        verify(accountServiceClient, never()).commitWithdrawAsync(anyLong(), anyString());
+    }
+
+    @Test
+    void transferMoney_shouldUseLocalTransfer_whenBothAccountsAreLocal() {
+        BigDecimal amount = BigDecimal.valueOf(100);
+        when(accountServiceClient.transferLocalAsync(1L, 2L, amount, "valid-token"))
+                .thenReturn(Mono.just(AccountServiceClient.LOCAL_COMMITTED));
+        when(transactionRepository.save(any(Transaction.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        Transaction result = transactionService.transferMoney(1L, 2L, amount, "valid-token");
+
+        assertEquals(amount, result.getAmount());
+        verify(accountServiceClient, never()).prepareWithdrawAsync(anyLong(), any(), anyLong(), anyString());
+        verify(accountServiceClient, never()).prepareDepositAsync(anyLong(), any(), anyLong(), anyString());
+    }
+
+    @Test
+    void transferMoney_shouldFailWithoutFallingBack_whenLocalTransferIsRejected() {
+        BigDecimal amount = BigDecimal.valueOf(100);
+        when(accountServiceClient.transferLocalAsync(1L, 2L, amount, "valid-token"))
+                .thenReturn(Mono.just(AccountServiceClient.LOCAL_REJECTED));
+
+        assertThrows(TransactionException.class, () -> transactionService.transferMoney(1L, 2L, amount, "valid-token"));
+
+        verify(accountServiceClient, never()).prepareWithdrawAsync(anyLong(), any(), anyLong(), anyString());
+        verify(transactionRepository, never()).save(any(Transaction.class));
+    }
+
+    @Test
+    void transferMoney_shouldNotReplayAsTwoPhase_whenLocalTransferCallFails() {
+        BigDecimal amount = BigDecimal.valueOf(100);
+        when(accountServiceClient.transferLocalAsync(1L, 2L, amount, "valid-token"))
+                .thenReturn(Mono.error(new RuntimeException("connection reset")));
+
+        // The call may have committed before the connection dropped
+        assertThrows(TransferOutcomeUnknownException.class, () -> transactionService.transferMoney(1L, 2L, amount, "valid-token"));
+
+        verify(accountServiceClient, never()).prepareWithdrawAsync(anyLong(), any(), anyLong(), anyString());
+    }
+
+    @Test
+    void transferMoney_shouldFailDefinitely_whenAccountServiceRefusesTheLocalTransfer() {
+        BigDecimal amount = BigDecimal.valueOf(100);
+        when(accountServiceClient.transferLocalAsync(1L, 2L, amount, "valid-token"))
+                .thenReturn(Mono.error(WebClientResponseException.create(400, "Bad Request", null,
+                        "Source and target account must differ.".getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8)));
+
+        // Refused and rolled back, so an Idempotency-Key can be released for a retry
+        TransactionException ex = assertThrows(TransactionException.class,
+                () -> transactionService.transferMoney(1L, 2L, amount, "valid-token"));
+
+        assertTrue(ex.getMessage().contains("Source and target account must differ."));
+        verify(accountServiceClient, never()).prepareWithdrawAsync(anyLong(), any(), anyLong(), anyString());
+    }
+
+    @Test
+    void transferMoney_shouldReportUnknownOutcome_whenAccountServiceAnswersWithA5xx() {
+        BigDecimal amount = BigDecimal.valueOf(100);
+        when(accountServiceClient.transferLocalAsync(1L, 2L, amount, "valid-token"))
+                .thenReturn(Mono.error(WebClientResponseException.create(500, "Internal Server Error", null, null, null)));
+
+        assertThrows(TransferOutcomeUnknownException.class, () -> transactionService.transferMoney(1L, 2L, amount, "valid-token"));
     }
 
     @Test
@@ -109,5 +298,40 @@ class TransactionServiceTests {
         assertTrue(transactions.contains(transaction1));
         assertTrue(transactions.contains(transaction2));
     }
-}
 
+    @Test
+    void getTransactionHistoryPage_shouldReturnCursorThatResumesAfterLastItem() {
+        LocalDateTime now = LocalDateTime.of(2024, 5, 1, 12, 0);
+        Transaction newest = new Transaction(1L, 2L, BigDecimal.TEN, now);
+        newest.setId(30L);
+        Transaction older = new Transaction(3L, 1L, BigDecimal.ONE, now.minusMinutes(1));
+        older.setId(20L);
+        Transaction oldest = new Transaction(1L, 4L, BigDecimal.ONE, now.minusMinutes(2));
+        oldest.setId(10L);
+        when(transactionHistoryRepository.findPage(1L, null, null, null, null, 3))
+                .thenReturn(new ArrayList<>(List.of(newest, older, oldest)));
+
+        TransactionPage page = transactionService.getTransactionHistoryPage(1L, null, 2, null, null);
+
+        assertEquals(List.of(newest, older), page.getItems());
+        assertNotNull(page.getNextCursor());
+
+        when(transactionHistoryRepository.findPage(1L, older.getTimestamp(), 20L, null, null, 3))
+                .thenReturn(List.of(oldest));
+
+        TransactionPage last = transactionService.getTransactionHistoryPage(1L, page.getNextCursor(), 2, null, null);
+
+        assertEquals(List.of(oldest), last.getItems());
+        assertNull(last.getNextCursor());
+    }
+
+    @Test
+    void getTransactionHistoryPage_shouldRejectBadSizeAndCursor() {
+        assertThrows(IllegalArgumentException.class,
+                () -> transactionService.getTransactionHistoryPage(1L, null, 0, null, null));
+        assertThrows(IllegalArgumentException.class,
+                () -> transactionService.getTransactionHistoryPage(1L, "not-a-cursor", 10, null, null));
+
+        verifyNoInteractions(transactionHistoryRepository);
+    }
+}
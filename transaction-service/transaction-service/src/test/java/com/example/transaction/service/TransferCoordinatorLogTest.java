@@ -0,0 +1,133 @@
+package com.example.transaction.service;
+
+import com.example.transaction.entity.CoordinatorLogEntry;
+import com.example.transaction.entity.Transaction;
+import com.example.transaction.repository.CoordinatorLogRepository;
+import com.example.transaction.repository.TransactionRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class TransferCoordinatorLogTest {
+
+    private CoordinatorLogRepository repository;
+    private TransactionRepository transactionRepository;
+    private AccountServiceClient accountServiceClient;
+    private TransferCoordinatorLog coordinatorLog;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        repository = mock(CoordinatorLogRepository.class);
+        transactionRepository = mock(TransactionRepository.class);
+        accountServiceClient = mock(AccountServiceClient.class);
+        ServiceTokenIssuer serviceTokenIssuer = mock(ServiceTokenIssuer.class);
+        when(serviceTokenIssuer.authorization()).thenReturn("Bearer service");
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.getArgument(0, TransactionCallback.class).doInTransaction(null));
+        doAnswer(invocation -> {
+            invocation.getArgument(0, Consumer.class).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+        coordinatorLog = new TransferCoordinatorLog(repository, transactionRepository, accountServiceClient, serviceTokenIssuer,
+                transactionTemplate, new SimpleMeterRegistry(), 256, false, Duration.ofMinutes(1), Duration.ofMinutes(1), 4, Duration.ofHours(24));
+    }
+
+    @AfterEach
+    void tearDown() {
+        coordinatorLog.shutdown();
+    }
+
+    @Test
+    void appendsQueuedDuringAFlush_shouldBeWrittenTogetherInTheNextOne() throws Exception {
+        CountDownLatch firstFlushStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstFlush = new CountDownLatch(1);
+        List<Integer> batchSizes = new ArrayList<>();
+        doAnswer(invocation -> {
+            batchSizes.add(invocation.getArgument(0, List.class).size());
+            firstFlushStarted.countDown();
+            releaseFirstFlush.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(repository).appendAll(anyList());
+
+        Mono<Void> first = coordinatorLog.begin(1L, 2L, 10L, 20L, BigDecimal.TEN).cache();
+        first.subscribe();
+        assertTrue(firstFlushStarted.await(5, TimeUnit.SECONDS));
+        List<Mono<Void>> queued = new ArrayList<>();
+        for (long id = 3; id < 8; id++) {
+            Mono<Void> append = coordinatorLog.begin(id, id + 100, 10L, 20L, BigDecimal.TEN).cache();
+            append.subscribe();
+            queued.add(append);
+        }
+        Thread.sleep(50);
+        releaseFirstFlush.countDown();
+
+        first.block(Duration.ofSeconds(5));
+        Mono.when(queued).block(Duration.ofSeconds(5));
+        assertEquals(List.of(1, 5), batchSizes);
+    }
+
+    @Test
+    void decide_shouldReturnTheDecisionAlreadyLogged_whenItLosesTheRace() {
+        doThrow(new DuplicateKeyException("uk_coordinator_log_decision")).when(repository).appendAll(anyList());
+        when(repository.append(any())).thenReturn(false);
+        when(repository.findDecision(1L)).thenReturn(Optional.of(CoordinatorLogEntry.ABORTING));
+
+        assertEquals(CoordinatorLogEntry.ABORTING,
+                coordinatorLog.decide(1L, CoordinatorLogEntry.COMMITTING).block(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    void resolve_shouldRollBackAndFinish_whenNoDecisionWasLogged() {
+        when(accountServiceClient.rollbackWithdrawAsync(1L, "Bearer service")).thenReturn(Mono.empty());
+        when(accountServiceClient.rollbackDepositAsync(2L, "Bearer service")).thenReturn(Mono.empty());
+
+        assertEquals(CoordinatorLogEntry.ABORTING, coordinatorLog.resolve(prepared()).block(Duration.ofSeconds(5)));
+
+        verify(accountServiceClient).rollbackWithdrawAsync(1L, "Bearer service");
+        verify(accountServiceClient).rollbackDepositAsync(2L, "Bearer service");
+        verify(accountServiceClient, never()).commitWithdrawAsync(any(), any());
+        verify(repository, timeout(1000).times(2)).appendAll(anyList());
+    }
+
+    @Test
+    void resolve_shouldCommitAndRecordTheTransfer_whenTheCommitWasLogged() {
+        doThrow(new DuplicateKeyException("uk_coordinator_log_decision")).when(repository).appendAll(anyList());
+        when(repository.append(any())).thenReturn(false, true);
+        when(repository.findDecision(1L)).thenReturn(Optional.of(CoordinatorLogEntry.COMMITTING));
+        when(accountServiceClient.commitWithdrawAsync(1L, "Bearer service")).thenReturn(Mono.empty());
+        when(accountServiceClient.commitDepositAsync(2L, "Bearer service")).thenReturn(Mono.empty());
+        when(transactionRepository.save(any(Transaction.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        assertEquals(CoordinatorLogEntry.COMMITTING, coordinatorLog.resolve(prepared()).block(Duration.ofSeconds(5)));
+
+        verify(accountServiceClient).commitWithdrawAsync(1L, "Bearer service");
+        verify(accountServiceClient).commitDepositAsync(2L, "Bearer service");
+        verify(accountServiceClient, never()).rollbackWithdrawAsync(any(), any());
+        verify(transactionRepository).save(argThat(transaction -> transaction.getAmount().equals(BigDecimal.TEN)
+                && transaction.getSourceAccountId().equals(10L) && transaction.getTargetAccountId().equals(20L)));
+    }
+
+    private static CoordinatorLogEntry prepared() {
+        return CoordinatorLogEntry.preparing(1L, 2L, 10L, 20L, BigDecimal.TEN);
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.transaction.service;
+
+import com.example.transaction.entity.QueuedTransfer;
+import com.example.transaction.entity.Transaction;
+import com.example.transaction.exception.TransactionException;
+import com.example.transaction.repository.TransferQueueRepository;
+import com.example.transaction.util.SnowflakeIdGenerator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class TransferQueueServiceTest {
+
+    private TransferQueueRepository repository;
+    private TransactionService transactionService;
+    private TransferQueueService transferQueueService;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(TransferQueueRepository.class);
+        transactionService = mock(TransactionService.class);
+        SnowflakeIdGenerator idGenerator = mock(SnowflakeIdGenerator.class);
+        when(idGenerator.nextId()).thenReturn(100L);
+        transferQueueService = new TransferQueueService(repository, transactionService, idGenerator, new SimpleMeterRegistry(),
+                false, 16, 2, Duration.ofSeconds(30), 10, Duration.ofMillis(200));
+    }
+
+    @AfterEach
+    void tearDown() {
+        transferQueueService.shutdown();
+    }
+
+    @Test
+    void submit_shouldQueueTheTransferInItsSourceAccountsLane() {
+        QueuedTransfer transfer = transferQueueService.submit(1L, 2L, BigDecimal.TEN, "Bearer token");
+
+        ArgumentCaptor<QueuedTransfer> inserted = ArgumentCaptor.forClass(QueuedTransfer.class);
+        verify(repository).insert(inserted.capture());
+        assertEquals(100L, inserted.getValue().getId());
+        assertEquals(QueuedTransfer.QUEUED, inserted.getValue().getStatus());
+        assertEquals(transferQueueService.laneOf(1L), inserted.getValue().getLane());
+        assertEquals(transfer, inserted.getValue());
+        verifyNoInteractions(transactionService);
+    }
+
+    @Test
+    void drain_shouldRunTheLaneInOrder_andRecordEachOutcome() {
+        QueuedTransfer first = queued(1L, 1L, 2L);
+        QueuedTransfer second = queued(2L, 1L, 3L);
+        when(repository.nextInLane(5)).thenReturn(Optional.of(first)).thenReturn(Optional.of(second)).thenReturn(Optional.empty());
+        when(repository.acquireLane(eq(5), any(), any(), any())).thenReturn(true);
+        when(repository.markProcessing(any(), any())).thenReturn(true);
+        Transaction committed = new Transaction(1L, 2L, BigDecimal.TEN, LocalDateTime.now());
+        committed.setId(77L);
+        when(transactionService.transferMoney(1L, 2L, BigDecimal.TEN, "Bearer token")).thenReturn(committed);
+        when(transactionService.transferMoney(1L, 3L, BigDecimal.TEN, "Bearer token"))
+                .thenThrow(new TransactionException("Transaction failed due to insufficient balance"));
+
+        transferQueueService.drain(5);
+
+        InOrder inOrder = inOrder(transactionService, repository);
+        inOrder.verify(transactionService).transferMoney(1L, 2L, BigDecimal.TEN, "Bearer token");
+        inOrder.verify(repository).finish(eq(1L), eq(QueuedTransfer.COMPLETED), isNull(), eq(77L), any());
+        inOrder.verify(transactionService).transferMoney(1L, 3L, BigDecimal.TEN, "Bearer token");
+        inOrder.verify(repository).finish(eq(2L), eq(QueuedTransfer.FAILED), eq("Transaction failed due to insufficient balance"), isNull(), any());
+        inOrder.verify(repository).releaseLane(eq(5), any(), any());
+    }
+
+    @Test
+    void drain_shouldStop_whenTheLaneLeaseIsLost() {
+        when(repository.nextInLane(5)).thenReturn(Optional.of(queued(1L, 1L, 2L)));
+        when(repository.acquireLane(eq(5), any(), any(), any())).thenReturn(false);
+
+        transferQueueService.drain(5);
+
+        verifyNoInteractions(transactionService);
+        verify(repository, never()).markProcessing(any(), any());
+    }
+
+    @Test
+    void poll_shouldOnlyTakeLanesItCanLease_andFlagInterruptedTransfers() {
+        when(repository.lanesWithWork(anyInt())).thenReturn(List.of(3, 4));
+        when(repository.acquireLane(eq(3), any(), any(), any())).thenReturn(false);
+        when(repository.acquireLane(eq(4), any(), any(), any())).thenReturn(true);
+        when(repository.nextInLane(4)).thenReturn(Optional.empty());
+
+        transferQueueService.poll();
+
+        verify(repository).markInterrupted(eq(4), any());
+        verify(repository, never()).markInterrupted(eq(3), any());
+        verify(repository, timeout(1000)).releaseLane(eq(4), any(), any());
+    }
+
+    private static QueuedTransfer queued(Long id, Long from, Long to) {
+        LocalDateTime now = LocalDateTime.now();
+        return new QueuedTransfer(id, from, to, BigDecimal.TEN, "Bearer token", 5, QueuedTransfer.QUEUED, null, null, now, now);
+    }
+}
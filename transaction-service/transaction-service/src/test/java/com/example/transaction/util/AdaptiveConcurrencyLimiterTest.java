@@ -0,0 +1,112 @@
+package com.example.transaction.util;
+
+import com.example.transaction.exception.ConcurrencyLimitExceededException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final ClientRequest REQUEST = ClientRequest.create(HttpMethod.POST, URI.create("http://ACCOUNT-SERVICE/x")).build();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void callsOverTheLimit_shouldQueue_andBeShedWhenTheQueueIsFullOrTheWaitRunsOut() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", meterRegistry, 2, 1, 2, 0.5,
+                Duration.ofSeconds(10), 1, Duration.ofMillis(200));
+        List<Sinks.One<ClientResponse>> responses = new ArrayList<>();
+        List<Mono<ClientResponse>> calls = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Mono<ClientResponse> call = limiter.filter(REQUEST, request -> {
+                Sinks.One<ClientResponse> response = Sinks.one();
+                responses.add(response);
+                return response.asMono();
+            }).cache();
+            call.subscribe(r -> { }, e -> { });
+            calls.add(call);
+        }
+
+        assertEquals(2, responses.size());
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(1, limiter.getQueued());
+        assertThrows(ConcurrencyLimitExceededException.class,
+                () -> limiter.filter(REQUEST, request -> Mono.just(ok())).block());
+
+        // A finished call hands its permit to the queued one
+        responses.get(0).tryEmitValue(ok());
+        assertEquals(3, responses.size());
+        assertEquals(0, limiter.getQueued());
+
+        Mono<ClientResponse> waiting = limiter.filter(REQUEST, request -> Mono.just(ok()));
+        assertThrows(ConcurrencyLimitExceededException.class, () -> waiting.block(Duration.ofSeconds(5)));
+        assertEquals(2.0, meterRegistry.get("client.concurrency.rejected").counter().count());
+        assertEquals(0, limiter.getQueued());
+        assertEquals(2, limiter.getInFlight());
+    }
+
+    @Test
+    void limit_shouldGrowWhileFastAndInUse_andBackOffOnOverload() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", meterRegistry, 4, 2, 6, 0.5,
+                Duration.ofSeconds(10), 10, Duration.ofSeconds(1));
+
+        for (int i = 0; i < 5; i++) {
+            limiter.filter(REQUEST, request -> Mono.just(ok())).block();
+        }
+        // One call in flight at a time never uses half of a limit of 4
+        assertEquals(4, limiter.getLimit());
+
+        List<Sinks.One<ClientResponse>> responses = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            limiter.filter(REQUEST, request -> {
+                Sinks.One<ClientResponse> response = Sinks.one();
+                responses.add(response);
+                return response.asMono();
+            }).subscribe();
+        }
+        responses.forEach(response -> response.tryEmitValue(ok()));
+        assertEquals(6, limiter.getLimit());
+
+        limiter.filter(REQUEST, request -> Mono.just(ClientResponse.create(HttpStatus.SERVICE_UNAVAILABLE).build())).block();
+        assertEquals(3, limiter.getLimit());
+        assertThrows(RuntimeException.class,
+                () -> limiter.filter(REQUEST, request -> Mono.error(new RuntimeException("connection refused"))).block());
+        assertEquals(2, limiter.getLimit());
+        assertEquals(2.0, meterRegistry.get("client.concurrency.limit").gauge().value());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void cancelAfterTheResponse_shouldReleaseThePermitOnce() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", meterRegistry, 2, 1, 2, 0.5,
+                Duration.ofSeconds(10), 1, Duration.ofSeconds(1));
+
+        // The caller cancels after the response was emitted, as its timeout does while the body is read
+        limiter.filter(REQUEST, request -> Mono.just(ok())).subscribe(new BaseSubscriber<>() {
+            @Override
+            protected void hookOnNext(ClientResponse response) {
+                cancel();
+            }
+        });
+
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(2, limiter.getLimit());
+    }
+
+    private static ClientResponse ok() {
+        return ClientResponse.create(HttpStatus.OK).build();
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.transaction.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConsistentHashRingTest {
+
+    private static final int KEYS = 100_000;
+
+    @Test
+    void keys_shouldSpreadEvenly() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("a:8080", "b:8080", "c:8080", "d:8080"), 160);
+
+        Map<String, Integer> owned = new HashMap<>();
+        for (int key = 0; key < KEYS; key++) {
+            owned.merge(ring.get(String.valueOf(key)), 1, Integer::sum);
+        }
+
+        assertEquals(4, owned.size());
+        owned.values().forEach(count -> assertTrue(Math.abs(count - KEYS / 4) < KEYS / 20, "owned " + owned));
+    }
+
+    @Test
+    void addingAnInstance_shouldMoveAboutOneNthOfTheKeys_allToTheNewInstance() {
+        ConsistentHashRing before = new ConsistentHashRing(List.of("a:8080", "b:8080", "c:8080", "d:8080"), 160);
+        ConsistentHashRing after = new ConsistentHashRing(List.of("a:8080", "b:8080", "c:8080", "d:8080", "e:8080"), 160);
+
+        int moved = 0;
+        for (int key = 0; key < KEYS; key++) {
+            String owner = after.get(String.valueOf(key));
+            if (!owner.equals(before.get(String.valueOf(key)))) {
+                assertEquals("e:8080", owner);
+                moved++;
+            }
+        }
+
+        assertTrue(Math.abs(moved - KEYS / 5) < KEYS / 20, "moved " + moved);
+    }
+
+    @Test
+    void skippingAnInstance_shouldOnlyMoveItsOwnKeys() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("a:8080", "b:8080", "c:8080"), 160);
+
+        for (int key = 0; key < 10_000; key++) {
+            String owner = ring.get(String.valueOf(key));
+            String withoutB = ring.get(String.valueOf(key), member -> !member.equals("b:8080"));
+            if (owner.equals("b:8080")) {
+                assertNotEquals("b:8080", withoutB);
+            } else {
+                assertEquals(owner, withoutB);
+            }
+        }
+        assertNull(ring.get("1", member -> false));
+        assertNull(new ConsistentHashRing(List.of(), 160).get("1"));
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.transaction.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.DefaultRequest;
+import org.springframework.cloud.client.loadbalancer.RequestData;
+import org.springframework.cloud.client.loadbalancer.RequestDataContext;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.loadbalancer.support.ServiceInstanceListSuppliers;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Simulated time: one request per millisecond against stub instances with fixed response times
+class LatencyAwareLoadBalancerTest {
+
+    private static final long MS = 1_000_000;
+
+    private record Completion(long atNanos, String instance, boolean failed, long startNanos) {
+    }
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicLong clock = new AtomicLong();
+    private final InstanceLoadStats stats = new InstanceLoadStats(meterRegistry, clock::get, Duration.ofMillis(50),
+            Duration.ofSeconds(10), 5, 5, Duration.ofMillis(200), Duration.ofSeconds(30), 10);
+    private final List<ServiceInstance> instances = List.of(instance("a"), instance("b"), instance("c"));
+    private final LatencyAwareLoadBalancer loadBalancer = new LatencyAwareLoadBalancer("ACCOUNT-SERVICE",
+            ServiceInstanceListSuppliers.toProvider("ACCOUNT-SERVICE", instances.toArray(ServiceInstance[]::new)),
+            stats, meterRegistry, true, 160);
+
+    @Test
+    void slowInstance_shouldGetLittleTraffic_whenPeersAreFast() {
+        Map<String, Integer> picks = simulate(Map.of("a", 10L, "b", 10L, "c", 150L), Map.of(), 10_000);
+
+        // Round robin would send it a third
+        assertTrue(picks.getOrDefault("c", 0) < 500, "slow instance got " + picks);
+        assertEquals(0, stats.inFlight("a:8080") + stats.inFlight("b:8080") + stats.inFlight("c:8080"));
+        assertEquals(10_000.0, meterRegistry.get("loadbalancer.selections").counters().stream()
+                .mapToDouble(c -> c.count()).sum());
+    }
+
+    @Test
+    void pausedInstance_shouldBeEjectedAsLatencyOutlier_andProbedAgainAfterTheEjection() {
+        Map<String, Integer> picks = simulate(Map.of("a", 10L, "b", 10L, "c", 1_000L), Map.of(), 20_000);
+
+        assertTrue(picks.getOrDefault("c", 0) < 20, "paused instance got " + picks);
+        assertEquals(1.0, meterRegistry.get("loadbalancer.ejections").tag("instance", "c:8080").tag("reason", "latency")
+                .counter().count());
+
+        clock.addAndGet(Duration.ofSeconds(30).toNanos());
+        assertFalse(stats.isEjected("c:8080"));
+        assertTrue(simulate(Map.of("a", 10L, "b", 10L, "c", 10L), Map.of(), 1_000).getOrDefault("c", 0) > 0);
+    }
+
+    @Test
+    void failingInstance_shouldBeEjected_afterConsecutiveFailures() {
+        Map<String, Integer> picks = simulate(Map.of("a", 10L, "b", 10L, "c", 5L), Map.of("c", true), 10_000);
+
+        assertTrue(stats.isEjected("c:8080"));
+        // Five failures to be ejected; nothing once it is out
+        assertTrue(picks.get("c") <= 10, "failing instance got " + picks);
+        assertEquals(1.0, meterRegistry.get("loadbalancer.ejections").tag("reason", "failures").counter().count());
+    }
+
+    @Test
+    void everyInstanceEjected_shouldStillBeChosen() {
+        instances.forEach(instance -> stats.instance(instance.getHost() + ":8080").eject("failures"));
+
+        Response<ServiceInstance> response = loadBalancer.choose(new DefaultRequest<>()).block();
+
+        assertNotNull(response);
+        assertTrue(response.hasServer());
+    }
+
+    @Test
+    void affinityKey_shouldAlwaysPickTheSameInstance_untilItIsEjected() {
+        String home = choose("42");
+        for (int i = 0; i < 100; i++) {
+            assertEquals(home, choose("42"));
+        }
+
+        stats.instance(home + ":8080").eject("failures");
+        String fallback = choose("42");
+        assertNotEquals(home, fallback);
+        assertEquals(fallback, choose("42"));
+    }
+
+    @Test
+    void cancelAfterTheResponse_shouldCountTheRequestOutOnce() {
+        ClientRequest request = ClientRequest.create(HttpMethod.POST, URI.create("http://a:8080/x")).build();
+
+        // The caller cancels after the response was emitted, as its timeout does while the body is read
+        stats.filter(request, r -> Mono.just(ClientResponse.create(HttpStatus.OK).build())).subscribe(new BaseSubscriber<>() {
+            @Override
+            protected void hookOnNext(ClientResponse response) {
+                cancel();
+            }
+        });
+
+        assertEquals(0, stats.inFlight("a:8080"));
+    }
+
+    private String choose(String affinityKey) {
+        ClientRequest request = ClientRequest.create(HttpMethod.POST, URI.create("http://ACCOUNT-SERVICE/x"))
+                .header(LatencyAwareLoadBalancer.AFFINITY_HEADER, affinityKey)
+                .build();
+        return loadBalancer.choose(new DefaultRequest<>(new RequestDataContext(new RequestData(request))))
+                .block().getServer().getHost();
+    }
+
+    private Map<String, Integer> simulate(Map<String, Long> latencyMs, Map<String, Boolean> failing, int requests) {
+        Map<String, Integer> picks = new HashMap<>();
+        PriorityQueue<Completion> completions = new PriorityQueue<>((x, y) -> Long.compare(x.atNanos(), y.atNanos()));
+        for (int i = 0; i < requests; i++) {
+            clock.addAndGet(MS);
+            completeDue(completions);
+            ServiceInstance chosen = loadBalancer.choose(new DefaultRequest<>()).block().getServer();
+            String id = chosen.getHost();
+            picks.merge(id, 1, Integer::sum);
+            long start = stats.instance(id + ":8080").start();
+            completions.add(new Completion(start + latencyMs.get(id) * MS, id, failing.getOrDefault(id, false), start));
+        }
+        clock.addAndGet(Duration.ofSeconds(10).toNanos());
+        completeDue(completions);
+        return picks;
+    }
+
+    private void completeDue(PriorityQueue<Completion> completions) {
+        while (!completions.isEmpty() && completions.peek().atNanos() <= clock.get()) {
+            Completion completion = completions.poll();
+            long now = clock.get();
+            // Complete at the simulated response time rather than the time we got around to it
+            clock.set(completion.atNanos());
+            stats.instance(completion.instance() + ":8080").complete(completion.startNanos(), completion.failed());
+            clock.set(now);
+        }
+    }
+
+    private static ServiceInstance instance(String host) {
+        return new DefaultServiceInstance(host, "ACCOUNT-SERVICE", host, 8080, false);
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.transaction.util;
+
+import com.example.transaction.entity.IdNodeLease;
+import com.example.transaction.repository.IdNodeLeaseRepository;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SnowflakeIdGeneratorTest {
+
+    private static final long NOW = SnowflakeIdGenerator.EPOCH_MILLIS + 1_000_000L;
+
+    @Test
+    void nextId_shouldBeUniqueAndIncreasingPerThread_underContention() throws Exception {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(7, System::currentTimeMillis);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                results.add(executor.submit(() -> {
+                    long previous = -1;
+                    for (int i = 0; i < 50_000; i++) {
+                        long id = generator.nextId();
+                        if (id <= previous || !ids.add(id)) {
+                            return false;
+                        }
+                        previous = id;
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(400_000, ids.size());
+    }
+
+    @Test
+    void nextId_shouldNotCollideAcrossNodes_onTheSameMillisecond() {
+        SnowflakeIdGenerator first = new SnowflakeIdGenerator(1, () -> NOW);
+        SnowflakeIdGenerator second = new SnowflakeIdGenerator(2, () -> NOW);
+        Set<Long> ids = new HashSet<>();
+
+        // More than one millisecond's worth of sequence, so both also borrow ahead
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(ids.add(first.nextId()));
+            assertTrue(ids.add(second.nextId()));
+        }
+    }
+
+    @Test
+    void nextId_shouldKeepIncreasing_whenTheClockStepsBack() {
+        AtomicLong clock = new AtomicLong(NOW);
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(3, clock::get);
+
+        long beforeSkew = generator.nextId();
+        clock.addAndGet(-5_000);
+        long duringSkew = generator.nextId();
+        clock.set(NOW + 1);
+        long afterRecovery = generator.nextId();
+
+        assertTrue(duringSkew > beforeSkew);
+        assertTrue(afterRecovery > duringSkew);
+    }
+
+    @Test
+    void nextId_shouldEncodeTimestampNodeAndSequence() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(SnowflakeIdGenerator.MAX_NODE_ID, () -> NOW);
+
+        long first = generator.nextId();
+        long second = generator.nextId();
+
+        assertEquals(NOW - SnowflakeIdGenerator.EPOCH_MILLIS, first >>> (SnowflakeIdGenerator.NODE_BITS + SnowflakeIdGenerator.SEQUENCE_BITS));
+        assertEquals(SnowflakeIdGenerator.MAX_NODE_ID, (first >>> SnowflakeIdGenerator.SEQUENCE_BITS) & SnowflakeIdGenerator.MAX_NODE_ID);
+        assertEquals(1, second - first);
+        assertTrue(first > 0);
+        assertThrows(IllegalArgumentException.class, () -> new SnowflakeIdGenerator(SnowflakeIdGenerator.MAX_NODE_ID + 1, () -> NOW));
+    }
+
+    @Test
+    void lease_shouldTakeAFreeNode_andStopIssuingOnceTheLeaseRunsOut() {
+        IdNodeLeaseRepository leases = mock(IdNodeLeaseRepository.class);
+        when(leases.find(anyInt())).thenReturn(Optional.empty());
+        when(leases.take(anyInt(), isNull(), any(), eq(NOW + 1_000))).thenReturn(true);
+        AtomicLong clock = new AtomicLong(NOW);
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(leases, -1, Duration.ofSeconds(1), clock::get);
+
+        try {
+            generator.nextId();
+            clock.set(NOW + 1_000);
+            assertThrows(IllegalStateException.class, generator::nextId);
+        } finally {
+            generator.shutdown();
+        }
+
+        verify(leases).release(eq((int) generator.getNodeId()), any(), eq(NOW + 1_001));
+    }
+
+    @Test
+    void lease_shouldStartAfterThePreviousHoldersIds_andRejectANodeThatStaysLeased() {
+        IdNodeLeaseRepository leases = mock(IdNodeLeaseRepository.class);
+        when(leases.find(5)).thenReturn(Optional.of(new IdNodeLease(5, null, NOW + 10)));
+        when(leases.take(eq(5), eq(NOW + 10), any(), anyLong())).thenReturn(true);
+        // Pinned node taken just after the previous holder's lease, then the clock steps back
+        AtomicLong clock = new AtomicLong(NOW + 11);
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(leases, 5, Duration.ofSeconds(1), clock::get);
+        clock.set(NOW);
+
+        try {
+            long first = generator.nextId();
+            assertEquals(5, generator.getNodeId());
+            assertEquals(NOW + 10 - SnowflakeIdGenerator.EPOCH_MILLIS, first >>> (SnowflakeIdGenerator.NODE_BITS + SnowflakeIdGenerator.SEQUENCE_BITS));
+        } finally {
+            generator.shutdown();
+        }
+
+        when(leases.find(6)).thenReturn(Optional.of(new IdNodeLease(6, "other", Long.MAX_VALUE)));
+        AtomicLong ticking = new AtomicLong(NOW);
+        assertThrows(IllegalStateException.class, () -> new SnowflakeIdGenerator(leases, 6, Duration.ofMillis(100),
+                () -> ticking.addAndGet(50)));
+        assertThrows(IllegalArgumentException.class, () -> new SnowflakeIdGenerator(leases, SnowflakeIdGenerator.MAX_NODE_ID + 1,
+                Duration.ofSeconds(1), clock::get));
+    }
+}